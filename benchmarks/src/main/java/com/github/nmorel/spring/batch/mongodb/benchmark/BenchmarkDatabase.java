@@ -0,0 +1,35 @@
+package com.github.nmorel.spring.batch.mongodb.benchmark;
+
+import com.mongodb.DB;
+import com.mongodb.MongoClient;
+
+import java.net.UnknownHostException;
+
+/**
+ * Connection to the mongod used by the benchmarks, configured by the <code>mongodb.host</code>,
+ * <code>mongodb.port</code> and <code>mongodb.name</code> system properties.
+ */
+final class BenchmarkDatabase
+{
+    private final MongoClient client;
+
+    private final DB db;
+
+    BenchmarkDatabase() throws UnknownHostException
+    {
+        client = new MongoClient(System.getProperty("mongodb.host", "localhost"), Integer.getInteger("mongodb.port", 27017));
+        db = client.getDB(System.getProperty("mongodb.name", "spring-batch-benchmark"));
+        db.dropDatabase();
+    }
+
+    DB getDb()
+    {
+        return db;
+    }
+
+    void close()
+    {
+        db.dropDatabase();
+        client.close();
+    }
+}
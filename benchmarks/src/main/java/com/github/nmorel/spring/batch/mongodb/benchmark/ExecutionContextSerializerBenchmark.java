@@ -0,0 +1,107 @@
+package com.github.nmorel.spring.batch.mongodb.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.batch.core.repository.ExecutionContextSerializer;
+import org.springframework.batch.core.repository.dao.DefaultExecutionContextSerializer;
+import org.springframework.batch.core.repository.dao.XStreamExecutionContextStringSerializer;
+import org.springframework.batch.item.ExecutionContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the serialization of the execution contexts, with a copy of the code of
+ * {@link com.github.nmorel.spring.batch.mongodb.repository.dao.MongoDbExecutionContextDao} : the entries are copied to
+ * a map, which is serialized and stored as an ISO-8859-1 string. No mongod is needed.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( {Mode.Throughput, Mode.SampleTime} )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class ExecutionContextSerializerBenchmark
+{
+    private static final String CHARSET = "ISO-8859-1";
+
+    @Param( {"xstream", "java"} )
+    public String serializerName;
+
+    /** Number of entries of the context */
+    @Param( {"1", "10", "100", "1000"} )
+    public int contextSize;
+
+    private ExecutionContextSerializer serializer;
+
+    private ExecutionContext context;
+
+    private String serializedContext;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception
+    {
+        if( "xstream".equals(serializerName) )
+        {
+            XStreamExecutionContextStringSerializer xStreamSerializer = new XStreamExecutionContextStringSerializer();
+            xStreamSerializer.afterPropertiesSet();
+            serializer = xStreamSerializer;
+        }
+        else
+        {
+            serializer = new DefaultExecutionContextSerializer();
+        }
+
+        // the usual content of a context : reader positions, counters, keys and dates
+        context = new ExecutionContext();
+        for( int i = 0; i < contextSize; i++ )
+        {
+            switch( i % 4 )
+            {
+                case 0:
+                    context.put("reader" + i + ".read.count", (long) i);
+                    break;
+                case 1:
+                    context.put("writer" + i + ".written", i);
+                    break;
+                case 2:
+                    context.put("reader" + i + ".last.key", "key-" + i);
+                    break;
+                default:
+                    context.put("step" + i + ".timestamp", new Date());
+            }
+        }
+        serializedContext = serialize();
+    }
+
+    @Benchmark
+    public String serialize() throws IOException
+    {
+        Map<String, Object> map = new HashMap<String, Object>();
+        for( Map.Entry<String, Object> entry : context.entrySet() )
+        {
+            map.put(entry.getKey(), entry.getValue());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.serialize(map, out);
+        return new String(out.toByteArray(), CHARSET);
+    }
+
+    @Benchmark
+    @SuppressWarnings( "unchecked" )
+    public ExecutionContext deserialize() throws IOException
+    {
+        Map<String, Object> map = (Map<String, Object>) serializer
+                .deserialize(new ByteArrayInputStream(serializedContext.getBytes(CHARSET)));
+        ExecutionContext executionContext = new ExecutionContext();
+        for( Map.Entry<String, Object> entry : map.entrySet() )
+        {
+            executionContext.put(entry.getKey(), entry.getValue());
+        }
+        return executionContext;
+    }
+}
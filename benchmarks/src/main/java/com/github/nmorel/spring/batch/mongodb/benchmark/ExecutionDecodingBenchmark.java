@@ -0,0 +1,108 @@
+package com.github.nmorel.spring.batch.mongodb.benchmark;
+
+import com.github.nmorel.spring.batch.mongodb.incrementer.MongoDbValueIncrementerFactory;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.MongoDbJobExecutionDao;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.MongoDbJobInstanceDao;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.MongoDbStepExecutionDao;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the reads of step and job executions, with the typed decoding of the DAOs and with the documents
+ * decoded by the driver. Run with <code>-prof gc</code> to compare the allocation per operation.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class ExecutionDecodingBenchmark
+{
+    private static final String JOB_NAME = "benchmarkJob";
+
+    @Param( {"true", "false"} )
+    public boolean typedDecoding;
+
+    @Param( {"1", "50"} )
+    public int steps;
+
+    private BenchmarkDatabase database;
+
+    private MongoDbJobExecutionDao jobExecutionDao;
+
+    private MongoDbStepExecutionDao stepExecutionDao;
+
+    private JobInstance jobInstance;
+
+    private JobExecution jobExecution;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception
+    {
+        database = new BenchmarkDatabase();
+        MongoDbValueIncrementerFactory incrementerFactory = new MongoDbValueIncrementerFactory(database.getDb());
+
+        MongoDbJobInstanceDao jobInstanceDao = new MongoDbJobInstanceDao();
+        jobInstanceDao.setDb(database.getDb());
+        jobInstanceDao.setJobIncrementer(incrementerFactory.getIncrementer("BatchSequenceJobInstance"));
+        jobInstanceDao.afterPropertiesSet();
+
+        jobExecutionDao = new MongoDbJobExecutionDao();
+        jobExecutionDao.setDb(database.getDb());
+        jobExecutionDao.setTypedDecoding(typedDecoding);
+        jobExecutionDao.setJobExecutionIncrementer(incrementerFactory.getIncrementer("BatchSequenceJobExecution"));
+        jobExecutionDao.afterPropertiesSet();
+
+        stepExecutionDao = new MongoDbStepExecutionDao();
+        stepExecutionDao.setDb(database.getDb());
+        stepExecutionDao.setTypedDecoding(typedDecoding);
+        stepExecutionDao.setStepExecutionIncrementer(incrementerFactory.getIncrementer("BatchSequenceStepExecution"));
+        stepExecutionDao.afterPropertiesSet();
+
+        JobParameters jobParameters = new JobParametersBuilder().addLong("run", 1L).toJobParameters();
+        jobInstance = jobInstanceDao.createJobInstance(JOB_NAME, jobParameters);
+        jobExecution = new JobExecution(jobInstance, jobParameters);
+        jobExecution.setStatus(BatchStatus.STARTED);
+        jobExecution.setStartTime(new Date());
+        jobExecution.setLastUpdated(new Date());
+        jobExecutionDao.saveJobExecution(jobExecution);
+        for( int i = 0; i < steps; i++ )
+        {
+            StepExecution stepExecution = jobExecution.createStepExecution("benchmarkStep" + i);
+            stepExecution.setStartTime(new Date());
+            stepExecution.setReadCount(1000 + i);
+            stepExecution.setWriteCount(1000 + i);
+            stepExecution.setLastUpdated(new Date());
+            stepExecutionDao.saveStepExecution(stepExecution);
+        }
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+    {
+        database.close();
+    }
+
+    @Benchmark
+    public JobExecution addStepExecutions()
+    {
+        JobExecution execution = new JobExecution(jobInstance, jobExecution.getId(), jobExecution.getJobParameters());
+        stepExecutionDao.addStepExecutions(execution);
+        return execution;
+    }
+
+    @Benchmark
+    public JobExecution getLastJobExecution()
+    {
+        return jobExecutionDao.getLastJobExecution(jobInstance);
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.nmorel.spring.batch.mongodb.benchmark;
+
+import com.github.nmorel.spring.batch.mongodb.incrementer.MongoDbValueIncrementerFactory;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.MongoDbExecutionContextDao;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.MongoDbJobExecutionDao;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.MongoDbJobInstanceDao;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.MongoDbStepExecutionDao;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.dao.XStreamExecutionContextStringSerializer;
+
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the DAO operations on the hot paths of a running job. The history parameter is the number of job
+ * instances already stored, each with one execution, the last {@link #RUNNING_INSTANCES} ones still running.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( {Mode.Throughput, Mode.SampleTime} )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class RepositoryDaoBenchmark
+{
+    private static final String JOB_NAME = "benchmarkJob";
+
+    private static final int RUNNING_INSTANCES = 10;
+
+    @Param( {"100", "10000"} )
+    public int history;
+
+    private BenchmarkDatabase database;
+
+    private MongoDbJobExecutionDao jobExecutionDao;
+
+    private MongoDbStepExecutionDao stepExecutionDao;
+
+    private MongoDbExecutionContextDao executionContextDao;
+
+    private JobInstance jobInstance;
+
+    private JobParameters jobParameters;
+
+    private StepExecution stepExecution;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception
+    {
+        database = new BenchmarkDatabase();
+        MongoDbValueIncrementerFactory incrementerFactory = new MongoDbValueIncrementerFactory(database.getDb());
+
+        MongoDbJobInstanceDao jobInstanceDao = new MongoDbJobInstanceDao();
+        jobInstanceDao.setDb(database.getDb());
+        jobInstanceDao.setJobIncrementer(incrementerFactory.getIncrementer("BatchSequenceJobInstance"));
+        jobInstanceDao.afterPropertiesSet();
+
+        jobExecutionDao = new MongoDbJobExecutionDao();
+        jobExecutionDao.setDb(database.getDb());
+        jobExecutionDao.setJobExecutionIncrementer(incrementerFactory.getIncrementer("BatchSequenceJobExecution"));
+        jobExecutionDao.afterPropertiesSet();
+
+        stepExecutionDao = new MongoDbStepExecutionDao();
+        stepExecutionDao.setDb(database.getDb());
+        stepExecutionDao.setStepExecutionIncrementer(incrementerFactory.getIncrementer("BatchSequenceStepExecution"));
+        stepExecutionDao.afterPropertiesSet();
+
+        XStreamExecutionContextStringSerializer serializer = new XStreamExecutionContextStringSerializer();
+        serializer.afterPropertiesSet();
+        executionContextDao = new MongoDbExecutionContextDao();
+        executionContextDao.setDb(database.getDb());
+        executionContextDao.setSerializer(serializer);
+        executionContextDao.afterPropertiesSet();
+
+        for( int i = 0; i < history; i++ )
+        {
+            jobParameters = new JobParametersBuilder().addLong("run", (long) i).toJobParameters();
+            jobInstance = jobInstanceDao.createJobInstance(JOB_NAME, jobParameters);
+            JobExecution jobExecution = newJobExecution();
+            if( i < history - RUNNING_INSTANCES )
+            {
+                jobExecution.setStatus(BatchStatus.COMPLETED);
+                jobExecution.setEndTime(new Date());
+            }
+            jobExecutionDao.saveJobExecution(jobExecution);
+        }
+
+        JobExecution jobExecution = newJobExecution();
+        jobExecutionDao.saveJobExecution(jobExecution);
+        stepExecution = jobExecution.createStepExecution("benchmarkStep");
+        stepExecution.setStartTime(new Date());
+        stepExecutionDao.saveStepExecution(stepExecution);
+        executionContextDao.saveExecutionContext(stepExecution);
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+    {
+        database.close();
+    }
+
+    private JobExecution newJobExecution()
+    {
+        JobExecution jobExecution = new JobExecution(jobInstance, jobParameters);
+        jobExecution.setStatus(BatchStatus.STARTED);
+        jobExecution.setStartTime(new Date());
+        jobExecution.setLastUpdated(new Date());
+        return jobExecution;
+    }
+
+    @Benchmark
+    public JobExecution saveJobExecution()
+    {
+        JobExecution jobExecution = newJobExecution();
+        jobExecutionDao.saveJobExecution(jobExecution);
+        return jobExecution;
+    }
+
+    @Benchmark
+    public StepExecution updateStepExecution()
+    {
+        stepExecution.setReadCount(stepExecution.getReadCount() + 1);
+        stepExecution.setWriteCount(stepExecution.getWriteCount() + 1);
+        stepExecution.incrementCommitCount();
+        stepExecution.setLastUpdated(new Date());
+        stepExecutionDao.updateStepExecution(stepExecution);
+        return stepExecution;
+    }
+
+    @Benchmark
+    public StepExecution updateExecutionContext()
+    {
+        stepExecution.getExecutionContext().putInt("item.count", stepExecution.getReadCount() + 1);
+        executionContextDao.updateExecutionContext(stepExecution);
+        return stepExecution;
+    }
+
+    @Benchmark
+    public JobExecution getLastJobExecution()
+    {
+        return jobExecutionDao.getLastJobExecution(jobInstance);
+    }
+
+    @Benchmark
+    public Set<JobExecution> findRunningJobExecutions()
+    {
+        return jobExecutionDao.findRunningJobExecutions(JOB_NAME);
+    }
+}
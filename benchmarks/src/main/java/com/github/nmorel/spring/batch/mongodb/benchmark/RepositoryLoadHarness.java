@@ -0,0 +1,455 @@
+package com.github.nmorel.spring.batch.mongodb.benchmark;
+
+import com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbJobRepositoryFactoryBean;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load harness driving a {@link JobRepository} built by {@link MongoDbJobRepositoryFactoryBean} the way concurrent jobs
+ * do, to find where the repository saturates. Three scenarios are available :
+ * <ul>
+ * <li><b>launches</b> : many jobs launched in parallel, each with a single step</li>
+ * <li><b>partitions</b> : one partitioned step whose partitions are executed in parallel</li>
+ * <li><b>chunks</b> : one step with tiny chunks committed by several threads, each one holding its own copy of the step
+ * execution as remote workers do. The commits conflict : a thread failing on a stale version reads the step execution
+ * again and retries its commit.</li>
+ * </ul>
+ * For each scenario, the commits per second, the latency percentiles of the repository calls and the rate of
+ * optimistic locking failures are printed.
+ * <p/>
+ * The harness is configured with system properties : <code>harness.scenario</code> (launches, partitions, chunks or
+ * all), <code>harness.threads</code>, <code>harness.launches</code>, <code>harness.partitions</code>,
+ * <code>harness.chunks</code> (per step or partition) and the <code>mongodb.*</code> properties of the benchmarks.
+ */
+public class RepositoryLoadHarness
+{
+    private static final int CHUNK_SIZE = 1;
+
+    private final JobRepository repository;
+
+    private final int threads;
+
+    private final int launches;
+
+    private final int partitions;
+
+    private final int chunks;
+
+    /** Latencies of the repository calls, in nanoseconds, one sample per thread */
+    private final List<LatencySample> samples = Collections.synchronizedList(new ArrayList<LatencySample>());
+
+    private final ThreadLocal<LatencySample> sample = new ThreadLocal<LatencySample>()
+    {
+        @Override
+        protected LatencySample initialValue()
+        {
+            LatencySample sample = new LatencySample();
+            samples.add(sample);
+            return sample;
+        }
+    };
+
+    private final AtomicLong commits = new AtomicLong();
+
+    private final AtomicLong calls = new AtomicLong();
+
+    private final AtomicLong lockFailures = new AtomicLong();
+
+    private final AtomicInteger jobSequence = new AtomicInteger();
+
+    public RepositoryLoadHarness( JobRepository repository, int threads, int launches, int partitions, int chunks )
+    {
+        this.repository = repository;
+        this.threads = threads;
+        this.launches = launches;
+        this.partitions = partitions;
+        this.chunks = chunks;
+    }
+
+    public static void main( String[] args ) throws Exception
+    {
+        BenchmarkDatabase database = new BenchmarkDatabase();
+        try
+        {
+            MongoDbJobRepositoryFactoryBean factory = new MongoDbJobRepositoryFactoryBean();
+            factory.setDb(database.getDb());
+            factory.afterPropertiesSet();
+
+            RepositoryLoadHarness harness = new RepositoryLoadHarness((JobRepository) factory.getObject(),
+                    Integer.getInteger("harness.threads", 16), Integer.getInteger("harness.launches", 1000),
+                    Integer.getInteger("harness.partitions", 2000), Integer.getInteger("harness.chunks", 20));
+
+            String scenario = System.getProperty("harness.scenario", "all");
+            if( "all".equals(scenario) || "launches".equals(scenario) )
+            {
+                harness.runLaunches();
+            }
+            if( "all".equals(scenario) || "partitions".equals(scenario) )
+            {
+                harness.runPartitions();
+            }
+            if( "all".equals(scenario) || "chunks".equals(scenario) )
+            {
+                harness.runChunks();
+            }
+        }
+        finally
+        {
+            database.close();
+        }
+    }
+
+    /** Launches {@link #launches} jobs with {@link #threads} threads, each job running one step. */
+    public void runLaunches() throws Exception
+    {
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(launches);
+        for( int i = 0; i < launches; i++ )
+        {
+            tasks.add(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws Exception
+                {
+                    JobExecution jobExecution = startJob();
+                    StepExecution stepExecution = jobExecution.createStepExecution("step");
+                    stepExecution.setStartTime(new Date());
+                    add(stepExecution);
+                    runChunks(stepExecution, chunks);
+                    complete(stepExecution);
+                    complete(jobExecution);
+                    return null;
+                }
+            });
+        }
+        run("launches", tasks);
+    }
+
+    /** Runs one partitioned step of {@link #partitions} partitions with {@link #threads} threads. */
+    public void runPartitions() throws Exception
+    {
+        final JobExecution jobExecution = startJob();
+        StepExecution master = jobExecution.createStepExecution("master");
+        master.setStartTime(new Date());
+        add(master);
+
+        final List<StepExecution> workers = new ArrayList<StepExecution>(partitions);
+        for( int i = 0; i < partitions; i++ )
+        {
+            StepExecution worker = jobExecution.createStepExecution("worker:partition" + i);
+            worker.setStartTime(new Date());
+            workers.add(worker);
+        }
+        timed(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                repository.addAll(workers);
+                return null;
+            }
+        });
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(partitions);
+        for( final StepExecution worker : workers )
+        {
+            tasks.add(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws Exception
+                {
+                    runChunks(worker, chunks);
+                    complete(worker);
+                    return null;
+                }
+            });
+        }
+        run("partitions", tasks);
+
+        complete(master);
+        complete(jobExecution);
+    }
+
+    /** Runs one step of {@link #chunks} chunks per thread with {@link #threads} threads, each with its own copy. */
+    public void runChunks() throws Exception
+    {
+        final String stepName = "multiThreadedStep";
+        final JobExecution jobExecution = startJob();
+        StepExecution stepExecution = jobExecution.createStepExecution(stepName);
+        stepExecution.setStartTime(new Date());
+        add(stepExecution);
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(threads);
+        for( int i = 0; i < threads; i++ )
+        {
+            tasks.add(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws Exception
+                {
+                    runConflictingChunks(jobExecution.getJobInstance(), stepName, chunks);
+                    return null;
+                }
+            });
+        }
+        run("chunks", tasks);
+
+        complete(getLastStepExecution(jobExecution.getJobInstance(), stepName));
+        complete(jobExecution);
+    }
+
+    private void run( String scenario, List<Callable<Void>> tasks ) throws Exception
+    {
+        // only the parallel phase is measured
+        samples.clear();
+        sample.remove();
+        commits.set(0);
+        calls.set(0);
+        lockFailures.set(0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try
+        {
+            for( Future<Void> future : executor.invokeAll(tasks) )
+            {
+                future.get();
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        report(scenario, elapsed);
+    }
+
+    private JobExecution startJob() throws Exception
+    {
+        final JobExecution jobExecution = timed(new Callable<JobExecution>()
+        {
+            @Override
+            public JobExecution call() throws Exception
+            {
+                return repository.createJobExecution("loadJob", new JobParametersBuilder()
+                        .addLong("run", (long) jobSequence.incrementAndGet()).toJobParameters());
+            }
+        });
+        jobExecution.setStartTime(new Date());
+        jobExecution.setStatus(BatchStatus.STARTED);
+        update(jobExecution);
+        return jobExecution;
+    }
+
+    private void runChunks( StepExecution stepExecution, int count ) throws Exception
+    {
+        for( int i = 0; i < count; i++ )
+        {
+            commit(stepExecution);
+        }
+    }
+
+    /** Commits chunks on a copy of the step execution, read again after each conflict to retry the commit */
+    private void runConflictingChunks( JobInstance jobInstance, String stepName, int count ) throws Exception
+    {
+        StepExecution stepExecution = getLastStepExecution(jobInstance, stepName);
+        int committed = 0;
+        while( committed < count )
+        {
+            try
+            {
+                commit(stepExecution);
+                committed++;
+            }
+            catch( OptimisticLockingFailureException e )
+            {
+                stepExecution = getLastStepExecution(jobInstance, stepName);
+            }
+        }
+    }
+
+    private void commit( final StepExecution stepExecution ) throws Exception
+    {
+        stepExecution.setReadCount(stepExecution.getReadCount() + CHUNK_SIZE);
+        stepExecution.setWriteCount(stepExecution.getWriteCount() + CHUNK_SIZE);
+        stepExecution.getExecutionContext().putInt("item.count", stepExecution.getReadCount());
+        stepExecution.incrementCommitCount();
+        timed(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                repository.updateExecutionContext(stepExecution);
+                return null;
+            }
+        });
+        update(stepExecution);
+        commits.incrementAndGet();
+    }
+
+    private StepExecution getLastStepExecution( final JobInstance jobInstance, final String stepName ) throws Exception
+    {
+        return timed(new Callable<StepExecution>()
+        {
+            @Override
+            public StepExecution call() throws Exception
+            {
+                return repository.getLastStepExecution(jobInstance, stepName);
+            }
+        });
+    }
+
+    private void complete( StepExecution stepExecution ) throws Exception
+    {
+        stepExecution.setStatus(BatchStatus.COMPLETED);
+        stepExecution.setExitStatus(ExitStatus.COMPLETED);
+        stepExecution.setEndTime(new Date());
+        update(stepExecution);
+    }
+
+    private void complete( JobExecution jobExecution ) throws Exception
+    {
+        jobExecution.setStatus(BatchStatus.COMPLETED);
+        jobExecution.setExitStatus(ExitStatus.COMPLETED);
+        jobExecution.setEndTime(new Date());
+        update(jobExecution);
+    }
+
+    private void add( final StepExecution stepExecution ) throws Exception
+    {
+        timed(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                repository.add(stepExecution);
+                return null;
+            }
+        });
+    }
+
+    private void update( final StepExecution stepExecution ) throws Exception
+    {
+        timed(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                repository.update(stepExecution);
+                return null;
+            }
+        });
+    }
+
+    private void update( final JobExecution jobExecution ) throws Exception
+    {
+        timed(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                repository.update(jobExecution);
+                return null;
+            }
+        });
+    }
+
+    /** Calls the repository, recording the latency and counting the optimistic locking failures it rethrows */
+    private <T> T timed( Callable<T> call ) throws Exception
+    {
+        calls.incrementAndGet();
+        long start = System.nanoTime();
+        try
+        {
+            return call.call();
+        }
+        catch( OptimisticLockingFailureException e )
+        {
+            lockFailures.incrementAndGet();
+            throw e;
+        }
+        finally
+        {
+            sample.get().add(System.nanoTime() - start);
+        }
+    }
+
+    private void report( String scenario, long elapsedNanos )
+    {
+        LatencySample all = new LatencySample();
+        synchronized( samples )
+        {
+            for( LatencySample threadSample : samples )
+            {
+                all.addAll(threadSample);
+            }
+        }
+        long[] latencies = all.toSortedArray();
+        double seconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+
+        System.out.println(String.format("%-10s threads=%d elapsed=%.2fs commits=%d commits/s=%.1f calls=%d",
+                scenario, threads, seconds, commits.get(), commits.get() / seconds, calls.get()));
+        System.out.println(String.format("%-10s latency(ms) p50=%.3f p99=%.3f p99.9=%.3f max=%.3f", scenario,
+                percentileMillis(latencies, 0.5), percentileMillis(latencies, 0.99), percentileMillis(latencies, 0.999),
+                percentileMillis(latencies, 1.0)));
+        System.out.println(String.format("%-10s optimistic lock failures=%d rate=%.4f%%", scenario, lockFailures.get(),
+                calls.get() == 0 ? 0.0 : 100.0 * lockFailures.get() / calls.get()));
+    }
+
+    private static double percentileMillis( long[] sortedLatencies, double percentile )
+    {
+        if( sortedLatencies.length == 0 )
+        {
+            return 0.0;
+        }
+        int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, index)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /** Growable array of latencies, written by a single thread */
+    private static class LatencySample
+    {
+        private long[] values = new long[1024];
+
+        private int size;
+
+        void add( long value )
+        {
+            if( size == values.length )
+            {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll( LatencySample other )
+        {
+            for( int i = 0; i < other.size; i++ )
+            {
+                add(other.values[i]);
+            }
+        }
+
+        long[] toSortedArray()
+        {
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.nmorel.spring.batch.mongodb.benchmark;
+
+import com.github.nmorel.spring.batch.mongodb.incrementer.MongoDbValueIncrementerFactory;
+import com.github.nmorel.spring.batch.mongodb.incrementer.ValueIncrementer;
+import com.mongodb.WriteConcern;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the {@link ValueIncrementer}s, with the write concerns used for the sequences. Run with several
+ * threads to measure the contention on a sequence.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( {Mode.Throughput, Mode.SampleTime} )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class ValueIncrementerBenchmark
+{
+    @Param( {"ACKNOWLEDGED", "JOURNALED", "MAJORITY"} )
+    public String writeConcern;
+
+    private BenchmarkDatabase database;
+
+    private ValueIncrementer incrementer;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception
+    {
+        database = new BenchmarkDatabase();
+        MongoDbValueIncrementerFactory incrementerFactory = new MongoDbValueIncrementerFactory(database.getDb());
+        incrementerFactory.setWriteConcern(WriteConcern.valueOf(writeConcern));
+        incrementer = incrementerFactory.getIncrementer("BenchmarkSequence");
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+    {
+        database.close();
+    }
+
+    @Benchmark
+    public long nextLongValue()
+    {
+        return incrementer.nextLongValue();
+    }
+
+    @Benchmark
+    public int nextIntValue()
+    {
+        return incrementer.nextIntValue();
+    }
+
+    @Benchmark
+    public String nextStringValue()
+    {
+        return incrementer.nextStringValue();
+    }
+}
@@ -0,0 +1,194 @@
+package com.github.nmorel.spring.batch.mongodb.chunk;
+
+import com.github.nmorel.spring.batch.mongodb.chunk.MongoDbChunkQueue.ChunkReply;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.batch.item.WriteFailedException;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+import java.util.List;
+
+/**
+ * {@link ItemWriter} of the master of a remote chunking step : the items read by the master are sent to the
+ * {@link MongoDbChunkWorker workers} through a {@link MongoDbChunkQueue}, and the counts of their processing are folded
+ * into the step execution of the master. It must also be registered as a listener of the step.
+ * <p/>
+ * At most {@link #setMaxInFlightChunks(int) maxInFlightChunks} chunks are waiting for the workers : a write waits for
+ * the acknowledgement of older chunks beyond. The failure of a chunk on a worker fails the next write, or the step
+ * when all its chunks are sent. A chunk is processed at least once : it is processed again when its worker dies
+ * before acknowledging it.
+ */
+public class MongoDbChunkItemWriter<T> implements ItemWriter<T>, StepExecutionListener, InitializingBean
+{
+    private static final Log logger = LogFactory.getLog(MongoDbChunkItemWriter.class);
+
+    public static final int DEFAULT_MAX_IN_FLIGHT_CHUNKS = 10;
+
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 100L;
+
+    private MongoDbChunkQueue queue;
+
+    private String stepName;
+
+    private int maxInFlightChunks = DEFAULT_MAX_IN_FLIGHT_CHUNKS;
+
+    private long timeoutMillis = -1L;
+
+    private long pollIntervalMillis = DEFAULT_POLL_INTERVAL_MILLIS;
+
+    private StepExecution stepExecution;
+
+    private int inFlightChunks;
+
+    private String failure;
+
+    public void setQueue( MongoDbChunkQueue queue )
+    {
+        this.queue = queue;
+    }
+
+    /** Sets the name of the step whose processor and writer the workers use */
+    public void setStepName( String stepName )
+    {
+        this.stepName = stepName;
+    }
+
+    /**
+     * Sets the number of chunks waiting for the workers before a write waits, {@link #DEFAULT_MAX_IN_FLIGHT_CHUNKS} by
+     * default.
+     */
+    public void setMaxInFlightChunks( int maxInFlightChunks )
+    {
+        this.maxInFlightChunks = maxInFlightChunks;
+    }
+
+    /**
+     * Sets the maximum wait for the acknowledgement of a chunk, in milliseconds. A negative value, the default, does
+     * not limit it.
+     */
+    public void setTimeoutMillis( long timeoutMillis )
+    {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /** Sets the pause when no new acknowledgement is available, {@link #DEFAULT_POLL_INTERVAL_MILLIS} by default */
+    public void setPollIntervalMillis( long pollIntervalMillis )
+    {
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        Assert.notNull(queue, "The queue must not be null.");
+        Assert.notNull(stepName, "The stepName must not be null.");
+        Assert.isTrue(maxInFlightChunks > 0, "The maxInFlightChunks must be positive.");
+    }
+
+    @Override
+    public synchronized void beforeStep( StepExecution stepExecution )
+    {
+        this.stepExecution = stepExecution;
+        this.inFlightChunks = 0;
+        this.failure = null;
+    }
+
+    @Override
+    public synchronized void write( List<? extends T> items ) throws Exception
+    {
+        Assert.state(null != stepExecution, "The writer must be registered as a listener of the step.");
+        collect();
+        if( !waitFor(maxInFlightChunks - 1) )
+        {
+            throw new WriteFailedException("Timeout waiting for the workers, " + inFlightChunks + " chunks in flight");
+        }
+        queue.enqueue(stepExecution.getId(), stepExecution.getJobExecutionId(), stepName, items);
+        inFlightChunks++;
+    }
+
+    @Override
+    public synchronized ExitStatus afterStep( StepExecution stepExecution )
+    {
+        if( stepExecution.getStatus() != BatchStatus.COMPLETED )
+        {
+            queue.remove(stepExecution.getId());
+            return null;
+        }
+        try
+        {
+            if( !waitFor(0) )
+            {
+                queue.remove(stepExecution.getId());
+                stepExecution.setStatus(BatchStatus.FAILED);
+                return ExitStatus.FAILED.addExitDescription("Timeout waiting for the workers, " + inFlightChunks
+                        + " chunks in flight");
+            }
+            collect();
+        }
+        catch( Exception e )
+        {
+            logger.error("Remote chunk failed", e);
+            stepExecution.addFailureException(e);
+            stepExecution.setStatus(BatchStatus.FAILED);
+            return ExitStatus.FAILED.addExitDescription(e);
+        }
+        return null;
+    }
+
+    /** @return false if the timeout expired before the chunks in flight were at most the given number */
+    private boolean waitFor( int chunks ) throws Exception
+    {
+        long deadline = timeoutMillis < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeoutMillis;
+        while( inFlightChunks > chunks )
+        {
+            if( System.currentTimeMillis() >= deadline )
+            {
+                return false;
+            }
+            Thread.sleep(pollIntervalMillis);
+            collect();
+        }
+        return true;
+    }
+
+    /** Folds the acknowledged chunks into the step execution, failing if one of them failed */
+    private void collect() throws WriteFailedException
+    {
+        List<ChunkReply> replies = queue.collect(stepExecution.getId());
+        if( !replies.isEmpty() )
+        {
+            StepContribution contribution = stepExecution.createStepContribution();
+            for( ChunkReply reply : replies )
+            {
+                inFlightChunks--;
+                // the items sent were already counted as written by the master
+                contribution.incrementWriteCount(reply.getWriteCount() - reply.getItemCount());
+                contribution.incrementFilterCount(reply.getFilterCount());
+                for( int i = 0; i < reply.getProcessSkipCount(); i++ )
+                {
+                    contribution.incrementProcessSkipCount();
+                }
+                for( int i = 0; i < reply.getWriteSkipCount(); i++ )
+                {
+                    contribution.incrementWriteSkipCount();
+                }
+                if( null != reply.getFailure() && null == failure )
+                {
+                    failure = reply.getFailure();
+                }
+            }
+            stepExecution.apply(contribution);
+        }
+        if( null != failure )
+        {
+            throw new WriteFailedException("A chunk failed on a worker : " + failure);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.github.nmorel.spring.batch.mongodb.chunk;
+
+import com.github.nmorel.spring.batch.mongodb.repository.dao.AbstractMongoDbDao;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+import org.bson.types.ObjectId;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+import org.springframework.util.SerializationUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static com.mongodb.BasicDBObjectBuilder.start;
+
+/**
+ * Queue of the chunks of the remote chunking steps, shared by a master and its workers through MongoDB.
+ * <p/>
+ * The master adds the items read for each chunk, serialized, and the workers claim the chunks with a single
+ * <code>findAndModify</code> taking a lease on it. A chunk claimed by a worker that died is claimed again by another
+ * worker once its lease expires. A worker acknowledges a chunk with the counts of its processing, which the master
+ * collects. The items must be {@link java.io.Serializable} and a chunk must fit in a document.
+ *
+ * @see MongoDbChunkItemWriter
+ * @see MongoDbChunkWorker
+ */
+public class MongoDbChunkQueue implements InitializingBean
+{
+    public static final String COLLECTION_NAME = "Chunk";
+
+    private static final String ID_KEY = "_id";
+
+    private static final String MASTER_KEY = "masterStepExecutionId";
+
+    private static final String JOB_EXECUTION_ID_KEY = "jobExecutionId";
+
+    private static final String STEP_NAME_KEY = "stepName";
+
+    private static final String ITEMS_KEY = "items";
+
+    private static final String ITEM_COUNT_KEY = "itemCount";
+
+    private static final String DONE_KEY = "done";
+
+    private static final String OWNER_KEY = "owner";
+
+    private static final String EXPIRES_KEY = "expires";
+
+    private static final String ATTEMPTS_KEY = "attempts";
+
+    private static final String WRITE_COUNT_KEY = "writeCount";
+
+    private static final String FILTER_COUNT_KEY = "filterCount";
+
+    private static final String PROCESS_SKIP_COUNT_KEY = "processSkipCount";
+
+    private static final String WRITE_SKIP_COUNT_KEY = "writeSkipCount";
+
+    private static final String FAILURE_KEY = "failure";
+
+    /** Expiration of the chunks never claimed */
+    private static final Date UNCLAIMED = new Date(0L);
+
+    private static final DBObject REPLY_PROJECTION = start().add(ITEM_COUNT_KEY, 1).add(WRITE_COUNT_KEY, 1)
+            .add(FILTER_COUNT_KEY, 1).add(PROCESS_SKIP_COUNT_KEY, 1).add(WRITE_SKIP_COUNT_KEY, 1).add(FAILURE_KEY, 1)
+            .get();
+
+    private DB db;
+
+    private String prefix = AbstractMongoDbDao.DEFAULT_COLLECTION_PREFIX;
+
+    private DBCollection collection;
+
+    public MongoDbChunkQueue()
+    {
+    }
+
+    public MongoDbChunkQueue( DB db )
+    {
+        this.db = db;
+    }
+
+    public void setDb( DB db )
+    {
+        this.db = db;
+    }
+
+    /** Sets the prefix of the collection, {@link AbstractMongoDbDao#DEFAULT_COLLECTION_PREFIX} by default */
+    public void setPrefix( String prefix )
+    {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        Assert.notNull(db, "The db must not be null.");
+        collection = db.getCollection(prefix + COLLECTION_NAME);
+        collection.ensureIndex(start().add(DONE_KEY, 1).add(EXPIRES_KEY, 1).get());
+        collection.ensureIndex(start().add(MASTER_KEY, 1).add(DONE_KEY, 1).get());
+    }
+
+    /**
+     * Adds a chunk to the queue.
+     *
+     * @param masterStepExecutionId the id of the step execution of the master
+     * @param jobExecutionId the id of the job execution of the master
+     * @param stepName the name of the step whose processor and writer the workers use
+     * @param items the items of the chunk
+     */
+    public void enqueue( Long masterStepExecutionId, Long jobExecutionId, String stepName, List<?> items )
+    {
+        collection.insert(start().add(MASTER_KEY, masterStepExecutionId).add(JOB_EXECUTION_ID_KEY, jobExecutionId)
+                .add(STEP_NAME_KEY, stepName).add(ITEMS_KEY, SerializationUtils.serialize(new ArrayList<Object>(items)))
+                .add(ITEM_COUNT_KEY, items.size()).add(DONE_KEY, false).add(OWNER_KEY, null)
+                .add(EXPIRES_KEY, UNCLAIMED).add(ATTEMPTS_KEY, 0).get(), WriteConcern.ACKNOWLEDGED);
+    }
+
+    /**
+     * Claims a chunk never claimed or whose lease expired.
+     *
+     * @param stepNames the names of the steps the worker can process the chunks of
+     * @param leaseMillis the duration of the lease, in milliseconds
+     *
+     * @return the chunk, or null if none is available
+     */
+    public ChunkItem claim( List<String> stepNames, long leaseMillis )
+    {
+        long now = System.currentTimeMillis();
+        String owner = new ObjectId().toString();
+        DBObject query = start().add(DONE_KEY, false).add(EXPIRES_KEY, new BasicDBObject("$lt", new Date(now)))
+                .add(STEP_NAME_KEY, new BasicDBObject("$in", stepNames)).get();
+        DBObject update = start().add("$set", start().add(OWNER_KEY, owner)
+                .add(EXPIRES_KEY, new Date(now + leaseMillis)).get())
+                .add("$inc", new BasicDBObject(ATTEMPTS_KEY, 1)).get();
+        DBObject chunk = collection.findAndModify(query, null, null, false, update, true, false);
+        if( null == chunk )
+        {
+            return null;
+        }
+        return new ChunkItem((ObjectId) chunk.get(ID_KEY), (Long) chunk.get(JOB_EXECUTION_ID_KEY),
+                (String) chunk.get(STEP_NAME_KEY), (List<?>) SerializationUtils.deserialize((byte[]) chunk
+                .get(ITEMS_KEY)), owner, (Integer) chunk.get(ATTEMPTS_KEY));
+    }
+
+    /**
+     * Extends the lease of a claimed chunk.
+     *
+     * @return false if the lease was lost, having expired and the chunk being claimed by another worker
+     */
+    public boolean renew( ChunkItem chunk, long leaseMillis )
+    {
+        return collection.update(byOwner(chunk), new BasicDBObject("$set", new BasicDBObject(EXPIRES_KEY,
+                new Date(System.currentTimeMillis() + leaseMillis))), false, false, WriteConcern.ACKNOWLEDGED)
+                .getN() == 1;
+    }
+
+    /**
+     * Acknowledges a processed chunk, releasing its items, unless the lease was lost.
+     *
+     * @param chunk the chunk
+     * @param contribution the counts of the processing
+     * @param failure the message of the failure of the processing, or null
+     *
+     * @return false if the lease was lost
+     */
+    public boolean acknowledge( ChunkItem chunk, StepContribution contribution, String failure )
+    {
+        DBObject reply = start().add(DONE_KEY, true).add(WRITE_COUNT_KEY, contribution.getWriteCount())
+                .add(FILTER_COUNT_KEY, contribution.getFilterCount())
+                .add(PROCESS_SKIP_COUNT_KEY, contribution.getProcessSkipCount())
+                .add(WRITE_SKIP_COUNT_KEY, contribution.getWriteSkipCount()).add(FAILURE_KEY, failure).get();
+        return collection.update(byOwner(chunk), start().add("$set", reply).add("$unset", new BasicDBObject(ITEMS_KEY,
+                1)).get(), false, false, WriteConcern.ACKNOWLEDGED).getN() == 1;
+    }
+
+    /**
+     * Collects and removes the acknowledged chunks of a master.
+     *
+     * @param masterStepExecutionId the id of the step execution of the master
+     *
+     * @return the replies of the workers
+     */
+    public List<ChunkReply> collect( Long masterStepExecutionId )
+    {
+        List<ChunkReply> replies = new ArrayList<ChunkReply>();
+        BasicDBList ids = new BasicDBList();
+        DBCursor cursor = collection.find(start().add(MASTER_KEY, masterStepExecutionId).add(DONE_KEY, true).get(),
+                REPLY_PROJECTION);
+        try
+        {
+            while( cursor.hasNext() )
+            {
+                DBObject reply = cursor.next();
+                ids.add(reply.get(ID_KEY));
+                replies.add(new ChunkReply((Integer) reply.get(ITEM_COUNT_KEY), (Integer) reply.get(WRITE_COUNT_KEY),
+                        (Integer) reply.get(FILTER_COUNT_KEY), (Integer) reply.get(PROCESS_SKIP_COUNT_KEY),
+                        (Integer) reply.get(WRITE_SKIP_COUNT_KEY), (String) reply.get(FAILURE_KEY)));
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        if( !ids.isEmpty() )
+        {
+            collection.remove(new BasicDBObject(ID_KEY, new BasicDBObject("$in", ids)));
+        }
+        return replies;
+    }
+
+    /**
+     * Removes the chunks of a master not processed yet.
+     *
+     * @param masterStepExecutionId the id of the step execution of the master
+     */
+    public void remove( Long masterStepExecutionId )
+    {
+        collection.remove(new BasicDBObject(MASTER_KEY, masterStepExecutionId));
+    }
+
+    private DBObject byOwner( ChunkItem chunk )
+    {
+        return start().add(ID_KEY, chunk.id).add(OWNER_KEY, chunk.owner).get();
+    }
+
+    /** Chunk claimed by a worker */
+    public static class ChunkItem
+    {
+        private final ObjectId id;
+
+        private final Long jobExecutionId;
+
+        private final String stepName;
+
+        private final List<?> items;
+
+        private final String owner;
+
+        private final int attempts;
+
+        private ChunkItem( ObjectId id, Long jobExecutionId, String stepName, List<?> items, String owner,
+                           int attempts )
+        {
+            this.id = id;
+            this.jobExecutionId = jobExecutionId;
+            this.stepName = stepName;
+            this.items = items;
+            this.owner = owner;
+            this.attempts = attempts;
+        }
+
+        public Long getJobExecutionId()
+        {
+            return jobExecutionId;
+        }
+
+        public String getStepName()
+        {
+            return stepName;
+        }
+
+        public List<?> getItems()
+        {
+            return items;
+        }
+
+        /** @return the number of times the chunk was claimed, including this one */
+        public int getAttempts()
+        {
+            return attempts;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "ChunkItem[id=" + id + ", stepName=" + stepName + ", items=" + items.size() + ", attempts="
+                    + attempts + "]";
+        }
+    }
+
+    /** Counts of the processing of a chunk by a worker */
+    public static class ChunkReply
+    {
+        private final int itemCount;
+
+        private final int writeCount;
+
+        private final int filterCount;
+
+        private final int processSkipCount;
+
+        private final int writeSkipCount;
+
+        private final String failure;
+
+        private ChunkReply( int itemCount, int writeCount, int filterCount, int processSkipCount, int writeSkipCount,
+                            String failure )
+        {
+            this.itemCount = itemCount;
+            this.writeCount = writeCount;
+            this.filterCount = filterCount;
+            this.processSkipCount = processSkipCount;
+            this.writeSkipCount = writeSkipCount;
+            this.failure = failure;
+        }
+
+        /** @return the number of items sent by the master */
+        public int getItemCount()
+        {
+            return itemCount;
+        }
+
+        public int getWriteCount()
+        {
+            return writeCount;
+        }
+
+        public int getFilterCount()
+        {
+            return filterCount;
+        }
+
+        public int getProcessSkipCount()
+        {
+            return processSkipCount;
+        }
+
+        public int getWriteSkipCount()
+        {
+            return writeSkipCount;
+        }
+
+        /** @return the message of the failure of the processing, or null if it succeeded */
+        public String getFailure()
+        {
+            return failure;
+        }
+    }
+}
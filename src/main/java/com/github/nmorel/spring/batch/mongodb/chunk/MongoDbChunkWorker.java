@@ -0,0 +1,199 @@
+package com.github.nmorel.spring.batch.mongodb.chunk;
+
+import com.github.nmorel.spring.batch.mongodb.chunk.MongoDbChunkQueue.ChunkItem;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.step.item.Chunk;
+import org.springframework.batch.core.step.item.ChunkProcessor;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processes the chunks claimed from a {@link MongoDbChunkQueue} with the {@link ChunkProcessor} of their step, usually
+ * a {@link org.springframework.batch.core.step.item.SimpleChunkProcessor} with the processor and the writer of the
+ * step. A worker is a {@link Runnable} processing the chunks until it is stopped, usually given to a task executor, one
+ * per thread processing chunks.
+ * <p/>
+ * The leases of the chunks being processed are renewed in the background. The counts of the processing, or its
+ * failure, are sent back to the master with the acknowledgement of the chunk.
+ */
+public class MongoDbChunkWorker implements Runnable, InitializingBean, DisposableBean
+{
+    private static final Log logger = LogFactory.getLog(MongoDbChunkWorker.class);
+
+    public static final long DEFAULT_LEASE_MILLIS = 60000L;
+
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 1000L;
+
+    private MongoDbChunkQueue queue;
+
+    private Map<String, ChunkProcessor<Object>> chunkProcessors = new HashMap<String, ChunkProcessor<Object>>();
+
+    private long leaseMillis = DEFAULT_LEASE_MILLIS;
+
+    private long pollIntervalMillis = DEFAULT_POLL_INTERVAL_MILLIS;
+
+    private final Set<ChunkItem> runningChunks = Collections.newSetFromMap(new ConcurrentHashMap<ChunkItem, Boolean>());
+
+    private ScheduledExecutorService renewer;
+
+    private volatile boolean stopped = false;
+
+    public void setQueue( MongoDbChunkQueue queue )
+    {
+        this.queue = queue;
+    }
+
+    /** Sets the processors of the chunks, by name of their step */
+    public void setChunkProcessors( Map<String, ChunkProcessor<Object>> chunkProcessors )
+    {
+        this.chunkProcessors = new HashMap<String, ChunkProcessor<Object>>(chunkProcessors);
+    }
+
+    /**
+     * Sets the duration of the leases, in milliseconds, {@link #DEFAULT_LEASE_MILLIS} by default. The leases are
+     * renewed every third of it, the chunks of a worker that died being claimed again after at most this duration.
+     */
+    public void setLeaseMillis( long leaseMillis )
+    {
+        this.leaseMillis = leaseMillis;
+    }
+
+    /** Sets the pause when no chunk is available, {@link #DEFAULT_POLL_INTERVAL_MILLIS} by default */
+    public void setPollIntervalMillis( long pollIntervalMillis )
+    {
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        Assert.notNull(queue, "The queue must not be null.");
+        Assert.notEmpty(chunkProcessors, "The chunkProcessors must not be empty.");
+        Assert.isTrue(leaseMillis > 0, "The leaseMillis must be positive.");
+        renewer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread(runnable, "MongoDbChunkWorker-renewer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        renewer.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                renewLeases();
+            }
+        }, Math.max(1L, leaseMillis / 3), Math.max(1L, leaseMillis / 3), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy()
+    {
+        stop();
+        if( null != renewer )
+        {
+            renewer.shutdownNow();
+            renewer = null;
+        }
+    }
+
+    /** Stops the threads running this worker once their current chunk is done */
+    public void stop()
+    {
+        stopped = true;
+    }
+
+    @Override
+    public void run()
+    {
+        while( !stopped )
+        {
+            if( !processNext() )
+            {
+                try
+                {
+                    Thread.sleep(pollIntervalMillis);
+                }
+                catch( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Claims and processes one chunk.
+     *
+     * @return false if no chunk was available
+     */
+    public boolean processNext()
+    {
+        ChunkItem chunk = queue.claim(new ArrayList<String>(chunkProcessors.keySet()), leaseMillis);
+        if( null == chunk )
+        {
+            return false;
+        }
+        runningChunks.add(chunk);
+        StepContribution contribution = new StepExecution(chunk.getStepName(),
+                new JobExecution(chunk.getJobExecutionId())).createStepContribution();
+        String failure = null;
+        try
+        {
+            chunkProcessors.get(chunk.getStepName()).process(contribution, new Chunk<Object>(chunk.getItems()));
+        }
+        catch( Exception e )
+        {
+            logger.error("Error processing " + chunk, e);
+            failure = e.getClass().getName() + ": " + e.getMessage();
+        }
+        finally
+        {
+            runningChunks.remove(chunk);
+        }
+        if( !queue.acknowledge(chunk, contribution, failure) )
+        {
+            logger.warn("The lease of " + chunk + " expired while it was processed, it may have been processed twice");
+        }
+        return true;
+    }
+
+    private void renewLeases()
+    {
+        for( ChunkItem chunk : runningChunks )
+        {
+            try
+            {
+                if( !queue.renew(chunk, leaseMillis) )
+                {
+                    logger.warn("The lease of " + chunk + " expired before being renewed");
+                }
+            }
+            catch( RuntimeException e )
+            {
+                logger.warn("Could not renew the lease of " + chunk, e);
+            }
+        }
+    }
+}
@@ -1,29 +1,76 @@
 package com.github.nmorel.spring.batch.mongodb.configuration.annotation;
 
+import com.github.nmorel.spring.batch.mongodb.launch.support.BoundedThreadPerTaskExecutor;
+import com.github.nmorel.spring.batch.mongodb.launch.support.LeaderOnlyJobLauncher;
+import com.github.nmorel.spring.batch.mongodb.launch.support.MongoDbLeaderElection;
+import com.github.nmorel.spring.batch.mongodb.launch.support.MongoDbSemaphore;
+import com.github.nmorel.spring.batch.mongodb.metrics.InstrumentedTaskExecutor;
+import com.github.nmorel.spring.batch.mongodb.metrics.MetricsSink;
 import com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbJobRepositoryFactoryBean;
+import com.github.nmorel.spring.batch.mongodb.transaction.MongoDbTransactionManager;
 import com.mongodb.DB;
 import org.springframework.batch.core.configuration.annotation.BatchConfigurer;
 import org.springframework.batch.core.launch.JobLauncher;
 import org.springframework.batch.core.launch.support.SimpleJobLauncher;
 import org.springframework.batch.core.repository.JobRepository;
-import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.Assert;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.concurrent.ThreadFactory;
 
-/** Implementation of {@link BatchConfigurer} for MongoDB */
+/**
+ * Implementation of {@link BatchConfigurer} for MongoDB.
+ * <p/>
+ * The job launcher runs the jobs in the calling thread, unless a task executor or a launcher pool size is set : the
+ * launches then return as soon as the job execution is created, and the jobs run on a bounded pool of threads or on
+ * one thread per job. The launches exceeding the capacity of the pool, or the pool size with one thread per job, fail
+ * with a {@code FAILED} job execution. The queueing and the rejections are measured, see
+ * {@link #getLauncherTaskExecutor()}.
+ * <p/>
+ * The jobs scheduled on several processes can be launched on the elected leader only, see {@link #setLeaderOnly} and
+ * {@link #setSingletonJobNames}.
+ */
 @Component
 public class MongoDbBatchConfigurer implements BatchConfigurer
 {
     private DB db;
 
-    private PlatformTransactionManager transactionManager = new ResourcelessTransactionManager();
+    private PlatformTransactionManager transactionManager;
 
     private JobRepository jobRepository;
 
     private JobLauncher jobLauncher;
 
+    private TaskExecutor taskExecutor;
+
+    private int launcherPoolSize = 0;
+
+    private int launcherQueueCapacity = 100;
+
+    private boolean launcherThreadPerJob = false;
+
+    private ThreadFactory launcherThreadFactory;
+
+    private MetricsSink metrics;
+
+    private InstrumentedTaskExecutor launcherTaskExecutor;
+
+    private ThreadPoolTaskExecutor launcherThreadPool;
+
+    private boolean leaderOnly = false;
+
+    private Collection<String> singletonJobNames;
+
+    private long leaderLeaseMillis = MongoDbLeaderElection.DEFAULT_LEASE_MILLIS;
+
+    private MongoDbLeaderElection leaderElection;
+
     protected MongoDbBatchConfigurer() {}
 
     public MongoDbBatchConfigurer( DB db )
@@ -36,6 +83,93 @@ public class MongoDbBatchConfigurer implements BatchConfigurer
         this.db = db;
     }
 
+    /** Sets the executor running the launched jobs, making the launches asynchronous. */
+    public void setTaskExecutor( TaskExecutor taskExecutor )
+    {
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * Sets the maximum number of jobs running at once when no task executor is set. 0, the default, runs the jobs in
+     * the calling thread.
+     */
+    public void setLauncherPoolSize( int launcherPoolSize )
+    {
+        this.launcherPoolSize = launcherPoolSize;
+    }
+
+    /**
+     * Sets the number of launched jobs waiting for a thread of the pool before the next launches are rejected. 100 by
+     * default. Not used with one thread per job.
+     */
+    public void setLauncherQueueCapacity( int launcherQueueCapacity )
+    {
+        this.launcherQueueCapacity = launcherQueueCapacity;
+    }
+
+    /**
+     * Sets if each job runs on a new thread instead of a pooled one, the launches being rejected while the launcher pool
+     * size is reached. False by default.
+     * <p/>
+     * The jobs mostly wait for the database : combined with a {@link #setLauncherThreadFactory(ThreadFactory) thread
+     * factory} creating lightweight threads, like the virtual threads of the recent JVMs, many jobs can run at once.
+     */
+    public void setLauncherThreadPerJob( boolean launcherThreadPerJob )
+    {
+        this.launcherThreadPerJob = launcherThreadPerJob;
+    }
+
+    /** Sets the factory of the threads running the launched jobs */
+    public void setLauncherThreadFactory( ThreadFactory launcherThreadFactory )
+    {
+        this.launcherThreadFactory = launcherThreadFactory;
+    }
+
+    /**
+     * Sets the sink receiving the measures of the launcher, under the operations prefixed by <code>JobLauncher</code>.
+     *
+     * @see InstrumentedTaskExecutor
+     */
+    public void setMetrics( MetricsSink metrics )
+    {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets if all the jobs are launched on the leader only, elected among the processes sharing the db. The launches
+     * on the other processes are rejected. False by default.
+     *
+     * @see LeaderOnlyJobLauncher
+     */
+    public void setLeaderOnly( boolean leaderOnly )
+    {
+        this.leaderOnly = leaderOnly;
+    }
+
+    /** Sets the names of the jobs launched on the leader only, see {@link #setLeaderOnly(boolean)} */
+    public void setSingletonJobNames( Collection<String> singletonJobNames )
+    {
+        this.singletonJobNames = singletonJobNames;
+    }
+
+    /** Sets the duration of the lease of the leader, {@link MongoDbLeaderElection#DEFAULT_LEASE_MILLIS} by default */
+    public void setLeaderLeaseMillis( long leaderLeaseMillis )
+    {
+        this.leaderLeaseMillis = leaderLeaseMillis;
+    }
+
+    /** @return the election of the leader launching the singleton jobs, or null if there are none */
+    public MongoDbLeaderElection getLeaderElection()
+    {
+        return leaderElection;
+    }
+
+    /** @return the executor running the launched jobs with its measures, or null if the launches are synchronous */
+    public InstrumentedTaskExecutor getLauncherTaskExecutor()
+    {
+        return launcherTaskExecutor;
+    }
+
     @Override
     public JobRepository getJobRepository()
     {
@@ -57,16 +191,96 @@ public class MongoDbBatchConfigurer implements BatchConfigurer
     @PostConstruct
     public void initialize() throws Exception
     {
+        this.transactionManager = createTransactionManager();
         this.jobRepository = createJobRepository();
         this.jobLauncher = createJobLauncher();
     }
 
-    private JobLauncher createJobLauncher() throws Exception
+    @PreDestroy
+    public void destroy()
+    {
+        if( null != leaderElection )
+        {
+            leaderElection.destroy();
+            leaderElection = null;
+        }
+        if( null != launcherThreadPool )
+        {
+            launcherThreadPool.shutdown();
+            launcherThreadPool = null;
+        }
+    }
+
+    protected JobLauncher createJobLauncher() throws Exception
     {
         SimpleJobLauncher jobLauncher = new SimpleJobLauncher();
         jobLauncher.setJobRepository(jobRepository);
+        TaskExecutor executor = createLauncherTaskExecutor();
+        if( null != executor )
+        {
+            launcherTaskExecutor = new InstrumentedTaskExecutor(executor, "JobLauncher", metrics);
+            jobLauncher.setTaskExecutor(launcherTaskExecutor);
+        }
         jobLauncher.afterPropertiesSet();
-        return jobLauncher;
+        if( !leaderOnly && (null == singletonJobNames || singletonJobNames.isEmpty()) )
+        {
+            return jobLauncher;
+        }
+
+        MongoDbSemaphore semaphore = new MongoDbSemaphore(db);
+        semaphore.afterPropertiesSet();
+        leaderElection = new MongoDbLeaderElection();
+        leaderElection.setSemaphore(semaphore);
+        leaderElection.setLeaseMillis(leaderLeaseMillis);
+        leaderElection.afterPropertiesSet();
+        LeaderOnlyJobLauncher leaderOnlyJobLauncher = new LeaderOnlyJobLauncher();
+        leaderOnlyJobLauncher.setJobLauncher(jobLauncher);
+        leaderOnlyJobLauncher.setLeaderElection(leaderElection);
+        leaderOnlyJobLauncher.setJobNames(leaderOnly ? null : singletonJobNames);
+        leaderOnlyJobLauncher.afterPropertiesSet();
+        return leaderOnlyJobLauncher;
+    }
+
+    /** @return the executor running the launched jobs, or null to run them in the calling thread */
+    protected TaskExecutor createLauncherTaskExecutor()
+    {
+        if( null != taskExecutor )
+        {
+            return taskExecutor;
+        }
+        if( launcherPoolSize <= 0 )
+        {
+            return null;
+        }
+        if( launcherThreadPerJob )
+        {
+            BoundedThreadPerTaskExecutor executor = new BoundedThreadPerTaskExecutor("JobLauncher-", launcherPoolSize);
+            if( null != launcherThreadFactory )
+            {
+                executor.setThreadFactory(launcherThreadFactory);
+            }
+            return executor;
+        }
+        Assert.isTrue(launcherQueueCapacity >= 0, "The launcher queue capacity must not be negative.");
+        launcherThreadPool = new ThreadPoolTaskExecutor();
+        launcherThreadPool.setCorePoolSize(launcherPoolSize);
+        launcherThreadPool.setMaxPoolSize(launcherPoolSize);
+        launcherThreadPool.setQueueCapacity(launcherQueueCapacity);
+        launcherThreadPool.setThreadNamePrefix("JobLauncher-");
+        if( null != launcherThreadFactory )
+        {
+            launcherThreadPool.setThreadFactory(launcherThreadFactory);
+        }
+        launcherThreadPool.afterPropertiesSet();
+        return launcherThreadPool;
+    }
+
+    /** Creates the transaction manager of the steps, grouping the durability of the writes of each chunk */
+    protected PlatformTransactionManager createTransactionManager()
+    {
+        MongoDbTransactionManager transactionManager = new MongoDbTransactionManager(db);
+        transactionManager.afterPropertiesSet();
+        return transactionManager;
     }
 
     protected JobRepository createJobRepository() throws Exception
@@ -0,0 +1,71 @@
+package com.github.nmorel.spring.batch.mongodb.explore.statistics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/** Statistics on the duration, in milliseconds, of the finished executions matching a query */
+public class DurationStatistics
+{
+    private final long count;
+
+    private final long minMillis;
+
+    private final long maxMillis;
+
+    private final double averageMillis;
+
+    private final Map<Double, Long> percentiles;
+
+    public DurationStatistics( long count, long minMillis, long maxMillis, double averageMillis, Map<Double, Long> percentiles )
+    {
+        this.count = count;
+        this.minMillis = minMillis;
+        this.maxMillis = maxMillis;
+        this.averageMillis = averageMillis;
+        this.percentiles = Collections.unmodifiableMap(percentiles);
+    }
+
+    /** @return the number of finished executions */
+    public long getCount()
+    {
+        return count;
+    }
+
+    public long getMinMillis()
+    {
+        return minMillis;
+    }
+
+    public long getMaxMillis()
+    {
+        return maxMillis;
+    }
+
+    public double getAverageMillis()
+    {
+        return averageMillis;
+    }
+
+    /** @return the duration for each requested percentile, sorted by percentile */
+    public Map<Double, Long> getPercentiles()
+    {
+        return percentiles;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     *
+     * @return the duration at the given percentile or null if it wasn't requested
+     */
+    public Long getPercentile( double percentile )
+    {
+        return percentiles.get(percentile);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DurationStatistics: count=" + count + ", min=" + minMillis + ", max=" + maxMillis + ", average=" + averageMillis
+                + ", percentiles=" + percentiles;
+    }
+}
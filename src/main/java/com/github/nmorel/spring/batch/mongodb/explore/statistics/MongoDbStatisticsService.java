@@ -0,0 +1,319 @@
+package com.github.nmorel.spring.batch.mongodb.explore.statistics;
+
+import com.github.nmorel.spring.batch.mongodb.repository.dao.AbstractMongoDbDao;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BasicDBObjectBuilder;
+import com.mongodb.CommandResult;
+import com.mongodb.DBObject;
+import com.mongodb.ReadPreference;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.util.Assert;
+
+import java.util.*;
+
+import static com.mongodb.BasicDBObjectBuilder.start;
+
+/**
+ * Statistics over the job and step executions history, computed by the server with aggregation pipelines. Only the
+ * aggregated values are transferred, never the execution documents.
+ * <p/>
+ * All the methods accept an optional job name and an optional time window, applied on the start time of the
+ * executions (from inclusive, to exclusive). A null value means no restriction. The job name is matched on the one
+ * stored in each execution : the executions written before it was stored must be migrated with
+ * {@link com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbJobNameMigration}.
+ * <p/>
+ * The percentiles are the exception : the durations of the matched executions are returned in a single document and
+ * ranked by the client, so they are limited to {@link #setMaxPercentileCount(int) a number of executions}.
+ */
+public class MongoDbStatisticsService extends AbstractMongoDbDao
+{
+    private static final String JOB_EXECUTION_COLLECTION_NAME = JobExecution.class.getSimpleName();
+
+    private static final String STEP_EXECUTION_COLLECTION_NAME = StepExecution.class.getSimpleName();
+
+    private static final String DURATION_KEY = "duration";
+
+    private static final String COUNT_KEY = "count";
+
+    private static final String MIN_KEY = "min";
+
+    private static final String MAX_KEY = "max";
+
+    private static final String AVG_KEY = "avg";
+
+    private static final String DURATIONS_KEY = "durations";
+
+    private static final String ID_KEY = "_id";
+
+    /** About 16 bytes per duration in the returned document, far below its maximum size */
+    public static final int DEFAULT_MAX_PERCENTILE_COUNT = 500000;
+
+    private int maxPercentileCount = DEFAULT_MAX_PERCENTILE_COUNT;
+
+    /**
+     * Sets the maximum number of executions the percentiles are computed on, {@link #DEFAULT_MAX_PERCENTILE_COUNT} by
+     * default. The percentiles of more executions are refused, the time window must be narrowed.
+     */
+    public void setMaxPercentileCount( int maxPercentileCount )
+    {
+        this.maxPercentileCount = maxPercentileCount;
+    }
+
+    @Override
+    protected String getCollectionName()
+    {
+        return JOB_EXECUTION_COLLECTION_NAME;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception
+    {
+        super.afterPropertiesSet();
+        Assert.isTrue(maxPercentileCount > 0, "The maxPercentileCount must be positive.");
+        DBObject jobNameAndStartTime = start().add(JOB_NAME_KEY, 1).add(START_TIME_KEY, 1).get();
+        getCollection(JOB_EXECUTION_COLLECTION_NAME).ensureIndex(jobNameAndStartTime);
+        getCollection(STEP_EXECUTION_COLLECTION_NAME).ensureIndex(jobNameAndStartTime);
+    }
+
+    /**
+     * @param jobName the job name, or null for all the jobs
+     * @param from the lower bound of the window, inclusive, or null
+     * @param to the upper bound of the window, exclusive, or null
+     * @param percentiles the percentiles to compute, between 0 and 100
+     *
+     * @return the statistics on the duration of the finished job executions
+     *
+     * @throws IllegalStateException if percentiles are asked on more executions than the maximum
+     */
+    public DurationStatistics getJobDurationStatistics( String jobName, Date from, Date to, double... percentiles )
+    {
+        DBObject match = executionsMatch(jobName, from, to);
+        match.put(END_TIME_KEY, new BasicDBObject("$ne", null));
+        return getDurationStatistics(JOB_EXECUTION_COLLECTION_NAME, match, getReadPreferenceForJobName(jobName), percentiles);
+    }
+
+    /**
+     * @param jobName the job name, or null for all the jobs
+     * @param stepName the step name
+     * @param from the lower bound of the window, inclusive, or null
+     * @param to the upper bound of the window, exclusive, or null
+     * @param percentiles the percentiles to compute, between 0 and 100
+     *
+     * @return the statistics on the duration of the finished step executions
+     *
+     * @throws IllegalStateException if percentiles are asked on more executions than the maximum
+     */
+    public DurationStatistics getStepDurationStatistics( String jobName, String stepName, Date from, Date to,
+                                                         double... percentiles )
+    {
+        Assert.notNull(stepName, "Step name must not be null.");
+        DBObject match = executionsMatch(jobName, from, to);
+        match.put(STEP_NAME_KEY, stepName);
+        match.put(END_TIME_KEY, new BasicDBObject("$ne", null));
+        return getDurationStatistics(STEP_EXECUTION_COLLECTION_NAME, match, getReadPreferenceForJobName(jobName), percentiles);
+    }
+
+    /**
+     * @param jobName the job name, or null for all the jobs
+     * @param from the lower bound of the window, inclusive, or null
+     * @param to the upper bound of the window, exclusive, or null
+     *
+     * @return the throughput of each step, sorted by step name
+     */
+    public List<StepThroughput> getStepThroughputs( String jobName, Date from, Date to )
+    {
+        DBObject match = executionsMatch(jobName, from, to);
+        match.put(END_TIME_KEY, new BasicDBObject("$ne", null));
+
+        List<DBObject> results = aggregate(STEP_EXECUTION_COLLECTION_NAME, getReadPreferenceForJobName(jobName),
+                new BasicDBObject("$match", match),
+                new BasicDBObject("$project", start()
+                        .add(STEP_NAME_KEY, 1)
+                        .add(READ_COUNT_KEY, 1)
+                        .add(WRITE_COUNT_KEY, 1)
+                        .add(DURATION_KEY, durationExpression()).get()),
+                new BasicDBObject("$group", start()
+                        .add(ID_KEY, "$" + STEP_NAME_KEY)
+                        .add(COUNT_KEY, new BasicDBObject("$sum", 1))
+                        .add(READ_COUNT_KEY, new BasicDBObject("$sum", "$" + READ_COUNT_KEY))
+                        .add(WRITE_COUNT_KEY, new BasicDBObject("$sum", "$" + WRITE_COUNT_KEY))
+                        .add(DURATION_KEY, new BasicDBObject("$sum", "$" + DURATION_KEY)).get()),
+                new BasicDBObject("$sort", new BasicDBObject(ID_KEY, 1)));
+
+        List<StepThroughput> throughputs = new ArrayList<StepThroughput>(results.size());
+        for( DBObject result : results )
+        {
+            throughputs.add(new StepThroughput((String) result.get(ID_KEY), toLong(result.get(COUNT_KEY)),
+                    toLong(result.get(READ_COUNT_KEY)), toLong(result.get(WRITE_COUNT_KEY)), toLong(result.get(DURATION_KEY))));
+        }
+        return throughputs;
+    }
+
+    /**
+     * @param jobName the job name, or null for all the jobs
+     * @param from the lower bound of the window, inclusive, or null
+     * @param to the upper bound of the window, exclusive, or null
+     *
+     * @return the number of job executions by status and exit code
+     */
+    public List<StatusCount> getJobStatusCounts( String jobName, Date from, Date to )
+    {
+        return getStatusCounts(JOB_EXECUTION_COLLECTION_NAME, executionsMatch(jobName, from, to),
+                getReadPreferenceForJobName(jobName));
+    }
+
+    /**
+     * @param jobName the job name, or null for all the jobs
+     * @param from the lower bound of the window, inclusive, or null
+     * @param to the upper bound of the window, exclusive, or null
+     *
+     * @return the number of step executions by status and exit code
+     */
+    public List<StatusCount> getStepStatusCounts( String jobName, Date from, Date to )
+    {
+        return getStatusCounts(STEP_EXECUTION_COLLECTION_NAME, executionsMatch(jobName, from, to),
+                getReadPreferenceForJobName(jobName));
+    }
+
+    private DurationStatistics getDurationStatistics( String collectionName, DBObject match, ReadPreference readPreference,
+                                                      double... percentiles )
+    {
+        DBObject matchStage = new BasicDBObject("$match", match);
+        DBObject projectStage = new BasicDBObject("$project", new BasicDBObject(DURATION_KEY, durationExpression()));
+
+        List<DBObject> results = aggregate(collectionName, readPreference, matchStage, projectStage,
+                new BasicDBObject("$group", start()
+                        .add(ID_KEY, null)
+                        .add(COUNT_KEY, new BasicDBObject("$sum", 1))
+                        .add(MIN_KEY, new BasicDBObject("$min", "$" + DURATION_KEY))
+                        .add(MAX_KEY, new BasicDBObject("$max", "$" + DURATION_KEY))
+                        .add(AVG_KEY, new BasicDBObject("$avg", "$" + DURATION_KEY)).get()));
+
+        Map<Double, Long> percentileValues = new TreeMap<Double, Long>();
+        if( results.isEmpty() )
+        {
+            return new DurationStatistics(0L, 0L, 0L, 0d, percentileValues);
+        }
+
+        DBObject result = results.get(0);
+        long count = toLong(result.get(COUNT_KEY));
+
+        if( percentiles.length > 0 )
+        {
+            for( double percentile : percentiles )
+            {
+                Assert.isTrue(percentile >= 0d && percentile <= 100d, "Percentile must be between 0 and 100.");
+            }
+            Assert.state(count <= maxPercentileCount, "The percentiles of " + count + " executions can't be computed, "
+                    + "the maximum is " + maxPercentileCount + ".");
+
+            // nearest-rank percentiles : all the durations are read at once and each rank is picked in the sorted array
+            List<DBObject> pushed = aggregate(collectionName, readPreference, matchStage, projectStage,
+                    new BasicDBObject("$group", start()
+                            .add(ID_KEY, null)
+                            .add(DURATIONS_KEY, new BasicDBObject("$push", "$" + DURATION_KEY)).get()));
+            long[] durations = toSortedArray(pushed.isEmpty() ? null : (List<?>) pushed.get(0).get(DURATIONS_KEY));
+            for( double percentile : percentiles )
+            {
+                int rank = (int) Math.max(0L, (long) Math.ceil(percentile / 100d * durations.length) - 1L);
+                if( rank < durations.length )
+                {
+                    percentileValues.put(percentile, durations[rank]);
+                }
+            }
+        }
+
+        return new DurationStatistics(count, toLong(result.get(MIN_KEY)), toLong(result.get(MAX_KEY)),
+                ((Number) result.get(AVG_KEY)).doubleValue(), percentileValues);
+    }
+
+    private List<StatusCount> getStatusCounts( String collectionName, DBObject match, ReadPreference readPreference )
+    {
+        List<DBObject> results = aggregate(collectionName, readPreference,
+                new BasicDBObject("$match", match),
+                new BasicDBObject("$group", start()
+                        .add(ID_KEY, start()
+                                .add(STATUS_KEY, "$" + STATUS_KEY)
+                                .add(EXIT_CODE_KEY, "$" + EXIT_CODE_KEY).get())
+                        .add(COUNT_KEY, new BasicDBObject("$sum", 1)).get()),
+                new BasicDBObject("$sort", new BasicDBObject(COUNT_KEY, -1)));
+
+        List<StatusCount> counts = new ArrayList<StatusCount>(results.size());
+        for( DBObject result : results )
+        {
+            DBObject id = (DBObject) result.get(ID_KEY);
+            counts.add(new StatusCount(BatchStatus.valueOf((String) id.get(STATUS_KEY)), (String) id.get(EXIT_CODE_KEY),
+                    toLong(result.get(COUNT_KEY))));
+        }
+        return counts;
+    }
+
+    /** The job and step executions are matched on the same fields, the job name being stored in both */
+    private DBObject executionsMatch( String jobName, Date from, Date to )
+    {
+        BasicDBObjectBuilder builder = start();
+        if( null != jobName )
+        {
+            builder.add(JOB_NAME_KEY, jobName);
+        }
+        addWindow(builder, from, to);
+        return builder.get();
+    }
+
+    private void addWindow( BasicDBObjectBuilder builder, Date from, Date to )
+    {
+        if( null == from && null == to )
+        {
+            return;
+        }
+        BasicDBObject window = new BasicDBObject();
+        if( null != from )
+        {
+            window.put("$gte", from);
+        }
+        if( null != to )
+        {
+            window.put("$lt", to);
+        }
+        builder.add(START_TIME_KEY, window);
+    }
+
+    private DBObject durationExpression()
+    {
+        BasicDBList operands = new BasicDBList();
+        operands.add("$" + END_TIME_KEY);
+        operands.add("$" + START_TIME_KEY);
+        return new BasicDBObject("$subtract", operands);
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private List<DBObject> aggregate( String collectionName, ReadPreference readPreference, DBObject... pipeline )
+    {
+        BasicDBList stages = new BasicDBList();
+        Collections.addAll(stages, pipeline);
+        CommandResult result = db.command(start()
+                .add("aggregate", prefix + collectionName)
+                .add("pipeline", stages).get(), 0, readPreference);
+        result.throwOnError();
+        return (List<DBObject>) result.get("result");
+    }
+
+    private long[] toSortedArray( List<?> values )
+    {
+        long[] array = new long[null == values ? 0 : values.size()];
+        for( int i = 0; i < array.length; i++ )
+        {
+            array[i] = toLong(values.get(i));
+        }
+        Arrays.sort(array);
+        return array;
+    }
+
+    private long toLong( Object value )
+    {
+        return null == value ? 0L : ((Number) value).longValue();
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.nmorel.spring.batch.mongodb.explore.statistics;
+
+import org.springframework.batch.core.BatchStatus;
+
+/** Number of executions having a given status and exit code */
+public class StatusCount
+{
+    private final BatchStatus status;
+
+    private final String exitCode;
+
+    private final long count;
+
+    public StatusCount( BatchStatus status, String exitCode, long count )
+    {
+        this.status = status;
+        this.exitCode = exitCode;
+        this.count = count;
+    }
+
+    public BatchStatus getStatus()
+    {
+        return status;
+    }
+
+    public String getExitCode()
+    {
+        return exitCode;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "StatusCount: status=" + status + ", exitCode=" + exitCode + ", count=" + count;
+    }
+}
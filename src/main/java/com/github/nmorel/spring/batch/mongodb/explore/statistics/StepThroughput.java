@@ -0,0 +1,72 @@
+package com.github.nmorel.spring.batch.mongodb.explore.statistics;
+
+/** Throughput of the finished executions of a step */
+public class StepThroughput
+{
+    private final String stepName;
+
+    private final long count;
+
+    private final long readCount;
+
+    private final long writeCount;
+
+    private final long totalDurationMillis;
+
+    public StepThroughput( String stepName, long count, long readCount, long writeCount, long totalDurationMillis )
+    {
+        this.stepName = stepName;
+        this.count = count;
+        this.readCount = readCount;
+        this.writeCount = writeCount;
+        this.totalDurationMillis = totalDurationMillis;
+    }
+
+    public String getStepName()
+    {
+        return stepName;
+    }
+
+    /** @return the number of finished step executions */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /** @return the sum of the read counts */
+    public long getReadCount()
+    {
+        return readCount;
+    }
+
+    /** @return the sum of the write counts */
+    public long getWriteCount()
+    {
+        return writeCount;
+    }
+
+    /** @return the sum of the durations */
+    public long getTotalDurationMillis()
+    {
+        return totalDurationMillis;
+    }
+
+    /** @return the number of items read per second */
+    public double getReadItemsPerSecond()
+    {
+        return totalDurationMillis == 0 ? 0d : readCount * 1000d / totalDurationMillis;
+    }
+
+    /** @return the number of items written per second */
+    public double getWriteItemsPerSecond()
+    {
+        return totalDurationMillis == 0 ? 0d : writeCount * 1000d / totalDurationMillis;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "StepThroughput: stepName=" + stepName + ", count=" + count + ", readCount=" + readCount + ", writeCount="
+                + writeCount + ", totalDuration=" + totalDurationMillis;
+    }
+}
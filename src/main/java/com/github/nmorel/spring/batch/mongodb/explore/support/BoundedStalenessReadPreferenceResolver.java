@@ -0,0 +1,176 @@
+package com.github.nmorel.spring.batch.mongodb.explore.support;
+
+import com.github.nmorel.spring.batch.mongodb.repository.dao.LocalWriteTracker;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.ReadPreferenceResolver;
+import com.mongodb.CommandResult;
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.ReadPreference;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * {@link ReadPreferenceResolver} routing the reads to the configured {@link ReadPreference} as long as the secondaries
+ * do not lag behind the primary more than the max staleness.
+ * <p/>
+ * The reads are sent to the primary when :
+ * <ul>
+ * <li>the replication lag, computed from <code>replSetGetStatus</code>, exceeds the max staleness</li>
+ * <li>the replication lag can't be computed (standalone server, missing privileges)</li>
+ * <li>the job, the job instance or the job execution read has been written by the local JVM during the max staleness
+ * window, which guarantees read-your-writes</li>
+ * </ul>
+ */
+public class BoundedStalenessReadPreferenceResolver implements ReadPreferenceResolver
+{
+    private static final Log logger = LogFactory.getLog(BoundedStalenessReadPreferenceResolver.class);
+
+    /** Default interval between two checks of the replication lag, in milliseconds */
+    public static final long DEFAULT_LAG_CHECK_INTERVAL_MILLIS = 10000L;
+
+    private static final String PRIMARY_STATE = "PRIMARY";
+
+    private static final String SECONDARY_STATE = "SECONDARY";
+
+    private final DB db;
+
+    private final ReadPreference readPreference;
+
+    private final long maxStalenessMillis;
+
+    private final LocalWriteTracker writeTracker;
+
+    private long lagCheckIntervalMillis = DEFAULT_LAG_CHECK_INTERVAL_MILLIS;
+
+    private volatile long lastLagCheck = 0L;
+
+    private volatile boolean lagWithinBound = false;
+
+    /**
+     * @param db the database
+     * @param readPreference the read preference used when the secondaries are fresh enough
+     * @param maxStalenessMillis the maximum replication lag tolerated, in milliseconds
+     * @param writeTracker the tracker of the writes done by the local JVM
+     */
+    public BoundedStalenessReadPreferenceResolver( DB db, ReadPreference readPreference, long maxStalenessMillis,
+                                                   LocalWriteTracker writeTracker )
+    {
+        Assert.notNull(db, "db must not be null");
+        Assert.notNull(readPreference, "readPreference must not be null");
+        Assert.isTrue(maxStalenessMillis > 0, "maxStalenessMillis must be positive");
+        Assert.notNull(writeTracker, "writeTracker must not be null");
+        // a write forgotten by the tracker could still be missing on the secondaries
+        Assert.isTrue(writeTracker.getRetentionMillis() >= maxStalenessMillis,
+                "the retention of writeTracker must not be lower than maxStalenessMillis");
+        this.db = db;
+        this.readPreference = readPreference;
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.writeTracker = writeTracker;
+    }
+
+    /** Sets the interval between two checks of the replication lag, in milliseconds */
+    public void setLagCheckIntervalMillis( long lagCheckIntervalMillis )
+    {
+        this.lagCheckIntervalMillis = lagCheckIntervalMillis;
+    }
+
+    @Override
+    public ReadPreference resolve()
+    {
+        return isLagWithinBound() ? readPreference : ReadPreference.primary();
+    }
+
+    @Override
+    public ReadPreference resolveForJobName( String jobName )
+    {
+        if( writeTracker.isJobNameWrittenWithin(jobName, maxStalenessMillis) )
+        {
+            return ReadPreference.primary();
+        }
+        return resolve();
+    }
+
+    @Override
+    public ReadPreference resolveForJobInstance( Long jobInstanceId )
+    {
+        if( writeTracker.isJobInstanceWrittenWithin(jobInstanceId, maxStalenessMillis) )
+        {
+            return ReadPreference.primary();
+        }
+        return resolve();
+    }
+
+    @Override
+    public ReadPreference resolveForJobExecution( Long jobExecutionId )
+    {
+        if( writeTracker.isJobExecutionWrittenWithin(jobExecutionId, maxStalenessMillis) )
+        {
+            return ReadPreference.primary();
+        }
+        return resolve();
+    }
+
+    private boolean isLagWithinBound()
+    {
+        long now = System.currentTimeMillis();
+        if( now - lastLagCheck > lagCheckIntervalMillis )
+        {
+            lagWithinBound = computeLag() <= maxStalenessMillis;
+            lastLagCheck = now;
+        }
+        return lagWithinBound;
+    }
+
+    /** @return the lag of the most late secondary, or {@link Long#MAX_VALUE} if it can't be computed */
+    @SuppressWarnings( "unchecked" )
+    protected long computeLag()
+    {
+        CommandResult status;
+        try
+        {
+            status = db.getSisterDB("admin").command("replSetGetStatus");
+        }
+        catch( MongoException e )
+        {
+            logger.debug("Unable to retrieve the replica set status", e);
+            return Long.MAX_VALUE;
+        }
+        if( !status.ok() )
+        {
+            logger.debug("Unable to retrieve the replica set status : " + status.getErrorMessage());
+            return Long.MAX_VALUE;
+        }
+
+        Date primaryOptime = null;
+        Date oldestSecondaryOptime = null;
+        for( DBObject member : (List<DBObject>) status.get("members") )
+        {
+            Date optime = (Date) member.get("optimeDate");
+            if( PRIMARY_STATE.equals(member.get("stateStr")) )
+            {
+                primaryOptime = optime;
+            }
+            else if( SECONDARY_STATE.equals(member.get("stateStr")) && (null == oldestSecondaryOptime || optime
+                    .before(oldestSecondaryOptime)) )
+            {
+                oldestSecondaryOptime = optime;
+            }
+        }
+
+        if( null == primaryOptime )
+        {
+            return Long.MAX_VALUE;
+        }
+        if( null == oldestSecondaryOptime )
+        {
+            // no secondary, every read goes to the primary anyway
+            return 0L;
+        }
+        return primaryOptime.getTime() - oldestSecondaryOptime.getTime();
+    }
+}
@@ -0,0 +1,170 @@
+package com.github.nmorel.spring.batch.mongodb.explore.support;
+
+import com.github.nmorel.spring.batch.mongodb.repository.dao.CloseableIterator;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.MongoDbArchiveDao;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.MongoDbJobExecutionDao;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.MongoDbJobInstanceDao;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.support.SimpleJobExplorer;
+import org.springframework.batch.core.repository.dao.ExecutionContextDao;
+import org.springframework.batch.core.repository.dao.StepExecutionDao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * {@link org.springframework.batch.core.explore.JobExplorer} adding streaming methods over the MongoDB cursors, to
+ * scan the whole history in constant memory.
+ * <p/>
+ * Unlike the methods of {@link SimpleJobExplorer}, the streamed {@link JobExecution}s are not populated with their
+ * step executions and execution context.
+ * <p/>
+ * If an archive tier is configured, the lookups falling in the live collections fall back to the archive, and the
+ * listings are completed with the archived instances. The streams only cover the live collections.
+ */
+public class MongoDbJobExplorer extends SimpleJobExplorer
+{
+    private final MongoDbJobInstanceDao jobInstanceDao;
+
+    private final MongoDbJobExecutionDao jobExecutionDao;
+
+    private MongoDbArchiveDao archiveDao;
+
+    public MongoDbJobExplorer( MongoDbJobInstanceDao jobInstanceDao, MongoDbJobExecutionDao jobExecutionDao,
+                               StepExecutionDao stepExecutionDao, ExecutionContextDao ecDao )
+    {
+        super(jobInstanceDao, jobExecutionDao, stepExecutionDao, ecDao);
+        this.jobInstanceDao = jobInstanceDao;
+        this.jobExecutionDao = jobExecutionDao;
+    }
+
+    /** Sets the DAO of the archive tier. If not set, only the live collections are read. */
+    public void setArchiveDao( MongoDbArchiveDao archiveDao )
+    {
+        this.archiveDao = archiveDao;
+    }
+
+    @Override
+    public List<JobExecution> getJobExecutions( JobInstance jobInstance )
+    {
+        List<JobExecution> jobExecutions = super.getJobExecutions(jobInstance);
+        if( jobExecutions.isEmpty() && null != archiveDao )
+        {
+            // an instance is archived with all its executions
+            return archiveDao.findJobExecutions(jobInstance);
+        }
+        return jobExecutions;
+    }
+
+    @Override
+    public JobExecution getJobExecution( Long executionId )
+    {
+        JobExecution jobExecution = super.getJobExecution(executionId);
+        if( null == jobExecution && null != archiveDao && null != executionId )
+        {
+            return archiveDao.getJobExecution(executionId);
+        }
+        return jobExecution;
+    }
+
+    @Override
+    public StepExecution getStepExecution( Long jobExecutionId, Long executionId )
+    {
+        StepExecution stepExecution = super.getStepExecution(jobExecutionId, executionId);
+        if( null == stepExecution && null != archiveDao && null != jobExecutionId )
+        {
+            return archiveDao.getStepExecution(jobExecutionId, executionId);
+        }
+        return stepExecution;
+    }
+
+    @Override
+    public JobInstance getJobInstance( Long instanceId )
+    {
+        JobInstance jobInstance = super.getJobInstance(instanceId);
+        if( null == jobInstance && null != archiveDao )
+        {
+            return archiveDao.getJobInstance(instanceId);
+        }
+        return jobInstance;
+    }
+
+    /**
+     * Returns the most recent instances first. The archived instances being older than the live ones, they come after
+     * all the live instances.
+     */
+    @Override
+    public List<JobInstance> getJobInstances( String jobName, int start, int count )
+    {
+        List<JobInstance> jobInstances = super.getJobInstances(jobName, start, count);
+        if( jobInstances.size() >= count || null == archiveDao )
+        {
+            return jobInstances;
+        }
+        int archiveStart = Math.max(0, start - jobInstanceDao.getJobInstanceCount(jobName));
+        List<JobInstance> results = new ArrayList<JobInstance>(jobInstances);
+        results.addAll(archiveDao.getJobInstances(jobName, archiveStart, count - jobInstances.size()));
+        return results;
+    }
+
+    @Override
+    public List<String> getJobNames()
+    {
+        if( null == archiveDao )
+        {
+            return super.getJobNames();
+        }
+        Set<String> jobNames = new TreeSet<String>(super.getJobNames());
+        jobNames.addAll(archiveDao.getJobNames());
+        return new ArrayList<String>(jobNames);
+    }
+
+    /**
+     * @param jobName the job name
+     *
+     * @return an iterator over all the instances of the job, most recent first, that must be closed if not read until
+     *         the end
+     */
+    public CloseableIterator<JobInstance> streamJobInstances( String jobName )
+    {
+        return jobInstanceDao.streamJobInstances(jobName);
+    }
+
+    /**
+     * @param jobInstance the job instance
+     * @param summaryOnly true to skip the exit message and the parameters
+     *
+     * @return an iterator over the executions of the instance, most recent first, that must be closed if not read
+     *         until the end
+     */
+    public CloseableIterator<JobExecution> streamJobExecutions( JobInstance jobInstance, boolean summaryOnly )
+    {
+        return jobExecutionDao.streamJobExecutions(jobInstance, summaryOnly);
+    }
+
+    /**
+     * @param jobName the job name
+     * @param summaryOnly true to skip the exit message and the parameters
+     *
+     * @return an iterator over all the executions of the job that must be closed if not read until the end
+     */
+    public CloseableIterator<JobExecution> streamJobExecutions( String jobName, boolean summaryOnly )
+    {
+        return jobExecutionDao.streamJobExecutions(jobName, summaryOnly);
+    }
+
+    /**
+     * @param jobName the job name
+     * @param summaryOnly true to skip the exit message and the parameters
+     *
+     * @return an iterator over the running executions of the job that must be closed if not read until the end
+     */
+    public CloseableIterator<JobExecution> streamRunningJobExecutions( String jobName, boolean summaryOnly )
+    {
+        return jobExecutionDao.streamRunningJobExecutions(jobName, summaryOnly);
+    }
+}
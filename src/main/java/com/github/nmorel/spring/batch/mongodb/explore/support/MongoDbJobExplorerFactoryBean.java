@@ -1,18 +1,23 @@
 package com.github.nmorel.spring.batch.mongodb.explore.support;
 
+import com.github.nmorel.spring.batch.mongodb.explore.statistics.MongoDbStatisticsService;
 import com.github.nmorel.spring.batch.mongodb.incrementer.ValueIncrementer;
+import com.github.nmorel.spring.batch.mongodb.metrics.RepositoryMetrics;
 import com.github.nmorel.spring.batch.mongodb.repository.dao.*;
 import com.mongodb.DB;
+import com.mongodb.ReadPreference;
 import org.springframework.batch.core.explore.support.AbstractJobExplorerFactoryBean;
-import org.springframework.batch.core.explore.support.SimpleJobExplorer;
 import org.springframework.batch.core.repository.ExecutionContextSerializer;
 import org.springframework.batch.core.repository.dao.*;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.util.Assert;
 
-/** Implementation of {@link AbstractJobExplorerFactoryBean} */
+/** Implementation of {@link AbstractJobExplorerFactoryBean} creating a {@link MongoDbJobExplorer} */
 public class MongoDbJobExplorerFactoryBean extends AbstractJobExplorerFactoryBean implements InitializingBean
 {
+    /** Default maximum replication lag tolerated when reading from secondaries, in milliseconds */
+    public static final long DEFAULT_MAX_STALENESS_MILLIS = 90000L;
+
     private DB db;
 
     private String collectionPrefix = AbstractMongoDbDao.DEFAULT_COLLECTION_PREFIX;
@@ -40,6 +45,26 @@ public class MongoDbJobExplorerFactoryBean extends AbstractJobExplorerFactoryBea
 
     private ExecutionContextSerializer serializer;
 
+    private ReadPreference readPreference;
+
+    private long maxStalenessMillis = DEFAULT_MAX_STALENESS_MILLIS;
+
+    private LocalWriteTracker writeTracker = LocalWriteTracker.getDefault();
+
+    private ReadPreferenceResolver readPreferenceResolver;
+
+    private int streamBatchSize = AbstractMongoDbDao.DEFAULT_STREAM_BATCH_SIZE;
+
+    private DB archiveDb;
+
+    private String archivePrefix;
+
+    private RepositoryMetrics metrics;
+
+    private boolean naturalIds = false;
+
+    private FieldNamingStrategy fieldNamingStrategy = FieldNamingStrategy.defaultNames();
+
     /**
      * A custom implementation of the {@link ExecutionContextSerializer}.
      * The default, if not injected, is the {@link org.springframework.batch.core.repository.dao.XStreamExecutionContextStringSerializer}.
@@ -67,6 +92,102 @@ public class MongoDbJobExplorerFactoryBean extends AbstractJobExplorerFactoryBea
         this.collectionPrefix = collectionPrefix;
     }
 
+    /**
+     * Sets the collection prefix of the archive tier. If set, the explorer falls back to the archive for the job
+     * instances and executions not found in the live collections. The default is no archive.
+     *
+     * @see com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbExecutionArchiver
+     */
+    public void setArchivePrefix( String archivePrefix )
+    {
+        this.archivePrefix = archivePrefix;
+    }
+
+    /** Sets the database of the archive tier. The default is the database of the live collections. */
+    public void setArchiveDb( DB archiveDb )
+    {
+        this.archiveDb = archiveDb;
+    }
+
+    /**
+     * Sets if the job instances, job executions and step executions are stored with their batch id as
+     * <code>_id</code>, as configured on the repository. False by default.
+     *
+     * @see AbstractMongoDbDao#setNaturalIds(boolean)
+     */
+    public void setNaturalIds( boolean naturalIds )
+    {
+        this.naturalIds = naturalIds;
+    }
+
+    /**
+     * Sets the names under which the fields of the executions and contexts are stored. The default names are used if
+     * not set.
+     *
+     * @see FieldNamingStrategy#compact()
+     */
+    public void setFieldNamingStrategy( FieldNamingStrategy fieldNamingStrategy )
+    {
+        this.fieldNamingStrategy = fieldNamingStrategy;
+    }
+
+    /**
+     * Sets the number of documents fetched per round trip by the streaming methods of {@link MongoDbJobExplorer}.
+     *
+     * @param streamBatchSize the batch size
+     */
+    public void setStreamBatchSize( int streamBatchSize )
+    {
+        this.streamBatchSize = streamBatchSize;
+    }
+
+    /**
+     * Sets the {@link ReadPreference} used by the explorer, independently of the one used by the
+     * {@link org.springframework.batch.core.repository.JobRepository}. If not set, the read preference of the
+     * {@link DB} is used.
+     * <p/>
+     * Reads go back to the primary when the secondaries lag more than the max staleness, or when the data read have
+     * been written by the local JVM during the max staleness window.
+     *
+     * @param readPreference the read preference
+     *
+     * @see #setMaxStalenessMillis(long)
+     */
+    public void setReadPreference( ReadPreference readPreference )
+    {
+        this.readPreference = readPreference;
+    }
+
+    /**
+     * Sets the maximum replication lag tolerated when reading with the configured {@link ReadPreference}. The
+     * default is {@link #DEFAULT_MAX_STALENESS_MILLIS}.
+     *
+     * @param maxStalenessMillis the max staleness in milliseconds
+     */
+    public void setMaxStalenessMillis( long maxStalenessMillis )
+    {
+        this.maxStalenessMillis = maxStalenessMillis;
+    }
+
+    /**
+     * Sets the tracker of the writes done by the local JVM. It must be the same as the one used by the
+     * {@link com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbJobRepositoryFactoryBean}. The default
+     * is the tracker shared by the whole JVM.
+     */
+    public void setWriteTracker( LocalWriteTracker writeTracker )
+    {
+        this.writeTracker = writeTracker;
+    }
+
+    /**
+     * Sets the collector of the measures of the explorer. If set, the DAOs, the serializer and the collections are
+     * instrumented. The default is no instrumentation.
+     */
+    public void setMetrics( RepositoryMetrics metrics )
+    {
+        this.metrics = metrics;
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception
     {
@@ -79,22 +200,68 @@ public class MongoDbJobExplorerFactoryBean extends AbstractJobExplorerFactoryBea
 
             serializer = defaultSerializer;
         }
+
+        if( null != metrics )
+        {
+            serializer = metrics.instrument(serializer);
+        }
+
+        if( null != readPreference )
+        {
+            readPreferenceResolver = new BoundedStalenessReadPreferenceResolver(db, readPreference, maxStalenessMillis, writeTracker);
+        }
     }
 
     private Object getTarget() throws Exception
     {
-        return new SimpleJobExplorer(createJobInstanceDao(),
-                createJobExecutionDao(), createStepExecutionDao(),
-                createExecutionContextDao());
+        // the explorer needs the classes of the MongoDB DAOs for its streaming methods
+        MongoDbJobExplorer explorer = new MongoDbJobExplorer(instrument(createJobInstanceDao(), "JobInstanceDao"),
+                instrument(createJobExecutionDao(), "JobExecutionDao"),
+                instrument(createStepExecutionDao(), "StepExecutionDao"),
+                instrument(createExecutionContextDao(), "ExecutionContextDao"));
+        if( null != archivePrefix )
+        {
+            explorer.setArchiveDao(instrument(createArchiveDao(), "ArchiveDao"));
+        }
+        if( null != metrics )
+        {
+            // after the DAOs, so the byte counting wraps the decoders they set on their collections
+            metrics.instrumentCollections(db, collectionPrefix);
+            if( null != archivePrefix )
+            {
+                metrics.instrumentCollections(null == archiveDb ? db : archiveDb, archivePrefix);
+            }
+        }
+        return explorer;
+    }
+
+    private <T> T instrument( T dao, String component )
+    {
+        return null == metrics ? dao : metrics.instrument(dao, component, true);
+    }
+
+    protected MongoDbArchiveDao createArchiveDao() throws Exception
+    {
+        MongoDbArchiveDao dao = new MongoDbArchiveDao();
+        dao.setFieldNamingStrategy(fieldNamingStrategy);
+        dao.setDb(null == archiveDb ? db : archiveDb);
+        dao.setPrefix(archivePrefix);
+        dao.setSerializer(serializer);
+        dao.setReadPreferenceResolver(readPreferenceResolver);
+        dao.afterPropertiesSet();
+        return dao;
     }
 
     @Override
     protected ExecutionContextDao createExecutionContextDao() throws Exception
     {
         MongoDbExecutionContextDao dao = new MongoDbExecutionContextDao();
+        dao.setFieldNamingStrategy(fieldNamingStrategy);
         dao.setDb(db);
         dao.setSerializer(serializer);
         dao.setPrefix(collectionPrefix);
+        dao.setReadPreferenceResolver(readPreferenceResolver);
+        dao.setNaturalIds(naturalIds);
         dao.afterPropertiesSet();
         return dao;
     }
@@ -103,35 +270,61 @@ public class MongoDbJobExplorerFactoryBean extends AbstractJobExplorerFactoryBea
     protected StepExecutionDao createStepExecutionDao() throws Exception
     {
         MongoDbStepExecutionDao dao = new MongoDbStepExecutionDao();
+        dao.setFieldNamingStrategy(fieldNamingStrategy);
         dao.setDb(db);
         dao.setPrefix(collectionPrefix);
+        dao.setNaturalIds(naturalIds);
         dao.setStepExecutionIncrementer(incrementer);
+        dao.setReadPreferenceResolver(readPreferenceResolver);
         dao.afterPropertiesSet();
         return dao;
     }
 
     @Override
-    protected JobExecutionDao createJobExecutionDao() throws Exception
+    protected MongoDbJobExecutionDao createJobExecutionDao() throws Exception
     {
         MongoDbJobExecutionDao dao = new MongoDbJobExecutionDao();
+        dao.setFieldNamingStrategy(fieldNamingStrategy);
         dao.setDb(db);
         dao.setPrefix(collectionPrefix);
+        dao.setNaturalIds(naturalIds);
         dao.setJobExecutionIncrementer(incrementer);
+        dao.setStreamBatchSize(streamBatchSize);
+        dao.setReadPreferenceResolver(readPreferenceResolver);
         dao.afterPropertiesSet();
         return dao;
     }
 
     @Override
-    protected JobInstanceDao createJobInstanceDao() throws Exception
+    protected MongoDbJobInstanceDao createJobInstanceDao() throws Exception
     {
         MongoDbJobInstanceDao dao = new MongoDbJobInstanceDao();
         dao.setPrefix(collectionPrefix);
         dao.setDb(db);
+        dao.setNaturalIds(naturalIds);
         dao.setJobIncrementer(incrementer);
+        dao.setStreamBatchSize(streamBatchSize);
+        dao.setReadPreferenceResolver(readPreferenceResolver);
         dao.afterPropertiesSet();
         return dao;
     }
 
+    /**
+     * Creates a {@link MongoDbStatisticsService} sharing the configuration of the explorer, including its
+     * {@link ReadPreference}.
+     *
+     * @return the statistics service
+     */
+    public MongoDbStatisticsService createStatisticsService() throws Exception
+    {
+        MongoDbStatisticsService service = new MongoDbStatisticsService();
+        service.setDb(db);
+        service.setPrefix(collectionPrefix);
+        service.setReadPreferenceResolver(readPreferenceResolver);
+        service.afterPropertiesSet();
+        return service;
+    }
+
     @Override
     public Object getObject() throws Exception
     {
@@ -3,6 +3,8 @@ package com.github.nmorel.spring.batch.mongodb.incrementer;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.dao.DataAccessException;
 import org.springframework.util.Assert;
@@ -10,6 +12,14 @@ import org.springframework.util.Assert;
 /** Implementation of {@link ValueIncrementer} that uses MongoDB. */
 public class MongoDbValueIncrementer implements ValueIncrementer, InitializingBean
 {
+    private static final String VALUE_KEY = "value";
+
+    private static final DBObject SEQUENCE = new BasicDBObject();
+
+    private static final DBObject VALUE_PROJECTION = new BasicDBObject(VALUE_KEY, 1L);
+
+    private static final DBObject INCREMENT = new BasicDBObject("$inc", new BasicDBObject(VALUE_KEY, 1L));
+
     /** The MongoDB database */
     private DB db;
 
@@ -19,6 +29,9 @@ public class MongoDbValueIncrementer implements ValueIncrementer, InitializingBe
     /** The length to which a string result should be pre-pended with zeroes */
     private int paddingLength = 0;
 
+    /** The write concern of the increments, the one of the db if null */
+    private WriteConcern writeConcern;
+
     public MongoDbValueIncrementer()
     {
     }
@@ -66,6 +79,16 @@ public class MongoDbValueIncrementer implements ValueIncrementer, InitializingBe
         this.paddingLength = paddingLength;
     }
 
+    public WriteConcern getWriteConcern()
+    {
+        return writeConcern;
+    }
+
+    public void setWriteConcern( WriteConcern writeConcern )
+    {
+        this.writeConcern = writeConcern;
+    }
+
     @Override
     public int nextIntValue() throws DataAccessException
     {
@@ -105,8 +128,20 @@ public class MongoDbValueIncrementer implements ValueIncrementer, InitializingBe
     protected long getNextKey()
     {
         DBCollection collection = db.getCollection(incrementerName);
-        BasicDBObject sequence = new BasicDBObject();
-        collection.update(sequence, new BasicDBObject("$inc", new BasicDBObject("value", 1L)), true, false);
-        return (Long) collection.findOne(sequence).get("value");
+        WriteConcern concern = null == writeConcern ? db.getWriteConcern() : writeConcern;
+        if( isAcknowledgedByPrimary(concern) )
+        {
+            // one round trip, the command being acknowledged by the primary like the update would be
+            return (Long) collection.findAndModify(SEQUENCE, VALUE_PROJECTION, null, false, INCREMENT, true, true).get(VALUE_KEY);
+        }
+        collection.update(SEQUENCE, INCREMENT, true, false, concern);
+        return (Long) collection.findOne(SEQUENCE).get(VALUE_KEY);
+    }
+
+    /** @return true if the write concern does not wait for more than the primary, as a findAndModify does */
+    private static boolean isAcknowledgedByPrimary( WriteConcern concern )
+    {
+        Object w = concern.getWObject();
+        return !concern.getJ() && !concern.getFsync() && w instanceof Integer && (Integer) w <= 1;
     }
 }
@@ -1,6 +1,7 @@
 package com.github.nmorel.spring.batch.mongodb.incrementer;
 
 import com.mongodb.DB;
+import com.mongodb.WriteConcern;
 import org.springframework.util.Assert;
 
 /**
@@ -12,17 +13,26 @@ public class MongoDbValueIncrementerFactory implements ValueIncrementerFactory
     /** The MongoDB database */
     private DB db;
 
+    /** The write concern of the increments, the one of the db if null */
+    private WriteConcern writeConcern;
+
     public MongoDbValueIncrementerFactory( DB db )
     {
         Assert.notNull(db, "db must not be null");
         this.db = db;
     }
 
+    public void setWriteConcern( WriteConcern writeConcern )
+    {
+        this.writeConcern = writeConcern;
+    }
+
     @Override
     public ValueIncrementer getIncrementer( String incrementerName )
     {
         Assert.notNull(incrementerName);
         MongoDbValueIncrementer incrementer = new MongoDbValueIncrementer(db, incrementerName);
+        incrementer.setWriteConcern(writeConcern);
         incrementer.afterPropertiesSet();
         return incrementer;
     }
@@ -0,0 +1,195 @@
+package com.github.nmorel.spring.batch.mongodb.item;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.Bytes;
+import com.mongodb.DB;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.batch.item.ItemStreamSupport;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+/**
+ * {@link ItemStreamReader} streaming the documents of a collection matching a query, sorted by a key, over a single
+ * cursor.
+ * <p/>
+ * The last sort key read is saved in the {@link ExecutionContext} at each commit, and a restart resumes with a range
+ * query after it instead of skipping the documents already read : a restart costs the same whatever its position, and
+ * the documents inserted or removed meanwhile do not shift it. The sort key must thus be unique, <code>_id</code> by
+ * default, and be part of the fields read.
+ * <p/>
+ * The reader is not thread-safe.
+ */
+public class MongoDbItemReader<T> extends ItemStreamSupport implements ItemStreamReader<T>, InitializingBean
+{
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final String LAST_KEY = "last.key";
+
+    private static final String READ_COUNT = "read.count";
+
+    private DB db;
+
+    private String collectionName;
+
+    private DBObject query = new BasicDBObject();
+
+    private DBObject fields;
+
+    private String sortKey = "_id";
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private boolean noCursorTimeout = false;
+
+    private boolean saveState = true;
+
+    private Converter<DBObject, ? extends T> converter;
+
+    private DBCursor cursor;
+
+    private Object lastKey;
+
+    private int readCount;
+
+    public MongoDbItemReader()
+    {
+        setName(ClassUtils.getShortName(MongoDbItemReader.class));
+    }
+
+    public void setDb( DB db )
+    {
+        this.db = db;
+    }
+
+    public void setCollectionName( String collectionName )
+    {
+        this.collectionName = collectionName;
+    }
+
+    /** Sets the query of the documents to read, all the documents by default */
+    public void setQuery( DBObject query )
+    {
+        this.query = query;
+    }
+
+    /** Sets the projection of the documents read. If not set, the whole documents are read. */
+    public void setFields( DBObject fields )
+    {
+        this.fields = fields;
+    }
+
+    /** Sets the unique field sorting the documents, <code>_id</code> by default. It should be indexed. */
+    public void setSortKey( String sortKey )
+    {
+        this.sortKey = sortKey;
+    }
+
+    /** Sets the number of documents fetched per round trip, {@link #DEFAULT_BATCH_SIZE} by default */
+    public void setBatchSize( int batchSize )
+    {
+        this.batchSize = batchSize;
+    }
+
+    /** Sets if the cursor is kept open by the server when the processing of a batch is longer than its timeout */
+    public void setNoCursorTimeout( boolean noCursorTimeout )
+    {
+        this.noCursorTimeout = noCursorTimeout;
+    }
+
+    /** Sets if the position is saved in the execution context for a restart, true by default */
+    public void setSaveState( boolean saveState )
+    {
+        this.saveState = saveState;
+    }
+
+    /** Sets the converter of the documents to items. If not set, the documents are the items. */
+    public void setConverter( Converter<DBObject, ? extends T> converter )
+    {
+        this.converter = converter;
+    }
+
+    /** Sets the name prefixing the keys of the execution context, needed when a step has several readers */
+    public void setName( String name )
+    {
+        setExecutionContextName(name);
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        Assert.notNull(db, "The db must not be null.");
+        Assert.hasText(collectionName, "The collectionName must not be empty.");
+        Assert.notNull(query, "The query must not be null.");
+        Assert.hasText(sortKey, "The sortKey must not be empty.");
+        Assert.isTrue(batchSize > 0, "The batchSize must be positive.");
+    }
+
+    @Override
+    public void open( ExecutionContext executionContext ) throws ItemStreamException
+    {
+        Assert.state(null == cursor, "The reader is already open.");
+        lastKey = null;
+        readCount = 0;
+        DBObject rangeQuery = query;
+        if( executionContext.containsKey(getExecutionContextKey(LAST_KEY)) )
+        {
+            lastKey = executionContext.get(getExecutionContextKey(LAST_KEY));
+            readCount = executionContext.getInt(getExecutionContextKey(READ_COUNT), 0);
+            BasicDBList and = new BasicDBList();
+            and.add(query);
+            and.add(new BasicDBObject(sortKey, new BasicDBObject("$gt", lastKey)));
+            rangeQuery = new BasicDBObject("$and", and);
+        }
+
+        cursor = db.getCollection(collectionName).find(rangeQuery, fields).sort(new BasicDBObject(sortKey, 1))
+                .batchSize(batchSize);
+        if( noCursorTimeout )
+        {
+            cursor.addOption(Bytes.QUERYOPTION_NOTIMEOUT);
+        }
+    }
+
+    @Override
+    @SuppressWarnings( "unchecked" )
+    public T read()
+    {
+        Assert.state(null != cursor, "The reader must be opened before being read.");
+        if( !cursor.hasNext() )
+        {
+            return null;
+        }
+        DBObject document = cursor.next();
+        Object key = document.get(sortKey);
+        Assert.state(null != key, "The document " + document.get("_id") + " has no " + sortKey + ".");
+        lastKey = key;
+        readCount++;
+        return null == converter ? (T) document : converter.convert(document);
+    }
+
+    @Override
+    public void update( ExecutionContext executionContext ) throws ItemStreamException
+    {
+        if( saveState && null != lastKey )
+        {
+            executionContext.put(getExecutionContextKey(LAST_KEY), lastKey);
+            executionContext.putInt(getExecutionContextKey(READ_COUNT), readCount);
+        }
+    }
+
+    @Override
+    public void close() throws ItemStreamException
+    {
+        if( null != cursor )
+        {
+            cursor.close();
+            cursor = null;
+        }
+    }
+}
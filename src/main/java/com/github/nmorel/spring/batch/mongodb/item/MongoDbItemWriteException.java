@@ -0,0 +1,39 @@
+package com.github.nmorel.spring.batch.mongodb.item;
+
+import org.springframework.batch.item.WriteFailedException;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Thrown by a {@link MongoDbItemWriter} when some items of a chunk could not be written. The other items of the chunk
+ * are written or, after an ordered failure, not attempted.
+ */
+public class MongoDbItemWriteException extends WriteFailedException
+{
+    private static final long serialVersionUID = 1L;
+
+    private final Map<Object, RuntimeException> failures;
+
+    private final int writeCount;
+
+    public MongoDbItemWriteException( Map<Object, RuntimeException> failures, int writeCount )
+    {
+        super(failures.size() + " items could not be written, " + writeCount + " were written",
+                failures.values().iterator().next());
+        this.failures = Collections.unmodifiableMap(failures);
+        this.writeCount = writeCount;
+    }
+
+    /** @return the failure of each item that could not be written, in the order of the chunk */
+    public Map<Object, RuntimeException> getFailures()
+    {
+        return failures;
+    }
+
+    /** @return the number of items of the chunk written */
+    public int getWriteCount()
+    {
+        return writeCount;
+    }
+}
@@ -0,0 +1,377 @@
+package com.github.nmorel.spring.batch.mongodb.item;
+
+import com.github.nmorel.spring.batch.mongodb.transaction.MongoDbTransactionManager;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.BasicBSONEncoder;
+import org.bson.types.ObjectId;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamSupport;
+import org.springframework.batch.item.ItemStreamWriter;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.util.Assert;
+
+import java.util.*;
+
+/**
+ * {@link ItemWriter} inserting or upserting the items of a chunk into a collection.
+ * <p/>
+ * The inserts are sent by batches, limited by their number of documents and their size in bytes. An ordered write
+ * stops at the first failure, an unordered one writes all the items it can. The documents without an
+ * <code>_id</code> are inserted as a copy with a new one, so the documents written by a failed batch are found : they
+ * are the only ones considered written, a document with its own <code>_id</code> already stored is reported as a
+ * duplicate. The inserts are therefore not idempotent : a retried or replayed item without an <code>_id</code> is
+ * inserted again with a new one, and an item with its own <code>_id</code> fails as a duplicate. Only the
+ * {@link #setUpsertKeys(List) upserts} can be replayed.
+ * <p/>
+ * When some items fail, a {@link MongoDbItemWriteException} reports the failure of each one. The writer remembers the
+ * outcome of each item of the failed chunk while it is scanned : when a fault tolerant step writes the items one by one
+ * to find the ones to skip, the written items are not sent again and the failed ones throw their own failure. A write
+ * of several items, like the retry of the whole chunk, sends all its items again. The outcomes are forgotten once each
+ * item has been written again, when a write contains several items or an item of another chunk, and when the writer
+ * is opened or closed. The items are recognized with {@link Object#equals(Object)}.
+ */
+public class MongoDbItemWriter<T> extends ItemStreamSupport implements ItemStreamWriter<T>, InitializingBean
+{
+    private static final Log logger = LogFactory.getLog(MongoDbItemWriter.class);
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
+    public static final int DEFAULT_MAX_BATCH_BYTES = 8 * 1024 * 1024;
+
+    private static final String ID_KEY = "_id";
+
+    private DB db;
+
+    private String collectionName;
+
+    private Converter<? super T, ? extends DBObject> converter;
+
+    private List<String> upsertKeys;
+
+    private boolean ordered = true;
+
+    private WriteConcern writeConcern;
+
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    private int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+
+    private DBCollection collection;
+
+    /** Items of the failed chunk being scanned, not written again yet */
+    private final Set<Object> scanned = new HashSet<Object>();
+
+    /** Outcome of the items of the failed chunk being scanned, null when written */
+    private final Map<Object, RuntimeException> outcomes = new HashMap<Object, RuntimeException>();
+
+    public void setDb( DB db )
+    {
+        this.db = db;
+    }
+
+    public void setCollectionName( String collectionName )
+    {
+        this.collectionName = collectionName;
+    }
+
+    /** Sets the converter of the items to documents. If not set, the items must be {@link DBObject}. */
+    public void setConverter( Converter<? super T, ? extends DBObject> converter )
+    {
+        this.converter = converter;
+    }
+
+    /**
+     * Sets the fields identifying the document of an item. If set, each document replaces the one with the same values
+     * for these fields, or is inserted if there is none. If not set, the documents are inserted.
+     */
+    public void setUpsertKeys( List<String> upsertKeys )
+    {
+        this.upsertKeys = null == upsertKeys ? null : new ArrayList<String>(upsertKeys);
+    }
+
+    /** Sets if the write stops at the first failure, true by default */
+    public void setOrdered( boolean ordered )
+    {
+        this.ordered = ordered;
+    }
+
+    /** Sets the write concern of the writes. If not set, the one of the collection is used. */
+    public void setWriteConcern( WriteConcern writeConcern )
+    {
+        this.writeConcern = writeConcern;
+    }
+
+    /** Sets the maximum number of documents of an insert, {@link #DEFAULT_MAX_BATCH_SIZE} by default */
+    public void setMaxBatchSize( int maxBatchSize )
+    {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Sets the maximum size in bytes of the documents of an insert, {@link #DEFAULT_MAX_BATCH_BYTES} by default. A
+     * larger document is inserted alone.
+     */
+    public void setMaxBatchBytes( int maxBatchBytes )
+    {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        Assert.notNull(db, "The db must not be null.");
+        Assert.hasText(collectionName, "The collectionName must not be empty.");
+        Assert.isTrue(null == upsertKeys || !upsertKeys.isEmpty(), "The upsertKeys must not be empty.");
+        Assert.isTrue(maxBatchSize > 0, "The maxBatchSize must be positive.");
+        Assert.isTrue(maxBatchBytes > 0, "The maxBatchBytes must be positive.");
+        collection = db.getCollection(collectionName);
+    }
+
+    @Override
+    public synchronized void open( ExecutionContext executionContext ) throws ItemStreamException
+    {
+        forgetOutcomes();
+    }
+
+    @Override
+    public synchronized void close() throws ItemStreamException
+    {
+        forgetOutcomes();
+    }
+
+    @Override
+    public synchronized void write( List<? extends T> items ) throws Exception
+    {
+        // a fault tolerant step scans a failed chunk item by item, any other write sends all its items
+        boolean scan = 1 == items.size() && scanned.contains(items.get(0));
+        if( !scan )
+        {
+            forgetOutcomes();
+        }
+
+        List<T> unknown = new ArrayList<T>(items.size());
+        RuntimeException knownFailure = null;
+        for( T item : items )
+        {
+            scanned.remove(item);
+            if( outcomes.containsKey(item) )
+            {
+                RuntimeException failure = outcomes.remove(item);
+                if( null == knownFailure )
+                {
+                    knownFailure = failure;
+                }
+            }
+            else
+            {
+                unknown.add(item);
+            }
+        }
+        if( scanned.isEmpty() )
+        {
+            // each item of the scanned chunk has been written again
+            outcomes.clear();
+        }
+
+        if( !unknown.isEmpty() )
+        {
+            List<T> written = new ArrayList<T>(unknown.size());
+            Map<Object, RuntimeException> failures = new LinkedHashMap<Object, RuntimeException>();
+            if( null == upsertKeys )
+            {
+                insert(unknown, written, failures);
+            }
+            else
+            {
+                upsert(unknown, written, failures);
+            }
+
+            if( !failures.isEmpty() )
+            {
+                if( !scan )
+                {
+                    scanned.addAll(items);
+                    for( T item : written )
+                    {
+                        outcomes.put(item, null);
+                    }
+                    outcomes.putAll(failures);
+                }
+                throw new MongoDbItemWriteException(failures, written.size());
+            }
+        }
+
+        if( null != knownFailure )
+        {
+            throw knownFailure;
+        }
+    }
+
+    private void forgetOutcomes()
+    {
+        scanned.clear();
+        outcomes.clear();
+    }
+
+    private void insert( List<T> items, List<T> written, Map<Object, RuntimeException> failures )
+    {
+        BasicBSONEncoder encoder = new BasicBSONEncoder();
+        Set<Object> generatedIds = new HashSet<Object>();
+        List<T> batchItems = new ArrayList<T>();
+        List<DBObject> batch = new ArrayList<DBObject>();
+        int batchBytes = 0;
+        for( T item : items )
+        {
+            DBObject document = toDocument(item);
+            if( null == document.get(ID_KEY) )
+            {
+                // known before the insert, to find the documents written by a failed batch. The item keeps no _id, as
+                // only this attempt knows the documents it wrote.
+                document = new BasicDBObject(document.toMap());
+                ObjectId id = new ObjectId();
+                document.put(ID_KEY, id);
+                generatedIds.add(id);
+            }
+            int bytes = encoder.encode(document).length;
+            if( !batch.isEmpty() && (batch.size() >= maxBatchSize || batchBytes + bytes > maxBatchBytes) )
+            {
+                if( !insertBatch(batchItems, batch, generatedIds, written, failures) && ordered )
+                {
+                    return;
+                }
+                batchItems.clear();
+                batch.clear();
+                batchBytes = 0;
+            }
+            batchItems.add(item);
+            batch.add(document);
+            batchBytes += bytes;
+        }
+        if( !batch.isEmpty() )
+        {
+            insertBatch(batchItems, batch, generatedIds, written, failures);
+        }
+    }
+
+    /** @return false if some items failed */
+    private boolean insertBatch( List<T> items, List<DBObject> batch, Set<Object> generatedIds, List<T> written,
+                                 Map<Object, RuntimeException> failures )
+    {
+        WriteConcern concern = getWriteConcern();
+        try
+        {
+            collection.insert(batch, ordered ? concern : concern.continueOnErrorForInsert(true));
+            written.addAll(items);
+            return true;
+        }
+        catch( MongoException e )
+        {
+            logger.debug("Batch insert failed, finding the failed documents", e);
+        }
+
+        List<Object> ids = new ArrayList<Object>(batch.size());
+        for( DBObject document : batch )
+        {
+            ids.add(document.get(ID_KEY));
+        }
+        Set<Object> existingIds = new HashSet<Object>();
+        DBCursor cursor = collection.find(new BasicDBObject(ID_KEY, new BasicDBObject("$in", ids)),
+                new BasicDBObject(ID_KEY, 1));
+        try
+        {
+            while( cursor.hasNext() )
+            {
+                existingIds.add(cursor.next().get(ID_KEY));
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        // only the documents missing are inserted again, one by one, to know the failure of each. A document found with
+        // an _id of its own may have been stored before, it is inserted again to report the duplicate.
+        boolean failed = false;
+        for( int i = 0; i < batch.size(); i++ )
+        {
+            T item = items.get(i);
+            if( existingIds.contains(ids.get(i)) && generatedIds.contains(ids.get(i)) )
+            {
+                written.add(item);
+            }
+            else if( !(failed && ordered) )
+            {
+                try
+                {
+                    collection.insert(batch.get(i), concern);
+                    written.add(item);
+                }
+                catch( MongoException e )
+                {
+                    failures.put(item, e);
+                    failed = true;
+                }
+            }
+        }
+        return !failed;
+    }
+
+    private void upsert( List<T> items, List<T> written, Map<Object, RuntimeException> failures )
+    {
+        // the driver has no batch of updates, each upsert is a round trip
+        WriteConcern concern = getWriteConcern();
+        for( T item : items )
+        {
+            DBObject document = toDocument(item);
+            BasicDBObject query = new BasicDBObject();
+            for( String key : upsertKeys )
+            {
+                query.put(key, document.get(key));
+            }
+            try
+            {
+                collection.update(query, document, true, false, concern);
+                written.add(item);
+            }
+            catch( MongoException e )
+            {
+                failures.put(item, e);
+                if( ordered )
+                {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the write concern of the writes, whose wait for the replicas is deferred to the commit of the chunk if
+     * the step runs in a {@link MongoDbTransactionManager} transaction
+     */
+    private WriteConcern getWriteConcern()
+    {
+        return MongoDbTransactionManager.getWriteConcern(db, null == writeConcern ? collection.getWriteConcern()
+                : writeConcern);
+    }
+
+    private DBObject toDocument( T item )
+    {
+        if( null != converter )
+        {
+            return converter.convert(item);
+        }
+        Assert.isInstanceOf(DBObject.class, item, "Without a converter, the items must be DBObject.");
+        return (DBObject) item;
+    }
+}
@@ -0,0 +1,312 @@
+package com.github.nmorel.spring.batch.mongodb.launch.support;
+
+import com.github.nmorel.spring.batch.mongodb.launch.support.MongoDbSemaphore.Lease;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersIncrementer;
+import org.springframework.batch.core.JobParametersInvalidException;
+import org.springframework.batch.core.JobParametersValidator;
+import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.batch.core.repository.JobExecutionAlreadyRunningException;
+import org.springframework.batch.core.repository.JobInstanceAlreadyCompleteException;
+import org.springframework.batch.core.repository.JobRestartException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.util.Assert;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link JobLauncher} bounding the number of executions of a job, or of a group of jobs, running at once across all the
+ * processes sharing a {@link MongoDbSemaphore}.
+ * <p/>
+ * Before a job execution is created, a permit of the semaphore of the job is acquired : the semaphore of its group if
+ * it has one, see {@link #setGroups(Map)}, else the one named after the job. The permit is released when the job ends,
+ * and its lease is renewed while the job runs. A launch waits for a permit up to the acquire timeout, then is rejected
+ * with a {@link TaskRejectedException}. The jobs of the semaphores without permits are launched without limit.
+ */
+public class AdmissionControlJobLauncher implements JobLauncher, InitializingBean, DisposableBean
+{
+    private static final Log logger = LogFactory.getLog(AdmissionControlJobLauncher.class);
+
+    public static final long DEFAULT_LEASE_MILLIS = 60000L;
+
+    public static final long DEFAULT_RETRY_INTERVAL_MILLIS = 1000L;
+
+    private JobLauncher jobLauncher;
+
+    private MongoDbSemaphore semaphore;
+
+    private Map<String, Integer> permits = new HashMap<String, Integer>();
+
+    private Map<String, String> groups = new HashMap<String, String>();
+
+    private int defaultPermits = 0;
+
+    private long leaseMillis = DEFAULT_LEASE_MILLIS;
+
+    private long acquireTimeoutMillis = 0L;
+
+    private long retryIntervalMillis = DEFAULT_RETRY_INTERVAL_MILLIS;
+
+    private final Set<Lease> heldLeases = Collections.newSetFromMap(new ConcurrentHashMap<Lease, Boolean>());
+
+    private ScheduledExecutorService renewer;
+
+    /** Sets the launcher of the admitted jobs */
+    public void setJobLauncher( JobLauncher jobLauncher )
+    {
+        this.jobLauncher = jobLauncher;
+    }
+
+    public void setSemaphore( MongoDbSemaphore semaphore )
+    {
+        this.semaphore = semaphore;
+    }
+
+    /**
+     * Sets the number of permits of the semaphores, by job or group name. A value lower or equal to 0 does not limit
+     * the launches.
+     */
+    public void setPermits( Map<String, Integer> permits )
+    {
+        this.permits = new HashMap<String, Integer>(permits);
+    }
+
+    /** Sets the group of the jobs sharing a semaphore, by job name */
+    public void setGroups( Map<String, String> groups )
+    {
+        this.groups = new HashMap<String, String>(groups);
+    }
+
+    /** Sets the number of permits of the semaphores without a specific one. 0, the default, does not limit them. */
+    public void setDefaultPermits( int defaultPermits )
+    {
+        this.defaultPermits = defaultPermits;
+    }
+
+    /**
+     * Sets the duration of the leases, in milliseconds, {@link #DEFAULT_LEASE_MILLIS} by default. The leases are
+     * renewed every third of it, the permit of a process that died being available again after at most this duration.
+     */
+    public void setLeaseMillis( long leaseMillis )
+    {
+        this.leaseMillis = leaseMillis;
+    }
+
+    /** Sets how long a launch waits for a permit before being rejected, in milliseconds. 0 by default, not waiting. */
+    public void setAcquireTimeoutMillis( long acquireTimeoutMillis )
+    {
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+    }
+
+    /** Sets the pause between two attempts to acquire a permit, {@link #DEFAULT_RETRY_INTERVAL_MILLIS} by default */
+    public void setRetryIntervalMillis( long retryIntervalMillis )
+    {
+        this.retryIntervalMillis = retryIntervalMillis;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        Assert.notNull(jobLauncher, "The jobLauncher must not be null.");
+        Assert.notNull(semaphore, "The semaphore must not be null.");
+        Assert.isTrue(leaseMillis > 0, "The leaseMillis must be positive.");
+        Assert.isTrue(retryIntervalMillis > 0, "The retryIntervalMillis must be positive.");
+        renewer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread(runnable, "AdmissionControlJobLauncher-renewer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        renewer.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                renewLeases();
+            }
+        }, Math.max(1L, leaseMillis / 3), Math.max(1L, leaseMillis / 3), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy()
+    {
+        if( null != renewer )
+        {
+            renewer.shutdownNow();
+            renewer = null;
+        }
+    }
+
+    /**
+     * @param jobName the name of a job
+     *
+     * @return the name of the semaphore bounding the executions of the job
+     */
+    protected String getSemaphoreName( String jobName )
+    {
+        String group = groups.get(jobName);
+        return null == group ? jobName : group;
+    }
+
+    @Override
+    public JobExecution run( Job job, JobParameters jobParameters )
+            throws JobExecutionAlreadyRunningException, JobRestartException, JobInstanceAlreadyCompleteException,
+            JobParametersInvalidException
+    {
+        String name = getSemaphoreName(job.getName());
+        Integer semaphorePermits = permits.get(name);
+        int limit = null == semaphorePermits ? defaultPermits : semaphorePermits;
+        if( limit <= 0 )
+        {
+            return jobLauncher.run(job, jobParameters);
+        }
+
+        LeasedJob leasedJob = new LeasedJob(job, acquire(name, limit));
+        boolean handedOver = false;
+        try
+        {
+            JobExecution execution = jobLauncher.run(leasedJob, jobParameters);
+            // run, or waiting for a thread : the job releases its permit when it ends
+            handedOver = leasedJob.started || execution.getStatus() == BatchStatus.STARTING;
+            return execution;
+        }
+        finally
+        {
+            if( !handedOver )
+            {
+                leasedJob.release();
+            }
+        }
+    }
+
+    private Lease acquire( String name, int limit )
+    {
+        long deadline = System.currentTimeMillis() + acquireTimeoutMillis;
+        while( true )
+        {
+            Lease lease = semaphore.tryAcquire(name, limit, leaseMillis);
+            if( null != lease )
+            {
+                heldLeases.add(lease);
+                return lease;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if( remaining <= 0 )
+            {
+                throw new TaskRejectedException("The " + limit + " permits of " + name + " are held, launch rejected");
+            }
+            try
+            {
+                Thread.sleep(Math.min(remaining, retryIntervalMillis));
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new TaskRejectedException("Interrupted while waiting for a permit of " + name, e);
+            }
+        }
+    }
+
+    private void renewLeases()
+    {
+        for( Lease lease : heldLeases )
+        {
+            try
+            {
+                if( !semaphore.renew(lease, leaseMillis) && heldLeases.remove(lease) )
+                {
+                    logger.warn("The " + lease + " expired before being renewed, its permit may be held twice");
+                }
+            }
+            catch( RuntimeException e )
+            {
+                logger.warn("Could not renew the " + lease, e);
+            }
+        }
+    }
+
+    /** Job releasing its permit when it ends */
+    private class LeasedJob implements Job
+    {
+        private final Job job;
+
+        private final Lease lease;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private volatile boolean started;
+
+        private LeasedJob( Job job, Lease lease )
+        {
+            this.job = job;
+            this.lease = lease;
+        }
+
+        @Override
+        public String getName()
+        {
+            return job.getName();
+        }
+
+        @Override
+        public boolean isRestartable()
+        {
+            return job.isRestartable();
+        }
+
+        @Override
+        public void execute( JobExecution execution )
+        {
+            started = true;
+            try
+            {
+                job.execute(execution);
+            }
+            finally
+            {
+                release();
+            }
+        }
+
+        @Override
+        public JobParametersIncrementer getJobParametersIncrementer()
+        {
+            return job.getJobParametersIncrementer();
+        }
+
+        @Override
+        public JobParametersValidator getJobParametersValidator()
+        {
+            return job.getJobParametersValidator();
+        }
+
+        private void release()
+        {
+            if( released.compareAndSet(false, true) )
+            {
+                heldLeases.remove(lease);
+                semaphore.release(lease);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.nmorel.spring.batch.mongodb.launch.support;
+
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * {@link SimpleAsyncTaskExecutor} running each task on a new thread, up to a number of tasks running at once. Unlike
+ * the concurrency limit of {@link SimpleAsyncTaskExecutor}, which blocks the caller until a task ends, the tasks over
+ * the limit are rejected with a {@link TaskRejectedException}.
+ */
+public class BoundedThreadPerTaskExecutor extends SimpleAsyncTaskExecutor
+{
+    private static final long serialVersionUID = 1L;
+
+    private final int maxRunning;
+
+    private final Semaphore permits;
+
+    /**
+     * @param threadNamePrefix the prefix of the name of the threads
+     * @param maxRunning the maximum number of tasks running at once
+     */
+    public BoundedThreadPerTaskExecutor( String threadNamePrefix, int maxRunning )
+    {
+        super(threadNamePrefix);
+        Assert.isTrue(maxRunning > 0, "The maximum number of running tasks must be positive.");
+        this.maxRunning = maxRunning;
+        this.permits = new Semaphore(maxRunning);
+    }
+
+    /** @return the maximum number of tasks running at once */
+    public int getMaxRunning()
+    {
+        return maxRunning;
+    }
+
+    /** @return the number of tasks running */
+    public int getRunning()
+    {
+        return maxRunning - permits.availablePermits();
+    }
+
+    @Override
+    public void execute( Runnable task, long startTimeout )
+    {
+        Assert.notNull(task, "Runnable must not be null");
+        if( !permits.tryAcquire() )
+        {
+            throw new TaskRejectedException("The " + maxRunning + " threads are busy, " + task + " is rejected");
+        }
+        try
+        {
+            doExecute(new ReleasingTask(task));
+        }
+        catch( RuntimeException e )
+        {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private class ReleasingTask implements Runnable
+    {
+        private final Runnable task;
+
+        private ReleasingTask( Runnable task )
+        {
+            this.task = task;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                task.run();
+            }
+            finally
+            {
+                permits.release();
+            }
+        }
+    }
+}
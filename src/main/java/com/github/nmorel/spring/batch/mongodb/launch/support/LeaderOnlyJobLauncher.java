@@ -0,0 +1,68 @@
+package com.github.nmorel.spring.batch.mongodb.launch.support;
+
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersInvalidException;
+import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.batch.core.repository.JobExecutionAlreadyRunningException;
+import org.springframework.batch.core.repository.JobInstanceAlreadyCompleteException;
+import org.springframework.batch.core.repository.JobRestartException;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.util.Assert;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * {@link JobLauncher} launching the singleton jobs only on the leader elected by a {@link MongoDbLeaderElection}. On
+ * the other processes, their launches are rejected with a {@link TaskRejectedException} before any access to the
+ * repository. The jobs scheduled on every process thus run on one of them only, without racing to create their
+ * executions.
+ */
+public class LeaderOnlyJobLauncher implements JobLauncher, InitializingBean
+{
+    private JobLauncher jobLauncher;
+
+    private MongoDbLeaderElection leaderElection;
+
+    private Set<String> jobNames;
+
+    /** Sets the launcher of the jobs */
+    public void setJobLauncher( JobLauncher jobLauncher )
+    {
+        this.jobLauncher = jobLauncher;
+    }
+
+    public void setLeaderElection( MongoDbLeaderElection leaderElection )
+    {
+        this.leaderElection = leaderElection;
+    }
+
+    /** Sets the names of the singleton jobs. If not set, all the jobs are singletons. */
+    public void setJobNames( Collection<String> jobNames )
+    {
+        this.jobNames = null == jobNames ? null : new HashSet<String>(jobNames);
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        Assert.notNull(jobLauncher, "The jobLauncher must not be null.");
+        Assert.notNull(leaderElection, "The leaderElection must not be null.");
+    }
+
+    @Override
+    public JobExecution run( Job job, JobParameters jobParameters )
+            throws JobExecutionAlreadyRunningException, JobRestartException, JobInstanceAlreadyCompleteException,
+            JobParametersInvalidException
+    {
+        if( (null == jobNames || jobNames.contains(job.getName())) && !leaderElection.isLeader() )
+        {
+            throw new TaskRejectedException("The job " + job.getName() + " only runs on the leader");
+        }
+        return jobLauncher.run(job, jobParameters);
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.nmorel.spring.batch.mongodb.launch.support;
+
+import com.github.nmorel.spring.batch.mongodb.launch.support.MongoDbSemaphore.Lease;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Elects one leader among the processes sharing a {@link MongoDbSemaphore}, the holder of the single permit of a
+ * semaphore. A heartbeat renews the lease of the leader every third of its duration, while the other processes try to
+ * acquire it : when the leader dies or stops, another process is elected once its lease expires.
+ * <p/>
+ * A process stops considering itself the leader as soon as its lease is expired, even before its renewal fails, so two
+ * processes are never leaders at once while their clocks are synchronized.
+ */
+public class MongoDbLeaderElection implements InitializingBean, DisposableBean
+{
+    private static final Log logger = LogFactory.getLog(MongoDbLeaderElection.class);
+
+    public static final String DEFAULT_NAME = "leader";
+
+    public static final long DEFAULT_LEASE_MILLIS = 30000L;
+
+    private MongoDbSemaphore semaphore;
+
+    private String name = DEFAULT_NAME;
+
+    private long leaseMillis = DEFAULT_LEASE_MILLIS;
+
+    private volatile Lease lease;
+
+    private ScheduledExecutorService heartbeat;
+
+    public void setSemaphore( MongoDbSemaphore semaphore )
+    {
+        this.semaphore = semaphore;
+    }
+
+    /** Sets the name of the semaphore of the election, {@link #DEFAULT_NAME} by default */
+    public void setName( String name )
+    {
+        this.name = name;
+    }
+
+    /** Sets the duration of the lease of the leader, in milliseconds, {@link #DEFAULT_LEASE_MILLIS} by default */
+    public void setLeaseMillis( long leaseMillis )
+    {
+        this.leaseMillis = leaseMillis;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        Assert.notNull(semaphore, "The semaphore must not be null.");
+        Assert.hasText(name, "The name must not be empty.");
+        Assert.isTrue(leaseMillis > 0, "The leaseMillis must be positive.");
+        heartbeat = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread(runnable, "MongoDbLeaderElection-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        heartbeat.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                heartbeat();
+            }
+        }, 0L, Math.max(1L, leaseMillis / 3), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy()
+    {
+        if( null != heartbeat )
+        {
+            heartbeat.shutdownNow();
+            heartbeat = null;
+        }
+        Lease current = lease;
+        lease = null;
+        if( null != current )
+        {
+            // the next leader does not wait for the expiration
+            semaphore.release(current);
+        }
+    }
+
+    /** @return true if this process is the leader */
+    public boolean isLeader()
+    {
+        Lease current = lease;
+        return null != current && current.getExpiration() > System.currentTimeMillis();
+    }
+
+    /** Renews the lease of the leader, or tries to acquire it */
+    protected void heartbeat()
+    {
+        try
+        {
+            Lease current = lease;
+            if( null == current )
+            {
+                lease = semaphore.tryAcquire(name, 1, leaseMillis);
+                if( null != lease )
+                {
+                    logger.info("Elected leader of " + name);
+                }
+            }
+            else if( !semaphore.renew(current, leaseMillis) )
+            {
+                lease = null;
+                logger.warn("Lost the leadership of " + name + ", its lease expired before being renewed");
+            }
+        }
+        catch( RuntimeException e )
+        {
+            logger.warn("Could not renew or acquire the leadership of " + name, e);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.github.nmorel.spring.batch.mongodb.launch.support;
+
+import com.github.nmorel.spring.batch.mongodb.repository.dao.AbstractMongoDbDao;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.mongodb.BasicDBObjectBuilder.start;
+
+/**
+ * Counting semaphores shared by several processes through a MongoDB collection, without an external coordinator.
+ * <p/>
+ * Each permit of a semaphore is a slot document. A permit is acquired by taking a free or expired slot with a single
+ * <code>findAndModify</code>, so a slot is never granted twice. The permits are leased : a permit held by a process
+ * that died is available again once its lease expires, and the holders must renew their leases while they need them.
+ * The expirations are compared with the clocks of the processes, which must be synchronized much more precisely than
+ * the duration of the leases.
+ */
+public class MongoDbSemaphore implements InitializingBean
+{
+    public static final String DEFAULT_COLLECTION_NAME = "Semaphore";
+
+    private static final String ID_KEY = "_id";
+
+    private static final String NAME_KEY = "name";
+
+    private static final String SLOT_KEY = "slot";
+
+    private static final String OWNER_KEY = "owner";
+
+    private static final String EXPIRES_KEY = "expires";
+
+    /** Expiration of the free slots */
+    private static final Date FREE = new Date(0L);
+
+    private DB db;
+
+    private String prefix = AbstractMongoDbDao.DEFAULT_COLLECTION_PREFIX;
+
+    private DBCollection collection;
+
+    /** The semaphores whose slots are known to exist, with their number of permits */
+    private final Set<String> createdSlots = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public MongoDbSemaphore()
+    {
+    }
+
+    public MongoDbSemaphore( DB db )
+    {
+        this.db = db;
+    }
+
+    public void setDb( DB db )
+    {
+        this.db = db;
+    }
+
+    /** Sets the prefix of the collection, {@link AbstractMongoDbDao#DEFAULT_COLLECTION_PREFIX} by default */
+    public void setPrefix( String prefix )
+    {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        Assert.notNull(db, "The db must not be null.");
+        collection = db.getCollection(prefix + DEFAULT_COLLECTION_NAME);
+        collection.ensureIndex(start().add(NAME_KEY, 1).add(SLOT_KEY, 1).get());
+    }
+
+    /**
+     * Acquires a permit if one is available.
+     *
+     * @param name the name of the semaphore
+     * @param permits the number of permits of the semaphore
+     * @param leaseMillis the duration of the lease of the permit, in milliseconds
+     *
+     * @return the lease of the permit, or null if all the permits are held
+     */
+    public Lease tryAcquire( String name, int permits, long leaseMillis )
+    {
+        Assert.isTrue(permits > 0, "The number of permits must be positive.");
+        createSlots(name, permits);
+
+        long now = System.currentTimeMillis();
+        Lease lease = new Lease(name, new ObjectId().toString(), now + leaseMillis);
+        DBObject query = start().add(NAME_KEY, name).add(SLOT_KEY, new BasicDBObject("$lt", permits))
+                .add(EXPIRES_KEY, new BasicDBObject("$lt", new Date(now))).get();
+        DBObject update = new BasicDBObject("$set", start().add(OWNER_KEY, lease.owner)
+                .add(EXPIRES_KEY, new Date(lease.expiration)).get());
+        DBObject slot = collection.findAndModify(query, new BasicDBObject(ID_KEY, 1), null, false, update, false,
+                false);
+        if( null == slot )
+        {
+            return null;
+        }
+        lease.slotId = (String) slot.get(ID_KEY);
+        return lease;
+    }
+
+    /**
+     * Extends a lease.
+     *
+     * @param lease the lease
+     * @param leaseMillis the new duration of the lease from now, in milliseconds
+     *
+     * @return false if the lease was lost, having expired and the permit being acquired by another holder
+     */
+    public boolean renew( Lease lease, long leaseMillis )
+    {
+        long expiration = System.currentTimeMillis() + leaseMillis;
+        boolean renewed = collection.update(byLease(lease), new BasicDBObject("$set", new BasicDBObject(EXPIRES_KEY,
+                new Date(expiration))), false, false, WriteConcern.ACKNOWLEDGED).getN() == 1;
+        if( renewed )
+        {
+            lease.expiration = expiration;
+        }
+        return renewed;
+    }
+
+    /** Releases the permit of a lease, doing nothing if the lease was lost */
+    public void release( Lease lease )
+    {
+        collection.update(byLease(lease), new BasicDBObject("$set", start().add(OWNER_KEY, null).add(EXPIRES_KEY, FREE)
+                .get()));
+    }
+
+    /**
+     * @param name the name of the semaphore
+     * @param permits the number of permits of the semaphore
+     *
+     * @return the number of permits not held
+     */
+    public int getAvailablePermits( String name, int permits )
+    {
+        DBObject query = start().add(NAME_KEY, name).add(SLOT_KEY, new BasicDBObject("$lt", permits))
+                .add(EXPIRES_KEY, new BasicDBObject("$gte", new Date())).get();
+        return permits - (int) collection.count(query);
+    }
+
+    private DBObject byLease( Lease lease )
+    {
+        return start().add(ID_KEY, lease.slotId).add(OWNER_KEY, lease.owner).get();
+    }
+
+    /** Inserts the missing slots of a semaphore, once per number of permits */
+    private void createSlots( String name, int permits )
+    {
+        if( createdSlots.contains(name + "#" + permits) )
+        {
+            return;
+        }
+        List<DBObject> slots = new ArrayList<DBObject>(permits);
+        for( int slot = 0; slot < permits; slot++ )
+        {
+            slots.add(start().add(ID_KEY, name + "#" + slot).add(NAME_KEY, name).add(SLOT_KEY, slot)
+                    .add(OWNER_KEY, null).add(EXPIRES_KEY, FREE).get());
+        }
+        try
+        {
+            collection.insert(slots, WriteConcern.ACKNOWLEDGED.continueOnErrorForInsert(true));
+        }
+        catch( MongoException.DuplicateKey e )
+        {
+            // created by another process or before a change of the number of permits
+        }
+        createdSlots.add(name + "#" + permits);
+    }
+
+    /** Lease of a permit */
+    public static class Lease
+    {
+        private final String name;
+
+        private final String owner;
+
+        private String slotId;
+
+        private volatile long expiration;
+
+        private Lease( String name, String owner, long expiration )
+        {
+            this.name = name;
+            this.owner = owner;
+            this.expiration = expiration;
+        }
+
+        /** @return the name of the semaphore */
+        public String getName()
+        {
+            return name;
+        }
+
+        /** @return the time the lease expires at if not renewed, in milliseconds */
+        public long getExpiration()
+        {
+            return expiration;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Lease[name=" + name + ", slot=" + slotId + ", owner=" + owner + "]";
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.nmorel.spring.batch.mongodb.metrics;
+
+import org.springframework.batch.core.repository.ExecutionContextSerializer;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link ExecutionContextSerializer} recording the time spent in a delegate serializer and the size of the serialized
+ * contexts, under the <code>ExecutionContextSerializer.serialize</code> and
+ * <code>ExecutionContextSerializer.deserialize</code> operations.
+ */
+public class InstrumentedExecutionContextSerializer implements ExecutionContextSerializer
+{
+    static final String SERIALIZE_OPERATION = "ExecutionContextSerializer.serialize";
+
+    static final String DESERIALIZE_OPERATION = "ExecutionContextSerializer.deserialize";
+
+    private final ExecutionContextSerializer delegate;
+
+    private final MetricsSink sink;
+
+    public InstrumentedExecutionContextSerializer( ExecutionContextSerializer delegate, MetricsSink sink )
+    {
+        this.delegate = delegate;
+        this.sink = sink;
+    }
+
+    @Override
+    @SuppressWarnings( "unchecked" )
+    public void serialize( Object object, OutputStream outputStream ) throws IOException
+    {
+        CountingOutputStream out = new CountingOutputStream(outputStream);
+        long start = System.nanoTime();
+        try
+        {
+            delegate.serialize(object, out);
+        }
+        finally
+        {
+            sink.recordCall(SERIALIZE_OPERATION, System.nanoTime() - start);
+            sink.recordBytesWritten(SERIALIZE_OPERATION, out.count);
+        }
+    }
+
+    @Override
+    public Object deserialize( InputStream inputStream ) throws IOException
+    {
+        CountingInputStream in = new CountingInputStream(inputStream);
+        long start = System.nanoTime();
+        try
+        {
+            return delegate.deserialize(in);
+        }
+        finally
+        {
+            sink.recordCall(DESERIALIZE_OPERATION, System.nanoTime() - start);
+            sink.recordBytesRead(DESERIALIZE_OPERATION, in.count);
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream
+    {
+        private long count;
+
+        CountingOutputStream( OutputStream out )
+        {
+            super(out);
+        }
+
+        @Override
+        public void write( int b ) throws IOException
+        {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) throws IOException
+        {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream
+    {
+        private long count;
+
+        CountingInputStream( InputStream in )
+        {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if( b >= 0 )
+            {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read( byte[] b, int off, int len ) throws IOException
+        {
+            int read = super.read(b, off, len);
+            if( read > 0 )
+            {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
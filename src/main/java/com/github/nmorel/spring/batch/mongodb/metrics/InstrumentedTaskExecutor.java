@@ -0,0 +1,143 @@
+package com.github.nmorel.spring.batch.mongodb.metrics;
+
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link TaskExecutor} measuring the queueing of the tasks given to another one : the tasks waiting to start, the
+ * running ones, the time spent waiting and the rejections.
+ * <p/>
+ * When a sink is set, it receives the wait of each task as a call of the operation <code>&lt;name&gt;.queued</code>,
+ * its execution as a call of <code>&lt;name&gt;.run</code> and each rejection as a call of
+ * <code>&lt;name&gt;.rejected</code>.
+ */
+public class InstrumentedTaskExecutor implements TaskExecutor
+{
+    private final TaskExecutor taskExecutor;
+
+    private final String name;
+
+    private final MetricsSink sink;
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final AtomicInteger running = new AtomicInteger();
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong queuedNanos = new AtomicLong();
+
+    /**
+     * @param taskExecutor the executor running the tasks
+     * @param name the name of the executor, prefixing the name of the operations
+     * @param sink the sink of the measures, or null
+     */
+    public InstrumentedTaskExecutor( TaskExecutor taskExecutor, String name, MetricsSink sink )
+    {
+        Assert.notNull(taskExecutor, "The task executor must not be null.");
+        this.taskExecutor = taskExecutor;
+        this.name = name;
+        this.sink = sink;
+    }
+
+    /** @return the executor running the tasks */
+    public TaskExecutor getTaskExecutor()
+    {
+        return taskExecutor;
+    }
+
+    @Override
+    public void execute( Runnable task )
+    {
+        submitted.incrementAndGet();
+        queued.incrementAndGet();
+        try
+        {
+            taskExecutor.execute(new InstrumentedTask(task, System.nanoTime()));
+        }
+        catch( TaskRejectedException e )
+        {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            if( null != sink )
+            {
+                sink.recordCall(name + ".rejected", 0);
+            }
+            throw e;
+        }
+    }
+
+    /** @return the number of tasks submitted and not started yet */
+    public int getQueued()
+    {
+        return queued.get();
+    }
+
+    /** @return the number of tasks running */
+    public int getRunning()
+    {
+        return running.get();
+    }
+
+    /** @return the number of tasks submitted, including the rejected ones */
+    public long getSubmitted()
+    {
+        return submitted.get();
+    }
+
+    /** @return the number of tasks rejected */
+    public long getRejected()
+    {
+        return rejected.get();
+    }
+
+    /** @return the total time spent by the started tasks waiting to start, in milliseconds */
+    public double getQueuedMillis()
+    {
+        return queuedNanos.get() / 1000000d;
+    }
+
+    private class InstrumentedTask implements Runnable
+    {
+        private final Runnable task;
+
+        private final long submitTime;
+
+        private InstrumentedTask( Runnable task, long submitTime )
+        {
+            this.task = task;
+            this.submitTime = submitTime;
+        }
+
+        @Override
+        public void run()
+        {
+            long start = System.nanoTime();
+            queued.decrementAndGet();
+            running.incrementAndGet();
+            queuedNanos.addAndGet(start - submitTime);
+            if( null != sink )
+            {
+                sink.recordCall(name + ".queued", start - submitTime);
+            }
+            try
+            {
+                task.run();
+            }
+            finally
+            {
+                running.decrementAndGet();
+                if( null != sink )
+                {
+                    sink.recordCall(name + ".run", System.nanoTime() - start);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.nmorel.spring.batch.mongodb.metrics;
+
+import com.mongodb.DBCallback;
+import com.mongodb.DBCollection;
+import com.mongodb.DBDecoder;
+import com.mongodb.DBDecoderFactory;
+import com.mongodb.DBEncoder;
+import com.mongodb.DBEncoderFactory;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.DefaultDBEncoder;
+import org.bson.BSONCallback;
+import org.bson.BSONObject;
+import org.bson.io.OutputBuffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Encoders and decoders of a collection counting the BSON bytes sent to and received from the database. The bytes are
+ * attributed to the operation intercepted by {@link MetricsInterceptor} on the current thread, or to the collection
+ * outside of an instrumented call. The documents are still built by the decoder the collection had before.
+ */
+public class MetricsCodecFactory
+{
+    private final MetricsSink sink;
+
+    private final String collectionName;
+
+    private final DBDecoderFactory decoderFactory;
+
+    public MetricsCodecFactory( MetricsSink sink, String collectionName )
+    {
+        this(sink, collectionName, null);
+    }
+
+    /**
+     * @param sink the sink of the measures
+     * @param collectionName the name of the collection
+     * @param decoderFactory the decoder building the documents, null for the default one
+     */
+    public MetricsCodecFactory( MetricsSink sink, String collectionName, DBDecoderFactory decoderFactory )
+    {
+        this.sink = sink;
+        this.collectionName = collectionName;
+        this.decoderFactory = null == decoderFactory ? DefaultDBDecoder.FACTORY : decoderFactory;
+    }
+
+    private String getOperation()
+    {
+        String operation = MetricsInterceptor.getCurrentOperation();
+        return null == operation ? collectionName : operation;
+    }
+
+    public DBEncoderFactory getEncoderFactory()
+    {
+        return new DBEncoderFactory()
+        {
+            @Override
+            public DBEncoder create()
+            {
+                return new DefaultDBEncoder()
+                {
+                    @Override
+                    public int writeObject( OutputBuffer buf, BSONObject o )
+                    {
+                        int bytes = super.writeObject(buf, o);
+                        sink.recordBytesWritten(getOperation(), bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+    }
+
+    public DBDecoderFactory getDecoderFactory()
+    {
+        return new DBDecoderFactory()
+        {
+            @Override
+            public DBDecoder create()
+            {
+                final DBDecoder decoder = decoderFactory.create();
+                return new DefaultDBDecoder()
+                {
+                    @Override
+                    public DBCallback getDBCallback( DBCollection collection )
+                    {
+                        return decoder.getDBCallback(collection);
+                    }
+
+                    @Override
+                    public int decode( byte[] b, BSONCallback callback )
+                    {
+                        int bytes = super.decode(b, callback);
+                        sink.recordBytesRead(getOperation(), bytes);
+                        return bytes;
+                    }
+
+                    @Override
+                    public int decode( InputStream in, BSONCallback callback ) throws IOException
+                    {
+                        int bytes = super.decode(in, callback);
+                        sink.recordBytesRead(getOperation(), bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+    }
+}
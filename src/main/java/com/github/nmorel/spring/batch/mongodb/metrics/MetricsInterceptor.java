@@ -0,0 +1,62 @@
+package com.github.nmorel.spring.batch.mongodb.metrics;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+/**
+ * Times the calls to a component and counts its optimistic locking conflicts. The intercepted operation is exposed to
+ * the current thread, so the bytes exchanged with the database during the call are attributed to it.
+ */
+public class MetricsInterceptor implements MethodInterceptor
+{
+    private static final ThreadLocal<String> currentOperation = new ThreadLocal<String>();
+
+    private final MetricsSink sink;
+
+    private final String component;
+
+    /**
+     * @param sink the sink of the measures
+     * @param component the name of the component, prefixing the name of the operations
+     */
+    public MetricsInterceptor( MetricsSink sink, String component )
+    {
+        this.sink = sink;
+        this.component = component;
+    }
+
+    /** @return the innermost operation being intercepted on the current thread, or null */
+    static String getCurrentOperation()
+    {
+        return currentOperation.get();
+    }
+
+    @Override
+    public Object invoke( MethodInvocation invocation ) throws Throwable
+    {
+        if( invocation.getMethod().getDeclaringClass() == Object.class )
+        {
+            return invocation.proceed();
+        }
+
+        String operation = component + "." + invocation.getMethod().getName();
+        String outerOperation = currentOperation.get();
+        currentOperation.set(operation);
+        long start = System.nanoTime();
+        try
+        {
+            return invocation.proceed();
+        }
+        catch( OptimisticLockingFailureException e )
+        {
+            sink.recordConflict(operation);
+            throw e;
+        }
+        finally
+        {
+            sink.recordCall(operation, System.nanoTime() - start);
+            currentOperation.set(outerOperation);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.nmorel.spring.batch.mongodb.metrics;
+
+/**
+ * Receiver of the measures taken by the instrumented DAOs, incrementers, serializers and collections. An operation is
+ * named after the instrumented component and method, like <code>JobExecutionDao.updateJobExecution</code>.
+ * <p/>
+ * Implementations are called on the hot paths of the jobs, from many threads : they must be thread-safe and fast.
+ */
+public interface MetricsSink
+{
+    /**
+     * @param operation the operation
+     * @param durationNanos the duration of the call, in nanoseconds
+     */
+    void recordCall( String operation, long durationNanos );
+
+    /**
+     * Records an optimistic locking conflict, the call being also recorded.
+     *
+     * @param operation the operation
+     */
+    void recordConflict( String operation );
+
+    /**
+     * @param operation the operation
+     * @param bytes the number of bytes encoded to be sent to the database or, for a serializer, produced
+     */
+    void recordBytesWritten( String operation, long bytes );
+
+    /**
+     * @param operation the operation
+     * @param bytes the number of bytes decoded from the database or, for a serializer, consumed
+     */
+    void recordBytesRead( String operation, long bytes );
+
+    /**
+     * Records a round trip to the database, a request followed by the wait of its response.
+     *
+     * @param operation the operation
+     */
+    void recordRoundTrip( String operation );
+}
@@ -0,0 +1,148 @@
+package com.github.nmorel.spring.batch.mongodb.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures of an operation. The latencies are kept in a histogram of power of 2 buckets of microseconds, so the
+ * percentiles are upper bounds within a factor of 2.
+ */
+public class OperationMetrics
+{
+    private static final int BUCKETS = 40;
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong conflicts = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    private final AtomicLong roundTrips = new AtomicLong();
+
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    void recordCall( long durationNanos )
+    {
+        count.incrementAndGet();
+        totalNanos.addAndGet(durationNanos);
+        long max = maxNanos.get();
+        while( durationNanos > max && !maxNanos.compareAndSet(max, durationNanos) )
+        {
+            max = maxNanos.get();
+        }
+        histogram.incrementAndGet(bucket(durationNanos));
+    }
+
+    void recordConflict()
+    {
+        conflicts.incrementAndGet();
+    }
+
+    void recordBytesWritten( long bytes )
+    {
+        bytesWritten.addAndGet(bytes);
+    }
+
+    void recordBytesRead( long bytes )
+    {
+        bytesRead.addAndGet(bytes);
+    }
+
+    void recordRoundTrip()
+    {
+        roundTrips.incrementAndGet();
+    }
+
+    private static int bucket( long durationNanos )
+    {
+        long micros = TimeUnit.NANOSECONDS.toMicros(durationNanos);
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getConflicts()
+    {
+        return conflicts.get();
+    }
+
+    public long getBytesWritten()
+    {
+        return bytesWritten.get();
+    }
+
+    public long getBytesRead()
+    {
+        return bytesRead.get();
+    }
+
+    public long getRoundTrips()
+    {
+        return roundTrips.get();
+    }
+
+    public double getTotalMillis()
+    {
+        return totalNanos.get() / 1000000.0;
+    }
+
+    public double getMeanMillis()
+    {
+        long calls = count.get();
+        return calls == 0 ? 0.0 : getTotalMillis() / calls;
+    }
+
+    public double getMaxMillis()
+    {
+        return maxNanos.get() / 1000000.0;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 1
+     *
+     * @return the upper bound of the bucket holding the percentile, in milliseconds
+     */
+    public double getPercentileMillis( double percentile )
+    {
+        long total = 0;
+        long[] counts = new long[BUCKETS];
+        for( int i = 0; i < BUCKETS; i++ )
+        {
+            counts[i] = histogram.get(i);
+            total += counts[i];
+        }
+        if( total == 0 )
+        {
+            return 0.0;
+        }
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for( int i = 0; i < BUCKETS; i++ )
+        {
+            seen += counts[i];
+            if( seen >= rank )
+            {
+                return (1L << i) / 1000.0;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("count=%d conflicts=%d roundTrips=%d mean=%.3fms p99=%.3fms max=%.3fms written=%dB read=%dB",
+                getCount(), getConflicts(), getRoundTrips(), getMeanMillis(), getPercentileMillis(0.99), getMaxMillis(),
+                getBytesWritten(), getBytesRead());
+    }
+}
@@ -0,0 +1,298 @@
+package com.github.nmorel.spring.batch.mongodb.metrics;
+
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameter;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.ExecutionContextSerializer;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.batch.item.ExecutionContext;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Collects the measures of the instrumented repository and explorer : per operation latency histograms, call counts,
+ * bytes exchanged with the database, serialization time and optimistic locking conflicts. The round trips are counted
+ * when the {@link com.mongodb.MongoClient} is created with a {@link RoundTripCountingSocketFactory}.
+ * <p/>
+ * The measures are exposed through JMX when an object name is set, and forwarded to an optional {@link MetricsSink}
+ * to publish them elsewhere.
+ *
+ * @see com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbJobRepositoryFactoryBean#setMetrics
+ * @see com.github.nmorel.spring.batch.mongodb.explore.support.MongoDbJobExplorerFactoryBean#setMetrics
+ */
+public class RepositoryMetrics implements MetricsSink, RepositoryMetricsMBean, InitializingBean, DisposableBean
+{
+    public static final String DEFAULT_OBJECT_NAME = "com.github.nmorel.spring.batch.mongodb:type=RepositoryMetrics";
+
+    /** Names of the meta-data and sequences collections, without prefix */
+    private static final String[] COLLECTION_NAMES = {JobInstance.class.getSimpleName(),
+            JobExecution.class.getSimpleName(), JobParameter.class.getSimpleName(), StepExecution.class.getSimpleName(),
+            ExecutionContext.class.getSimpleName(), "Sequence" + JobInstance.class.getSimpleName(),
+            "Sequence" + JobExecution.class.getSimpleName(), "Sequence" + StepExecution.class.getSimpleName()};
+
+    private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<String, OperationMetrics>();
+
+    private final Set<DBCollection> instrumentedCollections = Collections
+            .synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<DBCollection, Boolean>()));
+
+    private MetricsSink sink;
+
+    private String objectName;
+
+    private MBeanServer mBeanServer;
+
+    /** Sets a sink receiving all the measures in addition to this collector */
+    public void setSink( MetricsSink sink )
+    {
+        this.sink = sink;
+    }
+
+    /**
+     * Sets the JMX object name this collector is registered under, in the platform {@link MBeanServer}. If not set,
+     * the collector is not registered.
+     *
+     * @see #DEFAULT_OBJECT_NAME
+     */
+    public void setObjectName( String objectName )
+    {
+        this.objectName = objectName;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception
+    {
+        if( null != objectName )
+        {
+            mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            mBeanServer.registerMBean(this, new ObjectName(objectName));
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception
+    {
+        if( null != mBeanServer )
+        {
+            mBeanServer.unregisterMBean(new ObjectName(objectName));
+            mBeanServer = null;
+        }
+    }
+
+    /**
+     * Wraps a component, usually a DAO or an incrementer, so all its public methods are measured.
+     *
+     * @param target the component
+     * @param component the name of the component, prefixing the name of the operations
+     * @param proxyTargetClass true to proxy the class of the target, for the callers needing more than its interfaces
+     *
+     * @return the instrumented component
+     */
+    @SuppressWarnings( "unchecked" )
+    public <T> T instrument( T target, String component, boolean proxyTargetClass )
+    {
+        ProxyFactory proxyFactory = new ProxyFactory(target);
+        proxyFactory.setProxyTargetClass(proxyTargetClass);
+        proxyFactory.addAdvice(new MetricsInterceptor(this, component));
+        return (T) proxyFactory.getProxy();
+    }
+
+    /**
+     * @param serializer the serializer
+     *
+     * @return the serializer measuring the time spent in the given one
+     */
+    public ExecutionContextSerializer instrument( ExecutionContextSerializer serializer )
+    {
+        return new InstrumentedExecutionContextSerializer(serializer, this);
+    }
+
+    /**
+     * Counts the bytes sent to and received from the meta-data and sequences collections. The decoders already set on
+     * the collections are kept, so this must be called once the DAOs are initialized. A collection is instrumented
+     * only once.
+     *
+     * @param db the database
+     * @param collectionPrefix the prefix of the collections
+     */
+    public void instrumentCollections( DB db, String collectionPrefix )
+    {
+        for( String name : COLLECTION_NAMES )
+        {
+            String collectionName = collectionPrefix + name;
+            DBCollection collection = db.getCollection(collectionName);
+            if( instrumentedCollections.add(collection) )
+            {
+                MetricsCodecFactory codecFactory = new MetricsCodecFactory(this, collectionName, collection.getDBDecoderFactory());
+                collection.setDBEncoderFactory(codecFactory.getEncoderFactory());
+                collection.setDBDecoderFactory(codecFactory.getDecoderFactory());
+            }
+        }
+    }
+
+    /**
+     * @param operation the operation
+     *
+     * @return the measures of the operation, created if needed
+     */
+    public OperationMetrics getOperation( String operation )
+    {
+        OperationMetrics metrics = operations.get(operation);
+        if( null == metrics )
+        {
+            OperationMetrics newMetrics = new OperationMetrics();
+            metrics = operations.putIfAbsent(operation, newMetrics);
+            if( null == metrics )
+            {
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    @Override
+    public void recordCall( String operation, long durationNanos )
+    {
+        getOperation(operation).recordCall(durationNanos);
+        if( null != sink )
+        {
+            sink.recordCall(operation, durationNanos);
+        }
+    }
+
+    @Override
+    public void recordConflict( String operation )
+    {
+        getOperation(operation).recordConflict();
+        if( null != sink )
+        {
+            sink.recordConflict(operation);
+        }
+    }
+
+    @Override
+    public void recordBytesWritten( String operation, long bytes )
+    {
+        getOperation(operation).recordBytesWritten(bytes);
+        if( null != sink )
+        {
+            sink.recordBytesWritten(operation, bytes);
+        }
+    }
+
+    @Override
+    public void recordBytesRead( String operation, long bytes )
+    {
+        getOperation(operation).recordBytesRead(bytes);
+        if( null != sink )
+        {
+            sink.recordBytesRead(operation, bytes);
+        }
+    }
+
+    @Override
+    public void recordRoundTrip( String operation )
+    {
+        getOperation(operation).recordRoundTrip();
+        if( null != sink )
+        {
+            sink.recordRoundTrip(operation);
+        }
+    }
+
+    @Override
+    public String[] getOperationNames()
+    {
+        Set<String> names = new TreeSet<String>(operations.keySet());
+        return names.toArray(new String[names.size()]);
+    }
+
+    @Override
+    public String[] getSummary()
+    {
+        String[] names = getOperationNames();
+        String[] summary = new String[names.length];
+        for( int i = 0; i < names.length; i++ )
+        {
+            summary[i] = names[i] + " " + getOperation(names[i]);
+        }
+        return summary;
+    }
+
+    @Override
+    public long getCount( String operation )
+    {
+        return getOperation(operation).getCount();
+    }
+
+    @Override
+    public long getConflicts( String operation )
+    {
+        return getOperation(operation).getConflicts();
+    }
+
+    @Override
+    public long getBytesWritten( String operation )
+    {
+        return getOperation(operation).getBytesWritten();
+    }
+
+    @Override
+    public long getBytesRead( String operation )
+    {
+        return getOperation(operation).getBytesRead();
+    }
+
+    @Override
+    public long getRoundTrips( String operation )
+    {
+        return getOperation(operation).getRoundTrips();
+    }
+
+    @Override
+    public long getTotalRoundTrips()
+    {
+        long total = 0;
+        for( Map.Entry<String, OperationMetrics> entry : operations.entrySet() )
+        {
+            if( !RoundTripCountingSocketFactory.UNATTRIBUTED_OPERATION.equals(entry.getKey()) )
+            {
+                total += entry.getValue().getRoundTrips();
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public double getMeanMillis( String operation )
+    {
+        return getOperation(operation).getMeanMillis();
+    }
+
+    @Override
+    public double getPercentileMillis( String operation, double percentile )
+    {
+        return getOperation(operation).getPercentileMillis(percentile);
+    }
+
+    @Override
+    public double getMaxMillis( String operation )
+    {
+        return getOperation(operation).getMaxMillis();
+    }
+
+    @Override
+    public void reset()
+    {
+        operations.clear();
+    }
+}
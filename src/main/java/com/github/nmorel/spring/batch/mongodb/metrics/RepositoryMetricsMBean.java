@@ -0,0 +1,31 @@
+package com.github.nmorel.spring.batch.mongodb.metrics;
+
+/** JMX interface of {@link RepositoryMetrics}. The latencies are in milliseconds. */
+public interface RepositoryMetricsMBean
+{
+    String[] getOperationNames();
+
+    /** @return one line of measures per operation */
+    String[] getSummary();
+
+    long getCount( String operation );
+
+    long getConflicts( String operation );
+
+    long getBytesWritten( String operation );
+
+    long getBytesRead( String operation );
+
+    long getRoundTrips( String operation );
+
+    /** @return the round trips of all the operations, except the unattributed ones */
+    long getTotalRoundTrips();
+
+    double getMeanMillis( String operation );
+
+    double getPercentileMillis( String operation, double percentile );
+
+    double getMaxMillis( String operation );
+
+    void reset();
+}
@@ -0,0 +1,152 @@
+package com.github.nmorel.spring.batch.mongodb.metrics;
+
+import javax.net.SocketFactory;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * {@link SocketFactory} counting the round trips to the database, to be set in the
+ * {@link com.mongodb.MongoClientOptions} of the client used by the repository :
+ * <pre>
+ * MongoClientOptions.builder().socketFactory(new RoundTripCountingSocketFactory(metrics)).build()
+ * </pre>
+ * A round trip is counted at the first read following a write on a connection, so the queries, the commands and the
+ * acknowledged writes with their <code>getLastError</code> count for one, and the unacknowledged writes for none. The
+ * driver using a connection on the calling thread, each round trip is attributed to the operation intercepted by
+ * {@link MetricsInterceptor} on the current thread, or to {@link #UNATTRIBUTED_OPERATION}.
+ * <p/>
+ * Only plain sockets are created.
+ */
+public class RoundTripCountingSocketFactory extends SocketFactory
+{
+    /** Operation of the round trips done outside of an instrumented call, like the monitoring of the servers */
+    public static final String UNATTRIBUTED_OPERATION = "unattributed";
+
+    private final MetricsSink sink;
+
+    public RoundTripCountingSocketFactory( MetricsSink sink )
+    {
+        this.sink = sink;
+    }
+
+    @Override
+    public Socket createSocket()
+    {
+        return new CountingSocket();
+    }
+
+    @Override
+    public Socket createSocket( String host, int port ) throws IOException
+    {
+        Socket socket = createSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket( String host, int port, InetAddress localHost, int localPort ) throws IOException
+    {
+        Socket socket = createSocket();
+        socket.bind(new InetSocketAddress(localHost, localPort));
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket( InetAddress host, int port ) throws IOException
+    {
+        Socket socket = createSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket( InetAddress address, int port, InetAddress localAddress, int localPort ) throws IOException
+    {
+        Socket socket = createSocket();
+        socket.bind(new InetSocketAddress(localAddress, localPort));
+        socket.connect(new InetSocketAddress(address, port));
+        return socket;
+    }
+
+    private void recordRoundTrip()
+    {
+        String operation = MetricsInterceptor.getCurrentOperation();
+        sink.recordRoundTrip(null == operation ? UNATTRIBUTED_OPERATION : operation);
+    }
+
+    private class CountingSocket extends Socket
+    {
+        /** True when a request has been written and its response not read yet */
+        private volatile boolean written;
+
+        private InputStream inputStream;
+
+        private OutputStream outputStream;
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException
+        {
+            if( null == inputStream )
+            {
+                inputStream = new FilterInputStream(super.getInputStream())
+                {
+                    @Override
+                    public int read() throws IOException
+                    {
+                        beforeRead();
+                        return super.read();
+                    }
+
+                    @Override
+                    public int read( byte[] b, int off, int len ) throws IOException
+                    {
+                        beforeRead();
+                        return super.read(b, off, len);
+                    }
+                };
+            }
+            return inputStream;
+        }
+
+        @Override
+        public synchronized OutputStream getOutputStream() throws IOException
+        {
+            if( null == outputStream )
+            {
+                outputStream = new FilterOutputStream(super.getOutputStream())
+                {
+                    @Override
+                    public void write( int b ) throws IOException
+                    {
+                        written = true;
+                        out.write(b);
+                    }
+
+                    @Override
+                    public void write( byte[] b, int off, int len ) throws IOException
+                    {
+                        written = true;
+                        out.write(b, off, len);
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        private void beforeRead()
+        {
+            if( written )
+            {
+                written = false;
+                recordRoundTrip();
+            }
+        }
+    }
+}
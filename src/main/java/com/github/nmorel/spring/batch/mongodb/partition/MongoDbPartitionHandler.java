@@ -0,0 +1,124 @@
+package com.github.nmorel.spring.batch.mongodb.partition;
+
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.partition.PartitionHandler;
+import org.springframework.batch.core.partition.StepExecutionSplitter;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link PartitionHandler} running the partitions on the {@link MongoDbPartitionWorker workers} of any process sharing
+ * the {@link MongoDbPartitionQueue}, without a messaging middleware.
+ * <p/>
+ * The step executions of the partitions are added to the queue, then the master waits for the notifications of their
+ * completion and reads their final state once they are all done, failing if one of them was not run. The partitions
+ * are removed from the queue when the master ends, even on a timeout or a failure.
+ */
+public class MongoDbPartitionHandler implements PartitionHandler, InitializingBean
+{
+    private MongoDbPartitionQueue queue;
+
+    private JobExplorer jobExplorer;
+
+    private String stepName;
+
+    private int gridSize = 1;
+
+    private long timeoutMillis = -1L;
+
+    public void setQueue( MongoDbPartitionQueue queue )
+    {
+        this.queue = queue;
+    }
+
+    /** Sets the explorer reading the final state of the partitions. It must read from the primary. */
+    public void setJobExplorer( JobExplorer jobExplorer )
+    {
+        this.jobExplorer = jobExplorer;
+    }
+
+    /** Sets the name of the step the workers run for each partition */
+    public void setStepName( String stepName )
+    {
+        this.stepName = stepName;
+    }
+
+    /** Sets the number of partitions asked to the splitter, 1 by default */
+    public void setGridSize( int gridSize )
+    {
+        this.gridSize = gridSize;
+    }
+
+    /** Sets the maximum wait for the partitions, in milliseconds. A negative value, the default, does not limit it. */
+    public void setTimeoutMillis( long timeoutMillis )
+    {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        Assert.notNull(queue, "The queue must not be null.");
+        Assert.notNull(jobExplorer, "The jobExplorer must not be null.");
+        Assert.notNull(stepName, "The stepName must not be null.");
+    }
+
+    @Override
+    public Collection<StepExecution> handle( StepExecutionSplitter stepSplitter, StepExecution masterStepExecution )
+            throws Exception
+    {
+        Set<StepExecution> partitions = stepSplitter.split(masterStepExecution, gridSize);
+        if( partitions.isEmpty() )
+        {
+            return partitions;
+        }
+
+        Set<Long> stepExecutionIds = new HashSet<Long>();
+        for( StepExecution partition : partitions )
+        {
+            stepExecutionIds.add(partition.getId());
+        }
+        queue.enqueue(masterStepExecution, stepName, partitions);
+        try
+        {
+            Set<Long> pending = queue.awaitCompletion(masterStepExecution, stepExecutionIds, timeoutMillis);
+            if( !pending.isEmpty() )
+            {
+                throw new TimeoutException("Timeout waiting for the partitions " + pending + " of "
+                        + masterStepExecution);
+            }
+        }
+        finally
+        {
+            // the partitions of a failed master are not claimed anymore
+            queue.remove(masterStepExecution);
+        }
+
+        List<StepExecution> result = new ArrayList<StepExecution>(partitions.size());
+        for( StepExecution partition : partitions )
+        {
+            StepExecution stepExecution = jobExplorer.getStepExecution(partition.getJobExecutionId(),
+                    partition.getId());
+            if( null == stepExecution )
+            {
+                throw new IllegalStateException("The step execution of the partition " + partition.getId()
+                        + " was not found");
+            }
+            if( BatchStatus.STARTING == stepExecution.getStatus() )
+            {
+                throw new IllegalStateException("The partition " + partition.getId() + " is done but was not run");
+            }
+            result.add(stepExecution);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,402 @@
+package com.github.nmorel.spring.batch.mongodb.partition;
+
+import com.github.nmorel.spring.batch.mongodb.repository.dao.AbstractMongoDbDao;
+import com.mongodb.BasicDBObject;
+import com.mongodb.Bytes;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+import org.bson.types.ObjectId;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.mongodb.BasicDBObjectBuilder.start;
+
+/**
+ * Queue of the partitions of the partitioned steps, shared by a master and its workers through MongoDB.
+ * <p/>
+ * Each partition is a work item, claimed by a worker with a single <code>findAndModify</code> taking a lease on it. A
+ * worker renews the leases of the partitions it runs : the partitions of a worker that died are claimed again by
+ * another worker once their lease expires. The expirations are compared with the clocks of the processes, which must
+ * be synchronized much more precisely than the duration of the leases.
+ * <p/>
+ * The completions are published in a capped collection, which the master tails with an await data cursor instead of
+ * querying the step executions.
+ *
+ * @see MongoDbPartitionHandler
+ * @see MongoDbPartitionWorker
+ */
+public class MongoDbPartitionQueue implements InitializingBean
+{
+    public static final String WORK_COLLECTION_NAME = "PartitionWork";
+
+    public static final String EVENT_COLLECTION_NAME = "PartitionEvent";
+
+    public static final long DEFAULT_EVENT_COLLECTION_SIZE = 1024L * 1024L;
+
+    private static final String ID_KEY = "_id";
+
+    private static final String JOB_EXECUTION_ID_KEY = "jobExecutionId";
+
+    private static final String MASTER_KEY = "masterStepExecutionId";
+
+    private static final String STEP_EXECUTION_ID_KEY = "stepExecutionId";
+
+    private static final String STEP_NAME_KEY = "stepName";
+
+    private static final String DONE_KEY = "done";
+
+    private static final String OWNER_KEY = "owner";
+
+    private static final String EXPIRES_KEY = "expires";
+
+    private static final String ATTEMPTS_KEY = "attempts";
+
+    /** Interval between two closes of the cursor of an expired wait, until the waiting thread sees it */
+    private static final long WATCHDOG_INTERVAL_MILLIS = 1000L;
+
+    /** Expiration of the partitions never claimed */
+    private static final Date UNCLAIMED = new Date(0L);
+
+    private DB db;
+
+    private String prefix = AbstractMongoDbDao.DEFAULT_COLLECTION_PREFIX;
+
+    private long eventCollectionSize = DEFAULT_EVENT_COLLECTION_SIZE;
+
+    private DBCollection workCollection;
+
+    private DBCollection eventCollection;
+
+    public MongoDbPartitionQueue()
+    {
+    }
+
+    public MongoDbPartitionQueue( DB db )
+    {
+        this.db = db;
+    }
+
+    public void setDb( DB db )
+    {
+        this.db = db;
+    }
+
+    /** Sets the prefix of the collections, {@link AbstractMongoDbDao#DEFAULT_COLLECTION_PREFIX} by default */
+    public void setPrefix( String prefix )
+    {
+        this.prefix = prefix;
+    }
+
+    /**
+     * Sets the size in bytes of the capped collection of the completions, when it is created. It must hold the
+     * completions published while a master reconnects its cursor. {@link #DEFAULT_EVENT_COLLECTION_SIZE} by default.
+     */
+    public void setEventCollectionSize( long eventCollectionSize )
+    {
+        this.eventCollectionSize = eventCollectionSize;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        Assert.notNull(db, "The db must not be null.");
+        workCollection = db.getCollection(prefix + WORK_COLLECTION_NAME);
+        workCollection.ensureIndex(start().add(DONE_KEY, 1).add(EXPIRES_KEY, 1).get());
+        workCollection.ensureIndex(new BasicDBObject(MASTER_KEY, 1));
+
+        String eventCollectionName = prefix + EVENT_COLLECTION_NAME;
+        if( !db.collectionExists(eventCollectionName) )
+        {
+            try
+            {
+                db.createCollection(eventCollectionName, start().add("capped", true).add("size", eventCollectionSize)
+                        .get());
+                // the tailable cursors die on an empty collection
+                db.getCollection(eventCollectionName).insert(new BasicDBObject());
+            }
+            catch( MongoException e )
+            {
+                // created meanwhile by another process
+            }
+        }
+        eventCollection = db.getCollection(eventCollectionName);
+    }
+
+    /**
+     * Adds the partitions of a master step execution to the queue. A partition already queued is reset, as never
+     * claimed nor done.
+     *
+     * @param masterStepExecution the master step execution
+     * @param stepName the name of the step the workers run for each partition
+     * @param partitions the step executions of the partitions, already saved
+     */
+    public void enqueue( StepExecution masterStepExecution, String stepName, Collection<StepExecution> partitions )
+    {
+        for( StepExecution partition : partitions )
+        {
+            DBObject item = start().add(ID_KEY, partition.getId())
+                    .add(JOB_EXECUTION_ID_KEY, partition.getJobExecutionId())
+                    .add(MASTER_KEY, masterStepExecution.getId()).add(STEP_NAME_KEY, stepName).add(DONE_KEY, false)
+                    .add(OWNER_KEY, null).add(EXPIRES_KEY, UNCLAIMED).add(ATTEMPTS_KEY, 0).get();
+            workCollection.update(new BasicDBObject(ID_KEY, partition.getId()), item, true, false,
+                    WriteConcern.ACKNOWLEDGED);
+        }
+    }
+
+    /**
+     * Claims a partition never claimed or whose lease expired.
+     *
+     * @param stepNames the names of the steps the worker can run
+     * @param leaseMillis the duration of the lease, in milliseconds
+     *
+     * @return the partition, or null if none is available
+     */
+    public WorkItem claim( Collection<String> stepNames, long leaseMillis )
+    {
+        long now = System.currentTimeMillis();
+        String owner = new ObjectId().toString();
+        DBObject query = start().add(DONE_KEY, false).add(EXPIRES_KEY, new BasicDBObject("$lt", new Date(now)))
+                .add(STEP_NAME_KEY, new BasicDBObject("$in", new ArrayList<String>(stepNames))).get();
+        DBObject update = start().add("$set", start().add(OWNER_KEY, owner)
+                .add(EXPIRES_KEY, new Date(now + leaseMillis)).get())
+                .add("$inc", new BasicDBObject(ATTEMPTS_KEY, 1)).get();
+        DBObject item = workCollection.findAndModify(query, null, null, false, update, true, false);
+        if( null == item )
+        {
+            return null;
+        }
+        return new WorkItem((Long) item.get(ID_KEY), (Long) item.get(JOB_EXECUTION_ID_KEY),
+                (Long) item.get(MASTER_KEY), (String) item.get(STEP_NAME_KEY), owner, (Integer) item.get(ATTEMPTS_KEY));
+    }
+
+    /**
+     * Extends the lease of a claimed partition.
+     *
+     * @return false if the lease was lost, having expired and the partition being claimed by another worker
+     */
+    public boolean renew( WorkItem item, long leaseMillis )
+    {
+        return workCollection.update(byOwner(item), new BasicDBObject("$set", new BasicDBObject(EXPIRES_KEY,
+                new Date(System.currentTimeMillis() + leaseMillis))), false, false, WriteConcern.ACKNOWLEDGED)
+                .getN() == 1;
+    }
+
+    /**
+     * Gives a claimed partition up without running it, so it can be claimed again at once.
+     *
+     * @return false if the lease was lost
+     */
+    public boolean release( WorkItem item )
+    {
+        return workCollection.update(byOwner(item), new BasicDBObject("$set", new BasicDBObject(EXPIRES_KEY,
+                new Date())), false, false, WriteConcern.ACKNOWLEDGED).getN() == 1;
+    }
+
+    /**
+     * Marks a partition as done and notifies its master, unless the lease was lost.
+     *
+     * @return false if the lease was lost
+     */
+    public boolean complete( WorkItem item )
+    {
+        if( workCollection.update(byOwner(item), new BasicDBObject("$set", new BasicDBObject(DONE_KEY, true)), false,
+                false, WriteConcern.ACKNOWLEDGED).getN() != 1 )
+        {
+            return false;
+        }
+        eventCollection.insert(start().add(MASTER_KEY, item.masterStepExecutionId)
+                .add(STEP_EXECUTION_ID_KEY, item.stepExecutionId).get());
+        return true;
+    }
+
+    /**
+     * Waits for partitions of a master step execution to be done, tailing the notifications of their completion with
+     * an await data cursor : the server holds each read until a completion is published, so the master does not poll.
+     *
+     * @param masterStepExecution the master step execution
+     * @param stepExecutionIds the ids of the step executions of the partitions
+     * @param timeoutMillis the maximum wait in milliseconds, or a negative value to wait without limit
+     *
+     * @return the ids of the partitions not done before the timeout
+     */
+    public Set<Long> awaitCompletion( StepExecution masterStepExecution, Set<Long> stepExecutionIds,
+                                      long timeoutMillis )
+    {
+        Set<Long> pending = new HashSet<Long>(stepExecutionIds);
+        final AtomicReference<DBCursor> current = new AtomicReference<DBCursor>();
+        final AtomicBoolean expired = new AtomicBoolean();
+        ScheduledExecutorService watchdog = null;
+        if( timeoutMillis >= 0 )
+        {
+            // the driver waits for the data without returning, the timeout closes the cursor under the wait
+            watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread thread = new Thread(runnable, "MongoDbPartitionQueue-timeout");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            watchdog.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    expired.set(true);
+                    DBCursor cursor = current.get();
+                    if( null != cursor )
+                    {
+                        cursor.close();
+                    }
+                }
+            }, timeoutMillis, WATCHDOG_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        try
+        {
+            Long masterId = masterStepExecution.getId();
+            while( !pending.isEmpty() && !expired.get() )
+            {
+                // a reconnected cursor may miss the completions overwritten in the capped collection
+                removeDone(pending, masterStepExecution);
+                // not filtered by master, a tailable cursor matching nothing yet would die at once
+                DBCursor cursor = eventCollection.find().addOption(Bytes.QUERYOPTION_TAILABLE)
+                        .addOption(Bytes.QUERYOPTION_AWAITDATA);
+                current.set(cursor);
+                try
+                {
+                    while( !pending.isEmpty() && !expired.get() && cursor.hasNext() )
+                    {
+                        DBObject event = cursor.next();
+                        if( masterId.equals(event.get(MASTER_KEY)) )
+                        {
+                            pending.remove(event.get(STEP_EXECUTION_ID_KEY));
+                        }
+                    }
+                }
+                catch( RuntimeException e )
+                {
+                    if( !expired.get() )
+                    {
+                        throw e;
+                    }
+                }
+                finally
+                {
+                    current.set(null);
+                    cursor.close();
+                }
+            }
+        }
+        finally
+        {
+            if( null != watchdog )
+            {
+                watchdog.shutdownNow();
+            }
+        }
+        return pending;
+    }
+
+    private void removeDone( Set<Long> pending, StepExecution masterStepExecution )
+    {
+        DBCursor cursor = workCollection.find(start().add(MASTER_KEY, masterStepExecution.getId()).add(DONE_KEY, true)
+                .get(), new BasicDBObject(ID_KEY, 1));
+        try
+        {
+            while( cursor.hasNext() )
+            {
+                pending.remove(cursor.next().get(ID_KEY));
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Removes the partitions of a master step execution from the queue. The workers running one of them lose their
+     * lease.
+     */
+    public void remove( StepExecution masterStepExecution )
+    {
+        workCollection.remove(new BasicDBObject(MASTER_KEY, masterStepExecution.getId()));
+    }
+
+    private DBObject byOwner( WorkItem item )
+    {
+        return start().add(ID_KEY, item.stepExecutionId).add(OWNER_KEY, item.owner).get();
+    }
+
+    /** Partition claimed by a worker */
+    public static class WorkItem
+    {
+        private final Long stepExecutionId;
+
+        private final Long jobExecutionId;
+
+        private final Long masterStepExecutionId;
+
+        private final String stepName;
+
+        private final String owner;
+
+        private final int attempts;
+
+        private WorkItem( Long stepExecutionId, Long jobExecutionId, Long masterStepExecutionId, String stepName,
+                          String owner, int attempts )
+        {
+            this.stepExecutionId = stepExecutionId;
+            this.jobExecutionId = jobExecutionId;
+            this.masterStepExecutionId = masterStepExecutionId;
+            this.stepName = stepName;
+            this.owner = owner;
+            this.attempts = attempts;
+        }
+
+        public Long getStepExecutionId()
+        {
+            return stepExecutionId;
+        }
+
+        public Long getJobExecutionId()
+        {
+            return jobExecutionId;
+        }
+
+        /** @return the name of the step to run */
+        public String getStepName()
+        {
+            return stepName;
+        }
+
+        /** @return the number of times the partition was claimed, including this one */
+        public int getAttempts()
+        {
+            return attempts;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "WorkItem[stepExecutionId=" + stepExecutionId + ", stepName=" + stepName + ", attempts=" + attempts
+                    + "]";
+        }
+    }
+}
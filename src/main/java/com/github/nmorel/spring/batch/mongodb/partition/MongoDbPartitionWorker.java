@@ -0,0 +1,266 @@
+package com.github.nmorel.spring.batch.mongodb.partition;
+
+import com.github.nmorel.spring.batch.mongodb.partition.MongoDbPartitionQueue.WorkItem;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.step.NoSuchStepException;
+import org.springframework.batch.core.step.StepLocator;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the partitions claimed from a {@link MongoDbPartitionQueue}. A worker is a {@link Runnable} processing the
+ * partitions until it is stopped, usually given to a task executor, one per thread processing partitions.
+ * <p/>
+ * The leases of the partitions being run are renewed in the background. A partition claimed again after the death of
+ * a worker is run again from its step execution : like a restart, the step resumes from its last saved context. A
+ * partition whose step execution can't be read is released, to be claimed again, and is only marked as done once its
+ * step has run.
+ */
+public class MongoDbPartitionWorker implements Runnable, InitializingBean, DisposableBean
+{
+    private static final Log logger = LogFactory.getLog(MongoDbPartitionWorker.class);
+
+    public static final long DEFAULT_LEASE_MILLIS = 60000L;
+
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 1000L;
+
+    private MongoDbPartitionQueue queue;
+
+    private JobExplorer jobExplorer;
+
+    private StepLocator stepLocator;
+
+    private long leaseMillis = DEFAULT_LEASE_MILLIS;
+
+    private long pollIntervalMillis = DEFAULT_POLL_INTERVAL_MILLIS;
+
+    private final Set<WorkItem> runningItems = Collections.newSetFromMap(new ConcurrentHashMap<WorkItem, Boolean>());
+
+    private ScheduledExecutorService renewer;
+
+    private volatile boolean stopped = false;
+
+    public void setQueue( MongoDbPartitionQueue queue )
+    {
+        this.queue = queue;
+    }
+
+    /** Sets the explorer reading the step executions of the partitions. It must read from the primary. */
+    public void setJobExplorer( JobExplorer jobExplorer )
+    {
+        this.jobExplorer = jobExplorer;
+    }
+
+    /** Sets the locator of the steps this worker can run */
+    public void setStepLocator( StepLocator stepLocator )
+    {
+        this.stepLocator = stepLocator;
+    }
+
+    /** Sets the steps this worker can run, instead of a {@link StepLocator} */
+    public void setSteps( Collection<? extends Step> steps )
+    {
+        final Map<String, Step> stepsByName = new HashMap<String, Step>();
+        for( Step step : steps )
+        {
+            stepsByName.put(step.getName(), step);
+        }
+        this.stepLocator = new StepLocator()
+        {
+            @Override
+            public Collection<String> getStepNames()
+            {
+                return stepsByName.keySet();
+            }
+
+            @Override
+            public Step getStep( String stepName ) throws NoSuchStepException
+            {
+                Step step = stepsByName.get(stepName);
+                if( null == step )
+                {
+                    throw new NoSuchStepException("No step named " + stepName);
+                }
+                return step;
+            }
+        };
+    }
+
+    /**
+     * Sets the duration of the leases, in milliseconds, {@link #DEFAULT_LEASE_MILLIS} by default. The leases are
+     * renewed every third of it, the partitions of a worker that died being claimed again after at most this duration.
+     */
+    public void setLeaseMillis( long leaseMillis )
+    {
+        this.leaseMillis = leaseMillis;
+    }
+
+    /** Sets the pause when no partition is available, {@link #DEFAULT_POLL_INTERVAL_MILLIS} by default */
+    public void setPollIntervalMillis( long pollIntervalMillis )
+    {
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        Assert.notNull(queue, "The queue must not be null.");
+        Assert.notNull(jobExplorer, "The jobExplorer must not be null.");
+        Assert.notNull(stepLocator, "The stepLocator or the steps must be set.");
+        Assert.isTrue(leaseMillis > 0, "The leaseMillis must be positive.");
+        renewer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread(runnable, "MongoDbPartitionWorker-renewer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        renewer.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                renewLeases();
+            }
+        }, Math.max(1L, leaseMillis / 3), Math.max(1L, leaseMillis / 3), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy()
+    {
+        stop();
+        if( null != renewer )
+        {
+            renewer.shutdownNow();
+            renewer = null;
+        }
+    }
+
+    /** Stops the threads running this worker once their current partition is done */
+    public void stop()
+    {
+        stopped = true;
+    }
+
+    @Override
+    public void run()
+    {
+        while( !stopped )
+        {
+            if( !processNext() )
+            {
+                try
+                {
+                    Thread.sleep(pollIntervalMillis);
+                }
+                catch( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Claims and runs one partition.
+     *
+     * @return false if no partition was run
+     */
+    public boolean processNext()
+    {
+        WorkItem item = queue.claim(stepLocator.getStepNames(), leaseMillis);
+        if( null == item )
+        {
+            return false;
+        }
+        StepExecution stepExecution;
+        Step step;
+        try
+        {
+            stepExecution = jobExplorer.getStepExecution(item.getJobExecutionId(), item.getStepExecutionId());
+            step = stepLocator.getStep(item.getStepName());
+        }
+        catch( RuntimeException e )
+        {
+            logger.warn("Could not prepare the run of " + item + ", it is released", e);
+            release(item);
+            return false;
+        }
+        if( null == stepExecution )
+        {
+            logger.warn("The step execution of " + item + " was not found, it is released");
+            release(item);
+            return false;
+        }
+
+        runningItems.add(item);
+        try
+        {
+            // the step saves its status and its failures in the repository, for the master
+            step.execute(stepExecution);
+        }
+        catch( Exception e )
+        {
+            logger.error("Error running " + item, e);
+        }
+        finally
+        {
+            runningItems.remove(item);
+        }
+        if( !queue.complete(item) )
+        {
+            logger.warn("The lease of " + item + " expired while it was running, it may have been run twice");
+        }
+        return true;
+    }
+
+    private void release( WorkItem item )
+    {
+        try
+        {
+            queue.release(item);
+        }
+        catch( RuntimeException e )
+        {
+            logger.warn("Could not release " + item + ", it will be claimed again once its lease expires", e);
+        }
+    }
+
+    private void renewLeases()
+    {
+        for( WorkItem item : runningItems )
+        {
+            try
+            {
+                if( !queue.renew(item, leaseMillis) )
+                {
+                    logger.warn("The lease of " + item + " expired before being renewed");
+                }
+            }
+            catch( RuntimeException e )
+            {
+                logger.warn("Could not renew the lease of " + item, e);
+            }
+        }
+    }
+}
@@ -1,10 +1,19 @@
 package com.github.nmorel.spring.batch.mongodb.repository.dao;
 
+import com.github.nmorel.spring.batch.mongodb.transaction.MongoDbTransactionManager;
+import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
+import com.mongodb.DBDecoderFactory;
+import com.mongodb.DBObject;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.util.Assert;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /** Base class for all MongoDB DAO implementation */
 public abstract class AbstractMongoDbDao implements InitializingBean
 {
@@ -12,8 +21,12 @@ public abstract class AbstractMongoDbDao implements InitializingBean
 
     public static final int DEFAULT_EXIT_MESSAGE_LENGTH = 2500;
 
+    public static final int DEFAULT_STREAM_BATCH_SIZE = 100;
+
     protected static final String UPDATED_EXISTING_STATUS = "updatedExisting";
 
+    protected static final String ID_KEY = "_id";
+
     protected static final String VERSION_KEY = "version";
 
     protected static final String START_TIME_KEY = "startTime";
@@ -36,35 +49,247 @@ public abstract class AbstractMongoDbDao implements InitializingBean
 
     protected static final String JOB_NAME_KEY = "jobName";
 
+    protected static final String STEP_NAME_KEY = "stepName";
+
+    protected static final String READ_COUNT_KEY = "readCount";
+
+    protected static final String WRITE_COUNT_KEY = "writeCount";
+
+    protected static final String CREATE_TIME_KEY = "createTime";
+
+    protected static final String JOB_KEY_KEY = "jobKey";
+
+    protected static final String SERIALIZED_CONTEXT_KEY = "serializedContext";
+
     protected DB db;
 
     protected String prefix = DEFAULT_COLLECTION_PREFIX;
 
+    protected ReadPreferenceResolver readPreferenceResolver;
+
+    protected LocalWriteTracker writeTracker;
+
+    protected int streamBatchSize = DEFAULT_STREAM_BATCH_SIZE;
+
+    protected WriteConcernPolicy writeConcernPolicy;
+
+    protected boolean typedDecoding = true;
+
+    protected boolean naturalIds = false;
+
+    protected FieldNamingStrategy fieldNames = FieldNamingStrategy.defaultNames();
+
+    private final ConcurrentMap<String, DBCollection> collections = new ConcurrentHashMap<String, DBCollection>();
+
+    private DBCollection collection;
+
     public void setDb( DB db )
     {
         this.db = db;
+        this.collections.clear();
+    }
+
+    /**
+     * Sets the strategy choosing the {@link ReadPreference} of each read. If not set, the read preference of the
+     * {@link DB} is used.
+     */
+    public void setReadPreferenceResolver( ReadPreferenceResolver readPreferenceResolver )
+    {
+        this.readPreferenceResolver = readPreferenceResolver;
+    }
+
+    /**
+     * Sets the number of documents fetched per round trip by the streaming methods. It is also the maximum number of
+     * documents held in memory by a stream.
+     */
+    public void setStreamBatchSize( int streamBatchSize )
+    {
+        this.streamBatchSize = streamBatchSize;
+    }
+
+    /**
+     * Sets the policy defining the {@link WriteConcern} of each operation. If not set, the write concern of the
+     * {@link DB} is used.
+     */
+    public void setWriteConcernPolicy( WriteConcernPolicy writeConcernPolicy )
+    {
+        this.writeConcernPolicy = writeConcernPolicy;
+    }
+
+    /** Sets the tracker notified of every write done by this DAO. If not set, the writes are not tracked. */
+    public void setWriteTracker( LocalWriteTracker writeTracker )
+    {
+        this.writeTracker = writeTracker;
+    }
+
+    /**
+     * Sets if the documents of the main collection are decoded into typed documents, when the DAO defines a decoder.
+     * True by default. The decoder is set on the collection, shared by all the DAOs of the same db and prefix.
+     */
+    public void setTypedDecoding( boolean typedDecoding )
+    {
+        this.typedDecoding = typedDecoding;
+    }
+
+    /**
+     * Sets if the job instances, job executions and step executions are stored with their batch id as
+     * <code>_id</code>. They are then fetched through the primary index and their id field, still written for the
+     * readers of the documents, is not indexed. False by default, the collections written in the other mode must be
+     * migrated with {@link com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbNaturalIdMigration}.
+     */
+    public void setNaturalIds( boolean naturalIds )
+    {
+        this.naturalIds = naturalIds;
+    }
+
+    /**
+     * Sets the names under which the fields of the executions and contexts are stored. The default names are used if
+     * not set.
+     *
+     * @see FieldNamingStrategy#compact()
+     */
+    public void setFieldNamingStrategy( FieldNamingStrategy fieldNames )
+    {
+        this.fieldNames = fieldNames;
     }
 
     public void setPrefix( String prefix )
     {
         this.prefix = prefix;
+        this.collections.clear();
     }
 
     protected DBCollection getCollection()
     {
-        return getCollection(getCollectionName());
+        return null == collection ? getCollection(getCollectionName()) : collection;
     }
 
+    /** Returns the handle of a collection, resolved once per DAO */
     protected DBCollection getCollection( String collectionName )
     {
-        return db.getCollection(prefix + collectionName);
+        DBCollection result = collections.get(collectionName);
+        if( null == result )
+        {
+            result = db.getCollection(prefix + collectionName);
+            collections.put(collectionName, result);
+        }
+        return result;
     }
 
     protected abstract String getCollectionName();
 
+    /**
+     * @param idKey the key of the batch id of the documents of a collection
+     *
+     * @return the key to look up the documents of that collection by their batch id
+     */
+    protected String getIdKey( String idKey )
+    {
+        return naturalIds ? ID_KEY : idKey;
+    }
+
+    /**
+     * @param idKey the key of the batch id of the documents of a collection
+     * @param id the batch id
+     *
+     * @return the query of the document with the given batch id
+     */
+    protected DBObject byId( String idKey, Object id )
+    {
+        return new BasicDBObject(getIdKey(idKey), id);
+    }
+
+    /** Sets the <code>_id</code> of a new document to its batch id, if the natural ids are enabled */
+    protected void putId( DBObject dbObject, Object id )
+    {
+        if( naturalIds )
+        {
+            dbObject.put(ID_KEY, id);
+        }
+    }
+
+    /**
+     * @return the decoder of the main collection, or null to keep the one of the driver. None by default.
+     */
+    protected DBDecoderFactory getDecoderFactory()
+    {
+        return null;
+    }
+
+    /**
+     * Reads an integer field without boxing it when the document was decoded by {@link ExecutionDecoderFactory}.
+     */
+    protected static int getInt( DBObject dbObject, String key )
+    {
+        if( dbObject instanceof ExecutionDocument )
+        {
+            return ((ExecutionDocument) dbObject).getInt(key);
+        }
+        return (Integer) dbObject.get(key);
+    }
+
+    protected ReadPreference getReadPreference()
+    {
+        return null == readPreferenceResolver ? db.getReadPreference() : readPreferenceResolver.resolve();
+    }
+
+    protected ReadPreference getReadPreferenceForJobName( String jobName )
+    {
+        return null == readPreferenceResolver ? db.getReadPreference() : readPreferenceResolver.resolveForJobName(jobName);
+    }
+
+    protected ReadPreference getReadPreferenceForJobInstance( Long jobInstanceId )
+    {
+        return null == readPreferenceResolver ? db.getReadPreference() : readPreferenceResolver
+                .resolveForJobInstance(jobInstanceId);
+    }
+
+    protected ReadPreference getReadPreferenceForJobExecution( Long jobExecutionId )
+    {
+        return null == readPreferenceResolver ? db.getReadPreference() : readPreferenceResolver
+                .resolveForJobExecution(jobExecutionId);
+    }
+
+    protected WriteConcern getWriteConcern( WriteOperation operation )
+    {
+        return MongoDbTransactionManager.getWriteConcern(db, getPolicyWriteConcern(operation));
+    }
+
+    /** @return the write concern of a write doing two operations at once, the stronger of their write concerns */
+    protected WriteConcern getWriteConcern( WriteOperation operation, WriteOperation other )
+    {
+        return MongoDbTransactionManager.getWriteConcern(db, MongoDbTransactionManager
+                .merge(getPolicyWriteConcern(operation), getPolicyWriteConcern(other)));
+    }
+
+    private WriteConcern getPolicyWriteConcern( WriteOperation operation )
+    {
+        WriteConcern writeConcern = null == writeConcernPolicy ? null : writeConcernPolicy.getWriteConcern(operation);
+        return null == writeConcern ? db.getWriteConcern() : writeConcern;
+    }
+
+    protected void recordWrite( String jobName, Long jobExecutionId )
+    {
+        recordWrite(jobName, null, jobExecutionId);
+    }
+
+    protected void recordWrite( String jobName, Long jobInstanceId, Long jobExecutionId )
+    {
+        if( null != writeTracker )
+        {
+            writeTracker.recordWrite(jobName, jobInstanceId, jobExecutionId);
+        }
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception
     {
         Assert.notNull(db, "The db must not be null.");
+        collection = getCollection(getCollectionName());
+        DBDecoderFactory decoderFactory = typedDecoding ? getDecoderFactory() : null;
+        if( null != decoderFactory )
+        {
+            collection.setDBDecoderFactory(decoderFactory);
+        }
     }
 }
@@ -0,0 +1,17 @@
+package com.github.nmorel.spring.batch.mongodb.repository.dao;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * {@link Iterator} holding server resources, typically a cursor, that must be released by calling {@link #close()} if
+ * the iteration is not done until the end.
+ *
+ * @param <T> the type of the elements
+ */
+public interface CloseableIterator<T> extends Iterator<T>, Closeable
+{
+    /** Releases the resources held by the iterator. It is called automatically once the last element is read. */
+    @Override
+    void close();
+}
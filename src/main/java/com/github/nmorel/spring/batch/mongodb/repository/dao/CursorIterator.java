@@ -0,0 +1,74 @@
+package com.github.nmorel.spring.batch.mongodb.repository.dao;
+
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import java.util.NoSuchElementException;
+
+/**
+ * {@link CloseableIterator} mapping the documents of a {@link DBCursor} one at a time, so only the current batch of the
+ * cursor is held in memory.
+ *
+ * @param <T> the type of the elements
+ */
+public abstract class CursorIterator<T> implements CloseableIterator<T>
+{
+    private final DBCursor cursor;
+
+    private boolean closed = false;
+
+    protected CursorIterator( DBCursor cursor )
+    {
+        this.cursor = cursor;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if( closed )
+        {
+            return false;
+        }
+        if( !cursor.hasNext() )
+        {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public T next()
+    {
+        if( !hasNext() )
+        {
+            throw new NoSuchElementException();
+        }
+        return map(cursor.next());
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    @Override
+    public void close()
+    {
+        if( !closed )
+        {
+            closed = true;
+            cursor.close();
+        }
+    }
+
+    /**
+     * Maps a document read from the cursor.
+     *
+     * @param dbObject the document
+     *
+     * @return the mapped element
+     */
+    protected abstract T map( DBObject dbObject );
+}
@@ -0,0 +1,76 @@
+package com.github.nmorel.spring.batch.mongodb.repository.dao;
+
+import com.mongodb.DBCallback;
+import com.mongodb.DBCollection;
+import com.mongodb.DBDecoder;
+import com.mongodb.DBDecoderFactory;
+import com.mongodb.DefaultDBCallback;
+import com.mongodb.DefaultDBDecoder;
+import org.bson.BSONObject;
+
+import java.util.List;
+
+/**
+ * {@link DBDecoderFactory} decoding the documents of a collection straight into {@link ExecutionDocument}s, the
+ * integers and longs of the schema being stored without boxing. The embedded documents are decoded as usual.
+ */
+class ExecutionDecoderFactory implements DBDecoderFactory
+{
+    private final ExecutionDocument.Schema schema;
+
+    ExecutionDecoderFactory( String... keys )
+    {
+        this.schema = new ExecutionDocument.Schema(keys);
+    }
+
+    @Override
+    public DBDecoder create()
+    {
+        return new DefaultDBDecoder()
+        {
+            @Override
+            public DBCallback getDBCallback( DBCollection collection )
+            {
+                return new ExecutionCallback(collection);
+            }
+        };
+    }
+
+    private class ExecutionCallback extends DefaultDBCallback
+    {
+        private ExecutionCallback( DBCollection collection )
+        {
+            super(collection);
+        }
+
+        @Override
+        public BSONObject create( boolean array, List<String> path )
+        {
+            if( !array && (null == path || path.isEmpty()) )
+            {
+                return new ExecutionDocument(schema);
+            }
+            return super.create(array, path);
+        }
+
+        @Override
+        public void gotInt( String name, int value )
+        {
+            BSONObject current = cur();
+            if( !(current instanceof ExecutionDocument) || !((ExecutionDocument) current).putInt(name, value) )
+            {
+                super.gotInt(name, value);
+            }
+        }
+
+        @Override
+        public void gotLong( String name, long value )
+        {
+            BSONObject current = cur();
+            if( !(current instanceof ExecutionDocument) || !((ExecutionDocument) current).putLong(name, value) )
+            {
+                super.gotLong(name, value);
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.github.nmorel.spring.batch.mongodb.repository.dao;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.BSONObject;
+
+import java.util.*;
+
+/**
+ * {@link DBObject} decoded by {@link ExecutionDecoderFactory} from the step and job executions collections.
+ * <p/>
+ * The fields of the schema are stored in slots, the integers and longs unboxed, instead of the entries of a hash map.
+ * The other fields, like <code>_id</code>, are kept in a {@link BasicDBObject} created on demand. {@link #get(String)}
+ * returns the same types as a {@link BasicDBObject} decoded by the driver.
+ */
+class ExecutionDocument implements DBObject
+{
+    private static final byte ABSENT = 0;
+
+    private static final byte INT = 1;
+
+    private static final byte LONG = 2;
+
+    private static final byte OBJECT = 3;
+
+    private final Schema schema;
+
+    private final byte[] types;
+
+    private final long[] numbers;
+
+    private final Object[] objects;
+
+    private BasicDBObject others;
+
+    private boolean partial = false;
+
+    ExecutionDocument( Schema schema )
+    {
+        this.schema = schema;
+        int size = schema.keys.length;
+        this.types = new byte[size];
+        this.numbers = new long[size];
+        this.objects = new Object[size];
+    }
+
+    /**
+     * Stores an integer without boxing it.
+     *
+     * @return false if the key is not part of the schema
+     */
+    boolean putInt( String key, int value )
+    {
+        return putNumber(key, INT, value);
+    }
+
+    /**
+     * Stores a long without boxing it.
+     *
+     * @return false if the key is not part of the schema
+     */
+    boolean putLong( String key, long value )
+    {
+        return putNumber(key, LONG, value);
+    }
+
+    private boolean putNumber( String key, byte type, long value )
+    {
+        Integer slot = schema.slots.get(key);
+        if( null == slot )
+        {
+            return false;
+        }
+        types[slot] = type;
+        numbers[slot] = value;
+        objects[slot] = null;
+        return true;
+    }
+
+    /** Reads an integer field without boxing it */
+    int getInt( String key )
+    {
+        Integer slot = schema.slots.get(key);
+        if( null != slot && types[slot] == INT )
+        {
+            return (int) numbers[slot];
+        }
+        return (Integer) get(key);
+    }
+
+    @Override
+    public Object put( String key, Object value )
+    {
+        Integer slot = schema.slots.get(key);
+        if( null == slot )
+        {
+            if( null == others )
+            {
+                others = new BasicDBObject();
+            }
+            return others.put(key, value);
+        }
+        Object previous = getSlot(slot);
+        types[slot] = OBJECT;
+        numbers[slot] = 0L;
+        objects[slot] = value;
+        return previous;
+    }
+
+    @Override
+    public Object get( String key )
+    {
+        Integer slot = schema.slots.get(key);
+        if( null == slot )
+        {
+            return null == others ? null : others.get(key);
+        }
+        return getSlot(slot);
+    }
+
+    private Object getSlot( int slot )
+    {
+        switch( types[slot] )
+        {
+            case INT:
+                return (int) numbers[slot];
+            case LONG:
+                return numbers[slot];
+            default:
+                return objects[slot];
+        }
+    }
+
+    @Override
+    public void putAll( BSONObject o )
+    {
+        for( String key : o.keySet() )
+        {
+            put(key, o.get(key));
+        }
+    }
+
+    /** The parameter is raw in {@link BSONObject}, it can't be typed */
+    @Override
+    @SuppressWarnings( "rawtypes" )
+    public void putAll( Map m )
+    {
+        for( Map.Entry<?, ?> entry : ((Map<?, ?>) m).entrySet() )
+        {
+            put((String) entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public Map<String, Object> toMap()
+    {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for( String key : keySet() )
+        {
+            map.put(key, get(key));
+        }
+        return map;
+    }
+
+    @Override
+    public Object removeField( String key )
+    {
+        Integer slot = schema.slots.get(key);
+        if( null == slot )
+        {
+            return null == others ? null : others.removeField(key);
+        }
+        Object previous = getSlot(slot);
+        types[slot] = ABSENT;
+        numbers[slot] = 0L;
+        objects[slot] = null;
+        return previous;
+    }
+
+    @Override
+    @Deprecated
+    public boolean containsKey( String key )
+    {
+        return containsField(key);
+    }
+
+    @Override
+    public boolean containsField( String key )
+    {
+        Integer slot = schema.slots.get(key);
+        if( null == slot )
+        {
+            return null != others && others.containsField(key);
+        }
+        return types[slot] != ABSENT;
+    }
+
+    @Override
+    public Set<String> keySet()
+    {
+        Set<String> keys = new LinkedHashSet<String>();
+        if( null != others )
+        {
+            keys.addAll(others.keySet());
+        }
+        for( int i = 0; i < types.length; i++ )
+        {
+            if( types[i] != ABSENT )
+            {
+                keys.add(schema.keys[i]);
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public void markAsPartialObject()
+    {
+        partial = true;
+    }
+
+    @Override
+    public boolean isPartialObject()
+    {
+        return partial;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new BasicDBObject(toMap()).toString();
+    }
+
+    /** The keys stored in slots, shared by all the documents of a collection */
+    static final class Schema
+    {
+        private final String[] keys;
+
+        private final Map<String, Integer> slots;
+
+        Schema( String... keys )
+        {
+            this.keys = keys.clone();
+            this.slots = new HashMap<String, Integer>(keys.length * 2);
+            for( int i = 0; i < keys.length; i++ )
+            {
+                slots.put(keys[i], i);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.nmorel.spring.batch.mongodb.repository.dao;
+
+import com.mongodb.DBObject;
+import org.springframework.util.Assert;
+
+import java.util.*;
+
+/**
+ * Defines the names under which the DAOs store the fields of the step executions, job executions and execution
+ * contexts. The default names are kept for the fields without a specific one.
+ * <p/>
+ * Only the fields never used in a query, an index, a sort or an aggregation can be renamed, see
+ * {@link #RENAMEABLE_FIELDS}, so the documents written with different strategies are still found by the same queries.
+ * The reads look for a field under its name, then under its default and compact names : a collection can be migrated
+ * from one layout to another while it is in use, each document being rewritten at its next update.
+ */
+public class FieldNamingStrategy
+{
+    /** The default names of the fields that can be renamed */
+    public static final Set<String> RENAMEABLE_FIELDS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "commitCount", "filterCout", "readSkipCount", "writeSkipCount", "processSkipCout", "rollbackCount",
+            AbstractMongoDbDao.EXIT_MESSAGE_KEY, AbstractMongoDbDao.LAST_UPDATED_KEY, AbstractMongoDbDao.SERIALIZED_CONTEXT_KEY)));
+
+    private static final FieldNamingStrategy COMPACT = new FieldNamingStrategy();
+
+    static
+    {
+        COMPACT.fieldNames.put("commitCount", "cc");
+        COMPACT.fieldNames.put("filterCout", "fc");
+        COMPACT.fieldNames.put("readSkipCount", "rs");
+        COMPACT.fieldNames.put("writeSkipCount", "ws");
+        COMPACT.fieldNames.put("processSkipCout", "ps");
+        COMPACT.fieldNames.put("rollbackCount", "rb");
+        COMPACT.fieldNames.put(AbstractMongoDbDao.EXIT_MESSAGE_KEY, "em");
+        COMPACT.fieldNames.put(AbstractMongoDbDao.LAST_UPDATED_KEY, "lu");
+        COMPACT.fieldNames.put(AbstractMongoDbDao.SERIALIZED_CONTEXT_KEY, "sc");
+    }
+
+    private static final FieldNamingStrategy DEFAULT = new FieldNamingStrategy();
+
+    private final Map<String, String> fieldNames = new HashMap<String, String>();
+
+    /** @return the strategy keeping the default names */
+    public static FieldNamingStrategy defaultNames()
+    {
+        return DEFAULT;
+    }
+
+    /** @return the strategy storing the renameable fields under keys of two characters */
+    public static FieldNamingStrategy compact()
+    {
+        return COMPACT;
+    }
+
+    /**
+     * @param keys default names of fields
+     *
+     * @return the given names followed by the compact names of the renameable ones
+     */
+    static String[] withCompactNames( String... keys )
+    {
+        List<String> names = new ArrayList<String>(Arrays.asList(keys));
+        for( String key : keys )
+        {
+            if( RENAMEABLE_FIELDS.contains(key) )
+            {
+                names.add(COMPACT.getFieldName(key));
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * Sets the name of a field.
+     *
+     * @param key the default name of the field, one of {@link #RENAMEABLE_FIELDS}
+     * @param fieldName the name under which the field is stored
+     */
+    public void setFieldName( String key, String fieldName )
+    {
+        Assert.isTrue(this != DEFAULT && this != COMPACT, "The presets can't be modified.");
+        Assert.isTrue(RENAMEABLE_FIELDS.contains(key), "The field " + key + " can't be renamed.");
+        Assert.hasText(fieldName, "The field name must not be empty.");
+        fieldNames.put(key, fieldName);
+    }
+
+    /** Sets the names of several fields, see {@link #setFieldName(String, String)} */
+    public void setFieldNames( Map<String, String> fieldNames )
+    {
+        for( Map.Entry<String, String> entry : fieldNames.entrySet() )
+        {
+            setFieldName(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @param key the default name of a field
+     *
+     * @return the name under which the field is stored
+     */
+    public String getFieldName( String key )
+    {
+        String fieldName = fieldNames.get(key);
+        return null == fieldName ? key : fieldName;
+    }
+
+    /** Stores a field under its name */
+    public void put( DBObject dbObject, String key, Object value )
+    {
+        dbObject.put(getFieldName(key), value);
+    }
+
+    /**
+     * @param dbObject a document written with this strategy or another one
+     * @param key the default name of the field
+     *
+     * @return the value of the field, or null if the document does not have it
+     */
+    public Object get( DBObject dbObject, String key )
+    {
+        String fieldName = getFieldName(key);
+        Object value = dbObject.get(fieldName);
+        if( null != value || dbObject.containsField(fieldName) || !RENAMEABLE_FIELDS.contains(key) )
+        {
+            return value;
+        }
+        value = dbObject.get(key);
+        return null == value ? dbObject.get(COMPACT.getFieldName(key)) : value;
+    }
+
+    /** Reads an integer field like {@link #get(DBObject, String)}, without boxing it if possible */
+    public int getInt( DBObject dbObject, String key )
+    {
+        String fieldName = getFieldName(key);
+        if( dbObject instanceof ExecutionDocument && dbObject.containsField(fieldName) )
+        {
+            return ((ExecutionDocument) dbObject).getInt(fieldName);
+        }
+        return (Integer) get(dbObject, key);
+    }
+}
@@ -0,0 +1,152 @@
+package com.github.nmorel.spring.batch.mongodb.repository.dao;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the job names, job instances and job executions recently written by the local JVM, so reads routed
+ * to secondaries can fall back to the primary while the write may not be replicated yet.
+ * <p/>
+ * Entries older than the retention window are purged lazily, by a write at most once per retention window, so an entry
+ * is kept at most twice the retention.
+ */
+public class LocalWriteTracker
+{
+    /** Tracker shared by the DAOs of the local JVM when no specific instance is configured */
+    private static final LocalWriteTracker DEFAULT_INSTANCE = new LocalWriteTracker();
+
+    /** Default duration during which a write is remembered, in milliseconds */
+    public static final long DEFAULT_RETENTION_MILLIS = 5L * 60L * 1000L;
+
+    private final ConcurrentMap<Long, Long> jobExecutionWrites = new ConcurrentHashMap<Long, Long>();
+
+    private final ConcurrentMap<Long, Long> jobInstanceWrites = new ConcurrentHashMap<Long, Long>();
+
+    private final ConcurrentMap<String, Long> jobNameWrites = new ConcurrentHashMap<String, Long>();
+
+    private long retentionMillis = DEFAULT_RETENTION_MILLIS;
+
+    /** Time of the next purge, claimed by a single writer */
+    private final AtomicLong nextPurgeMillis = new AtomicLong(0L);
+
+    /** @return the tracker shared by the whole JVM */
+    public static LocalWriteTracker getDefault()
+    {
+        return DEFAULT_INSTANCE;
+    }
+
+    /**
+     * Sets the duration during which a write is remembered. It must be greater than the max staleness tolerated by the
+     * readers.
+     *
+     * @param retentionMillis the retention in milliseconds
+     */
+    public void setRetentionMillis( long retentionMillis )
+    {
+        this.retentionMillis = retentionMillis;
+    }
+
+    /** @return the duration during which a write is remembered, in milliseconds */
+    public long getRetentionMillis()
+    {
+        return retentionMillis;
+    }
+
+    /**
+     * Records a write concerning the given job and job execution.
+     *
+     * @param jobName the job name, may be null
+     * @param jobExecutionId the job execution id, may be null
+     */
+    public void recordWrite( String jobName, Long jobExecutionId )
+    {
+        recordWrite(jobName, null, jobExecutionId);
+    }
+
+    /**
+     * Records a write concerning the given job, job instance and job execution.
+     *
+     * @param jobName the job name, may be null
+     * @param jobInstanceId the job instance id, may be null
+     * @param jobExecutionId the job execution id, may be null
+     */
+    public void recordWrite( String jobName, Long jobInstanceId, Long jobExecutionId )
+    {
+        long now = System.currentTimeMillis();
+        if( null != jobName )
+        {
+            jobNameWrites.put(jobName, now);
+        }
+        if( null != jobInstanceId )
+        {
+            jobInstanceWrites.put(jobInstanceId, now);
+        }
+        if( null != jobExecutionId )
+        {
+            jobExecutionWrites.put(jobExecutionId, now);
+        }
+
+        long nextPurge = nextPurgeMillis.get();
+        if( now >= nextPurge && nextPurgeMillis.compareAndSet(nextPurge, now + retentionMillis) )
+        {
+            purge(jobNameWrites, now);
+            purge(jobInstanceWrites, now);
+            purge(jobExecutionWrites, now);
+        }
+    }
+
+    /**
+     * @param jobExecutionId the job execution id
+     * @param windowMillis the window in milliseconds
+     *
+     * @return true if the job execution has been written by the local JVM during the last windowMillis milliseconds
+     */
+    public boolean isJobExecutionWrittenWithin( Long jobExecutionId, long windowMillis )
+    {
+        return null != jobExecutionId && isWithin(jobExecutionWrites.get(jobExecutionId), windowMillis);
+    }
+
+    /**
+     * @param jobInstanceId the job instance id
+     * @param windowMillis the window in milliseconds
+     *
+     * @return true if the job instance or one of its executions has been written by the local JVM during the last
+     *         windowMillis milliseconds
+     */
+    public boolean isJobInstanceWrittenWithin( Long jobInstanceId, long windowMillis )
+    {
+        return null != jobInstanceId && isWithin(jobInstanceWrites.get(jobInstanceId), windowMillis);
+    }
+
+    /**
+     * @param jobName the job name
+     * @param windowMillis the window in milliseconds
+     *
+     * @return true if an instance or an execution of the job has been written by the local JVM during the last
+     *         windowMillis milliseconds
+     */
+    public boolean isJobNameWrittenWithin( String jobName, long windowMillis )
+    {
+        return null != jobName && isWithin(jobNameWrites.get(jobName), windowMillis);
+    }
+
+    private boolean isWithin( Long time, long windowMillis )
+    {
+        return null != time && System.currentTimeMillis() - time <= windowMillis;
+    }
+
+    private <K> void purge( ConcurrentMap<K, Long> writes, long now )
+    {
+        Iterator<Map.Entry<K, Long>> iterator = writes.entrySet().iterator();
+        while( iterator.hasNext() )
+        {
+            if( now - iterator.next().getValue() > retentionMillis )
+            {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.github.nmorel.spring.batch.mongodb.repository.dao;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BasicDBObjectBuilder;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameter;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.ExecutionContextSerializer;
+import org.springframework.util.Assert;
+
+import java.util.*;
+
+/**
+ * DAO of the archive tier, where each finished {@link JobExecution} is stored as a single document embedding its
+ * parameters and its execution context, and each {@link StepExecution} as a document embedding its execution context.
+ * <p/>
+ * The archive has three collections : the job instances, stored as in the live collections, the aggregated job
+ * executions and the aggregated step executions. The step executions are not embedded in their job execution, so the
+ * documents of a job with any number of partitions stay below the maximum document size.
+ */
+public class MongoDbArchiveDao extends AbstractMongoDbDao
+{
+    public static final String DEFAULT_ARCHIVE_COLLECTION_PREFIX = "BatchArchive";
+
+    /** Key of the parameters embedded in an archived job execution */
+    public static final String PARAMETERS_KEY = "parameters";
+
+    private static final String JOB_INSTANCE_COLLECTION_NAME = JobInstance.class.getSimpleName();
+
+    private static final String JOB_EXECUTION_COLLECTION_NAME = JobExecution.class.getSimpleName();
+
+    private static final String STEP_EXECUTION_COLLECTION_NAME = StepExecution.class.getSimpleName();
+
+    private ExecutionContextSerializer serializer;
+
+    public MongoDbArchiveDao()
+    {
+        setPrefix(DEFAULT_ARCHIVE_COLLECTION_PREFIX);
+    }
+
+    /** Setter for {@link org.springframework.core.serializer.Serializer} implementation */
+    public void setSerializer( ExecutionContextSerializer serializer )
+    {
+        this.serializer = serializer;
+    }
+
+    @Override
+    protected String getCollectionName()
+    {
+        return JOB_EXECUTION_COLLECTION_NAME;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception
+    {
+        super.afterPropertiesSet();
+        getCollection(JOB_INSTANCE_COLLECTION_NAME).ensureIndex(new BasicDBObject(JOB_INSTANCE_ID_KEY, 1L));
+        getCollection(JOB_INSTANCE_COLLECTION_NAME).ensureIndex(BasicDBObjectBuilder.start().add(JOB_NAME_KEY, 1L)
+                .add(JOB_INSTANCE_ID_KEY, -1L).get());
+        getCollection().ensureIndex(new BasicDBObject(JOB_EXECUTION_ID_KEY, 1L));
+        getCollection().ensureIndex(new BasicDBObject(JOB_INSTANCE_ID_KEY, 1L));
+        getCollection(STEP_EXECUTION_COLLECTION_NAME).ensureIndex(new BasicDBObject(STEP_EXECUTION_ID_KEY, 1L));
+        getCollection(STEP_EXECUTION_COLLECTION_NAME).ensureIndex(BasicDBObjectBuilder.start()
+                .add(JOB_EXECUTION_ID_KEY, 1L).add(STEP_EXECUTION_ID_KEY, 1L).get());
+    }
+
+    /**
+     * Stores an archived job instance with its job executions. Documents already archived with the same ids are
+     * replaced, so an interrupted archiving can be replayed. The step executions must be archived first, so the
+     * instance is only visible in the archive once complete.
+     *
+     * @param jobInstance the job instance document
+     * @param jobExecutions the aggregated job executions documents
+     * @param writeConcern the write concern
+     */
+    public void archive( DBObject jobInstance, List<DBObject> jobExecutions, WriteConcern writeConcern )
+    {
+        if( !jobExecutions.isEmpty() )
+        {
+            getCollection().remove(new BasicDBObject(JOB_EXECUTION_ID_KEY,
+                    new BasicDBObject("$in", getIds(jobExecutions, JOB_EXECUTION_ID_KEY))), writeConcern);
+            getCollection().insert(jobExecutions, writeConcern);
+        }
+        getCollection(JOB_INSTANCE_COLLECTION_NAME)
+                .remove(new BasicDBObject(JOB_INSTANCE_ID_KEY, jobInstance.get(JOB_INSTANCE_ID_KEY)), writeConcern);
+        getCollection(JOB_INSTANCE_COLLECTION_NAME).insert(jobInstance, writeConcern);
+    }
+
+    /**
+     * Stores archived step executions. Documents already archived with the same ids are replaced, so an interrupted
+     * archiving can be replayed.
+     *
+     * @param stepExecutions the aggregated step executions documents
+     * @param writeConcern the write concern
+     */
+    public void archiveStepExecutions( List<DBObject> stepExecutions, WriteConcern writeConcern )
+    {
+        if( !stepExecutions.isEmpty() )
+        {
+            getCollection(STEP_EXECUTION_COLLECTION_NAME).remove(new BasicDBObject(STEP_EXECUTION_ID_KEY,
+                    new BasicDBObject("$in", getIds(stepExecutions, STEP_EXECUTION_ID_KEY))), writeConcern);
+            getCollection(STEP_EXECUTION_COLLECTION_NAME).insert(stepExecutions, writeConcern);
+        }
+    }
+
+    private BasicDBList getIds( List<DBObject> dbObjects, String idKey )
+    {
+        BasicDBList ids = new BasicDBList();
+        for( DBObject dbObject : dbObjects )
+        {
+            ids.add(dbObject.get(idKey));
+        }
+        return ids;
+    }
+
+    public JobInstance getJobInstance( Long instanceId )
+    {
+        return mapJobInstance(getCollection(JOB_INSTANCE_COLLECTION_NAME)
+                .findOne(new BasicDBObject(JOB_INSTANCE_ID_KEY, instanceId), null,
+                        getReadPreferenceForJobInstance(instanceId)));
+    }
+
+    public List<JobInstance> getJobInstances( String jobName, int start, int count )
+    {
+        DBCursor dbCursor = getCollection(JOB_INSTANCE_COLLECTION_NAME).find(new BasicDBObject(JOB_NAME_KEY, jobName))
+                .sort(new BasicDBObject(JOB_INSTANCE_ID_KEY, -1L))
+                .skip(start)
+                .limit(count)
+                .setReadPreference(getReadPreferenceForJobName(jobName));
+        List<JobInstance> results = new ArrayList<JobInstance>();
+        while( dbCursor.hasNext() )
+        {
+            results.add(mapJobInstance(dbCursor.next()));
+        }
+        dbCursor.close();
+        return results;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    public List<String> getJobNames()
+    {
+        return getCollection(JOB_INSTANCE_COLLECTION_NAME).distinct(JOB_NAME_KEY, getReadPreference());
+    }
+
+    /**
+     * @param jobInstance the job instance
+     *
+     * @return the archived executions of the instance, most recent first, with their step executions and contexts
+     */
+    public List<JobExecution> findJobExecutions( JobInstance jobInstance )
+    {
+        ReadPreference readPreference = getReadPreferenceForJobInstance(jobInstance.getId());
+        DBCursor dbCursor = getCollection().find(new BasicDBObject(JOB_INSTANCE_ID_KEY, jobInstance.getId()))
+                .sort(new BasicDBObject(JOB_EXECUTION_ID_KEY, -1L))
+                .setReadPreference(readPreference);
+        Map<Long, JobExecution> results = new LinkedHashMap<Long, JobExecution>();
+        while( dbCursor.hasNext() )
+        {
+            JobExecution jobExecution = mapJobExecution(jobInstance, dbCursor.next());
+            results.put(jobExecution.getId(), jobExecution);
+        }
+        dbCursor.close();
+        addStepExecutions(results, readPreference);
+        return new ArrayList<JobExecution>(results.values());
+    }
+
+    /**
+     * @param jobExecutionId the job execution id
+     *
+     * @return the archived execution with its instance, step executions and contexts, or null if it is not archived
+     */
+    public JobExecution getJobExecution( Long jobExecutionId )
+    {
+        ReadPreference readPreference = getReadPreferenceForJobExecution(jobExecutionId);
+        DBObject dbObject = getCollection().findOne(new BasicDBObject(JOB_EXECUTION_ID_KEY, jobExecutionId), null, readPreference);
+        if( null == dbObject )
+        {
+            return null;
+        }
+        JobInstance jobInstance = mapJobInstance(getCollection(JOB_INSTANCE_COLLECTION_NAME)
+                .findOne(new BasicDBObject(JOB_INSTANCE_ID_KEY, dbObject.get(JOB_INSTANCE_ID_KEY)), null, readPreference));
+        JobExecution jobExecution = mapJobExecution(jobInstance, dbObject);
+        addStepExecutions(Collections.singletonMap(jobExecutionId, jobExecution), readPreference);
+        return jobExecution;
+    }
+
+    /**
+     * @param jobExecutionId the job execution id
+     * @param stepExecutionId the step execution id
+     *
+     * @return the archived step execution with its job execution, or null if it is not archived
+     */
+    public StepExecution getStepExecution( Long jobExecutionId, Long stepExecutionId )
+    {
+        JobExecution jobExecution = getJobExecution(jobExecutionId);
+        if( null == jobExecution )
+        {
+            return null;
+        }
+        for( StepExecution stepExecution : jobExecution.getStepExecutions() )
+        {
+            if( stepExecution.getId().equals(stepExecutionId) )
+            {
+                return stepExecution;
+            }
+        }
+        return null;
+    }
+
+    private JobInstance mapJobInstance( DBObject dbObject )
+    {
+        if( dbObject == null )
+        {
+            return null;
+        }
+        JobInstance jobInstance = new JobInstance((Long) dbObject.get(JOB_INSTANCE_ID_KEY), (String) dbObject.get(JOB_NAME_KEY));
+        // should always be at version=0 because they never get updated
+        jobInstance.incrementVersion();
+        return jobInstance;
+    }
+
+    private JobExecution mapJobExecution( JobInstance jobInstance, DBObject dbObject )
+    {
+        Assert.notNull(serializer, "The serializer must not be null.");
+
+        Map<String, JobParameter> parameters = new HashMap<String, JobParameter>();
+        BasicDBList parameterObjects = (BasicDBList) dbObject.get(PARAMETERS_KEY);
+        if( null != parameterObjects )
+        {
+            for( Object parameterObject : parameterObjects )
+            {
+                MongoDbJobExecutionDao.putJobParameter(parameters, (DBObject) parameterObject);
+            }
+        }
+
+        JobExecution jobExecution = MongoDbJobExecutionDao.mapJobExecution(jobInstance, dbObject, new JobParameters(parameters),
+                fieldNames);
+        jobExecution.setExecutionContext(MongoDbExecutionContextDao.deserializeContext(serializer, dbObject, fieldNames));
+        return jobExecution;
+    }
+
+    /** Reads the archived step executions of the job executions, in a single query */
+    private void addStepExecutions( Map<Long, JobExecution> jobExecutions, ReadPreference readPreference )
+    {
+        if( jobExecutions.isEmpty() )
+        {
+            return;
+        }
+        DBCursor dbCursor = getCollection(STEP_EXECUTION_COLLECTION_NAME)
+                .find(new BasicDBObject(JOB_EXECUTION_ID_KEY,
+                        new BasicDBObject("$in", new ArrayList<Long>(jobExecutions.keySet()))))
+                .sort(BasicDBObjectBuilder.start().add(JOB_EXECUTION_ID_KEY, 1L).add(STEP_EXECUTION_ID_KEY, 1L).get())
+                .setReadPreference(readPreference);
+        while( dbCursor.hasNext() )
+        {
+            DBObject stepObject = dbCursor.next();
+            StepExecution stepExecution = MongoDbStepExecutionDao.mapStepExecution(stepObject,
+                    jobExecutions.get(stepObject.get(JOB_EXECUTION_ID_KEY)), fieldNames);
+            stepExecution.setExecutionContext(MongoDbExecutionContextDao.deserializeContext(serializer, stepObject,
+                    fieldNames));
+        }
+        dbCursor.close();
+    }
+}
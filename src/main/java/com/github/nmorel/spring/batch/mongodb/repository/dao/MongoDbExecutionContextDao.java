@@ -3,6 +3,7 @@ package com.github.nmorel.spring.batch.mongodb.repository.dao;
 import com.mongodb.BasicDBObject;
 import com.mongodb.BasicDBObjectBuilder;
 import com.mongodb.DBObject;
+import com.mongodb.ReadPreference;
 import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.core.repository.ExecutionContextSerializer;
@@ -22,67 +23,116 @@ public class MongoDbExecutionContextDao extends AbstractMongoDbDao implements Ex
 {
     private static final String COLLECTION_NAME = ExecutionContext.class.getSimpleName();
 
-    private static final String SERIALIZED_CONTEXT_KEY = "serializedContext";
+    private static final String STEP_EXECUTION_COLLECTION_NAME = StepExecution.class.getSimpleName();
 
     private ExecutionContextSerializer serializer;
 
+    private boolean embeddedStepContexts = false;
+
+    private DBObject embeddedContextProjection;
+
     /** Setter for {@link org.springframework.core.serializer.Serializer} implementation */
     public void setSerializer( ExecutionContextSerializer serializer )
     {
         this.serializer = serializer;
     }
 
+    /**
+     * Sets if the contexts of the step executions are stored in the step execution documents, see
+     * {@link MongoDbStepExecutionDao#setEmbeddedContexts(boolean)}. False by default. Whatever the setting, a step
+     * context not found where it is written is looked for in the other location, so the contexts written before a
+     * change of the setting are still read.
+     */
+    public void setEmbeddedStepContexts( boolean embeddedStepContexts )
+    {
+        this.embeddedStepContexts = embeddedStepContexts;
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception
     {
         super.afterPropertiesSet();
         getCollection().ensureIndex(BasicDBObjectBuilder.start().add(STEP_EXECUTION_ID_KEY, 1).add(JOB_EXECUTION_ID_KEY, 1).get());
+
+        // the context is read whatever the layout of the step execution document
+        embeddedContextProjection = new BasicDBObject(SERIALIZED_CONTEXT_KEY, 1);
+        embeddedContextProjection.put(FieldNamingStrategy.compact().getFieldName(SERIALIZED_CONTEXT_KEY), 1);
+        embeddedContextProjection.put(fieldNames.getFieldName(SERIALIZED_CONTEXT_KEY), 1);
     }
 
     @Override
     public ExecutionContext getExecutionContext( JobExecution jobExecution )
     {
-        return getExecutionContext(JOB_EXECUTION_ID_KEY, jobExecution.getId());
+        return getExecutionContext(JOB_EXECUTION_ID_KEY, jobExecution.getId(), jobExecution.getId());
     }
 
     @Override
     public ExecutionContext getExecutionContext( StepExecution stepExecution )
     {
-        return getExecutionContext(STEP_EXECUTION_ID_KEY, stepExecution.getId());
+        Long stepExecutionId = stepExecution.getId();
+        Assert.notNull(stepExecutionId, "ExecutionId must not be null.");
+        ReadPreference readPreference = getReadPreferenceForJobExecution(stepExecution.getJobExecutionId());
+        DBObject result = embeddedStepContexts ? findEmbeddedContext(stepExecutionId, readPreference)
+                : findContext(STEP_EXECUTION_ID_KEY, stepExecutionId, readPreference);
+        if( !hasContext(result) )
+        {
+            result = embeddedStepContexts ? findContext(STEP_EXECUTION_ID_KEY, stepExecutionId, readPreference)
+                    : findEmbeddedContext(stepExecutionId, readPreference);
+        }
+        return deserializeContext(serializer, result, fieldNames);
     }
 
-    @SuppressWarnings( {"unchecked"} )
-    private ExecutionContext getExecutionContext( String executionIdKey, Long executionId )
+    private ExecutionContext getExecutionContext( String executionIdKey, Long executionId, Long jobExecutionId )
     {
         Assert.notNull(executionId, "ExecutionId must not be null.");
-        DBObject result = getCollection().findOne(new BasicDBObject(executionIdKey, executionId));
-        return deserializeContext(result);
+        return deserializeContext(serializer, findContext(executionIdKey, executionId,
+                getReadPreferenceForJobExecution(jobExecutionId)), fieldNames);
     }
 
+    private DBObject findContext( String executionIdKey, Long executionId, ReadPreference readPreference )
+    {
+        return getCollection().findOne(new BasicDBObject(executionIdKey, executionId), null, readPreference);
+    }
+
+    private DBObject findEmbeddedContext( Long stepExecutionId, ReadPreference readPreference )
+    {
+        return getCollection(STEP_EXECUTION_COLLECTION_NAME)
+                .findOne(byId(STEP_EXECUTION_ID_KEY, stepExecutionId), embeddedContextProjection, readPreference);
+    }
+
+    private boolean hasContext( DBObject dbObject )
+    {
+        return null != dbObject && null != fieldNames.get(dbObject, SERIALIZED_CONTEXT_KEY);
+    }
+
+    static ExecutionContext deserializeContext( ExecutionContextSerializer serializer, DBObject dbObject,
+                                                FieldNamingStrategy fieldNames )
+    {
+        Object value = null == dbObject ? null : fieldNames.get(dbObject, SERIALIZED_CONTEXT_KEY);
+        return null == value ? new ExecutionContext() : deserializeContext(serializer, value.toString());
+    }
+
+    /**
+     * Deserializes an execution context stored by {@link #serializeContext(ExecutionContextSerializer,
+     * ExecutionContext)}.
+     */
     @SuppressWarnings( "unchecked" )
-    private ExecutionContext deserializeContext( DBObject dbObject )
+    static ExecutionContext deserializeContext( ExecutionContextSerializer serializer, String serializedContext )
     {
+        Map<String, Object> map;
+        try
+        {
+            ByteArrayInputStream in = new ByteArrayInputStream(serializedContext.getBytes("ISO-8859-1"));
+            map = (Map<String, Object>) serializer.deserialize(in);
+        }
+        catch( IOException ioe )
+        {
+            throw new IllegalArgumentException("Unable to deserialize the execution context", ioe);
+        }
         ExecutionContext executionContext = new ExecutionContext();
-        if( dbObject != null )
+        for( Map.Entry<String, Object> entry : map.entrySet() )
         {
-            Object value = dbObject.get(SERIALIZED_CONTEXT_KEY);
-            if( null != value )
-            {
-                Map<String, Object> map;
-                try
-                {
-                    ByteArrayInputStream in = new ByteArrayInputStream(value.toString().getBytes("ISO-8859-1"));
-                    map = (Map<String, Object>) serializer.deserialize(in);
-                }
-                catch( IOException ioe )
-                {
-                    throw new IllegalArgumentException("Unable to deserialize the execution context", ioe);
-                }
-                for( Map.Entry<String, Object> entry : map.entrySet() )
-                {
-                    executionContext.put(entry.getKey(), entry.getValue());
-                }
-            }
+            executionContext.put(entry.getKey(), entry.getValue());
         }
         return executionContext;
     }
@@ -90,13 +140,14 @@ public class MongoDbExecutionContextDao extends AbstractMongoDbDao implements Ex
     @Override
     public void saveExecutionContext( JobExecution jobExecution )
     {
-        saveOrUpdateExecutionContext(JOB_EXECUTION_ID_KEY, jobExecution.getId(), jobExecution.getExecutionContext());
+        saveOrUpdateExecutionContext(JOB_EXECUTION_ID_KEY, jobExecution.getId(), jobExecution.getId(), jobExecution
+                .getExecutionContext());
     }
 
     @Override
     public void saveExecutionContext( StepExecution stepExecution )
     {
-        saveOrUpdateExecutionContext(STEP_EXECUTION_ID_KEY, stepExecution.getId(), stepExecution.getExecutionContext());
+        saveOrUpdateExecutionContext(stepExecution);
     }
 
     @Override
@@ -104,35 +155,59 @@ public class MongoDbExecutionContextDao extends AbstractMongoDbDao implements Ex
     {
         for( StepExecution stepExecution : stepExecutions )
         {
-            saveOrUpdateExecutionContext(STEP_EXECUTION_ID_KEY, stepExecution.getId(), stepExecution.getExecutionContext());
+            saveOrUpdateExecutionContext(stepExecution);
         }
     }
 
     @Override
     public void updateExecutionContext( JobExecution jobExecution )
     {
-        saveOrUpdateExecutionContext(JOB_EXECUTION_ID_KEY, jobExecution.getId(), jobExecution.getExecutionContext());
+        saveOrUpdateExecutionContext(JOB_EXECUTION_ID_KEY, jobExecution.getId(), jobExecution.getId(), jobExecution
+                .getExecutionContext());
     }
 
     @Override
     public void updateExecutionContext( StepExecution stepExecution )
     {
-        saveOrUpdateExecutionContext(STEP_EXECUTION_ID_KEY, stepExecution.getId(), stepExecution.getExecutionContext());
+        saveOrUpdateExecutionContext(stepExecution);
+    }
+
+    private void saveOrUpdateExecutionContext( StepExecution stepExecution )
+    {
+        if( !embeddedStepContexts )
+        {
+            saveOrUpdateExecutionContext(STEP_EXECUTION_ID_KEY, stepExecution.getId(), stepExecution.getJobExecutionId(),
+                    stepExecution.getExecutionContext());
+            return;
+        }
+        Assert.notNull(stepExecution.getId(), "ExecutionId must not be null.");
+        Assert.notNull(stepExecution.getExecutionContext(), "The ExecutionContext must not be null.");
+
+        DBObject context = new BasicDBObject();
+        fieldNames.put(context, SERIALIZED_CONTEXT_KEY, serializeContext(serializer, stepExecution.getExecutionContext()));
+        getCollection(STEP_EXECUTION_COLLECTION_NAME).update(byId(STEP_EXECUTION_ID_KEY, stepExecution.getId()),
+                new BasicDBObject("$set", context), false, false, getWriteConcern(WriteOperation.STEP_EXECUTION_CONTEXT_SAVE));
+        recordWrite(null, stepExecution.getJobExecutionId());
     }
 
-    private void saveOrUpdateExecutionContext( String executionIdKey, Long executionId, ExecutionContext executionContext )
+    private void saveOrUpdateExecutionContext( String executionIdKey, Long executionId, Long jobExecutionId,
+                                               ExecutionContext executionContext )
     {
         Assert.notNull(executionId, "ExecutionId must not be null.");
         Assert.notNull(executionContext, "The ExecutionContext must not be null.");
 
         DBObject dbObject = new BasicDBObject(executionIdKey, executionId);
-        dbObject.put(SERIALIZED_CONTEXT_KEY, serializeContext(executionContext));
+        fieldNames.put(dbObject, SERIALIZED_CONTEXT_KEY, serializeContext(serializer, executionContext));
 
-        getCollection().update(new BasicDBObject(executionIdKey, executionId), dbObject, true, false);
+        getCollection().update(new BasicDBObject(executionIdKey, executionId), dbObject, true, false,
+                getWriteConcern(JOB_EXECUTION_ID_KEY.equals(executionIdKey) ? WriteOperation.JOB_EXECUTION_CONTEXT_SAVE
+                        : WriteOperation.STEP_EXECUTION_CONTEXT_SAVE));
+        recordWrite(null, jobExecutionId);
     }
 
+    /** Serializes the entries of an execution context into the string stored in the documents */
     @SuppressWarnings( "unchecked" )
-    private String serializeContext( ExecutionContext ctx )
+    static String serializeContext( ExecutionContextSerializer serializer, ExecutionContext ctx )
     {
         Map<String, Object> m = new HashMap<String, Object>();
         for( Map.Entry<String, Object> me : ctx.entrySet() )
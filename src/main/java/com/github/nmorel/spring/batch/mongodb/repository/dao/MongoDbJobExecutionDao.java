@@ -4,7 +4,10 @@ import com.github.nmorel.spring.batch.mongodb.incrementer.ValueIncrementer;
 import com.mongodb.BasicDBObject;
 import com.mongodb.BasicDBObjectBuilder;
 import com.mongodb.DBCursor;
+import com.mongodb.DBDecoderFactory;
 import com.mongodb.DBObject;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteResult;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.batch.core.*;
@@ -24,9 +27,7 @@ public class MongoDbJobExecutionDao extends AbstractMongoDbDao implements JobExe
 
     private static final Log logger = LogFactory.getLog(MongoDbJobExecutionDao.class);
 
-    private static final String CREATE_TIME_KEY = "createTime";
-
-    private static final String PARAM_COLLECTION_NAME = JobParameter.class.getSimpleName();
+    static final String PARAM_COLLECTION_NAME = JobParameter.class.getSimpleName();
 
     private static final String PARAM_KEY_NAME_KEY = "keyName";
 
@@ -42,10 +43,29 @@ public class MongoDbJobExecutionDao extends AbstractMongoDbDao implements JobExe
 
     private static final String PARAM_IDENTIFYING_KEY = "identifying";
 
+    private static final int FIELD_COUNT = 12;
+
+    private static final DBDecoderFactory DECODER_FACTORY = new ExecutionDecoderFactory(FieldNamingStrategy
+            .withCompactNames(ID_KEY, JOB_EXECUTION_ID_KEY, JOB_INSTANCE_ID_KEY, JOB_NAME_KEY, START_TIME_KEY,
+                    END_TIME_KEY, STATUS_KEY, EXIT_CODE_KEY, EXIT_MESSAGE_KEY, CREATE_TIME_KEY, LAST_UPDATED_KEY,
+                    VERSION_KEY));
+
+    private static final DBObject VERSION_PROJECTION = new BasicDBObject(VERSION_KEY, 1L);
+
+    private static final DBObject STATUS_PROJECTION = new BasicDBObject(STATUS_KEY, 1L);
+
+    private static final DBObject VERSION_STATUS_PROJECTION = start().add(VERSION_KEY, 1L).add(STATUS_KEY, 1L).get();
+
+    private static final DBObject JOB_EXECUTION_ID_DESCENDING_ORDER = new BasicDBObject(JOB_EXECUTION_ID_KEY, -1L);
+
+    private static final DBObject CREATE_TIME_DESCENDING_ORDER = new BasicDBObject(CREATE_TIME_KEY, -1);
+
     private int exitMessageLength = DEFAULT_EXIT_MESSAGE_LENGTH;
 
     private ValueIncrementer jobExecutionIncrementer;
 
+    private DBObject summaryProjection;
+
     /**
      * Public setter for the exit message length in database. Do not set this if
      * you haven't modified the schema.
@@ -74,8 +94,20 @@ public class MongoDbJobExecutionDao extends AbstractMongoDbDao implements JobExe
         super.afterPropertiesSet();
         Assert.notNull(jobExecutionIncrementer, "The jobExecutionIncrementer must not be null.");
 
-        getCollection().ensureIndex(BasicDBObjectBuilder.start().add(JOB_EXECUTION_ID_KEY, 1).add(JOB_INSTANCE_ID_KEY, 1).get());
+        if( naturalIds )
+        {
+            getCollection().ensureIndex(new BasicDBObject(JOB_INSTANCE_ID_KEY, 1));
+        }
+        else
+        {
+            getCollection().ensureIndex(BasicDBObjectBuilder.start().add(JOB_EXECUTION_ID_KEY, 1).add(JOB_INSTANCE_ID_KEY, 1).get());
+        }
         getCollection(PARAM_COLLECTION_NAME).ensureIndex(BasicDBObjectBuilder.start().add(JOB_EXECUTION_ID_KEY, 1).get());
+
+        // the exit message is excluded whatever the layout of the documents
+        summaryProjection = new BasicDBObject(EXIT_MESSAGE_KEY, 0);
+        summaryProjection.put(FieldNamingStrategy.compact().getFieldName(EXIT_MESSAGE_KEY), 0);
+        summaryProjection.put(fieldNames.getFieldName(EXIT_MESSAGE_KEY), 0);
     }
 
     @Override
@@ -84,6 +116,12 @@ public class MongoDbJobExecutionDao extends AbstractMongoDbDao implements JobExe
         return COLLECTION_NAME;
     }
 
+    @Override
+    protected DBDecoderFactory getDecoderFactory()
+    {
+        return DECODER_FACTORY;
+    }
+
     @Override
     public void saveJobExecution( JobExecution jobExecution )
     {
@@ -97,6 +135,11 @@ public class MongoDbJobExecutionDao extends AbstractMongoDbDao implements JobExe
         insertJobParameters(jobExecution.getId(), jobExecution.getJobParameters());
     }
 
+    private String getJobName( JobExecution jobExecution )
+    {
+        return null == jobExecution.getJobInstance() ? null : jobExecution.getJobInstance().getJobName();
+    }
+
     /**
      * Validate JobExecution. At a minimum, JobId, StartTime, EndTime, and
      * Status cannot be null.
@@ -117,16 +160,20 @@ public class MongoDbJobExecutionDao extends AbstractMongoDbDao implements JobExe
             exitDescription = exitDescription.substring(0, exitMessageLength);
             logger.debug("Truncating long message before update of JobExecution: " + jobExecution);
         }
-        return start()
-                .add(JOB_EXECUTION_ID_KEY, jobExecution.getId())
-                .add(JOB_INSTANCE_ID_KEY, jobExecution.getJobId())
-                .add(START_TIME_KEY, jobExecution.getStartTime())
-                .add(END_TIME_KEY, jobExecution.getEndTime())
-                .add(STATUS_KEY, jobExecution.getStatus().toString())
-                .add(EXIT_CODE_KEY, jobExecution.getExitStatus().getExitCode())
-                .add(EXIT_MESSAGE_KEY, exitDescription)
-                .add(CREATE_TIME_KEY, jobExecution.getCreateTime())
-                .add(LAST_UPDATED_KEY, jobExecution.getLastUpdated()).get();
+        // sized for all the fields, the version and the natural id included, so the document is never rehashed
+        DBObject object = new BasicDBObject(FIELD_COUNT * 4 / 3 + 1);
+        object.put(JOB_EXECUTION_ID_KEY, jobExecution.getId());
+        object.put(JOB_INSTANCE_ID_KEY, jobExecution.getJobId());
+        // denormalized, so the executions of a job are queried without going through its instances
+        object.put(JOB_NAME_KEY, getJobName(jobExecution));
+        object.put(START_TIME_KEY, jobExecution.getStartTime());
+        object.put(END_TIME_KEY, jobExecution.getEndTime());
+        object.put(STATUS_KEY, jobExecution.getStatus().toString());
+        object.put(EXIT_CODE_KEY, jobExecution.getExitStatus().getExitCode());
+        fieldNames.put(object, EXIT_MESSAGE_KEY, exitDescription);
+        object.put(CREATE_TIME_KEY, jobExecution.getCreateTime());
+        fieldNames.put(object, LAST_UPDATED_KEY, jobExecution.getLastUpdated());
+        return object;
     }
 
     private void save( JobExecution jobExecution, Long id )
@@ -134,7 +181,9 @@ public class MongoDbJobExecutionDao extends AbstractMongoDbDao implements JobExe
         jobExecution.setId(id);
         DBObject object = toDbObjectWithoutVersion(jobExecution);
         object.put(VERSION_KEY, jobExecution.getVersion());
-        getCollection().save(object);
+        putId(object, id);
+        getCollection().insert(object, getWriteConcern(WriteOperation.JOB_EXECUTION_CREATION));
+        recordWrite(getJobName(jobExecution), jobExecution.getJobId(), id);
     }
 
     @Override
@@ -152,33 +201,34 @@ public class MongoDbJobExecutionDao extends AbstractMongoDbDao implements JobExe
         {
             Integer version = jobExecution.getVersion() + 1;
 
-            if( getCollection().findOne(new BasicDBObject(JOB_EXECUTION_ID_KEY, jobExecution.getId())) == null )
+            if( getCollection().findOne(byId(JOB_EXECUTION_ID_KEY, jobExecution.getId()), VERSION_PROJECTION) == null )
             {
                 throw new NoSuchObjectException("Invalid JobExecution, ID " + jobExecution.getId() + " not found.");
             }
 
             DBObject object = toDbObjectWithoutVersion(jobExecution);
             object.put(VERSION_KEY, version);
-            getCollection().update(start()
-                    .add(JOB_EXECUTION_ID_KEY, jobExecution.getId())
-                    .add(VERSION_KEY, jobExecution.getVersion()).get(),
-                    object);
+            DBObject query = new BasicDBObject(2);
+            query.put(getIdKey(JOB_EXECUTION_ID_KEY), jobExecution.getId());
+            query.put(VERSION_KEY, jobExecution.getVersion());
+            WriteResult result = getCollection().update(query, object, false, false,
+                    getWriteConcern(WriteOperation.JOB_EXECUTION_UPDATE));
 
             // Avoid concurrent modifications...
-            DBObject lastError = db.getLastError();
-            if( !((Boolean) lastError.get(UPDATED_EXISTING_STATUS)) )
+            if( !((Boolean) result.getField(UPDATED_EXISTING_STATUS)) )
             {
                 DBObject existingJobExecution = getCollection()
-                        .findOne(new BasicDBObject(JOB_EXECUTION_ID_KEY, jobExecution.getId()), new BasicDBObject(VERSION_KEY, 1));
+                        .findOne(byId(JOB_EXECUTION_ID_KEY, jobExecution.getId()), VERSION_PROJECTION);
                 if( existingJobExecution == null )
                 {
                     throw new IllegalArgumentException("Can't update this jobExecution, it was never saved.");
                 }
-                Integer curentVersion = ((Integer) existingJobExecution.get(VERSION_KEY));
+                int curentVersion = getInt(existingJobExecution, VERSION_KEY);
                 throw new OptimisticLockingFailureException("Attempt to update job execution id="
                         + jobExecution.getId() + " with wrong version (" + jobExecution.getVersion()
                         + "), where current version is " + curentVersion);
             }
+            recordWrite(getJobName(jobExecution), jobExecution.getJobId(), jobExecution.getId());
 
             jobExecution.incrementVersion();
         }
@@ -191,7 +241,8 @@ public class MongoDbJobExecutionDao extends AbstractMongoDbDao implements JobExe
         Assert.notNull(jobInstance.getId(), "Job Id cannot be null.");
 
         DBCursor dbCursor = getCollection().find(new BasicDBObject(JOB_INSTANCE_ID_KEY, jobInstance
-                .getId())).sort(new BasicDBObject(JOB_EXECUTION_ID_KEY, -1));
+                .getId())).sort(JOB_EXECUTION_ID_DESCENDING_ORDER)
+                .setReadPreference(getReadPreferenceForJobName(jobInstance.getJobName()));
         List<JobExecution> result = new ArrayList<JobExecution>();
         while( dbCursor.hasNext() )
         {
@@ -207,7 +258,8 @@ public class MongoDbJobExecutionDao extends AbstractMongoDbDao implements JobExe
     {
         Long id = jobInstance.getId();
 
-        DBCursor dbCursor = getCollection().find(new BasicDBObject(JOB_INSTANCE_ID_KEY, id)).sort(new BasicDBObject(CREATE_TIME_KEY, -1)).limit(1);
+        DBCursor dbCursor = getCollection().find(new BasicDBObject(JOB_INSTANCE_ID_KEY, id)).sort(CREATE_TIME_DESCENDING_ORDER).limit(1)
+                .setReadPreference(getReadPreferenceForJobName(jobInstance.getJobName()));
         if( !dbCursor.hasNext() )
         {
             dbCursor.close();
@@ -228,8 +280,10 @@ public class MongoDbJobExecutionDao extends AbstractMongoDbDao implements JobExe
     @Override
     public Set<JobExecution> findRunningJobExecutions( String jobName )
     {
+        ReadPreference readPreference = getReadPreferenceForJobName(jobName);
         DBCursor instancesCursor = getCollection(MongoDbJobInstanceDao.COLLECTION_NAME)
-                .find(new BasicDBObject(JOB_NAME_KEY, jobName), new BasicDBObject(JOB_INSTANCE_ID_KEY, 1L));
+                .find(new BasicDBObject(JOB_NAME_KEY, jobName), new BasicDBObject(JOB_INSTANCE_ID_KEY, 1L))
+                .setReadPreference(readPreference);
         List<Long> ids = new ArrayList<Long>();
         while( instancesCursor.hasNext() )
         {
@@ -239,7 +293,8 @@ public class MongoDbJobExecutionDao extends AbstractMongoDbDao implements JobExe
 
         DBCursor dbCursor = getCollection().find(BasicDBObjectBuilder.start()
                 .add(JOB_INSTANCE_ID_KEY, new BasicDBObject("$in", ids.toArray()))
-                .add(END_TIME_KEY, null).get()).sort(new BasicDBObject(JOB_EXECUTION_ID_KEY, -1L));
+                .add(END_TIME_KEY, null).get()).sort(JOB_EXECUTION_ID_DESCENDING_ORDER)
+                .setReadPreference(readPreference);
         Set<JobExecution> result = new HashSet<JobExecution>();
         while( dbCursor.hasNext() )
         {
@@ -249,24 +304,86 @@ public class MongoDbJobExecutionDao extends AbstractMongoDbDao implements JobExe
         return result;
     }
 
+    /**
+     * Streams the executions of a job instance, most recent first, without loading them all in memory.
+     *
+     * @param jobInstance the job instance
+     * @param summaryOnly true to skip the exit message and the parameters
+     *
+     * @return an iterator that must be closed if not read until the end
+     */
+    public CloseableIterator<JobExecution> streamJobExecutions( final JobInstance jobInstance, final boolean summaryOnly )
+    {
+        Assert.notNull(jobInstance, "Job cannot be null.");
+        Assert.notNull(jobInstance.getId(), "Job Id cannot be null.");
+
+        DBCursor dbCursor = getCollection().find(new BasicDBObject(JOB_INSTANCE_ID_KEY, jobInstance.getId()), getProjection(summaryOnly))
+                .sort(JOB_EXECUTION_ID_DESCENDING_ORDER)
+                .batchSize(streamBatchSize)
+                .setReadPreference(getReadPreferenceForJobName(jobInstance.getJobName()));
+        return new CursorIterator<JobExecution>(dbCursor)
+        {
+            @Override
+            protected JobExecution map( DBObject dbObject )
+            {
+                return mapJobExecution(jobInstance, dbObject, summaryOnly);
+            }
+        };
+    }
+
+    /**
+     * Streams all the executions of a job without loading them all in memory. The executions are sorted from the most
+     * recent to the oldest within each batch of instances only.
+     *
+     * @param jobName the job name
+     * @param summaryOnly true to skip the exit message and the parameters
+     *
+     * @return an iterator that must be closed if not read until the end
+     */
+    public CloseableIterator<JobExecution> streamJobExecutions( String jobName, boolean summaryOnly )
+    {
+        return new JobExecutionsByInstancesIterator(jobName, new BasicDBObject(), summaryOnly);
+    }
+
+    /**
+     * Streaming version of {@link #findRunningJobExecutions(String)}.
+     *
+     * @param jobName the job name
+     * @param summaryOnly true to skip the exit message and the parameters
+     *
+     * @return an iterator that must be closed if not read until the end
+     */
+    public CloseableIterator<JobExecution> streamRunningJobExecutions( String jobName, boolean summaryOnly )
+    {
+        return new JobExecutionsByInstancesIterator(jobName, new BasicDBObject(END_TIME_KEY, null), summaryOnly);
+    }
+
+    private DBObject getProjection( boolean summaryOnly )
+    {
+        return summaryOnly ? summaryProjection : null;
+    }
+
     @Override
     public JobExecution getJobExecution( Long executionId )
     {
-        return mapJobExecution(getCollection().findOne(new BasicDBObject(JOB_EXECUTION_ID_KEY, executionId)));
+        return mapJobExecution(getCollection()
+                .findOne(byId(JOB_EXECUTION_ID_KEY, executionId), null, getReadPreferenceForJobExecution(executionId)));
     }
 
     @Override
     public void synchronizeStatus( JobExecution jobExecution )
     {
         Long id = jobExecution.getId();
-        DBObject jobExecutionObject = getCollection().findOne(new BasicDBObject(JOB_EXECUTION_ID_KEY, id), start().add(VERSION_KEY, 1L).get());
-        int currentVersion = jobExecutionObject != null ? ((Integer) jobExecutionObject.get(VERSION_KEY)) : 0;
+        // the status is read with the version, it is needed as soon as the version differs
+        DBObject jobExecutionObject = getCollection()
+                .findOne(byId(JOB_EXECUTION_ID_KEY, id), VERSION_STATUS_PROJECTION);
+        int currentVersion = jobExecutionObject != null ? getInt(jobExecutionObject, VERSION_KEY) : 0;
         if( currentVersion != jobExecution.getVersion() )
         {
             if( jobExecutionObject == null )
             {
                 save(jobExecution, id);
-                jobExecutionObject = getCollection().findOne(new BasicDBObject(JOB_EXECUTION_ID_KEY, id), start().add(STATUS_KEY, 1L).get());
+                jobExecutionObject = getCollection().findOne(byId(JOB_EXECUTION_ID_KEY, id), STATUS_PROJECTION);
             }
             String status = (String) jobExecutionObject.get(STATUS_KEY);
             jobExecution.upgradeStatus(BatchStatus.valueOf(status));
@@ -280,15 +397,26 @@ public class MongoDbJobExecutionDao extends AbstractMongoDbDao implements JobExe
     }
 
     private JobExecution mapJobExecution( JobInstance jobInstance, DBObject dbObject )
+    {
+        return mapJobExecution(jobInstance, dbObject, false);
+    }
+
+    private JobExecution mapJobExecution( JobInstance jobInstance, DBObject dbObject, boolean summaryOnly )
     {
         if( dbObject == null )
         {
             return null;
         }
 
+        Long id = (Long) dbObject.get(JOB_EXECUTION_ID_KEY);
+        return mapJobExecution(jobInstance, dbObject, summaryOnly ? new JobParameters() : getJobParameters(id), fieldNames);
+    }
+
+    static JobExecution mapJobExecution( JobInstance jobInstance, DBObject dbObject, JobParameters jobParameters,
+                                         FieldNamingStrategy fieldNames )
+    {
         Long id = (Long) dbObject.get(JOB_EXECUTION_ID_KEY);
         JobExecution jobExecution;
-        JobParameters jobParameters = getJobParameters(id);
         if( jobInstance == null )
         {
             jobExecution = new JobExecution(id, jobParameters);
@@ -300,33 +428,38 @@ public class MongoDbJobExecutionDao extends AbstractMongoDbDao implements JobExe
         jobExecution.setStartTime((Date) dbObject.get(START_TIME_KEY));
         jobExecution.setEndTime((Date) dbObject.get(END_TIME_KEY));
         jobExecution.setStatus(BatchStatus.valueOf((String) dbObject.get(STATUS_KEY)));
-        jobExecution.setExitStatus(new ExitStatus(((String) dbObject.get(EXIT_CODE_KEY)), (String) dbObject.get(EXIT_MESSAGE_KEY)));
+        jobExecution.setExitStatus(new ExitStatus(((String) dbObject.get(EXIT_CODE_KEY)), (String) fieldNames.get(dbObject, EXIT_MESSAGE_KEY)));
         jobExecution.setCreateTime((Date) dbObject.get(CREATE_TIME_KEY));
-        jobExecution.setLastUpdated((Date) dbObject.get(LAST_UPDATED_KEY));
-        jobExecution.setVersion((Integer) dbObject.get(VERSION_KEY));
+        jobExecution.setLastUpdated((Date) fieldNames.get(dbObject, LAST_UPDATED_KEY));
+        jobExecution.setVersion(getInt(dbObject, VERSION_KEY));
         return jobExecution;
     }
 
     /**
      * Convenience method that inserts all parameters from the provided
-     * JobParameters.
+     * JobParameters, in a single batch.
      */
     private void insertJobParameters( Long executionId, JobParameters jobParameters )
     {
+        List<DBObject> parameters = new ArrayList<DBObject>(jobParameters.getParameters().size());
         for( Map.Entry<String, JobParameter> entry : jobParameters.getParameters()
                 .entrySet() )
         {
             JobParameter jobParameter = entry.getValue();
-            insertParameter(executionId, jobParameter.getType(), entry.getKey(),
-                    jobParameter.getValue(), jobParameter.isIdentifying());
+            parameters.add(toParameter(executionId, jobParameter.getType(), entry.getKey(),
+                    jobParameter.getValue(), jobParameter.isIdentifying()));
+        }
+        if( !parameters.isEmpty() )
+        {
+            getCollection(PARAM_COLLECTION_NAME).insert(parameters, getWriteConcern(WriteOperation.JOB_EXECUTION_CREATION));
         }
     }
 
     /**
-     * Convenience method that inserts an individual records into the
+     * Convenience method that builds an individual record of the
      * JobParameters table.
      */
-    private void insertParameter( Long executionId, JobParameter.ParameterType type, String key,
+    private DBObject toParameter( Long executionId, JobParameter.ParameterType type, String key,
                                   Object value, boolean identifying )
     {
         BasicDBObjectBuilder builder = start().add(JOB_EXECUTION_ID_KEY, executionId).add(PARAM_KEY_NAME_KEY, key).add(PARAM_TYPE_KEY, type.name())
@@ -349,7 +482,7 @@ public class MongoDbJobExecutionDao extends AbstractMongoDbDao implements JobExe
             builder.add(PARAM_DATE_VAL_KEY, value);
         }
 
-        getCollection(PARAM_COLLECTION_NAME).save(builder.get());
+        return builder.get();
     }
 
     /**
@@ -358,42 +491,163 @@ public class MongoDbJobExecutionDao extends AbstractMongoDbDao implements JobExe
      */
     private JobParameters getJobParameters( Long executionId )
     {
-        DBCursor cursor = getCollection(PARAM_COLLECTION_NAME).find(new BasicDBObject(JOB_EXECUTION_ID_KEY, executionId));
+        return readJobParameters(getCollection(PARAM_COLLECTION_NAME).find(new BasicDBObject(JOB_EXECUTION_ID_KEY, executionId))
+                .setReadPreference(getReadPreferenceForJobExecution(executionId)));
+    }
 
+    /** Maps the parameter documents of a cursor, then closes it */
+    static JobParameters readJobParameters( DBCursor cursor )
+    {
         final Map<String, JobParameter> map = new HashMap<String, JobParameter>();
 
         while( cursor.hasNext() )
         {
-            DBObject dbObject = cursor.next();
-            JobParameter.ParameterType type = JobParameter.ParameterType.valueOf((String) dbObject.get(PARAM_TYPE_KEY));
-            JobParameter value = null;
+            putJobParameter(map, cursor.next());
+        }
+
+        cursor.close();
+
+        return new JobParameters(map);
+    }
+
+    /** Maps a parameter document and adds it to the given map */
+    static void putJobParameter( Map<String, JobParameter> map, DBObject dbObject )
+    {
+        JobParameter.ParameterType type = JobParameter.ParameterType.valueOf((String) dbObject.get(PARAM_TYPE_KEY));
+        JobParameter value = null;
+
+        if( type == JobParameter.ParameterType.STRING )
+        {
+            value = new JobParameter((String) dbObject.get(PARAM_STRING_VAL_KEY), ((String) dbObject.get(PARAM_IDENTIFYING_KEY))
+                    .equalsIgnoreCase("Y"));
+        }
+        else if( type == JobParameter.ParameterType.LONG )
+        {
+            value = new JobParameter((Long) dbObject.get(PARAM_LONG_VAL_KEY), ((String) dbObject.get(PARAM_IDENTIFYING_KEY))
+                    .equalsIgnoreCase("Y"));
+        }
+        else if( type == JobParameter.ParameterType.DOUBLE )
+        {
+            value = new JobParameter((Double) dbObject.get(PARAM_DOUBLE_VAL_KEY), ((String) dbObject.get(PARAM_IDENTIFYING_KEY))
+                    .equalsIgnoreCase("Y"));
+        }
+        else if( type == JobParameter.ParameterType.DATE )
+        {
+            value = new JobParameter((Date) dbObject.get(PARAM_DATE_VAL_KEY), ((String) dbObject.get(PARAM_IDENTIFYING_KEY))
+                    .equalsIgnoreCase("Y"));
+        }
+
+        map.put((String) dbObject.get(PARAM_KEY_NAME_KEY), value);
+    }
+
+    /**
+     * Iterates over the executions of a job by loading its instances by batch, so neither the instances nor the
+     * executions are all held in memory.
+     */
+    private class JobExecutionsByInstancesIterator implements CloseableIterator<JobExecution>
+    {
+        private final DBObject criteria;
+
+        private final boolean summaryOnly;
+
+        private final ReadPreference readPreference;
 
-            if( type == JobParameter.ParameterType.STRING )
+        private final DBCursor instancesCursor;
+
+        private final Map<Long, JobInstance> instances = new HashMap<Long, JobInstance>();
+
+        private DBCursor executionsCursor;
+
+        private boolean closed = false;
+
+        private JobExecutionsByInstancesIterator( String jobName, DBObject criteria, boolean summaryOnly )
+        {
+            this.criteria = criteria;
+            this.summaryOnly = summaryOnly;
+            this.readPreference = getReadPreferenceForJobName(jobName);
+            this.instancesCursor = getCollection(MongoDbJobInstanceDao.COLLECTION_NAME)
+                    .find(new BasicDBObject(JOB_NAME_KEY, jobName), start()
+                            .add(JOB_INSTANCE_ID_KEY, 1L)
+                            .add(JOB_NAME_KEY, 1L).get())
+                    .sort(new BasicDBObject(JOB_INSTANCE_ID_KEY, -1L))
+                    .batchSize(streamBatchSize)
+                    .setReadPreference(readPreference);
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            if( closed )
             {
-                value = new JobParameter((String) dbObject.get(PARAM_STRING_VAL_KEY), ((String) dbObject.get(PARAM_IDENTIFYING_KEY))
-                        .equalsIgnoreCase("Y"));
+                return false;
             }
-            else if( type == JobParameter.ParameterType.LONG )
+            while( null == executionsCursor || !executionsCursor.hasNext() )
             {
-                value = new JobParameter((Long) dbObject.get(PARAM_LONG_VAL_KEY), ((String) dbObject.get(PARAM_IDENTIFYING_KEY))
-                        .equalsIgnoreCase("Y"));
+                if( null != executionsCursor )
+                {
+                    executionsCursor.close();
+                    executionsCursor = null;
+                }
+                if( !instancesCursor.hasNext() )
+                {
+                    close();
+                    return false;
+                }
+                executionsCursor = nextExecutionsCursor();
             }
-            else if( type == JobParameter.ParameterType.DOUBLE )
+            return true;
+        }
+
+        private DBCursor nextExecutionsCursor()
+        {
+            instances.clear();
+            while( instances.size() < streamBatchSize && instancesCursor.hasNext() )
             {
-                value = new JobParameter((Double) dbObject.get(PARAM_DOUBLE_VAL_KEY), ((String) dbObject.get(PARAM_IDENTIFYING_KEY))
-                        .equalsIgnoreCase("Y"));
+                DBObject instance = instancesCursor.next();
+                Long instanceId = (Long) instance.get(JOB_INSTANCE_ID_KEY);
+                JobInstance jobInstance = new JobInstance(instanceId, (String) instance.get(JOB_NAME_KEY));
+                // should always be at version=0 because they never get updated
+                jobInstance.incrementVersion();
+                instances.put(instanceId, jobInstance);
             }
-            else if( type == JobParameter.ParameterType.DATE )
+
+            DBObject query = new BasicDBObject(criteria.toMap());
+            query.put(JOB_INSTANCE_ID_KEY, new BasicDBObject("$in", instances.keySet().toArray()));
+            return getCollection().find(query, getProjection(summaryOnly))
+                    .sort(JOB_EXECUTION_ID_DESCENDING_ORDER)
+                    .batchSize(streamBatchSize)
+                    .setReadPreference(readPreference);
+        }
+
+        @Override
+        public JobExecution next()
+        {
+            if( !hasNext() )
             {
-                value = new JobParameter((Date) dbObject.get(PARAM_DATE_VAL_KEY), ((String) dbObject.get(PARAM_IDENTIFYING_KEY))
-                        .equalsIgnoreCase("Y"));
+                throw new NoSuchElementException();
             }
-
-            map.put((String) dbObject.get(PARAM_KEY_NAME_KEY), value);
+            DBObject dbObject = executionsCursor.next();
+            return mapJobExecution(instances.get((Long) dbObject.get(JOB_INSTANCE_ID_KEY)), dbObject, summaryOnly);
         }
 
-        cursor.close();
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException("remove");
+        }
 
-        return new JobParameters(map);
+        @Override
+        public void close()
+        {
+            if( !closed )
+            {
+                closed = true;
+                if( null != executionsCursor )
+                {
+                    executionsCursor.close();
+                }
+                instancesCursor.close();
+            }
+        }
     }
 }
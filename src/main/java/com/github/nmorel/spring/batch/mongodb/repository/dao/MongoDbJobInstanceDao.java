@@ -4,6 +4,7 @@ import com.github.nmorel.spring.batch.mongodb.incrementer.ValueIncrementer;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import com.mongodb.ReadPreference;
 import org.springframework.batch.core.*;
 import org.springframework.batch.core.repository.dao.JobInstanceDao;
 import org.springframework.util.Assert;
@@ -20,8 +21,6 @@ public class MongoDbJobInstanceDao extends AbstractMongoDbDao implements JobInst
 {
     static final String COLLECTION_NAME = JobInstance.class.getSimpleName();
 
-    private static final String JOB_KEY_KEY = "jobKey";
-
     private ValueIncrementer jobIncrementer;
 
     private JobKeyGenerator<JobParameters> jobKeyGenerator = new DefaultJobKeyGenerator();
@@ -42,7 +41,11 @@ public class MongoDbJobInstanceDao extends AbstractMongoDbDao implements JobInst
     {
         super.afterPropertiesSet();
         Assert.notNull(jobIncrementer, "The jobIncrementer must not be null.");
-        getCollection().ensureIndex(new BasicDBObject(JOB_INSTANCE_ID_KEY, 1L));
+        if( !naturalIds )
+        {
+            getCollection().ensureIndex(new BasicDBObject(JOB_INSTANCE_ID_KEY, 1L));
+        }
+        getCollection().ensureIndex(start().add(JOB_NAME_KEY, 1L).add(JOB_KEY_KEY, 1L).get());
     }
 
     @Override
@@ -60,16 +63,36 @@ public class MongoDbJobInstanceDao extends AbstractMongoDbDao implements JobInst
         Assert.state(getJobInstance(jobName, jobParameters) == null,
                 "JobInstance must not already exist");
 
+        return insertJobInstance(jobName, jobParameters);
+    }
+
+    /**
+     * Creates a job instance like {@link #createJobInstance(String, JobParameters)}, without checking first that it
+     * does not exist, for the callers having just looked it up.
+     *
+     * @param jobName the job name
+     * @param jobParameters the job parameters
+     *
+     * @return the new job instance
+     */
+    public JobInstance insertJobInstance( String jobName, JobParameters jobParameters )
+    {
+        Assert.notNull(jobName, "Job name must not be null.");
+        Assert.notNull(jobParameters, "JobParameters must not be null.");
+
         Long jobId = jobIncrementer.nextLongValue();
 
         JobInstance jobInstance = new JobInstance(jobId, jobName);
         jobInstance.incrementVersion();
 
-        getCollection().save(start()
+        DBObject object = start()
                 .add(JOB_INSTANCE_ID_KEY, jobId)
                 .add(JOB_NAME_KEY, jobName)
                 .add(JOB_KEY_KEY, jobKeyGenerator.generateKey(jobParameters))
-                .add(VERSION_KEY, jobInstance.getVersion()).get());
+                .add(VERSION_KEY, jobInstance.getVersion()).get();
+        putId(object, jobId);
+        getCollection().insert(object, getWriteConcern(WriteOperation.JOB_INSTANCE_CREATION));
+        recordWrite(jobName, jobId, null);
 
         return jobInstance;
     }
@@ -84,34 +107,72 @@ public class MongoDbJobInstanceDao extends AbstractMongoDbDao implements JobInst
 
         return mapJobInstance(getCollection().findOne(start()
                 .add(JOB_NAME_KEY, jobName)
-                .add(JOB_KEY_KEY, jobKey).get()));
+                .add(JOB_KEY_KEY, jobKey).get(), null, getReadPreferenceForJobName(jobName)));
     }
 
     @Override
     public JobInstance getJobInstance( Long instanceId )
     {
-        return mapJobInstance(getCollection().findOne(new BasicDBObject(JOB_INSTANCE_ID_KEY, instanceId)));
+        return mapJobInstance(getCollection().findOne(byId(JOB_INSTANCE_ID_KEY, instanceId), null,
+                getReadPreferenceForJobInstance(instanceId)));
     }
 
     @Override
     public JobInstance getJobInstance( JobExecution jobExecution )
     {
+        ReadPreference readPreference = getReadPreferenceForJobExecution(jobExecution.getId());
         DBObject instanceId = getCollection(MongoDbJobExecutionDao.COLLECTION_NAME)
-                .findOne(new BasicDBObject(JOB_EXECUTION_ID_KEY, jobExecution.getId()), new BasicDBObject(JOB_INSTANCE_ID_KEY, 1L));
-        return mapJobInstance(getCollection().findOne(new BasicDBObject(JOB_INSTANCE_ID_KEY, instanceId.get(JOB_INSTANCE_ID_KEY))));
+                .findOne(byId(JOB_EXECUTION_ID_KEY, jobExecution.getId()), new BasicDBObject(JOB_INSTANCE_ID_KEY, 1L), readPreference);
+        return mapJobInstance(getCollection()
+                .findOne(byId(JOB_INSTANCE_ID_KEY, instanceId.get(JOB_INSTANCE_ID_KEY)), null, readPreference));
     }
 
     @Override
     public List<JobInstance> getJobInstances( String jobName, int start, int count )
     {
         return mapJobInstances(getCollection().find(new BasicDBObject(JOB_NAME_KEY, jobName)).sort(new BasicDBObject(JOB_INSTANCE_ID_KEY, -1L))
-                .skip(start).limit(count));
+                .skip(start).limit(count).setReadPreference(getReadPreferenceForJobName(jobName)));
+    }
+
+    /**
+     * @param jobName the job name
+     *
+     * @return the number of instances of the job
+     */
+    public int getJobInstanceCount( String jobName )
+    {
+        return (int) getCollection().count(new BasicDBObject(JOB_NAME_KEY, jobName), getReadPreferenceForJobName(jobName));
+    }
+
+    /**
+     * Streams all the instances of a job, most recent first, without loading them all in memory.
+     *
+     * @param jobName the job name
+     *
+     * @return an iterator that must be closed if not read until the end
+     */
+    public CloseableIterator<JobInstance> streamJobInstances( String jobName )
+    {
+        DBCursor dbCursor = getCollection().find(new BasicDBObject(JOB_NAME_KEY, jobName), start()
+                .add(JOB_INSTANCE_ID_KEY, 1L)
+                .add(JOB_NAME_KEY, 1L).get())
+                .sort(new BasicDBObject(JOB_INSTANCE_ID_KEY, -1L))
+                .batchSize(streamBatchSize)
+                .setReadPreference(getReadPreferenceForJobName(jobName));
+        return new CursorIterator<JobInstance>(dbCursor)
+        {
+            @Override
+            protected JobInstance map( DBObject dbObject )
+            {
+                return mapJobInstance(dbObject);
+            }
+        };
     }
 
     @Override
     public List<String> getJobNames()
     {
-        List results = getCollection().distinct(JOB_NAME_KEY);
+        List results = getCollection().distinct(JOB_NAME_KEY, getReadPreference());
         Collections.sort(results);
         return results;
     }
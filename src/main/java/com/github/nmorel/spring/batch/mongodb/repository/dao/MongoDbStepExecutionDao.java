@@ -5,21 +5,27 @@ import com.github.nmorel.spring.batch.mongodb.incrementer.ValueIncrementer;
 import com.mongodb.BasicDBObject;
 import com.mongodb.BasicDBObjectBuilder;
 import com.mongodb.DBCursor;
+import com.mongodb.DBDecoderFactory;
 import com.mongodb.DBObject;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.WriteResult;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.batch.core.BatchStatus;
 import org.springframework.batch.core.ExitStatus;
 import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
 import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.ExecutionContextSerializer;
 import org.springframework.batch.core.repository.dao.StepExecutionDao;
 import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.util.Assert;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
-
-import static com.mongodb.BasicDBObjectBuilder.start;
+import java.util.List;
 
 /** {@link org.springframework.batch.core.repository.dao.StepExecutionDao} implementation for MongoDB */
 public class MongoDbStepExecutionDao extends AbstractMongoDbDao implements StepExecutionDao
@@ -28,16 +34,10 @@ public class MongoDbStepExecutionDao extends AbstractMongoDbDao implements StepE
 
     private static final String COLLECTION_NAME = StepExecution.class.getSimpleName();
 
-    private static final String STEP_NAME_KEY = "stepName";
-
     private static final String COMMIT_COUNT_KEY = "commitCount";
 
-    private static final String READ_COUNT_KEY = "readCount";
-
     private static final String FILTER_COUT_KEY = "filterCout";
 
-    private static final String WRITE_COUNT_KEY = "writeCount";
-
     private static final String READ_SKIP_COUNT_KEY = "readSkipCount";
 
     private static final String WRITE_SKIP_COUNT_KEY = "writeSkipCount";
@@ -46,10 +46,33 @@ public class MongoDbStepExecutionDao extends AbstractMongoDbDao implements StepE
 
     private static final String ROLLBACK_COUNT_KEY = "rollbackCount";
 
+    private static final int FIELD_COUNT = 22;
+
+    private static final DBDecoderFactory DECODER_FACTORY = new ExecutionDecoderFactory(FieldNamingStrategy
+            .withCompactNames(ID_KEY, STEP_EXECUTION_ID_KEY, STEP_NAME_KEY, JOB_EXECUTION_ID_KEY, JOB_INSTANCE_ID_KEY,
+                    JOB_NAME_KEY, START_TIME_KEY, END_TIME_KEY, STATUS_KEY, COMMIT_COUNT_KEY, READ_COUNT_KEY,
+                    FILTER_COUT_KEY, WRITE_COUNT_KEY, EXIT_CODE_KEY, EXIT_MESSAGE_KEY, READ_SKIP_COUNT_KEY,
+                    WRITE_SKIP_COUNT_KEY, PROCESS_SKIP_COUT_KEY, ROLLBACK_COUNT_KEY, LAST_UPDATED_KEY, VERSION_KEY));
+
+    private static final DBObject VERSION_PROJECTION = new BasicDBObject(VERSION_KEY, 1);
+
+    private static final DBObject STEP_EXECUTION_ID_ORDER = new BasicDBObject(STEP_EXECUTION_ID_KEY, 1L);
+
+    private static final DBObject LAST_STEP_EXECUTION_ORDER = BasicDBObjectBuilder.start().add(START_TIME_KEY, -1L)
+            .add(STEP_EXECUTION_ID_KEY, -1L).get();
+
+    private static final DBObject JOB_EXECUTION_ID_PROJECTION = new BasicDBObject(JOB_EXECUTION_ID_KEY, 1L);
+
     private int exitMessageLength = DEFAULT_EXIT_MESSAGE_LENGTH;
 
     private ValueIncrementer stepExecutionIncrementer;
 
+    private boolean withoutJobInstanceIds;
+
+    private boolean embeddedContexts = false;
+
+    private ExecutionContextSerializer serializer;
+
     /**
      * Public setter for the exit message length in database. Do not set this if
      * you haven't modified the schema.
@@ -66,12 +89,47 @@ public class MongoDbStepExecutionDao extends AbstractMongoDbDao implements StepE
         this.stepExecutionIncrementer = stepExecutionIncrementer;
     }
 
+    /**
+     * Sets if the execution context of each step execution is stored in its document, and written by each insert and
+     * update of the step execution. A commit then updates the step execution and its context in one version-guarded
+     * write. False by default. The {@link MongoDbExecutionContextDao} must be given the same setting.
+     *
+     * @see #setSerializer(ExecutionContextSerializer)
+     */
+    public void setEmbeddedContexts( boolean embeddedContexts )
+    {
+        this.embeddedContexts = embeddedContexts;
+    }
+
+    /** Sets the serializer of the embedded execution contexts, required if they are enabled */
+    public void setSerializer( ExecutionContextSerializer serializer )
+    {
+        this.serializer = serializer;
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception
     {
         super.afterPropertiesSet();
         Assert.notNull(stepExecutionIncrementer, "StepExecutionIncrementer cannot be null.");
-        getCollection().ensureIndex(BasicDBObjectBuilder.start().add(STEP_EXECUTION_ID_KEY, 1).add(JOB_EXECUTION_ID_KEY, 1).get());
+        Assert.isTrue(!embeddedContexts || null != serializer, "The serializer is required by the embedded contexts.");
+        if( naturalIds )
+        {
+            getCollection().ensureIndex(new BasicDBObject(JOB_EXECUTION_ID_KEY, 1));
+        }
+        else
+        {
+            getCollection().ensureIndex(BasicDBObjectBuilder.start().add(STEP_EXECUTION_ID_KEY, 1).add(JOB_EXECUTION_ID_KEY, 1).get());
+        }
+        getCollection().ensureIndex(BasicDBObjectBuilder.start().add(JOB_INSTANCE_ID_KEY, 1).add(STEP_NAME_KEY, 1)
+                .add(START_TIME_KEY, -1).add(STEP_EXECUTION_ID_KEY, -1).get());
+
+        // the documents written before the job instance id was stored are indexed under a null one
+        withoutJobInstanceIds = null != getCollection().findOne(new BasicDBObject(JOB_INSTANCE_ID_KEY, null), JOB_EXECUTION_ID_PROJECTION);
+        if( withoutJobInstanceIds )
+        {
+            logger.info("Some step executions have no job instance id, their lookups by job instance go through the job executions");
+        }
     }
 
     @Override
@@ -80,11 +138,18 @@ public class MongoDbStepExecutionDao extends AbstractMongoDbDao implements StepE
         return COLLECTION_NAME;
     }
 
+    @Override
+    protected DBDecoderFactory getDecoderFactory()
+    {
+        return DECODER_FACTORY;
+    }
+
     @Override
     public void saveStepExecution( StepExecution stepExecution )
     {
         DBObject dbObject = buildStepExecutionParameters(stepExecution);
-        getCollection().save(dbObject);
+        getCollection().insert(dbObject, getStepExecutionWriteConcern(WriteOperation.STEP_EXECUTION_CREATION));
+        recordWrite(null, stepExecution.getJobExecutionId());
     }
 
     @Override
@@ -112,6 +177,7 @@ public class MongoDbStepExecutionDao extends AbstractMongoDbDao implements StepE
         stepExecution.incrementVersion(); //Should be 0
         DBObject object = toDbObjectWithoutVersion(stepExecution);
         object.put(VERSION_KEY, stepExecution.getVersion());
+        putId(object, stepExecution.getId());
         return object;
     }
 
@@ -144,52 +210,173 @@ public class MongoDbStepExecutionDao extends AbstractMongoDbDao implements StepE
             Integer version = stepExecution.getVersion() + 1;
             DBObject object = toDbObjectWithoutVersion(stepExecution);
             object.put(VERSION_KEY, version);
-            getCollection().update(start()
-                    .add(STEP_EXECUTION_ID_KEY, stepExecution.getId())
-                    .add(VERSION_KEY, stepExecution.getVersion()).get(),
-                    object);
+            DBObject query = new BasicDBObject(2);
+            query.put(getIdKey(STEP_EXECUTION_ID_KEY), stepExecution.getId());
+            query.put(VERSION_KEY, stepExecution.getVersion());
+            boolean updated = false;
+            if( isRunning(stepExecution) )
+            {
+                // a commit point only if the step was already running, the change from STARTING is a status change
+                query.put(STATUS_KEY, BatchStatus.STARTED.toString());
+                updated = update(query, object, WriteOperation.STEP_EXECUTION_PROGRESS);
+                query.removeField(STATUS_KEY);
+            }
+            if( !updated )
+            {
+                updated = update(query, object, WriteOperation.STEP_EXECUTION_UPDATE);
+            }
 
             // Avoid concurrent modifications...
-            DBObject lastError = db.getLastError();
-            if( !((Boolean) lastError.get(UPDATED_EXISTING_STATUS)) )
+            if( !updated )
             {
                 DBObject existingStepExecution = getCollection()
-                        .findOne(new BasicDBObject(STEP_EXECUTION_ID_KEY, stepExecution.getId()), new BasicDBObject(VERSION_KEY, 1));
+                        .findOne(byId(STEP_EXECUTION_ID_KEY, stepExecution.getId()), VERSION_PROJECTION);
                 if( existingStepExecution == null )
                 {
                     throw new IllegalArgumentException("Can't update this stepExecution, it was never saved.");
                 }
-                Integer curentVersion = ((Integer) existingStepExecution.get(VERSION_KEY));
+                int curentVersion = getInt(existingStepExecution, VERSION_KEY);
                 throw new OptimisticLockingFailureException("Attempt to update step execution id="
                         + stepExecution.getId() + " with wrong version (" + stepExecution.getVersion()
                         + "), where current version is " + curentVersion);
             }
+            recordWrite(null, stepExecution.getJobExecutionId());
 
             stepExecution.incrementVersion();
         }
     }
 
+    /**
+     * The embedded context holds the restart position of the step : a write of the step execution is acknowledged
+     * like a write of its context too.
+     */
+    private WriteConcern getStepExecutionWriteConcern( WriteOperation operation )
+    {
+        return embeddedContexts ? getWriteConcern(operation, WriteOperation.STEP_EXECUTION_CONTEXT_SAVE)
+                : getWriteConcern(operation);
+    }
+
+    /** @return true if the update matched the document */
+    private boolean update( DBObject query, DBObject object, WriteOperation operation )
+    {
+        WriteResult result = getCollection().update(query, object, false, false,
+                getStepExecutionWriteConcern(operation));
+        return (Boolean) result.getField(UPDATED_EXISTING_STATUS);
+    }
+
+    /**
+     * The updates of a running step at its commit points are distinguished from the ones changing its status, so they
+     * can be acknowledged with a cheaper {@link com.mongodb.WriteConcern}. The status before the update is the
+     * persisted one : the update is a commit point only if it matches a step execution already STARTED.
+     */
+    private boolean isRunning( StepExecution stepExecution )
+    {
+        return stepExecution.getStatus() == BatchStatus.STARTED && null == stepExecution.getEndTime();
+    }
+
     @Override
     public StepExecution getStepExecution( JobExecution jobExecution, Long stepExecutionId )
     {
-        return mapStepExecution(getCollection().findOne(BasicDBObjectBuilder.start()
-                .add(STEP_EXECUTION_ID_KEY, stepExecutionId)
-                .add(JOB_EXECUTION_ID_KEY, jobExecution.getId()).get()), jobExecution);
+        DBObject query = new BasicDBObject(2);
+        query.put(getIdKey(STEP_EXECUTION_ID_KEY), stepExecutionId);
+        query.put(JOB_EXECUTION_ID_KEY, jobExecution.getId());
+        return mapStepExecution(getCollection().findOne(query, null, getReadPreferenceForJobExecution(jobExecution.getId())),
+                jobExecution, fieldNames);
     }
 
     @Override
     public void addStepExecutions( JobExecution jobExecution )
     {
         DBCursor stepsCursor = getCollection().find(new BasicDBObject(JOB_EXECUTION_ID_KEY, jobExecution.getId()))
-                .sort(new BasicDBObject(STEP_EXECUTION_ID_KEY, 1L));
+                .sort(STEP_EXECUTION_ID_ORDER)
+                .setReadPreference(getReadPreferenceForJobExecution(jobExecution.getId()));
         while( stepsCursor.hasNext() )
         {
             DBObject stepObject = stepsCursor.next();
-            mapStepExecution(stepObject, jobExecution);
+            mapStepExecution(stepObject, jobExecution, fieldNames);
         }
         stepsCursor.close();
     }
 
+    /**
+     * Finds the last execution of a step in a job instance with one indexed query, instead of loading all the step
+     * executions of all the executions of the instance. The returned step execution is attached to its job execution,
+     * without the other step executions of the latter nor the execution contexts.
+     *
+     * @param jobInstance the job instance
+     * @param stepName the step name
+     *
+     * @return the step execution started last, or null if the step never ran in the instance
+     */
+    public StepExecution getLastStepExecution( JobInstance jobInstance, String stepName )
+    {
+        DBCursor cursor = getCollection().find(getStepQuery(jobInstance, stepName)).sort(LAST_STEP_EXECUTION_ORDER).limit(1)
+                .setReadPreference(getReadPreferenceForJobName(jobInstance.getJobName()));
+        DBObject stepObject = cursor.hasNext() ? cursor.next() : null;
+        cursor.close();
+        if( null == stepObject )
+        {
+            return null;
+        }
+
+        Long jobExecutionId = (Long) stepObject.get(JOB_EXECUTION_ID_KEY);
+        ReadPreference readPreference = getReadPreferenceForJobExecution(jobExecutionId);
+        DBObject jobExecutionObject = getCollection(MongoDbJobExecutionDao.COLLECTION_NAME)
+                .findOne(byId(JOB_EXECUTION_ID_KEY, jobExecutionId), null, readPreference);
+        if( null == jobExecutionObject )
+        {
+            return null;
+        }
+        JobExecution jobExecution = MongoDbJobExecutionDao.mapJobExecution(jobInstance, jobExecutionObject,
+                MongoDbJobExecutionDao.readJobParameters(getCollection(MongoDbJobExecutionDao.PARAM_COLLECTION_NAME)
+                        .find(new BasicDBObject(JOB_EXECUTION_ID_KEY, jobExecutionId)).setReadPreference(readPreference)),
+                fieldNames);
+        return mapStepExecution(stepObject, jobExecution, fieldNames);
+    }
+
+    /**
+     * Counts the executions of a step in a job instance with one indexed query.
+     *
+     * @param jobInstance the job instance
+     * @param stepName the step name
+     *
+     * @return the number of executions of the step
+     */
+    public int getStepExecutionCount( JobInstance jobInstance, String stepName )
+    {
+        return (int) getCollection().count(getStepQuery(jobInstance, stepName),
+                getReadPreferenceForJobName(jobInstance.getJobName()));
+    }
+
+    private DBObject getStepQuery( JobInstance jobInstance, String stepName )
+    {
+        DBObject query = new BasicDBObject(2);
+        if( withoutJobInstanceIds )
+        {
+            query.put(JOB_EXECUTION_ID_KEY, new BasicDBObject("$in", findJobExecutionIds(jobInstance)));
+        }
+        else
+        {
+            query.put(JOB_INSTANCE_ID_KEY, jobInstance.getId());
+        }
+        query.put(STEP_NAME_KEY, stepName);
+        return query;
+    }
+
+    private Object[] findJobExecutionIds( JobInstance jobInstance )
+    {
+        DBCursor cursor = getCollection(MongoDbJobExecutionDao.COLLECTION_NAME)
+                .find(new BasicDBObject(JOB_INSTANCE_ID_KEY, jobInstance.getId()), JOB_EXECUTION_ID_PROJECTION)
+                .setReadPreference(getReadPreferenceForJobName(jobInstance.getJobName()));
+        List<Object> ids = new ArrayList<Object>();
+        while( cursor.hasNext() )
+        {
+            ids.add(cursor.next().get(JOB_EXECUTION_ID_KEY));
+        }
+        cursor.close();
+        return ids.toArray();
+    }
+
     /**
      * Truncate the exit description if the length exceeds
      * {@link #DEFAULT_EXIT_MESSAGE_LENGTH}.
@@ -214,27 +401,37 @@ public class MongoDbStepExecutionDao extends AbstractMongoDbDao implements StepE
     private DBObject toDbObjectWithoutVersion( StepExecution stepExecution )
     {
         String exitDescription = truncateExitDescription(stepExecution.getExitStatus().getExitDescription());
-        return start()
-                .add(STEP_EXECUTION_ID_KEY, stepExecution.getId())
-                .add(STEP_NAME_KEY, stepExecution.getStepName())
-                .add(JOB_EXECUTION_ID_KEY, stepExecution.getJobExecutionId())
-                .add(START_TIME_KEY, stepExecution.getStartTime())
-                .add(END_TIME_KEY, stepExecution.getEndTime())
-                .add(STATUS_KEY, stepExecution.getStatus().toString())
-                .add(COMMIT_COUNT_KEY, stepExecution.getCommitCount())
-                .add(READ_COUNT_KEY, stepExecution.getReadCount())
-                .add(FILTER_COUT_KEY, stepExecution.getFilterCount())
-                .add(WRITE_COUNT_KEY, stepExecution.getWriteCount())
-                .add(EXIT_CODE_KEY, stepExecution.getExitStatus().getExitCode())
-                .add(EXIT_MESSAGE_KEY, exitDescription)
-                .add(READ_SKIP_COUNT_KEY, stepExecution.getReadSkipCount())
-                .add(WRITE_SKIP_COUNT_KEY, stepExecution.getWriteSkipCount())
-                .add(PROCESS_SKIP_COUT_KEY, stepExecution.getProcessSkipCount())
-                .add(ROLLBACK_COUNT_KEY, stepExecution.getRollbackCount())
-                .add(LAST_UPDATED_KEY, stepExecution.getLastUpdated()).get();
+        // sized for all the fields, the version, the natural id and the context, so the document is never rehashed
+        DBObject object = new BasicDBObject(FIELD_COUNT * 4 / 3 + 1);
+        object.put(STEP_EXECUTION_ID_KEY, stepExecution.getId());
+        object.put(STEP_NAME_KEY, stepExecution.getStepName());
+        object.put(JOB_EXECUTION_ID_KEY, stepExecution.getJobExecutionId());
+        object.put(JOB_INSTANCE_ID_KEY, stepExecution.getJobExecution().getJobId());
+        JobInstance jobInstance = stepExecution.getJobExecution().getJobInstance();
+        object.put(JOB_NAME_KEY, null == jobInstance ? null : jobInstance.getJobName());
+        object.put(START_TIME_KEY, stepExecution.getStartTime());
+        object.put(END_TIME_KEY, stepExecution.getEndTime());
+        object.put(STATUS_KEY, stepExecution.getStatus().toString());
+        fieldNames.put(object, COMMIT_COUNT_KEY, stepExecution.getCommitCount());
+        object.put(READ_COUNT_KEY, stepExecution.getReadCount());
+        fieldNames.put(object, FILTER_COUT_KEY, stepExecution.getFilterCount());
+        object.put(WRITE_COUNT_KEY, stepExecution.getWriteCount());
+        object.put(EXIT_CODE_KEY, stepExecution.getExitStatus().getExitCode());
+        fieldNames.put(object, EXIT_MESSAGE_KEY, exitDescription);
+        fieldNames.put(object, READ_SKIP_COUNT_KEY, stepExecution.getReadSkipCount());
+        fieldNames.put(object, WRITE_SKIP_COUNT_KEY, stepExecution.getWriteSkipCount());
+        fieldNames.put(object, PROCESS_SKIP_COUT_KEY, stepExecution.getProcessSkipCount());
+        fieldNames.put(object, ROLLBACK_COUNT_KEY, stepExecution.getRollbackCount());
+        fieldNames.put(object, LAST_UPDATED_KEY, stepExecution.getLastUpdated());
+        if( embeddedContexts )
+        {
+            fieldNames.put(object, SERIALIZED_CONTEXT_KEY, MongoDbExecutionContextDao
+                    .serializeContext(serializer, stepExecution.getExecutionContext()));
+        }
+        return object;
     }
 
-    private StepExecution mapStepExecution( DBObject object, JobExecution jobExecution )
+    static StepExecution mapStepExecution( DBObject object, JobExecution jobExecution, FieldNamingStrategy fieldNames )
     {
         if( object == null )
         {
@@ -245,17 +442,17 @@ public class MongoDbStepExecutionDao extends AbstractMongoDbDao implements StepE
         stepExecution.setStartTime((Date) object.get(START_TIME_KEY));
         stepExecution.setEndTime((Date) object.get(END_TIME_KEY));
         stepExecution.setStatus(BatchStatus.valueOf((String) object.get(STATUS_KEY)));
-        stepExecution.setCommitCount((Integer) object.get(COMMIT_COUNT_KEY));
-        stepExecution.setReadCount((Integer) object.get(READ_COUNT_KEY));
-        stepExecution.setFilterCount((Integer) object.get(FILTER_COUT_KEY));
-        stepExecution.setWriteCount((Integer) object.get(WRITE_COUNT_KEY));
-        stepExecution.setExitStatus(new ExitStatus((String) object.get(EXIT_CODE_KEY), ((String) object.get(EXIT_MESSAGE_KEY))));
-        stepExecution.setReadSkipCount((Integer) object.get(READ_SKIP_COUNT_KEY));
-        stepExecution.setWriteSkipCount((Integer) object.get(WRITE_SKIP_COUNT_KEY));
-        stepExecution.setProcessSkipCount((Integer) object.get(PROCESS_SKIP_COUT_KEY));
-        stepExecution.setRollbackCount((Integer) object.get(ROLLBACK_COUNT_KEY));
-        stepExecution.setLastUpdated((Date) object.get(LAST_UPDATED_KEY));
-        stepExecution.setVersion((Integer) object.get(VERSION_KEY));
+        stepExecution.setCommitCount(fieldNames.getInt(object, COMMIT_COUNT_KEY));
+        stepExecution.setReadCount(getInt(object, READ_COUNT_KEY));
+        stepExecution.setFilterCount(fieldNames.getInt(object, FILTER_COUT_KEY));
+        stepExecution.setWriteCount(getInt(object, WRITE_COUNT_KEY));
+        stepExecution.setExitStatus(new ExitStatus((String) object.get(EXIT_CODE_KEY), ((String) fieldNames.get(object, EXIT_MESSAGE_KEY))));
+        stepExecution.setReadSkipCount(fieldNames.getInt(object, READ_SKIP_COUNT_KEY));
+        stepExecution.setWriteSkipCount(fieldNames.getInt(object, WRITE_SKIP_COUNT_KEY));
+        stepExecution.setProcessSkipCount(fieldNames.getInt(object, PROCESS_SKIP_COUT_KEY));
+        stepExecution.setRollbackCount(fieldNames.getInt(object, ROLLBACK_COUNT_KEY));
+        stepExecution.setLastUpdated((Date) fieldNames.get(object, LAST_UPDATED_KEY));
+        stepExecution.setVersion(getInt(object, VERSION_KEY));
         return stepExecution;
     }
 }
@@ -0,0 +1,31 @@
+package com.github.nmorel.spring.batch.mongodb.repository.dao;
+
+import com.mongodb.ReadPreference;
+
+/** Strategy deciding the {@link ReadPreference} used by the DAOs for each read */
+public interface ReadPreferenceResolver
+{
+    /** @return the read preference for a query not related to a specific job or execution */
+    ReadPreference resolve();
+
+    /**
+     * @param jobName the job name targeted by the query
+     *
+     * @return the read preference for a query on the given job
+     */
+    ReadPreference resolveForJobName( String jobName );
+
+    /**
+     * @param jobInstanceId the job instance id targeted by the query
+     *
+     * @return the read preference for a query on the given job instance or one of its executions
+     */
+    ReadPreference resolveForJobInstance( Long jobInstanceId );
+
+    /**
+     * @param jobExecutionId the job execution id targeted by the query
+     *
+     * @return the read preference for a query on the given job execution or one of its steps
+     */
+    ReadPreference resolveForJobExecution( Long jobExecutionId );
+}
@@ -0,0 +1,65 @@
+package com.github.nmorel.spring.batch.mongodb.repository.dao;
+
+import com.mongodb.WriteConcern;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Defines the {@link WriteConcern} used for each {@link WriteOperation}. The operations without a specific write
+ * concern use the default one, or the write concern of the collection if no default is set.
+ */
+public class WriteConcernPolicy
+{
+    /** Write concern acknowledged by a majority of the replica set and journaled */
+    public static final WriteConcern MAJORITY_JOURNALED = new WriteConcern("majority", 0, false, true);
+
+    private final Map<WriteOperation, WriteConcern> writeConcerns = new EnumMap<WriteOperation, WriteConcern>(WriteOperation.class);
+
+    private WriteConcern defaultWriteConcern;
+
+    /**
+     * Policy paying for {@link #MAJORITY_JOURNALED} acknowledgement only where the restart needs it : creations,
+     * status transitions, execution context saves and sequence increments. The step executions progress is only
+     * acknowledged by the primary, like the heartbeats of the job executions.
+     *
+     * @return the policy
+     */
+    public static WriteConcernPolicy restartSafe()
+    {
+        WriteConcernPolicy policy = new WriteConcernPolicy();
+        policy.setDefaultWriteConcern(MAJORITY_JOURNALED);
+        policy.setWriteConcern(WriteOperation.STEP_EXECUTION_PROGRESS, WriteConcern.ACKNOWLEDGED);
+        policy.setWriteConcern(WriteOperation.JOB_EXECUTION_HEARTBEAT, WriteConcern.ACKNOWLEDGED);
+        return policy;
+    }
+
+    /** Sets the write concern of the operations without a specific one */
+    public void setDefaultWriteConcern( WriteConcern defaultWriteConcern )
+    {
+        this.defaultWriteConcern = defaultWriteConcern;
+    }
+
+    /** Sets the write concern of an operation */
+    public void setWriteConcern( WriteOperation operation, WriteConcern writeConcern )
+    {
+        writeConcerns.put(operation, writeConcern);
+    }
+
+    /** Sets the write concern of several operations */
+    public void setWriteConcerns( Map<WriteOperation, WriteConcern> writeConcerns )
+    {
+        this.writeConcerns.putAll(writeConcerns);
+    }
+
+    /**
+     * @param operation the operation
+     *
+     * @return the write concern of the operation, or null to use the one of the collection
+     */
+    public WriteConcern getWriteConcern( WriteOperation operation )
+    {
+        WriteConcern writeConcern = writeConcerns.get(operation);
+        return null == writeConcern ? defaultWriteConcern : writeConcern;
+    }
+}
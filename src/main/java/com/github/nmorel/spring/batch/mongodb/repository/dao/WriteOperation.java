@@ -0,0 +1,41 @@
+package com.github.nmorel.spring.batch.mongodb.repository.dao;
+
+/** The different kinds of writes done by the DAOs, each one can be given its own {@link com.mongodb.WriteConcern} */
+public enum WriteOperation
+{
+    /** Insertion of a new job instance */
+    JOB_INSTANCE_CREATION,
+
+    /** Insertion of a new job execution and its parameters */
+    JOB_EXECUTION_CREATION,
+
+    /** Update of a job execution, typically a status transition */
+    JOB_EXECUTION_UPDATE,
+
+    /** Insertion of a new step execution */
+    STEP_EXECUTION_CREATION,
+
+    /** Update of a running step execution at a commit point */
+    STEP_EXECUTION_PROGRESS,
+
+    /** Update of a step execution changing its status or ending it */
+    STEP_EXECUTION_UPDATE,
+
+    /** Save of the execution context of a job execution */
+    JOB_EXECUTION_CONTEXT_SAVE,
+
+    /** Save of the execution context of a step execution */
+    STEP_EXECUTION_CONTEXT_SAVE,
+
+    /** Refresh of the heartbeat of a running job execution */
+    JOB_EXECUTION_HEARTBEAT,
+
+    /** Increment of a sequence generating the ids */
+    SEQUENCE_INCREMENT,
+
+    /** Deletion or archiving of old meta-data by the retention policies */
+    METADATA_PURGE,
+
+    /** Rewrite of the meta-data by a migration */
+    METADATA_MIGRATION
+}
@@ -0,0 +1,226 @@
+package com.github.nmorel.spring.batch.mongodb.repository.support;
+
+import com.github.nmorel.spring.batch.mongodb.repository.dao.MongoDbArchiveDao;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.WriteOperation;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameter;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.item.ExecutionContext;
+
+import java.util.*;
+
+/**
+ * Moves the finished job instances from the live collections to the archive tier, so the live collections stay small
+ * while the history is kept. The archive can be stored in another {@link DB}.
+ * <p/>
+ * The instances are selected like {@link MongoDbMetadataPurger} does, the retention being here the time spent in the
+ * live collections. Each job execution is archived as a single document embedding its parameters and its context, and
+ * each step execution as a document embedding its context, see {@link MongoDbArchiveDao}. The archived documents are
+ * written before the live ones are deleted, so an interrupted archiving never loses data and is resumed by the next
+ * one. An instance that can't be archived, e.g. because of a document over the maximum size, is logged and kept in the
+ * live collections, without blocking the other ones.
+ * <p/>
+ * As with the purge, the repository does not know the archived instances anymore. They are read back through
+ * {@link com.github.nmorel.spring.batch.mongodb.explore.support.MongoDbJobExplorer}.
+ */
+public class MongoDbExecutionArchiver extends MongoDbMetadataPurger
+{
+    private static final Log logger = LogFactory.getLog(MongoDbExecutionArchiver.class);
+
+    private static final String JOB_EXECUTION_COLLECTION_NAME = JobExecution.class.getSimpleName();
+
+    private static final String JOB_PARAMETER_COLLECTION_NAME = JobParameter.class.getSimpleName();
+
+    private static final String STEP_EXECUTION_COLLECTION_NAME = StepExecution.class.getSimpleName();
+
+    private static final String EXECUTION_CONTEXT_COLLECTION_NAME = ExecutionContext.class.getSimpleName();
+
+    private DB archiveDb;
+
+    private String archivePrefix = MongoDbArchiveDao.DEFAULT_ARCHIVE_COLLECTION_PREFIX;
+
+    private MongoDbArchiveDao archiveDao;
+
+    /** Sets the database of the archive tier. The default is the database of the live collections. */
+    public void setArchiveDb( DB archiveDb )
+    {
+        this.archiveDb = archiveDb;
+    }
+
+    /** Sets the collection prefix of the archive tier */
+    public void setArchivePrefix( String archivePrefix )
+    {
+        this.archivePrefix = archivePrefix;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception
+    {
+        super.afterPropertiesSet();
+        archiveDao = new MongoDbArchiveDao();
+        archiveDao.setDb(null == archiveDb ? db : archiveDb);
+        archiveDao.setPrefix(archivePrefix);
+        archiveDao.afterPropertiesSet();
+    }
+
+    /**
+     * Archives the meta-data of all the jobs according to the time they must spend in the live collections.
+     *
+     * @return the number of job instances archived
+     */
+    public int archive()
+    {
+        return purge();
+    }
+
+    /** Archives the instance, or keeps it in the live collections if it can't be archived */
+    @Override
+    protected boolean beforePurge( Long jobInstanceId, BasicDBList jobExecutionIds )
+    {
+        try
+        {
+            archive(jobInstanceId, jobExecutionIds);
+            return true;
+        }
+        catch( MongoException e )
+        {
+            logger.warn("Could not archive the job instance " + jobInstanceId
+                    + ", it is kept in the live collections", e);
+            return false;
+        }
+    }
+
+    private void archive( Long jobInstanceId, BasicDBList jobExecutionIds )
+    {
+        WriteConcern writeConcern = getWriteConcern(WriteOperation.METADATA_PURGE);
+
+        // the step executions first, by chunks, as an instance may have any number of them
+        DBCursor stepsCursor = getCollection(STEP_EXECUTION_COLLECTION_NAME)
+                .find(new BasicDBObject(JOB_EXECUTION_ID_KEY, new BasicDBObject("$in", jobExecutionIds)),
+                        new BasicDBObject(ID_KEY, 0))
+                .sort(new BasicDBObject(STEP_EXECUTION_ID_KEY, 1));
+        try
+        {
+            List<DBObject> stepExecutions = new ArrayList<DBObject>();
+            while( stepsCursor.hasNext() )
+            {
+                stepExecutions.add(stepsCursor.next());
+                if( stepExecutions.size() == STEP_EXECUTION_CHUNK_SIZE || !stepsCursor.hasNext() )
+                {
+                    archiveStepExecutions(stepExecutions, writeConcern);
+                    stepExecutions.clear();
+                }
+            }
+        }
+        finally
+        {
+            stepsCursor.close();
+        }
+
+        DBObject jobInstance = getCollection().findOne(byId(JOB_INSTANCE_ID_KEY, jobInstanceId),
+                new BasicDBObject(ID_KEY, 0));
+        Map<Object, List<DBObject>> parameters = group(find(getCollection(JOB_PARAMETER_COLLECTION_NAME), JOB_EXECUTION_ID_KEY,
+                jobExecutionIds), JOB_EXECUTION_ID_KEY);
+        Map<Object, DBObject> jobContexts = index(find(getCollection(EXECUTION_CONTEXT_COLLECTION_NAME), JOB_EXECUTION_ID_KEY,
+                jobExecutionIds), JOB_EXECUTION_ID_KEY);
+        List<DBObject> jobExecutions = find(getCollection(JOB_EXECUTION_COLLECTION_NAME),
+                getIdKey(JOB_EXECUTION_ID_KEY), jobExecutionIds);
+        for( DBObject jobExecution : jobExecutions )
+        {
+            Object jobExecutionId = jobExecution.get(JOB_EXECUTION_ID_KEY);
+            jobExecution.put(JOB_NAME_KEY, jobInstance.get(JOB_NAME_KEY));
+            jobExecution.put(JOB_KEY_KEY, jobInstance.get(JOB_KEY_KEY));
+            jobExecution.put(MongoDbArchiveDao.PARAMETERS_KEY, toList(parameters.get(jobExecutionId)));
+            putContext(jobExecution, jobContexts.get(jobExecutionId));
+        }
+        archiveDao.archive(jobInstance, jobExecutions, writeConcern);
+    }
+
+    private void archiveStepExecutions( List<DBObject> stepExecutions, WriteConcern writeConcern )
+    {
+        BasicDBList stepExecutionIds = new BasicDBList();
+        for( DBObject stepExecution : stepExecutions )
+        {
+            stepExecutionIds.add(stepExecution.get(STEP_EXECUTION_ID_KEY));
+        }
+        // the contexts embedded in the step executions are archived as is
+        Map<Object, DBObject> stepContexts = index(find(getCollection(EXECUTION_CONTEXT_COLLECTION_NAME),
+                STEP_EXECUTION_ID_KEY, stepExecutionIds), STEP_EXECUTION_ID_KEY);
+        for( DBObject stepExecution : stepExecutions )
+        {
+            putContext(stepExecution, stepContexts.get(stepExecution.get(STEP_EXECUTION_ID_KEY)));
+        }
+        archiveDao.archiveStepExecutions(stepExecutions, writeConcern);
+    }
+
+    private void putContext( DBObject target, DBObject context )
+    {
+        if( null != context )
+        {
+            target.put(SERIALIZED_CONTEXT_KEY, fieldNames.get(context, SERIALIZED_CONTEXT_KEY));
+        }
+    }
+
+    private List<DBObject> find( DBCollection collection, String key, BasicDBList ids )
+    {
+        List<DBObject> results = new ArrayList<DBObject>();
+        if( ids.isEmpty() )
+        {
+            return results;
+        }
+        DBCursor cursor = collection.find(new BasicDBObject(key, new BasicDBObject("$in", ids)), new BasicDBObject(ID_KEY, 0))
+                .sort(new BasicDBObject(key, 1));
+        while( cursor.hasNext() )
+        {
+            results.add(cursor.next());
+        }
+        cursor.close();
+        return results;
+    }
+
+    private Map<Object, DBObject> index( List<DBObject> dbObjects, String key )
+    {
+        Map<Object, DBObject> results = new HashMap<Object, DBObject>();
+        for( DBObject dbObject : dbObjects )
+        {
+            results.put(dbObject.get(key), dbObject);
+        }
+        return results;
+    }
+
+    private Map<Object, List<DBObject>> group( List<DBObject> dbObjects, String key )
+    {
+        Map<Object, List<DBObject>> results = new HashMap<Object, List<DBObject>>();
+        for( DBObject dbObject : dbObjects )
+        {
+            List<DBObject> group = results.get(dbObject.get(key));
+            if( null == group )
+            {
+                group = new ArrayList<DBObject>();
+                results.put(dbObject.get(key), group);
+            }
+            group.add(dbObject);
+        }
+        return results;
+    }
+
+    private BasicDBList toList( List<DBObject> dbObjects )
+    {
+        BasicDBList list = new BasicDBList();
+        if( null != dbObjects )
+        {
+            list.addAll(dbObjects);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,138 @@
+package com.github.nmorel.spring.batch.mongodb.repository.support;
+
+import com.github.nmorel.spring.batch.mongodb.repository.dao.AbstractMongoDbDao;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.WriteOperation;
+import com.mongodb.BasicDBObject;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Proves that the job executions running in this process are alive, for the {@link MongoDbZombieReaper}. It must be
+ * registered as a listener of the jobs.
+ * <p/>
+ * The heartbeats are kept in their own collection, one document per running execution : a heartbeat is a single
+ * <code>$set</code> of a timestamp for all the executions of the process, on its own schedule, which never bumps the
+ * version of the executions nor is lost when the repository replaces their documents.
+ */
+public class MongoDbJobExecutionHeartbeat extends AbstractMongoDbDao implements JobExecutionListener, DisposableBean
+{
+    private static final Log logger = LogFactory.getLog(MongoDbJobExecutionHeartbeat.class);
+
+    public static final String COLLECTION_NAME = "JobExecutionHeartbeat";
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 10000L;
+
+    static final String HEARTBEAT_KEY = "heartbeat";
+
+    private long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+
+    private final Set<Long> jobExecutionIds = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    private ScheduledExecutorService scheduler;
+
+    /** Sets the interval between two heartbeats, in milliseconds, {@link #DEFAULT_INTERVAL_MILLIS} by default */
+    public void setIntervalMillis( long intervalMillis )
+    {
+        this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    protected String getCollectionName()
+    {
+        return COLLECTION_NAME;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception
+    {
+        super.afterPropertiesSet();
+        Assert.isTrue(intervalMillis > 0, "The intervalMillis must be positive.");
+        getCollection().ensureIndex(new BasicDBObject(HEARTBEAT_KEY, 1));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread(runnable, "MongoDbJobExecutionHeartbeat");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                heartbeat();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy()
+    {
+        if( null != scheduler )
+        {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    @Override
+    public void beforeJob( JobExecution jobExecution )
+    {
+        getCollection().save(new BasicDBObject(ID_KEY, jobExecution.getId()).append(HEARTBEAT_KEY, new Date()),
+                getWriteConcern(WriteOperation.JOB_EXECUTION_HEARTBEAT));
+        jobExecutionIds.add(jobExecution.getId());
+    }
+
+    @Override
+    public void afterJob( JobExecution jobExecution )
+    {
+        jobExecutionIds.remove(jobExecution.getId());
+        getCollection().remove(new BasicDBObject(ID_KEY, jobExecution.getId()),
+                getWriteConcern(WriteOperation.JOB_EXECUTION_HEARTBEAT));
+    }
+
+    /** @return the ids of the job executions whose heartbeat is sent by this process */
+    public Set<Long> getJobExecutionIds()
+    {
+        return Collections.unmodifiableSet(jobExecutionIds);
+    }
+
+    /** Refreshes the heartbeat of all the job executions running in this process */
+    protected void heartbeat()
+    {
+        List<Long> ids = new ArrayList<Long>(jobExecutionIds);
+        if( ids.isEmpty() )
+        {
+            return;
+        }
+        try
+        {
+            // no upsert, an execution reaped as a zombie is not revived
+            getCollection().update(new BasicDBObject(ID_KEY, new BasicDBObject("$in", ids)),
+                    new BasicDBObject("$set", new BasicDBObject(HEARTBEAT_KEY, new Date())), false, true,
+                    getWriteConcern(WriteOperation.JOB_EXECUTION_HEARTBEAT));
+        }
+        catch( RuntimeException e )
+        {
+            logger.warn("Could not refresh the heartbeat of the job executions " + ids, e);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.nmorel.spring.batch.mongodb.repository.support;
+
+import com.github.nmorel.spring.batch.mongodb.repository.dao.AbstractMongoDbDao;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.WriteOperation;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.StepExecution;
+
+import static com.mongodb.BasicDBObjectBuilder.start;
+
+/**
+ * Stores the job name in the job executions and step executions written before it was, so they are matched by the
+ * queries on the job name, like the ones of
+ * {@link com.github.nmorel.spring.batch.mongodb.explore.statistics.MongoDbStatisticsService}.
+ * <p/>
+ * The job instances are read one by one and the name of each one is set on its executions by two server side updates.
+ * Only the executions without a job name are updated, so an interrupted migration can be run again.
+ */
+public class MongoDbJobNameMigration extends AbstractMongoDbDao implements Runnable
+{
+    private static final Log logger = LogFactory.getLog(MongoDbJobNameMigration.class);
+
+    private static final DBObject WITHOUT_JOB_NAME = new BasicDBObject(JOB_NAME_KEY, null);
+
+    @Override
+    protected String getCollectionName()
+    {
+        return JobInstance.class.getSimpleName();
+    }
+
+    @Override
+    public void run()
+    {
+        migrate();
+    }
+
+    /**
+     * Migrates the job executions and step executions.
+     *
+     * @return the number of executions migrated
+     */
+    public int migrate()
+    {
+        DBCollection jobExecutions = getCollection(JobExecution.class.getSimpleName());
+        DBCollection stepExecutions = getCollection(StepExecution.class.getSimpleName());
+        if( null == jobExecutions.findOne(WITHOUT_JOB_NAME) && null == stepExecutions.findOne(WITHOUT_JOB_NAME) )
+        {
+            logger.info("The executions already store their job name");
+            return 0;
+        }
+
+        WriteConcern writeConcern = getWriteConcern(WriteOperation.METADATA_MIGRATION);
+        int migrated = 0;
+        DBCursor instances = getCollection().find(new BasicDBObject(), start().add(JOB_INSTANCE_ID_KEY, 1)
+                .add(JOB_NAME_KEY, 1).get());
+        try
+        {
+            while( instances.hasNext() )
+            {
+                DBObject instance = instances.next();
+                Object instanceId = instance.get(JOB_INSTANCE_ID_KEY);
+                DBObject setJobName = new BasicDBObject("$set", new BasicDBObject(JOB_NAME_KEY,
+                        instance.get(JOB_NAME_KEY)));
+
+                migrated += jobExecutions.update(start().add(JOB_INSTANCE_ID_KEY, instanceId).add(JOB_NAME_KEY, null)
+                        .get(), setJobName, false, true, writeConcern).getN();
+
+                // the oldest step executions have no job instance id, they are found by their job execution
+                BasicDBList jobExecutionIds = new BasicDBList();
+                DBCursor executions = jobExecutions.find(new BasicDBObject(JOB_INSTANCE_ID_KEY, instanceId),
+                        new BasicDBObject(JOB_EXECUTION_ID_KEY, 1));
+                try
+                {
+                    while( executions.hasNext() )
+                    {
+                        jobExecutionIds.add(executions.next().get(JOB_EXECUTION_ID_KEY));
+                    }
+                }
+                finally
+                {
+                    executions.close();
+                }
+                if( !jobExecutionIds.isEmpty() )
+                {
+                    migrated += stepExecutions.update(start()
+                            .add(JOB_EXECUTION_ID_KEY, new BasicDBObject("$in", jobExecutionIds))
+                            .add(JOB_NAME_KEY, null).get(), setJobName, false, true, writeConcern).getN();
+                }
+            }
+        }
+        finally
+        {
+            instances.close();
+        }
+
+        logger.info("Stored the job name in " + migrated + " executions");
+        return migrated;
+    }
+}
@@ -0,0 +1,199 @@
+package com.github.nmorel.spring.batch.mongodb.repository.support;
+
+import com.github.nmorel.spring.batch.mongodb.repository.dao.CloseableIterator;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.MongoDbJobExecutionDao;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.MongoDbJobInstanceDao;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.MongoDbStepExecutionDao;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobExecutionAlreadyRunningException;
+import org.springframework.batch.core.repository.JobInstanceAlreadyCompleteException;
+import org.springframework.batch.core.repository.JobRestartException;
+import org.springframework.batch.core.repository.dao.ExecutionContextDao;
+import org.springframework.batch.core.repository.support.SimpleJobRepository;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.util.Assert;
+
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * {@link org.springframework.batch.core.repository.JobRepository} answering the lookups done at the start of every
+ * step with indexed queries on the step executions, instead of loading all the executions of the job instance with
+ * their step executions.
+ * <p/>
+ * The launches look the job instance up once, check the previous executions of an existing instance from their
+ * summaries and do not write the context of a new execution while it is empty.
+ * <p/>
+ * Unlike with {@link SimpleJobRepository}, the job execution of the last step execution is not populated with its
+ * other step executions.
+ * <p/>
+ * With the embedded step contexts, see {@link #setEmbeddedStepContexts(boolean)}, the step contexts are stored in the
+ * step execution documents instead of a collection of their own.
+ */
+public class MongoDbJobRepository extends SimpleJobRepository
+{
+    private final MongoDbJobInstanceDao jobInstanceDao;
+
+    private final MongoDbJobExecutionDao jobExecutionDao;
+
+    private final MongoDbStepExecutionDao stepExecutionDao;
+
+    private final ExecutionContextDao ecDao;
+
+    private boolean embeddedStepContexts = false;
+
+    public MongoDbJobRepository( MongoDbJobInstanceDao jobInstanceDao, MongoDbJobExecutionDao jobExecutionDao,
+                                 MongoDbStepExecutionDao stepExecutionDao, ExecutionContextDao ecDao )
+    {
+        super(jobInstanceDao, jobExecutionDao, stepExecutionDao, ecDao);
+        this.jobInstanceDao = jobInstanceDao;
+        this.jobExecutionDao = jobExecutionDao;
+        this.stepExecutionDao = stepExecutionDao;
+        this.ecDao = ecDao;
+    }
+
+    /**
+     * Sets if the contexts of the step executions are stored in the step execution documents. False by default. The
+     * DAOs must be given the same setting, see {@link MongoDbStepExecutionDao#setEmbeddedContexts(boolean)}.
+     * <p/>
+     * Each insert and update of a step execution then writes its context too. The updates of the context alone are
+     * still written at once, since some of them, like the grid size of a partitioned step, are not followed by an
+     * update of the step execution before the step ends.
+     */
+    public void setEmbeddedStepContexts( boolean embeddedStepContexts )
+    {
+        this.embeddedStepContexts = embeddedStepContexts;
+    }
+
+    @Override
+    public JobExecution createJobExecution( String jobName, JobParameters jobParameters )
+            throws JobExecutionAlreadyRunningException, JobRestartException, JobInstanceAlreadyCompleteException
+    {
+        Assert.notNull(jobName, "Job name must not be null.");
+        Assert.notNull(jobParameters, "JobParameters must not be null.");
+
+        JobInstance jobInstance = jobInstanceDao.getJobInstance(jobName, jobParameters);
+        ExecutionContext executionContext;
+        if( jobInstance != null )
+        {
+            executionContext = getRestartContext(jobInstance, jobParameters);
+        }
+        else
+        {
+            // just looked up, the instance does not have to be looked up again before its creation
+            jobInstance = jobInstanceDao.insertJobInstance(jobName, jobParameters);
+            executionContext = new ExecutionContext();
+        }
+
+        JobExecution jobExecution = new JobExecution(jobInstance, jobParameters);
+        jobExecution.setExecutionContext(executionContext);
+        jobExecution.setLastUpdated(new Date(System.currentTimeMillis()));
+        jobExecutionDao.saveJobExecution(jobExecution);
+        // a missing context is read as an empty one, it is written at the first update
+        if( !executionContext.isEmpty() )
+        {
+            ecDao.saveExecutionContext(jobExecution);
+        }
+        return jobExecution;
+    }
+
+    /**
+     * Checks that an existing job instance can be run again, from the summaries of its executions read in one query.
+     *
+     * @return the context of its last execution
+     */
+    private ExecutionContext getRestartContext( JobInstance jobInstance, JobParameters jobParameters )
+            throws JobExecutionAlreadyRunningException, JobInstanceAlreadyCompleteException
+    {
+        JobExecution lastExecution = null;
+        CloseableIterator<JobExecution> executions = jobExecutionDao.streamJobExecutions(jobInstance, true);
+        try
+        {
+            while( executions.hasNext() )
+            {
+                JobExecution execution = executions.next();
+                if( execution.isRunning() )
+                {
+                    throw new JobExecutionAlreadyRunningException("A job execution for this job is already running: "
+                            + execution);
+                }
+                BatchStatus status = execution.getStatus();
+                if( status == BatchStatus.COMPLETED || status == BatchStatus.ABANDONED )
+                {
+                    throw new JobInstanceAlreadyCompleteException(
+                            "A job instance already exists and is complete for parameters=" + jobParameters
+                                    + ".  If you want to run this job again, change the parameters.");
+                }
+                if( null == lastExecution || lastExecution.getCreateTime().before(execution.getCreateTime()) )
+                {
+                    lastExecution = execution;
+                }
+            }
+        }
+        finally
+        {
+            executions.close();
+        }
+        return null == lastExecution ? new ExecutionContext() : ecDao.getExecutionContext(lastExecution);
+    }
+
+    @Override
+    public void add( StepExecution stepExecution )
+    {
+        if( !embeddedStepContexts )
+        {
+            super.add(stepExecution);
+            return;
+        }
+        validateStepExecution(stepExecution);
+        stepExecution.setLastUpdated(new Date(System.currentTimeMillis()));
+        // the context is inserted with the step execution
+        stepExecutionDao.saveStepExecution(stepExecution);
+    }
+
+    @Override
+    public void addAll( Collection<StepExecution> stepExecutions )
+    {
+        if( !embeddedStepContexts )
+        {
+            super.addAll(stepExecutions);
+            return;
+        }
+        Assert.notNull(stepExecutions, "Attempt to save a null collection of step executions");
+        for( StepExecution stepExecution : stepExecutions )
+        {
+            validateStepExecution(stepExecution);
+            stepExecution.setLastUpdated(new Date(System.currentTimeMillis()));
+        }
+        stepExecutionDao.saveStepExecutions(stepExecutions);
+    }
+
+    private void validateStepExecution( StepExecution stepExecution )
+    {
+        Assert.notNull(stepExecution, "StepExecution cannot be null.");
+        Assert.notNull(stepExecution.getStepName(), "StepExecution's step name cannot be null.");
+        Assert.notNull(stepExecution.getJobExecutionId(), "StepExecution must belong to persisted JobExecution");
+    }
+
+    @Override
+    public StepExecution getLastStepExecution( JobInstance jobInstance, String stepName )
+    {
+        StepExecution latest = stepExecutionDao.getLastStepExecution(jobInstance, stepName);
+        if( latest != null )
+        {
+            latest.setExecutionContext(ecDao.getExecutionContext(latest));
+            latest.getJobExecution().setExecutionContext(ecDao.getExecutionContext(latest.getJobExecution()));
+        }
+        return latest;
+    }
+
+    @Override
+    public int getStepExecutionCount( JobInstance jobInstance, String stepName )
+    {
+        return stepExecutionDao.getStepExecutionCount(jobInstance, stepName);
+    }
+}
@@ -1,7 +1,9 @@
 package com.github.nmorel.spring.batch.mongodb.repository.support;
 
 import com.github.nmorel.spring.batch.mongodb.incrementer.MongoDbValueIncrementerFactory;
+import com.github.nmorel.spring.batch.mongodb.incrementer.ValueIncrementer;
 import com.github.nmorel.spring.batch.mongodb.incrementer.ValueIncrementerFactory;
+import com.github.nmorel.spring.batch.mongodb.metrics.RepositoryMetrics;
 import com.github.nmorel.spring.batch.mongodb.repository.dao.*;
 import com.mongodb.DB;
 import org.apache.commons.logging.Log;
@@ -12,14 +14,13 @@ import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.core.repository.ExecutionContextSerializer;
 import org.springframework.batch.core.repository.JobRepository;
 import org.springframework.batch.core.repository.dao.*;
-import org.springframework.batch.core.repository.support.SimpleJobRepository;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.util.Assert;
 
 /**
  * A {@link org.springframework.beans.factory.FactoryBean} that automates the creation of a
- * {@link org.springframework.batch.core.repository.support.SimpleJobRepository} with MongoDB dao.
+ * {@link MongoDbJobRepository} with MongoDB dao.
  */
 public class MongoDbJobRepositoryFactoryBean implements FactoryBean, InitializingBean
 {
@@ -36,6 +37,18 @@ public class MongoDbJobRepositoryFactoryBean implements FactoryBean, Initializin
 
     private ExecutionContextSerializer serializer;
 
+    private LocalWriteTracker writeTracker = LocalWriteTracker.getDefault();
+
+    private WriteConcernPolicy writeConcernPolicy;
+
+    private RepositoryMetrics metrics;
+
+    private boolean naturalIds = false;
+
+    private FieldNamingStrategy fieldNamingStrategy = FieldNamingStrategy.defaultNames();
+
+    private boolean embeddedStepContexts = false;
+
     /**
      * A custom implementation of the {@link ExecutionContextSerializer}.
      * The default, if not injected, is the {@link org.springframework.batch.core.repository.dao.XStreamExecutionContextStringSerializer}.
@@ -76,6 +89,70 @@ public class MongoDbJobRepositoryFactoryBean implements FactoryBean, Initializin
         this.collectionPrefix = collectionPrefix;
     }
 
+    /**
+     * Sets the policy defining the {@link com.mongodb.WriteConcern} of each kind of write, applied by all the DAOs and
+     * the sequences. If not set, the write concern of the {@link DB} is used everywhere.
+     *
+     * @see WriteConcernPolicy#restartSafe()
+     */
+    public void setWriteConcernPolicy( WriteConcernPolicy writeConcernPolicy )
+    {
+        this.writeConcernPolicy = writeConcernPolicy;
+    }
+
+    /**
+     * Sets the tracker notified of every write, used by the {@link org.springframework.batch.core.explore.JobExplorer}
+     * reading from secondaries to guarantee read-your-writes. The default is the tracker shared by the whole JVM.
+     *
+     * @see com.github.nmorel.spring.batch.mongodb.explore.support.MongoDbJobExplorerFactoryBean#setReadPreference
+     */
+    public void setWriteTracker( LocalWriteTracker writeTracker )
+    {
+        this.writeTracker = writeTracker;
+    }
+
+    /**
+     * Sets if the job instances, job executions and step executions are stored with their batch id as
+     * <code>_id</code>. False by default.
+     *
+     * @see AbstractMongoDbDao#setNaturalIds(boolean)
+     */
+    public void setNaturalIds( boolean naturalIds )
+    {
+        this.naturalIds = naturalIds;
+    }
+
+    /**
+     * Sets the names under which the fields of the executions and contexts are stored. The default names are used if
+     * not set.
+     *
+     * @see FieldNamingStrategy#compact()
+     */
+    public void setFieldNamingStrategy( FieldNamingStrategy fieldNamingStrategy )
+    {
+        this.fieldNamingStrategy = fieldNamingStrategy;
+    }
+
+    /**
+     * Sets if the contexts of the step executions are stored in the step execution documents, so a chunk commit writes
+     * both in one update. False by default. The contexts already stored separately are still read.
+     *
+     * @see MongoDbJobRepository#setEmbeddedStepContexts(boolean)
+     */
+    public void setEmbeddedStepContexts( boolean embeddedStepContexts )
+    {
+        this.embeddedStepContexts = embeddedStepContexts;
+    }
+
+    /**
+     * Sets the collector of the measures of the repository. If set, the DAOs, the incrementers, the serializer and the
+     * collections are instrumented. The default is no instrumentation.
+     */
+    public void setMetrics( RepositoryMetrics metrics )
+    {
+        this.metrics = metrics;
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception
     {
@@ -83,7 +160,12 @@ public class MongoDbJobRepositoryFactoryBean implements FactoryBean, Initializin
 
         if( incrementerFactory == null )
         {
-            incrementerFactory = new MongoDbValueIncrementerFactory(db);
+            MongoDbValueIncrementerFactory mongoDbIncrementerFactory = new MongoDbValueIncrementerFactory(db);
+            if( null != writeConcernPolicy )
+            {
+                mongoDbIncrementerFactory.setWriteConcern(writeConcernPolicy.getWriteConcern(WriteOperation.SEQUENCE_INCREMENT));
+            }
+            incrementerFactory = mongoDbIncrementerFactory;
         }
 
         if( serializer == null )
@@ -93,39 +175,66 @@ public class MongoDbJobRepositoryFactoryBean implements FactoryBean, Initializin
 
             serializer = defaultSerializer;
         }
+
+        if( null != metrics )
+        {
+            serializer = metrics.instrument(serializer);
+        }
+    }
+
+    private ValueIncrementer getIncrementer( Class<?> sequenceClass )
+    {
+        String incrementerName = collectionPrefix + "Sequence" + sequenceClass.getSimpleName();
+        ValueIncrementer incrementer = incrementerFactory.getIncrementer(incrementerName);
+        return null == metrics ? incrementer : metrics.instrument(incrementer, incrementerName, false);
+    }
+
+    private <T> T instrument( T dao, String component )
+    {
+        return null == metrics ? dao : metrics.instrument(dao, component, true);
     }
 
-    protected JobInstanceDao createJobInstanceDao() throws Exception
+    protected MongoDbJobInstanceDao createJobInstanceDao() throws Exception
     {
         MongoDbJobInstanceDao dao = new MongoDbJobInstanceDao();
         dao.setPrefix(collectionPrefix);
         dao.setDb(db);
-        dao.setJobIncrementer(incrementerFactory.getIncrementer(collectionPrefix
-                + "Sequence" + JobInstance.class.getSimpleName()));
+        dao.setWriteTracker(writeTracker);
+        dao.setWriteConcernPolicy(writeConcernPolicy);
+        dao.setNaturalIds(naturalIds);
+        dao.setJobIncrementer(getIncrementer(JobInstance.class));
         dao.afterPropertiesSet();
         return dao;
     }
 
-    protected JobExecutionDao createJobExecutionDao() throws Exception
+    protected MongoDbJobExecutionDao createJobExecutionDao() throws Exception
     {
         MongoDbJobExecutionDao dao = new MongoDbJobExecutionDao();
+        dao.setFieldNamingStrategy(fieldNamingStrategy);
         dao.setDb(db);
         dao.setPrefix(collectionPrefix);
-        dao.setJobExecutionIncrementer(incrementerFactory.getIncrementer(collectionPrefix
-                + "Sequence" + JobExecution.class.getSimpleName()));
+        dao.setWriteTracker(writeTracker);
+        dao.setWriteConcernPolicy(writeConcernPolicy);
+        dao.setNaturalIds(naturalIds);
+        dao.setJobExecutionIncrementer(getIncrementer(JobExecution.class));
         dao.setExitMessageLength(maxVarCharLength);
         dao.afterPropertiesSet();
         return dao;
     }
 
-    protected StepExecutionDao createStepExecutionDao() throws Exception
+    protected MongoDbStepExecutionDao createStepExecutionDao() throws Exception
     {
         MongoDbStepExecutionDao dao = new MongoDbStepExecutionDao();
+        dao.setFieldNamingStrategy(fieldNamingStrategy);
         dao.setDb(db);
         dao.setPrefix(collectionPrefix);
-        dao.setStepExecutionIncrementer(incrementerFactory.getIncrementer(collectionPrefix
-                + "Sequence" + StepExecution.class.getSimpleName()));
+        dao.setWriteTracker(writeTracker);
+        dao.setWriteConcernPolicy(writeConcernPolicy);
+        dao.setNaturalIds(naturalIds);
+        dao.setStepExecutionIncrementer(getIncrementer(StepExecution.class));
         dao.setExitMessageLength(maxVarCharLength);
+        dao.setEmbeddedContexts(embeddedStepContexts);
+        dao.setSerializer(serializer);
         dao.afterPropertiesSet();
         return dao;
     }
@@ -133,13 +242,54 @@ public class MongoDbJobRepositoryFactoryBean implements FactoryBean, Initializin
     protected ExecutionContextDao createExecutionContextDao() throws Exception
     {
         MongoDbExecutionContextDao dao = new MongoDbExecutionContextDao();
+        dao.setFieldNamingStrategy(fieldNamingStrategy);
         dao.setDb(db);
         dao.setSerializer(serializer);
         dao.setPrefix(collectionPrefix);
+        dao.setWriteTracker(writeTracker);
+        dao.setWriteConcernPolicy(writeConcernPolicy);
+        dao.setNaturalIds(naturalIds);
+        dao.setEmbeddedStepContexts(embeddedStepContexts);
         dao.afterPropertiesSet();
         return dao;
     }
 
+    /**
+     * Creates a {@link MongoDbMetadataPurger} sharing the configuration of the repository. The retention must then be
+     * configured on the purger.
+     *
+     * @return the purger
+     */
+    public MongoDbMetadataPurger createMetadataPurger() throws Exception
+    {
+        MongoDbMetadataPurger purger = new MongoDbMetadataPurger();
+        purger.setFieldNamingStrategy(fieldNamingStrategy);
+        purger.setDb(db);
+        purger.setPrefix(collectionPrefix);
+        purger.setWriteConcernPolicy(writeConcernPolicy);
+        purger.setNaturalIds(naturalIds);
+        purger.afterPropertiesSet();
+        return purger;
+    }
+
+    /**
+     * Creates a {@link MongoDbExecutionArchiver} sharing the configuration of the repository. The time spent in the
+     * live collections and the archive location must then be configured on the archiver.
+     *
+     * @return the archiver
+     */
+    public MongoDbExecutionArchiver createExecutionArchiver() throws Exception
+    {
+        MongoDbExecutionArchiver archiver = new MongoDbExecutionArchiver();
+        archiver.setFieldNamingStrategy(fieldNamingStrategy);
+        archiver.setDb(db);
+        archiver.setPrefix(collectionPrefix);
+        archiver.setWriteConcernPolicy(writeConcernPolicy);
+        archiver.setNaturalIds(naturalIds);
+        archiver.afterPropertiesSet();
+        return archiver;
+    }
+
     /**
      * The type of object to be returned from {@link #getObject()}.
      *
@@ -167,7 +317,16 @@ public class MongoDbJobRepositoryFactoryBean implements FactoryBean, Initializin
 
     private Object getTarget() throws Exception
     {
-        return new SimpleJobRepository(createJobInstanceDao(), createJobExecutionDao(), createStepExecutionDao(),
-                createExecutionContextDao());
+        MongoDbJobRepository repository = new MongoDbJobRepository(instrument(createJobInstanceDao(), "JobInstanceDao"),
+                instrument(createJobExecutionDao(), "JobExecutionDao"),
+                instrument(createStepExecutionDao(), "StepExecutionDao"),
+                instrument(createExecutionContextDao(), "ExecutionContextDao"));
+        repository.setEmbeddedStepContexts(embeddedStepContexts);
+        if( null != metrics )
+        {
+            // after the DAOs, so the byte counting wraps the decoders they set on their collections
+            metrics.instrumentCollections(db, collectionPrefix);
+        }
+        return repository;
     }
 }
@@ -0,0 +1,327 @@
+package com.github.nmorel.spring.batch.mongodb.repository.support;
+
+import com.github.nmorel.spring.batch.mongodb.repository.dao.AbstractMongoDbDao;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.WriteOperation;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameter;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.util.Assert;
+
+import java.util.*;
+
+import static com.mongodb.BasicDBObjectBuilder.start;
+
+/**
+ * Deletes the batch meta-data older than a retention period, globally or per job name.
+ * <p/>
+ * The unit of deletion is the job instance : an instance is deleted, with its executions, parameters, step executions
+ * and execution contexts, only when all its executions ended before the retention limit and the last one is
+ * {@link BatchStatus#COMPLETED} or {@link BatchStatus#ABANDONED}. Running instances, and failed or stopped instances
+ * that could still be restarted, are never deleted.
+ * <p/>
+ * The instances are deleted by batches, with a pause between two batches, so the purge does not compete with the live
+ * writers. It can be scheduled as a {@link Runnable}.
+ */
+public class MongoDbMetadataPurger extends AbstractMongoDbDao implements Runnable
+{
+    private static final Log logger = LogFactory.getLog(MongoDbMetadataPurger.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    public static final long DEFAULT_PAUSE_MILLIS = 100L;
+
+    /** Maximum number of step execution ids in a query, the instances of a batch having any number of steps */
+    protected static final int STEP_EXECUTION_CHUNK_SIZE = 1000;
+
+    private static final String JOB_INSTANCE_COLLECTION_NAME = JobInstance.class.getSimpleName();
+
+    private static final String JOB_EXECUTION_COLLECTION_NAME = JobExecution.class.getSimpleName();
+
+    private static final String JOB_PARAMETER_COLLECTION_NAME = JobParameter.class.getSimpleName();
+
+    private static final String STEP_EXECUTION_COLLECTION_NAME = StepExecution.class.getSimpleName();
+
+    private static final String EXECUTION_CONTEXT_COLLECTION_NAME = ExecutionContext.class.getSimpleName();
+
+    private static final Set<String> FINAL_STATUSES = new HashSet<String>(Arrays.asList(BatchStatus.COMPLETED.toString(),
+            BatchStatus.ABANDONED.toString()));
+
+    private long defaultRetentionMillis = 0L;
+
+    private Map<String, Long> retentionMillisByJobName = new HashMap<String, Long>();
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private long pauseMillis = DEFAULT_PAUSE_MILLIS;
+
+    /**
+     * Sets the retention applied to the jobs without a specific one. A value lower or equal to 0, the default, keeps
+     * their meta-data forever.
+     *
+     * @param defaultRetentionMillis the retention in milliseconds
+     */
+    public void setDefaultRetentionMillis( long defaultRetentionMillis )
+    {
+        this.defaultRetentionMillis = defaultRetentionMillis;
+    }
+
+    /**
+     * Sets the retention of specific jobs. A value lower or equal to 0 keeps the meta-data of the job forever.
+     *
+     * @param retentionMillisByJobName the retention in milliseconds by job name
+     */
+    public void setRetentionMillisByJobName( Map<String, Long> retentionMillisByJobName )
+    {
+        this.retentionMillisByJobName = new HashMap<String, Long>(retentionMillisByJobName);
+    }
+
+    /** Sets the number of job instances examined and deleted per batch */
+    public void setBatchSize( int batchSize )
+    {
+        this.batchSize = batchSize;
+    }
+
+    /** Sets the pause between two batches, in milliseconds */
+    public void setPauseMillis( long pauseMillis )
+    {
+        this.pauseMillis = pauseMillis;
+    }
+
+    @Override
+    protected String getCollectionName()
+    {
+        return JOB_INSTANCE_COLLECTION_NAME;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception
+    {
+        super.afterPropertiesSet();
+        Assert.isTrue(batchSize > 0, "The batchSize must be positive.");
+        // the purge walks the meta-data from the instances to the contexts
+        getCollection(JOB_INSTANCE_COLLECTION_NAME).ensureIndex(start().add(JOB_NAME_KEY, 1).add(JOB_INSTANCE_ID_KEY, 1).get());
+        getCollection(JOB_EXECUTION_COLLECTION_NAME).ensureIndex(new BasicDBObject(JOB_INSTANCE_ID_KEY, 1));
+        getCollection(STEP_EXECUTION_COLLECTION_NAME).ensureIndex(new BasicDBObject(JOB_EXECUTION_ID_KEY, 1));
+        getCollection(EXECUTION_CONTEXT_COLLECTION_NAME).ensureIndex(new BasicDBObject(JOB_EXECUTION_ID_KEY, 1));
+    }
+
+    @Override
+    public void run()
+    {
+        purge();
+    }
+
+    /**
+     * Purges the meta-data of all the jobs according to their retention.
+     *
+     * @return the number of job instances deleted
+     */
+    @SuppressWarnings( "unchecked" )
+    public int purge()
+    {
+        int purged = 0;
+        for( String jobName : (List<String>) getCollection().distinct(JOB_NAME_KEY) )
+        {
+            Long retention = retentionMillisByJobName.get(jobName);
+            purged += purge(jobName, null == retention ? defaultRetentionMillis : retention);
+        }
+        return purged;
+    }
+
+    /**
+     * Purges the meta-data of a job.
+     *
+     * @param jobName the job name
+     * @param retentionMillis the retention in milliseconds, nothing is deleted if lower or equal to 0
+     *
+     * @return the number of job instances deleted
+     */
+    public int purge( String jobName, long retentionMillis )
+    {
+        if( retentionMillis <= 0 )
+        {
+            return 0;
+        }
+
+        Date limit = new Date(System.currentTimeMillis() - retentionMillis);
+        DBCursor instancesCursor = getCollection().find(new BasicDBObject(JOB_NAME_KEY, jobName), new BasicDBObject(JOB_INSTANCE_ID_KEY, 1))
+                .sort(new BasicDBObject(JOB_INSTANCE_ID_KEY, 1))
+                .batchSize(batchSize);
+
+        int purged = 0;
+        try
+        {
+            List<Long> instanceIds = new ArrayList<Long>(batchSize);
+            while( instancesCursor.hasNext() )
+            {
+                instanceIds.add((Long) instancesCursor.next().get(JOB_INSTANCE_ID_KEY));
+                if( instanceIds.size() == batchSize || !instancesCursor.hasNext() )
+                {
+                    purged += purgeBatch(instanceIds, limit);
+                    instanceIds.clear();
+                    pause();
+                }
+            }
+        }
+        finally
+        {
+            instancesCursor.close();
+        }
+
+        if( purged > 0 )
+        {
+            logger.info("Removed " + purged + " instances of job " + jobName + " ended before " + limit
+                    + " from the live collections");
+        }
+        return purged;
+    }
+
+    private int purgeBatch( List<Long> instanceIds, Date limit )
+    {
+        // the executions of each instance, most recent first
+        Map<Long, List<DBObject>> executionsByInstance = new HashMap<Long, List<DBObject>>();
+        DBCursor executionsCursor = getCollection(JOB_EXECUTION_COLLECTION_NAME)
+                .find(new BasicDBObject(JOB_INSTANCE_ID_KEY, new BasicDBObject("$in", instanceIds)), start()
+                        .add(JOB_EXECUTION_ID_KEY, 1)
+                        .add(JOB_INSTANCE_ID_KEY, 1)
+                        .add(STATUS_KEY, 1)
+                        .add(END_TIME_KEY, 1).get())
+                .sort(new BasicDBObject(JOB_EXECUTION_ID_KEY, -1));
+        while( executionsCursor.hasNext() )
+        {
+            DBObject execution = executionsCursor.next();
+            Long instanceId = (Long) execution.get(JOB_INSTANCE_ID_KEY);
+            List<DBObject> executions = executionsByInstance.get(instanceId);
+            if( null == executions )
+            {
+                executions = new ArrayList<DBObject>();
+                executionsByInstance.put(instanceId, executions);
+            }
+            executions.add(execution);
+        }
+        executionsCursor.close();
+
+        BasicDBList purgedInstanceIds = new BasicDBList();
+        BasicDBList purgedExecutionIds = new BasicDBList();
+        for( Map.Entry<Long, List<DBObject>> entry : executionsByInstance.entrySet() )
+        {
+            if( !isPurgeable(entry.getValue(), limit) )
+            {
+                continue;
+            }
+            BasicDBList executionIds = new BasicDBList();
+            for( DBObject execution : entry.getValue() )
+            {
+                executionIds.add(execution.get(JOB_EXECUTION_ID_KEY));
+            }
+            if( beforePurge(entry.getKey(), executionIds) )
+            {
+                purgedInstanceIds.add(entry.getKey());
+                purgedExecutionIds.addAll(executionIds);
+            }
+        }
+
+        if( purgedInstanceIds.isEmpty() )
+        {
+            return 0;
+        }
+
+        // the children are deleted first, so an interrupted purge never leaves orphans and is resumed by the next one
+        WriteConcern writeConcern = getWriteConcern(WriteOperation.METADATA_PURGE);
+        DBCursor stepsCursor = getCollection(STEP_EXECUTION_COLLECTION_NAME)
+                .find(new BasicDBObject(JOB_EXECUTION_ID_KEY, new BasicDBObject("$in", purgedExecutionIds)),
+                        new BasicDBObject(STEP_EXECUTION_ID_KEY, 1));
+        try
+        {
+            BasicDBList stepExecutionIds = new BasicDBList();
+            while( stepsCursor.hasNext() )
+            {
+                stepExecutionIds.add(stepsCursor.next().get(STEP_EXECUTION_ID_KEY));
+                if( stepExecutionIds.size() == STEP_EXECUTION_CHUNK_SIZE || !stepsCursor.hasNext() )
+                {
+                    getCollection(EXECUTION_CONTEXT_COLLECTION_NAME).remove(new BasicDBObject(STEP_EXECUTION_ID_KEY,
+                            new BasicDBObject("$in", stepExecutionIds)), writeConcern);
+                    getCollection(STEP_EXECUTION_COLLECTION_NAME).remove(byId(STEP_EXECUTION_ID_KEY,
+                            new BasicDBObject("$in", stepExecutionIds)), writeConcern);
+                    stepExecutionIds.clear();
+                }
+            }
+        }
+        finally
+        {
+            stepsCursor.close();
+        }
+        DBObject byJobExecutionIds = new BasicDBObject(JOB_EXECUTION_ID_KEY,
+                new BasicDBObject("$in", purgedExecutionIds));
+        getCollection(EXECUTION_CONTEXT_COLLECTION_NAME).remove(byJobExecutionIds, writeConcern);
+        getCollection(JOB_PARAMETER_COLLECTION_NAME).remove(byJobExecutionIds, writeConcern);
+        getCollection(JOB_EXECUTION_COLLECTION_NAME)
+                .remove(byId(JOB_EXECUTION_ID_KEY, new BasicDBObject("$in", purgedExecutionIds)), writeConcern);
+        getCollection().remove(byId(JOB_INSTANCE_ID_KEY, new BasicDBObject("$in", purgedInstanceIds)), writeConcern);
+
+        return purgedInstanceIds.size();
+    }
+
+    /**
+     * Called before the deletion of an instance. Deletes it by default.
+     *
+     * @param jobInstanceId the id of the instance about to be deleted
+     * @param jobExecutionIds the ids of its executions
+     *
+     * @return false to keep the instance in the live collections until the next purge
+     */
+    protected boolean beforePurge( Long jobInstanceId, BasicDBList jobExecutionIds )
+    {
+        return true;
+    }
+
+    /**
+     * @param executions the executions of an instance, most recent first
+     * @param limit the retention limit
+     *
+     * @return true if the instance can't be run anymore and all its executions ended before the limit
+     */
+    private boolean isPurgeable( List<DBObject> executions, Date limit )
+    {
+        if( !FINAL_STATUSES.contains(executions.get(0).get(STATUS_KEY)) )
+        {
+            return false;
+        }
+        for( DBObject execution : executions )
+        {
+            Date endTime = (Date) execution.get(END_TIME_KEY);
+            if( null == endTime || !endTime.before(limit) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void pause()
+    {
+        if( pauseMillis <= 0 )
+        {
+            return;
+        }
+        try
+        {
+            Thread.sleep(pauseMillis);
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while purging the batch meta-data", e);
+        }
+    }
+}
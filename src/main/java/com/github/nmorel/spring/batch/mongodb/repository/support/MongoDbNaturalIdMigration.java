@@ -0,0 +1,132 @@
+package com.github.nmorel.spring.batch.mongodb.repository.support;
+
+import com.github.nmorel.spring.batch.mongodb.repository.dao.AbstractMongoDbDao;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.WriteOperation;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Migrates the job instances, job executions and step executions collections to the natural ids layout, where the
+ * batch id of each document is also its <code>_id</code>, see {@link AbstractMongoDbDao#setNaturalIds(boolean)}.
+ * <p/>
+ * Each collection is copied by batches to a temporary collection, with the new <code>_id</code>s and the indexes not
+ * starting with the batch id, then renamed over the original one. A collection already migrated is skipped, so an
+ * interrupted migration can be run again. No job must be running during the migration.
+ */
+public class MongoDbNaturalIdMigration extends AbstractMongoDbDao implements Runnable
+{
+    private static final Log logger = LogFactory.getLog(MongoDbNaturalIdMigration.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /** Suffix of the temporary collections receiving the migrated documents */
+    public static final String TEMPORARY_COLLECTION_SUFFIX = "Migration";
+
+    private static final String INDEX_KEY = "key";
+
+    private static final String PRIMARY_INDEX_NAME = "_id_";
+
+    private static final int OBJECT_ID_TYPE = 7;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /** Sets the number of documents read and inserted per batch */
+    public void setBatchSize( int batchSize )
+    {
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    protected String getCollectionName()
+    {
+        return JobInstance.class.getSimpleName();
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception
+    {
+        super.afterPropertiesSet();
+        Assert.isTrue(batchSize > 0, "The batchSize must be positive.");
+    }
+
+    @Override
+    public void run()
+    {
+        migrate();
+    }
+
+    /**
+     * Migrates the three collections.
+     *
+     * @return the number of documents migrated
+     */
+    public int migrate()
+    {
+        return migrate(JobInstance.class.getSimpleName(), JOB_INSTANCE_ID_KEY)
+                + migrate(JobExecution.class.getSimpleName(), JOB_EXECUTION_ID_KEY)
+                + migrate(StepExecution.class.getSimpleName(), STEP_EXECUTION_ID_KEY);
+    }
+
+    private int migrate( String collectionName, String idKey )
+    {
+        DBCollection source = getCollection(collectionName);
+        if( null == source.findOne(new BasicDBObject(ID_KEY, new BasicDBObject("$type", OBJECT_ID_TYPE))) )
+        {
+            logger.info("Collection " + source.getName() + " already uses the natural ids");
+            return 0;
+        }
+
+        DBCollection target = getCollection(collectionName + TEMPORARY_COLLECTION_SUFFIX);
+        target.drop();
+        for( DBObject index : source.getIndexInfo() )
+        {
+            DBObject key = (DBObject) index.get(INDEX_KEY);
+            if( !PRIMARY_INDEX_NAME.equals(index.get("name")) && !idKey.equals(key.keySet().iterator().next()) )
+            {
+                target.ensureIndex(key);
+            }
+        }
+
+        WriteConcern writeConcern = getWriteConcern(WriteOperation.METADATA_MIGRATION);
+        DBCursor cursor = source.find().batchSize(batchSize);
+        List<DBObject> batch = new ArrayList<DBObject>(batchSize);
+        int migrated = 0;
+        try
+        {
+            while( cursor.hasNext() )
+            {
+                DBObject dbObject = cursor.next();
+                Assert.notNull(dbObject.get(idKey), "Document without " + idKey + " in " + source.getName());
+                dbObject.put(ID_KEY, dbObject.get(idKey));
+                batch.add(dbObject);
+                if( batch.size() == batchSize || !cursor.hasNext() )
+                {
+                    target.insert(batch, writeConcern);
+                    migrated += batch.size();
+                    batch.clear();
+                }
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        // the copy is complete, it replaces the original collection in one step
+        target.rename(source.getName(), true);
+        logger.info("Migrated " + migrated + " documents of " + source.getName() + " to the natural ids");
+        return migrated;
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.nmorel.spring.batch.mongodb.repository.support;
+
+import com.github.nmorel.spring.batch.mongodb.repository.dao.AbstractMongoDbDao;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.WriteOperation;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.util.Assert;
+
+import java.util.Date;
+
+/**
+ * Ends the job executions whose process died, recognized by their stale {@link MongoDbJobExecutionHeartbeat}. Each
+ * one and its running steps are marked {@link BatchStatus#FAILED} with the exit code {@link ExitStatus#UNKNOWN}, so
+ * they leave the running executions and the job can be restarted. The executions without a heartbeat are never reaped.
+ * <p/>
+ * A stale heartbeat is first claimed by removing it atomically, so an execution whose heartbeat is refreshed during the
+ * reap is left alone. The execution is then ended by one atomic update, conditioned on its end time still being empty,
+ * which also increments its version : a process that was only paused sees the {@link BatchStatus#FAILED} status on its
+ * next update, as for a stop request. It can be scheduled as a {@link Runnable}.
+ */
+public class MongoDbZombieReaper extends AbstractMongoDbDao implements Runnable
+{
+    private static final Log logger = LogFactory.getLog(MongoDbZombieReaper.class);
+
+    public static final long DEFAULT_STALE_MILLIS = 60000L;
+
+    public static final String EXIT_MESSAGE = "Reaped, the heartbeat of the execution was stale";
+
+    private static final String JOB_EXECUTION_COLLECTION_NAME = JobExecution.class.getSimpleName();
+
+    private static final String STEP_EXECUTION_COLLECTION_NAME = StepExecution.class.getSimpleName();
+
+    private static final DBObject ID_PROJECTION = new BasicDBObject(ID_KEY, 1);
+
+    private long staleMillis = DEFAULT_STALE_MILLIS;
+
+    /**
+     * Sets the age of a heartbeat after which its execution is reaped, {@link #DEFAULT_STALE_MILLIS} by default. It
+     * must be several times the interval of the heartbeats.
+     */
+    public void setStaleMillis( long staleMillis )
+    {
+        this.staleMillis = staleMillis;
+    }
+
+    @Override
+    protected String getCollectionName()
+    {
+        return MongoDbJobExecutionHeartbeat.COLLECTION_NAME;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception
+    {
+        super.afterPropertiesSet();
+        Assert.isTrue(staleMillis > 0, "The staleMillis must be positive.");
+        getCollection().ensureIndex(new BasicDBObject(MongoDbJobExecutionHeartbeat.HEARTBEAT_KEY, 1));
+        getCollection(STEP_EXECUTION_COLLECTION_NAME).ensureIndex(new BasicDBObject(JOB_EXECUTION_ID_KEY, 1));
+    }
+
+    @Override
+    public void run()
+    {
+        reap();
+    }
+
+    /**
+     * Reaps the job executions whose heartbeat is stale.
+     *
+     * @return the number of job executions reaped
+     */
+    public int reap()
+    {
+        Date limit = new Date(System.currentTimeMillis() - staleMillis);
+        DBObject staleQuery = new BasicDBObject(MongoDbJobExecutionHeartbeat.HEARTBEAT_KEY,
+                new BasicDBObject("$lt", limit));
+        int reaped = 0;
+        // the stale heartbeat is claimed by its removal, a heartbeat refreshed meanwhile does not match anymore
+        DBObject heartbeat;
+        while( null != (heartbeat = getCollection().findAndModify(staleQuery, ID_PROJECTION, null, true, null, false,
+                false)) )
+        {
+            if( reap((Long) heartbeat.get(ID_KEY)) )
+            {
+                reaped++;
+            }
+        }
+        return reaped;
+    }
+
+    /** @return true if the job execution was still running and is now ended */
+    private boolean reap( Long jobExecutionId )
+    {
+        Date now = new Date();
+        DBObject execution = getCollection(JOB_EXECUTION_COLLECTION_NAME).findAndModify(new BasicDBObject(
+                getIdKey(JOB_EXECUTION_ID_KEY), jobExecutionId).append(END_TIME_KEY, null),
+                new BasicDBObject(JOB_INSTANCE_ID_KEY, 1), null, false, getEndUpdate(now), false, false);
+        if( null == execution )
+        {
+            return false;
+        }
+
+        // the steps of a dead process can not end anymore
+        getCollection(STEP_EXECUTION_COLLECTION_NAME).update(new BasicDBObject(JOB_EXECUTION_ID_KEY, jobExecutionId)
+                .append(END_TIME_KEY, null), getEndUpdate(now), false, true,
+                getWriteConcern(WriteOperation.STEP_EXECUTION_UPDATE));
+        logger.warn("Reaped the job execution " + jobExecutionId + " of the job instance "
+                + execution.get(JOB_INSTANCE_ID_KEY) + ", its heartbeat was older than " + staleMillis + "ms");
+        return true;
+    }
+
+    private DBObject getEndUpdate( Date now )
+    {
+        BasicDBObject set = new BasicDBObject(STATUS_KEY, BatchStatus.FAILED.toString())
+                .append(EXIT_CODE_KEY, ExitStatus.UNKNOWN.getExitCode())
+                .append(END_TIME_KEY, now);
+        fieldNames.put(set, EXIT_MESSAGE_KEY, EXIT_MESSAGE);
+        fieldNames.put(set, LAST_UPDATED_KEY, now);
+        return new BasicDBObject("$set", set).append("$inc", new BasicDBObject(VERSION_KEY, 1));
+    }
+}
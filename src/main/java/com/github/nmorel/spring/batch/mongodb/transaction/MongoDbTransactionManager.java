@@ -0,0 +1,228 @@
+package com.github.nmorel.spring.batch.mongodb.transaction;
+
+import com.mongodb.DB;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionSystemException;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.SmartTransactionObject;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
+
+/**
+ * {@link org.springframework.transaction.PlatformTransactionManager} grouping the durability of the writes done on a
+ * {@link DB} during a transaction, typically a chunk : its business writes, the update of the step execution and the
+ * save of its context.
+ * <p/>
+ * The MongoDB versions supported by the driver have no multi-document transactions, so the writes are applied as they
+ * are done and are not undone by a rollback. Within a transaction, they are all sent on the same connection and the
+ * writes asking for more than the acknowledgement of the primary (journaling, replication) are only acknowledged by
+ * the primary. The commit then waits once, with a single <code>getLastError</code>, for the journaling or replication
+ * of all of them. A chunk pays one journal flush or replication wait instead of one per write.
+ * <p/>
+ * The writers enlist in the transaction by choosing their write concern with
+ * {@link #getWriteConcern(DB, WriteConcern)}, as the DAOs do. Suspending a transaction is not supported.
+ */
+public class MongoDbTransactionManager extends AbstractPlatformTransactionManager implements InitializingBean
+{
+    private static final long serialVersionUID = 1L;
+
+    private transient DB db;
+
+    private WriteConcern commitWriteConcern;
+
+    public MongoDbTransactionManager()
+    {
+    }
+
+    public MongoDbTransactionManager( DB db )
+    {
+        this.db = db;
+    }
+
+    public void setDb( DB db )
+    {
+        this.db = db;
+    }
+
+    /**
+     * Sets the write concern waited for at the commit when writes were deferred. If not set, the merge of the write
+     * concerns of the deferred writes is used.
+     */
+    public void setCommitWriteConcern( WriteConcern commitWriteConcern )
+    {
+        this.commitWriteConcern = commitWriteConcern;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        Assert.notNull(db, "The db must not be null.");
+    }
+
+    /**
+     * Chooses the write concern of a write, the transaction of the current thread on the given db waiting at its commit
+     * for what the primary does not acknowledge.
+     *
+     * @param db the db written
+     * @param writeConcern the write concern the write would use outside of a transaction
+     *
+     * @return the write concern to use
+     */
+    public static WriteConcern getWriteConcern( DB db, WriteConcern writeConcern )
+    {
+        TransactionHolder holder = (TransactionHolder) TransactionSynchronizationManager.getResource(db);
+        if( null == holder || null == writeConcern || isAcknowledgedByPrimary(writeConcern) )
+        {
+            return writeConcern;
+        }
+        holder.deferredWriteConcern = merge(holder.deferredWriteConcern, writeConcern);
+        return WriteConcern.ACKNOWLEDGED;
+    }
+
+    /**
+     * @param db the db written
+     *
+     * @return the write concern the commit of the transaction of the current thread on the given db waits for, or null
+     * if none of its writes was deferred
+     */
+    public static WriteConcern getDeferredWriteConcern( DB db )
+    {
+        TransactionHolder holder = (TransactionHolder) TransactionSynchronizationManager.getResource(db);
+        return null == holder ? null : holder.deferredWriteConcern;
+    }
+
+    /**
+     * Merges two write concerns into one satisfying both : the strongest <code>w</code>, a mode like a majority being
+     * stronger than a number, the journaling or fsync asked by either and the longest <code>wtimeout</code>, 0 being
+     * no limit.
+     */
+    public static WriteConcern merge( WriteConcern first, WriteConcern second )
+    {
+        if( null == first )
+        {
+            return second;
+        }
+        Object w = strongest(first.getWObject(), second.getWObject());
+        int wtimeout = 0 == first.getWtimeout() || 0 == second.getWtimeout() ? 0 : Math.max(first.getWtimeout(),
+                second.getWtimeout());
+        boolean fsync = first.getFsync() || second.getFsync();
+        boolean j = first.getJ() || second.getJ();
+        if( w instanceof String )
+        {
+            return new WriteConcern((String) w, wtimeout, fsync, j);
+        }
+        return new WriteConcern((Integer) w, wtimeout, fsync, j);
+    }
+
+    private static Object strongest( Object first, Object second )
+    {
+        if( first instanceof Integer && second instanceof Integer )
+        {
+            return Math.max((Integer) first, (Integer) second);
+        }
+        // a mode is stronger than a number, two different modes can not be combined and the last one is kept
+        return second instanceof String ? second : first;
+    }
+
+    private static boolean isAcknowledgedByPrimary( WriteConcern writeConcern )
+    {
+        Object w = writeConcern.getWObject();
+        return !writeConcern.getJ() && !writeConcern.getFsync() && w instanceof Integer && (Integer) w <= 1;
+    }
+
+    @Override
+    protected Object doGetTransaction()
+    {
+        return new TransactionObject((TransactionHolder) TransactionSynchronizationManager.getResource(db));
+    }
+
+    @Override
+    protected boolean isExistingTransaction( Object transaction )
+    {
+        return null != ((TransactionObject) transaction).holder;
+    }
+
+    @Override
+    protected void doBegin( Object transaction, TransactionDefinition definition )
+    {
+        TransactionObject txObject = (TransactionObject) transaction;
+        // the writes and the final getLastError must use the same connection
+        db.requestStart();
+        txObject.holder = new TransactionHolder();
+        TransactionSynchronizationManager.bindResource(db, txObject.holder);
+    }
+
+    @Override
+    protected void doCommit( DefaultTransactionStatus status )
+    {
+        TransactionHolder holder = ((TransactionObject) status.getTransaction()).holder;
+        if( null == holder.deferredWriteConcern )
+        {
+            return;
+        }
+        try
+        {
+            db.getLastError(null == commitWriteConcern ? holder.deferredWriteConcern : commitWriteConcern).throwOnError();
+        }
+        catch( MongoException e )
+        {
+            throw new TransactionSystemException("The writes of the transaction could not be acknowledged", e);
+        }
+    }
+
+    @Override
+    protected void doRollback( DefaultTransactionStatus status )
+    {
+        if( null != ((TransactionObject) status.getTransaction()).holder.deferredWriteConcern )
+        {
+            logger.debug("Rolling back a transaction on MongoDB : its writes are already applied and are not undone");
+        }
+    }
+
+    @Override
+    protected void doSetRollbackOnly( DefaultTransactionStatus status )
+    {
+        ((TransactionObject) status.getTransaction()).holder.rollbackOnly = true;
+    }
+
+    @Override
+    protected void doCleanupAfterCompletion( Object transaction )
+    {
+        TransactionSynchronizationManager.unbindResource(db);
+        ((TransactionObject) transaction).holder = null;
+        db.requestDone();
+    }
+
+    /** State of a transaction, bound to the thread */
+    private static class TransactionHolder
+    {
+        private WriteConcern deferredWriteConcern;
+
+        private boolean rollbackOnly;
+    }
+
+    private static class TransactionObject implements SmartTransactionObject
+    {
+        private TransactionHolder holder;
+
+        private TransactionObject( TransactionHolder holder )
+        {
+            this.holder = holder;
+        }
+
+        @Override
+        public boolean isRollbackOnly()
+        {
+            return null != holder && holder.rollbackOnly;
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.launch.support.AdmissionControlJobLauncher;
+import com.github.nmorel.spring.batch.mongodb.launch.support.MongoDbSemaphore;
+import com.mongodb.DB;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.launch.support.SimpleJobLauncher;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( classes = {TestContext.class} )
+public class AdmissionControlJobLauncherTest
+{
+    @Autowired
+    private JobRepository repository;
+
+    @Autowired
+    private DB db;
+
+    private MongoDbSemaphore semaphore;
+
+    private AdmissionControlJobLauncher launcher;
+
+    @Before
+    public void onSetUp() throws Exception
+    {
+        db.dropDatabase();
+
+        semaphore = new MongoDbSemaphore(db);
+        semaphore.afterPropertiesSet();
+
+        SimpleJobLauncher jobLauncher = new SimpleJobLauncher();
+        jobLauncher.setJobRepository(repository);
+        jobLauncher.afterPropertiesSet();
+
+        launcher = new AdmissionControlJobLauncher();
+        launcher.setJobLauncher(jobLauncher);
+        launcher.setSemaphore(semaphore);
+        launcher.setGroups(Collections.singletonMap("foo", "group"));
+        launcher.setPermits(Collections.singletonMap("group", 1));
+        launcher.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown()
+    {
+        launcher.destroy();
+        db.dropDatabase();
+    }
+
+    @Test
+    public void testLaunchesBoundedByGroup() throws Exception
+    {
+        JobSupport job = new JobSupport("foo")
+        {
+            @Override
+            public void execute( JobExecution execution )
+            {
+                assertEquals(0, semaphore.getAvailablePermits("group", 1));
+                execution.setStatus(BatchStatus.COMPLETED);
+                repository.update(execution);
+            }
+        };
+
+        // the permit is released when the job ends
+        for( long run = 1; run <= 2; run++ )
+        {
+            JobExecution execution = launcher.run(job, new JobParametersBuilder().addLong("run", run).toJobParameters());
+            assertEquals(BatchStatus.COMPLETED, execution.getStatus());
+            assertEquals(1, semaphore.getAvailablePermits("group", 1));
+        }
+
+        MongoDbSemaphore.Lease lease = semaphore.tryAcquire("group", 1, 60000L);
+        assertNotNull(lease);
+        try
+        {
+            launcher.run(job, new JobParametersBuilder().addLong("run", 3L).toJobParameters());
+            fail("Expected TaskRejectedException");
+        }
+        catch( TaskRejectedException e )
+        {
+            // expected
+        }
+        assertNull(repository.getLastJobExecution("foo", new JobParametersBuilder().addLong("run", 3L)
+                .toJobParameters()));
+        semaphore.release(lease);
+        assertEquals(1, semaphore.getAvailablePermits("group", 1));
+    }
+
+    @Test
+    public void testExpiredLease() throws Exception
+    {
+        MongoDbSemaphore.Lease lease = semaphore.tryAcquire("group", 1, 1L);
+        assertNotNull(lease);
+        Thread.sleep(10L);
+        MongoDbSemaphore.Lease other = semaphore.tryAcquire("group", 1, 60000L);
+        assertNotNull(other);
+        assertFalse(semaphore.renew(lease, 60000L));
+        assertNull(semaphore.tryAcquire("group", 1, 60000L));
+        assertTrue(semaphore.renew(other, 60000L));
+    }
+}
@@ -0,0 +1,123 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.explore.support.BoundedStalenessReadPreferenceResolver;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.LocalWriteTracker;
+import com.mongodb.DB;
+import com.mongodb.ReadPreference;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import static org.junit.Assert.*;
+
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( classes = {TestContext.class} )
+public class BoundedStalenessReadPreferenceResolverTest
+{
+    private static final long MAX_STALENESS_MILLIS = 60000L;
+
+    @Autowired
+    private DB db;
+
+    private LocalWriteTracker tracker;
+
+    private StubbedLagResolver resolver;
+
+    @Before
+    public void onSetUp()
+    {
+        tracker = new LocalWriteTracker();
+        resolver = new StubbedLagResolver();
+    }
+
+    @Test
+    public void testSecondaryWhileLagWithinBound()
+    {
+        resolver.lag = MAX_STALENESS_MILLIS;
+
+        assertEquals(ReadPreference.secondaryPreferred(), resolver.resolve());
+        assertEquals(ReadPreference.secondaryPreferred(), resolver.resolveForJobName("foo"));
+        assertEquals(ReadPreference.secondaryPreferred(), resolver.resolveForJobInstance(1L));
+        assertEquals(ReadPreference.secondaryPreferred(), resolver.resolveForJobExecution(2L));
+    }
+
+    @Test
+    public void testPrimaryWhenLagBeyondBound()
+    {
+        resolver.lag = MAX_STALENESS_MILLIS + 1L;
+
+        assertEquals(ReadPreference.primary(), resolver.resolve());
+        assertEquals(ReadPreference.primary(), resolver.resolveForJobName("foo"));
+        assertEquals(ReadPreference.primary(), resolver.resolveForJobInstance(1L));
+        assertEquals(ReadPreference.primary(), resolver.resolveForJobExecution(2L));
+    }
+
+    @Test
+    public void testPrimaryForLocalWrites()
+    {
+        resolver.lag = 0L;
+        tracker.recordWrite("foo", 1L, 2L);
+
+        assertEquals(ReadPreference.secondaryPreferred(), resolver.resolve());
+        assertEquals(ReadPreference.primary(), resolver.resolveForJobName("foo"));
+        assertEquals(ReadPreference.primary(), resolver.resolveForJobInstance(1L));
+        assertEquals(ReadPreference.primary(), resolver.resolveForJobExecution(2L));
+
+        assertEquals(ReadPreference.secondaryPreferred(), resolver.resolveForJobName("bar"));
+        assertEquals(ReadPreference.secondaryPreferred(), resolver.resolveForJobInstance(3L));
+        assertEquals(ReadPreference.secondaryPreferred(), resolver.resolveForJobExecution(4L));
+    }
+
+    @Test
+    public void testLagCheckedOncePerInterval()
+    {
+        resolver.lag = 0L;
+        resolver.resolve();
+        resolver.lag = MAX_STALENESS_MILLIS + 1L;
+        assertEquals(ReadPreference.secondaryPreferred(), resolver.resolve());
+        assertEquals(1, resolver.lagChecks);
+
+        resolver.setLagCheckIntervalMillis(-1L);
+        assertEquals(ReadPreference.primary(), resolver.resolve());
+        assertEquals(2, resolver.lagChecks);
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testRetentionShorterThanStalenessRejected()
+    {
+        tracker.setRetentionMillis(MAX_STALENESS_MILLIS - 1L);
+        new BoundedStalenessReadPreferenceResolver(db, ReadPreference.secondaryPreferred(), MAX_STALENESS_MILLIS,
+                tracker);
+    }
+
+    @Test
+    public void testPrimaryWithoutReplicaSet()
+    {
+        // the lag of a standalone server can't be computed
+        BoundedStalenessReadPreferenceResolver standalone = new BoundedStalenessReadPreferenceResolver(db,
+                ReadPreference.secondaryPreferred(), MAX_STALENESS_MILLIS, tracker);
+        assertEquals(ReadPreference.primary(), standalone.resolve());
+    }
+
+    private class StubbedLagResolver extends BoundedStalenessReadPreferenceResolver
+    {
+        private long lag;
+
+        private int lagChecks;
+
+        private StubbedLagResolver()
+        {
+            super(db, ReadPreference.secondaryPreferred(), MAX_STALENESS_MILLIS, tracker);
+        }
+
+        @Override
+        protected long computeLag()
+        {
+            lagChecks++;
+            return lag;
+        }
+    }
+}
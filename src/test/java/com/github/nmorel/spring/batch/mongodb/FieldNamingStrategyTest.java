@@ -0,0 +1,83 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.repository.dao.FieldNamingStrategy;
+import com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbJobRepositoryFactoryBean;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( classes = {TestContext.class} )
+public class FieldNamingStrategyTest
+{
+    @Autowired
+    private JobRepository repository;
+
+    @Autowired
+    private DB db;
+
+    @Before
+    public void onSetUp() throws Exception
+    {
+        db.dropDatabase();
+    }
+
+    @After
+    public void tearDown()
+    {
+        db.dropDatabase();
+    }
+
+    @Test
+    public void testReadBothLayouts() throws Exception
+    {
+        JobParameters jobParameters = new JobParametersBuilder().addLong("run", 1L).toJobParameters();
+        JobExecution execution = repository.createJobExecution("foo", jobParameters);
+        StepExecution stepExecution = execution.createStepExecution("step");
+        stepExecution.setStartTime(new Date());
+        stepExecution.setCommitCount(3);
+        repository.add(stepExecution);
+
+        MongoDbJobRepositoryFactoryBean factory = new MongoDbJobRepositoryFactoryBean();
+        factory.setDb(db);
+        factory.setFieldNamingStrategy(FieldNamingStrategy.compact());
+        factory.afterPropertiesSet();
+        JobRepository compactRepository = (JobRepository) factory.getObject();
+
+        // written with the default names, read and rewritten with the compact ones
+        StepExecution compactStepExecution = compactRepository.getLastStepExecution(execution.getJobInstance(), "step");
+        assertEquals(3, compactStepExecution.getCommitCount());
+        compactStepExecution.setCommitCount(4);
+        compactStepExecution.setLastUpdated(new Date());
+        compactRepository.update(compactStepExecution);
+        compactStepExecution.getExecutionContext().putString("key", "value");
+        compactRepository.updateExecutionContext(compactStepExecution);
+
+        DBObject stepObject = db.getCollection("BatchStepExecution").findOne();
+        assertEquals(4, stepObject.get("cc"));
+        assertFalse(stepObject.containsField("commitCount"));
+        assertNotNull(db.getCollection("BatchExecutionContext").findOne(new BasicDBObject("sc", new BasicDBObject("$exists", true))));
+
+        // the compact documents are still read with the default names
+        StepExecution lastStepExecution = repository.getLastStepExecution(execution.getJobInstance(), "step");
+        assertEquals(4, lastStepExecution.getCommitCount());
+        assertEquals(compactStepExecution.getLastUpdated(), lastStepExecution.getLastUpdated());
+        assertEquals("value", lastStepExecution.getExecutionContext().getString("key"));
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.repository.dao.LocalWriteTracker;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LocalWriteTrackerTest
+{
+    private LocalWriteTracker tracker;
+
+    @Before
+    public void onSetUp()
+    {
+        tracker = new LocalWriteTracker();
+    }
+
+    @Test
+    public void testWritesRecordedByKind()
+    {
+        tracker.recordWrite("foo", 1L, 2L);
+
+        assertTrue(tracker.isJobNameWrittenWithin("foo", 60000L));
+        assertTrue(tracker.isJobInstanceWrittenWithin(1L, 60000L));
+        assertTrue(tracker.isJobExecutionWrittenWithin(2L, 60000L));
+
+        // the ids of the instances and the executions are tracked separately
+        assertFalse(tracker.isJobNameWrittenWithin("bar", 60000L));
+        assertFalse(tracker.isJobInstanceWrittenWithin(2L, 60000L));
+        assertFalse(tracker.isJobExecutionWrittenWithin(1L, 60000L));
+    }
+
+    @Test
+    public void testNullsIgnored()
+    {
+        tracker.recordWrite(null, null);
+        tracker.recordWrite(null, null, null);
+
+        assertFalse(tracker.isJobNameWrittenWithin(null, 60000L));
+        assertFalse(tracker.isJobInstanceWrittenWithin(null, 60000L));
+        assertFalse(tracker.isJobExecutionWrittenWithin(null, 60000L));
+    }
+
+    @Test
+    public void testWriteOutsideWindow() throws Exception
+    {
+        tracker.recordWrite("foo", 1L);
+        Thread.sleep(20L);
+
+        assertFalse(tracker.isJobNameWrittenWithin("foo", 5L));
+        assertFalse(tracker.isJobExecutionWrittenWithin(1L, 5L));
+        assertTrue(tracker.isJobExecutionWrittenWithin(1L, 60000L));
+    }
+
+    @Test
+    public void testExpiredWritesPurged() throws Exception
+    {
+        tracker.setRetentionMillis(50L);
+        tracker.recordWrite(null, 0L);
+        tracker.recordWrite(null, 1L);
+        Thread.sleep(100L);
+
+        // the retention elapsed since the last purge, the next write purges the writes older than the retention
+        tracker.recordWrite(null, 2L);
+        assertFalse(tracker.isJobExecutionWrittenWithin(0L, Long.MAX_VALUE));
+        assertFalse(tracker.isJobExecutionWrittenWithin(1L, Long.MAX_VALUE));
+        assertTrue(tracker.isJobExecutionWrittenWithin(2L, Long.MAX_VALUE));
+        tracker.recordWrite(null, 3L);
+        assertTrue(tracker.isJobExecutionWrittenWithin(3L, Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,183 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.configuration.annotation.MongoDbBatchConfigurer;
+import com.github.nmorel.spring.batch.mongodb.metrics.InstrumentedTaskExecutor;
+import com.github.nmorel.spring.batch.mongodb.metrics.RepositoryMetrics;
+import com.mongodb.DB;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( classes = {TestContext.class} )
+public class MongoDbBatchConfigurerTest
+{
+    @Autowired
+    private DB db;
+
+    private MongoDbBatchConfigurer configurer;
+
+    @Before
+    public void onSetUp() throws Exception
+    {
+        db.dropDatabase();
+    }
+
+    @After
+    public void tearDown()
+    {
+        if( null != configurer )
+        {
+            configurer.destroy();
+        }
+        db.dropDatabase();
+    }
+
+    @Test
+    public void testBoundedAsynchronousLauncher() throws Exception
+    {
+        configurer = new MongoDbBatchConfigurer(db);
+        configurer.setLauncherPoolSize(1);
+        configurer.setLauncherQueueCapacity(0);
+        assertSecondLaunchRejected();
+    }
+
+    @Test
+    public void testThreadPerJobLauncherRejectsWithoutBlocking() throws Exception
+    {
+        configurer = new MongoDbBatchConfigurer(db);
+        configurer.setLauncherPoolSize(1);
+        configurer.setLauncherThreadPerJob(true);
+        assertSecondLaunchRejected();
+    }
+
+    /** Launches a job holding the only thread of the launcher, then a second one rejected by the launcher */
+    private void assertSecondLaunchRejected() throws Exception
+    {
+        RepositoryMetrics metrics = new RepositoryMetrics();
+        configurer.setMetrics(metrics);
+        configurer.initialize();
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        JobSupport job = new JobSupport("foo")
+        {
+            @Override
+            public void execute( JobExecution execution )
+            {
+                started.countDown();
+                try
+                {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                catch( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                execution.setStatus(BatchStatus.COMPLETED);
+                configurer.getJobRepository().update(execution);
+            }
+        };
+
+        JobExecution running = configurer.getJobLauncher()
+                .run(job, new JobParametersBuilder().addLong("run", 1L).toJobParameters());
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // the only thread is busy and nothing can be queued : the launch returns at once
+        long start = System.currentTimeMillis();
+        JobExecution rejected = configurer.getJobLauncher()
+                .run(job, new JobParametersBuilder().addLong("run", 2L).toJobParameters());
+        assertTrue(System.currentTimeMillis() - start < 5000L);
+        assertEquals(BatchStatus.FAILED, rejected.getStatus());
+
+        InstrumentedTaskExecutor executor = configurer.getLauncherTaskExecutor();
+        assertEquals(1, executor.getRunning());
+        assertEquals(2, executor.getSubmitted());
+        assertEquals(1, executor.getRejected());
+        assertEquals(1, metrics.getCount("JobLauncher.rejected"));
+
+        release.countDown();
+        for( int i = 0; i < 100 && executor.getRunning() > 0; i++ )
+        {
+            Thread.sleep(50L);
+        }
+        assertEquals(0, executor.getRunning());
+        assertEquals(0, executor.getQueued());
+        assertEquals(1, metrics.getCount("JobLauncher.queued"));
+        assertEquals(BatchStatus.COMPLETED, running.getStatus());
+    }
+
+    @Test
+    public void testSingletonJobOnLeaderOnly() throws Exception
+    {
+        configurer = createSingletonConfigurer();
+        for( int i = 0; i < 100 && !configurer.getLeaderElection().isLeader(); i++ )
+        {
+            Thread.sleep(50L);
+        }
+        assertTrue(configurer.getLeaderElection().isLeader());
+        MongoDbBatchConfigurer other = createSingletonConfigurer();
+        try
+        {
+            Thread.sleep(200L);
+            assertFalse(other.getLeaderElection().isLeader());
+
+            JobSupport job = new JobSupport("foo")
+            {
+                @Override
+                public void execute( JobExecution execution )
+                {
+                    execution.setStatus(BatchStatus.COMPLETED);
+                    configurer.getJobRepository().update(execution);
+                }
+            };
+            try
+            {
+                other.getJobLauncher().run(job, new JobParametersBuilder().addLong("run", 1L).toJobParameters());
+                fail("Expected TaskRejectedException");
+            }
+            catch( TaskRejectedException e )
+            {
+                // expected
+            }
+            assertEquals(0, db.getCollection("BatchJobExecution").count());
+            assertEquals(BatchStatus.COMPLETED, configurer.getJobLauncher().run(job, new JobParametersBuilder()
+                    .addLong("run", 1L).toJobParameters()).getStatus());
+
+            // the leader stops, releasing its lease
+            configurer.destroy();
+            for( int i = 0; i < 100 && !other.getLeaderElection().isLeader(); i++ )
+            {
+                Thread.sleep(50L);
+            }
+            assertTrue(other.getLeaderElection().isLeader());
+        }
+        finally
+        {
+            other.destroy();
+        }
+    }
+
+    private MongoDbBatchConfigurer createSingletonConfigurer() throws Exception
+    {
+        MongoDbBatchConfigurer singletonConfigurer = new MongoDbBatchConfigurer(db);
+        singletonConfigurer.setSingletonJobNames(Collections.singleton("foo"));
+        singletonConfigurer.setLeaderLeaseMillis(300L);
+        singletonConfigurer.initialize();
+        return singletonConfigurer;
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.chunk.MongoDbChunkItemWriter;
+import com.github.nmorel.spring.batch.mongodb.chunk.MongoDbChunkQueue;
+import com.github.nmorel.spring.batch.mongodb.chunk.MongoDbChunkWorker;
+import com.mongodb.DB;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.step.item.ChunkProcessor;
+import org.springframework.batch.core.step.item.SimpleChunkProcessor;
+import org.springframework.batch.item.ItemProcessor;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.batch.item.WriteFailedException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( classes = {TestContext.class} )
+public class MongoDbChunkItemWriterTest
+{
+    @Autowired
+    private JobRepository repository;
+
+    @Autowired
+    private DB db;
+
+    private MongoDbChunkQueue queue;
+
+    private MongoDbChunkItemWriter<Integer> writer;
+
+    private StepExecution stepExecution;
+
+    @Before
+    public void onSetUp() throws Exception
+    {
+        db.dropDatabase();
+
+        queue = new MongoDbChunkQueue(db);
+        queue.afterPropertiesSet();
+
+        writer = new MongoDbChunkItemWriter<Integer>();
+        writer.setQueue(queue);
+        writer.setStepName("step");
+        writer.setPollIntervalMillis(10L);
+
+        JobExecution execution = repository.createJobExecution("foo", new JobParametersBuilder().addLong("run", 1L)
+                .toJobParameters());
+        stepExecution = execution.createStepExecution("step");
+        stepExecution.setStartTime(new Date());
+        repository.add(stepExecution);
+    }
+
+    @After
+    public void tearDown()
+    {
+        db.dropDatabase();
+    }
+
+    @Test
+    public void testChunksProcessedByWorker() throws Exception
+    {
+        final List<Object> written = Collections.synchronizedList(new ArrayList<Object>());
+        SimpleChunkProcessor<Object, Object> chunkProcessor = new SimpleChunkProcessor<Object, Object>(
+                new ItemProcessor<Object, Object>()
+                {
+                    @Override
+                    public Object process( Object item )
+                    {
+                        // filters the odd items
+                        return (Integer) item % 2 == 0 ? item : null;
+                    }
+                }, new ItemWriter<Object>()
+        {
+            @Override
+            public void write( List<?> items )
+            {
+                written.addAll(items);
+            }
+        });
+        MongoDbChunkWorker worker = new MongoDbChunkWorker();
+        worker.setQueue(queue);
+        worker.setChunkProcessors(Collections.<String, ChunkProcessor<Object>>singletonMap("step", chunkProcessor));
+        worker.setPollIntervalMillis(10L);
+        worker.afterPropertiesSet();
+        Thread thread = new Thread(worker);
+        thread.start();
+
+        try
+        {
+            writer.setMaxInFlightChunks(1);
+            writer.setTimeoutMillis(30000L);
+            writer.afterPropertiesSet();
+            writer.beforeStep(stepExecution);
+            writer.write(Arrays.asList(1, 2, 3));
+            writer.write(Arrays.asList(4, 5));
+            // counted by the step of the master when the items are sent
+            stepExecution.setWriteCount(5);
+            stepExecution.setStatus(BatchStatus.COMPLETED);
+            assertNull(writer.afterStep(stepExecution));
+
+            assertEquals(Arrays.<Object>asList(2, 4), written);
+            assertEquals(2, stepExecution.getWriteCount());
+            assertEquals(3, stepExecution.getFilterCount());
+            assertEquals(BatchStatus.COMPLETED, stepExecution.getStatus());
+            assertEquals(0, db.getCollection("BatchChunk").count());
+        }
+        finally
+        {
+            worker.destroy();
+            thread.join(5000L);
+        }
+    }
+
+    @Test
+    public void testInFlightChunksBounded() throws Exception
+    {
+        writer.setMaxInFlightChunks(1);
+        writer.setTimeoutMillis(50L);
+        writer.afterPropertiesSet();
+        writer.beforeStep(stepExecution);
+        writer.write(Arrays.asList(1, 2));
+        try
+        {
+            // no worker acknowledges the first chunk
+            writer.write(Arrays.asList(3, 4));
+            fail("Expected WriteFailedException");
+        }
+        catch( WriteFailedException e )
+        {
+            // expected
+        }
+        assertEquals(1, db.getCollection("BatchChunk").count());
+    }
+}
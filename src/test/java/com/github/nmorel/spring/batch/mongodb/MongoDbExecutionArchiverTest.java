@@ -0,0 +1,187 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.explore.support.MongoDbJobExplorerFactoryBean;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.MongoDbArchiveDao;
+import com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbExecutionArchiver;
+import com.mongodb.DB;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( classes = {TestContext.class} )
+public class MongoDbExecutionArchiverTest
+{
+    @Autowired
+    private JobRepository repository;
+
+    @Autowired
+    private DB db;
+
+    private MongoDbExecutionArchiver archiver;
+
+    private JobExplorer explorer;
+
+    /** Ended a minute ago, then archived */
+    private final List<JobExecution> archived = new ArrayList<JobExecution>();
+
+    /** Ended now, kept in the live collections */
+    private final List<JobExecution> live = new ArrayList<JobExecution>();
+
+    @Before
+    public void onSetUp() throws Exception
+    {
+        db.dropDatabase();
+
+        archiver = new MongoDbExecutionArchiver();
+        archiver.setDb(db);
+        archiver.setPauseMillis(0L);
+        archiver.setBatchSize(2);
+        archiver.setDefaultRetentionMillis(30000L);
+        archiver.afterPropertiesSet();
+
+        MongoDbJobExplorerFactoryBean factory = new MongoDbJobExplorerFactoryBean();
+        factory.setDb(db);
+        factory.setArchivePrefix(MongoDbArchiveDao.DEFAULT_ARCHIVE_COLLECTION_PREFIX);
+        factory.afterPropertiesSet();
+        explorer = (JobExplorer) factory.getObject();
+
+        for( long run = 1L; run <= 3L; run++ )
+        {
+            archived.add(createExecution(run, new Date(System.currentTimeMillis() - 60000L)));
+        }
+        for( long run = 4L; run <= 5L; run++ )
+        {
+            live.add(createExecution(run, new Date()));
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        db.dropDatabase();
+    }
+
+    @Test
+    public void testArchiveMovesFinishedInstances() throws Exception
+    {
+        assertEquals(3, archiver.archive());
+        assertEquals(0, archiver.archive());
+
+        assertEquals(2, db.getCollection("BatchJobInstance").count());
+        assertEquals(2, db.getCollection("BatchJobExecution").count());
+        assertEquals(2, db.getCollection("BatchJobParameter").count());
+        assertEquals(2, db.getCollection("BatchStepExecution").count());
+        assertEquals(4, db.getCollection("BatchExecutionContext").count());
+
+        // one document per execution and per step execution, embedding its parameters and context
+        assertEquals(3, db.getCollection("BatchArchiveJobInstance").count());
+        assertEquals(3, db.getCollection("BatchArchiveJobExecution").count());
+        assertEquals(3, db.getCollection("BatchArchiveStepExecution").count());
+    }
+
+    @Test
+    public void testLookupsFallBackToTheArchive() throws Exception
+    {
+        archiver.archive();
+
+        JobExecution original = archived.get(0);
+        StepExecution originalStep = original.getStepExecutions().iterator().next();
+
+        JobInstance jobInstance = explorer.getJobInstance(original.getJobId());
+        assertNotNull(jobInstance);
+        assertEquals("foo", jobInstance.getJobName());
+
+        JobExecution execution = explorer.getJobExecution(original.getId());
+        assertNotNull(execution);
+        assertEquals(BatchStatus.COMPLETED, execution.getStatus());
+        assertEquals(original.getJobParameters(), execution.getJobParameters());
+        assertEquals(1L, execution.getExecutionContext().getLong("run"));
+        assertEquals(1, execution.getStepExecutions().size());
+
+        StepExecution stepExecution = explorer.getStepExecution(original.getId(), originalStep.getId());
+        assertNotNull(stepExecution);
+        assertEquals("step", stepExecution.getStepName());
+        assertEquals(1L, stepExecution.getExecutionContext().getLong("run"));
+
+        List<JobExecution> executions = explorer.getJobExecutions(jobInstance);
+        assertEquals(1, executions.size());
+        assertEquals(original.getId(), executions.get(0).getId());
+
+        assertEquals(Collections.singletonList("foo"), explorer.getJobNames());
+
+        // the live executions are still read from the live collections
+        assertEquals(BatchStatus.COMPLETED, explorer.getJobExecution(live.get(0).getId()).getStatus());
+    }
+
+    @Test
+    public void testJobInstancesPagedAcrossTheTiers() throws Exception
+    {
+        archiver.archive();
+
+        assertEquals(Arrays.asList(5L, 4L, 3L, 2L, 1L), getJobInstanceRuns(0, 10));
+        assertEquals(Arrays.asList(4L, 3L), getJobInstanceRuns(1, 2));
+        assertEquals(Arrays.asList(3L, 2L), getJobInstanceRuns(2, 2));
+        assertEquals(Arrays.asList(1L), getJobInstanceRuns(4, 2));
+        assertTrue(getJobInstanceRuns(5, 2).isEmpty());
+    }
+
+    /** @return the runs of the instances of the page, the run n being the instance of the execution n */
+    private List<Long> getJobInstanceRuns( int start, int count )
+    {
+        List<JobExecution> executions = new ArrayList<JobExecution>(archived);
+        executions.addAll(live);
+        List<Long> runs = new ArrayList<Long>();
+        for( JobInstance jobInstance : explorer.getJobInstances("foo", start, count) )
+        {
+            for( JobExecution execution : executions )
+            {
+                if( execution.getJobId().equals(jobInstance.getId()) )
+                {
+                    runs.add(execution.getJobParameters().getLong("run"));
+                }
+            }
+        }
+        return runs;
+    }
+
+    private JobExecution createExecution( long run, Date endTime ) throws Exception
+    {
+        JobExecution execution = repository.createJobExecution("foo", new JobParametersBuilder().addLong("run", run)
+                .toJobParameters());
+        execution.getExecutionContext().putLong("run", run);
+        repository.updateExecutionContext(execution);
+        StepExecution stepExecution = execution.createStepExecution("step");
+        stepExecution.setStartTime(endTime);
+        repository.add(stepExecution);
+        stepExecution.getExecutionContext().putLong("run", run);
+        repository.updateExecutionContext(stepExecution);
+
+        stepExecution.setStatus(BatchStatus.COMPLETED);
+        stepExecution.setEndTime(endTime);
+        repository.update(stepExecution);
+        execution.setStatus(BatchStatus.COMPLETED);
+        execution.setEndTime(endTime);
+        repository.update(execution);
+        return execution;
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.item.MongoDbItemReader;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import static org.junit.Assert.*;
+
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( classes = {TestContext.class} )
+public class MongoDbItemReaderTest
+{
+    @Autowired
+    private DB db;
+
+    private DBCollection collection;
+
+    @Before
+    public void onSetUp() throws Exception
+    {
+        db.dropDatabase();
+        collection = db.getCollection("Person");
+        for( int i = 1; i <= 10; i++ )
+        {
+            collection.insert(new BasicDBObject("_id", i).append("age", i % 2).append("name", "p" + i));
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        db.dropDatabase();
+    }
+
+    @Test
+    public void testRestartAfterLastKey() throws Exception
+    {
+        ExecutionContext executionContext = new ExecutionContext();
+        MongoDbItemReader<DBObject> reader = createReader();
+        reader.open(executionContext);
+        for( int i = 1; i <= 4; i++ )
+        {
+            DBObject person = reader.read();
+            assertEquals(i, person.get("_id"));
+            assertNull(person.get("name"));
+        }
+        reader.update(executionContext);
+        reader.close();
+
+        // a document inserted before the position does not shift it
+        collection.insert(new BasicDBObject("_id", 0).append("age", 0));
+
+        reader = createReader();
+        reader.open(executionContext);
+        for( int i = 5; i <= 10; i++ )
+        {
+            assertEquals(i, reader.read().get("_id"));
+        }
+        assertNull(reader.read());
+        reader.update(executionContext);
+        reader.close();
+        assertEquals(10, executionContext.getInt("MongoDbItemReader.read.count"));
+    }
+
+    @Test
+    public void testQuery() throws Exception
+    {
+        MongoDbItemReader<DBObject> reader = createReader();
+        reader.setQuery(new BasicDBObject("age", 1));
+        reader.open(new ExecutionContext());
+        int count = 0;
+        for( DBObject person = reader.read(); null != person; person = reader.read() )
+        {
+            assertEquals(1, person.get("age"));
+            count++;
+        }
+        reader.close();
+        assertEquals(5, count);
+    }
+
+    private MongoDbItemReader<DBObject> createReader()
+    {
+        MongoDbItemReader<DBObject> reader = new MongoDbItemReader<DBObject>();
+        reader.setDb(db);
+        reader.setCollectionName("Person");
+        reader.setFields(new BasicDBObject("age", 1));
+        reader.setBatchSize(3);
+        reader.afterPropertiesSet();
+        return reader;
+    }
+}
@@ -0,0 +1,249 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.item.MongoDbItemWriteException;
+import com.github.nmorel.spring.batch.mongodb.item.MongoDbItemWriter;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( classes = {TestContext.class} )
+public class MongoDbItemWriterTest
+{
+    @Autowired
+    private DB db;
+
+    private DBCollection collection;
+
+    private MongoDbItemWriter<DBObject> writer;
+
+    @Before
+    public void onSetUp() throws Exception
+    {
+        db.dropDatabase();
+        collection = db.getCollection("Person");
+        collection.ensureIndex(new BasicDBObject("name", 1), new BasicDBObject("unique", true));
+
+        writer = new MongoDbItemWriter<DBObject>();
+        writer.setDb(db);
+        writer.setCollectionName("Person");
+        writer.setWriteConcern(WriteConcern.ACKNOWLEDGED);
+        writer.setMaxBatchSize(2);
+    }
+
+    @After
+    public void tearDown()
+    {
+        db.dropDatabase();
+    }
+
+    @Test
+    public void testUnorderedFailuresReportedPerItem() throws Exception
+    {
+        writer.setOrdered(false);
+        writer.afterPropertiesSet();
+
+        DBObject duplicate = new BasicDBObject("name", "a");
+        DBObject[] items = {new BasicDBObject("name", "a"), duplicate, new BasicDBObject("name", "b"),
+                new BasicDBObject("name", "c")};
+        try
+        {
+            writer.write(Arrays.asList(items));
+            fail("Expected MongoDbItemWriteException");
+        }
+        catch( MongoDbItemWriteException e )
+        {
+            assertEquals(Collections.singleton(duplicate), e.getFailures().keySet());
+            assertEquals(3, e.getWriteCount());
+        }
+        assertEquals(3, collection.count());
+
+        // the scan of a fault tolerant step does not send the written items again
+        writer.write(Collections.singletonList(items[0]));
+        try
+        {
+            writer.write(Collections.singletonList(duplicate));
+            fail("Expected MongoException");
+        }
+        catch( MongoException e )
+        {
+            // expected
+        }
+        writer.write(Collections.singletonList(items[2]));
+        writer.write(Collections.singletonList(items[3]));
+        assertEquals(3, collection.count());
+    }
+
+    @Test
+    public void testOrderedWriteStopsAtFirstFailure() throws Exception
+    {
+        writer.afterPropertiesSet();
+
+        DBObject duplicate = new BasicDBObject("name", "a");
+        DBObject notAttempted = new BasicDBObject("name", "c");
+        try
+        {
+            writer.write(Arrays.asList(new BasicDBObject("name", "a"), new BasicDBObject("name", "b"), duplicate,
+                    notAttempted));
+            fail("Expected MongoDbItemWriteException");
+        }
+        catch( MongoDbItemWriteException e )
+        {
+            assertEquals(Collections.singleton(duplicate), e.getFailures().keySet());
+            assertEquals(2, e.getWriteCount());
+        }
+        assertEquals(2, collection.count());
+
+        writer.write(Collections.singletonList(notAttempted));
+        assertEquals(3, collection.count());
+    }
+
+    @Test
+    public void testOutcomesScopedToTheScannedChunk() throws Exception
+    {
+        writer.afterPropertiesSet();
+
+        DBObject duplicate = new BasicDBObject("name", "a");
+        RuntimeException failure = writeFailedChunk(duplicate);
+
+        // the scan throws the failure remembered
+        try
+        {
+            writer.write(Collections.singletonList(duplicate));
+            fail("Expected MongoException");
+        }
+        catch( MongoException e )
+        {
+            assertSame(failure, e);
+        }
+
+        // the failed item is not part of the rest of the scan, it is written again
+        try
+        {
+            writer.write(Collections.singletonList(duplicate));
+            fail("Expected MongoDbItemWriteException");
+        }
+        catch( MongoDbItemWriteException e )
+        {
+            assertEquals(Collections.singleton(duplicate), e.getFailures().keySet());
+        }
+    }
+
+    @Test
+    public void testChunkRetrySendsAllItems() throws Exception
+    {
+        writer.afterPropertiesSet();
+
+        List<DBObject> chunk = Arrays.<DBObject>asList(new BasicDBObject("name", "a"), new BasicDBObject("name", "a"));
+        try
+        {
+            writer.write(chunk);
+            fail("Expected MongoDbItemWriteException");
+        }
+        catch( MongoDbItemWriteException e )
+        {
+            assertEquals(1, e.getWriteCount());
+        }
+        collection.remove(new BasicDBObject());
+
+        // the retry of the whole chunk does not replay the outcomes of the first write
+        try
+        {
+            writer.write(chunk);
+            fail("Expected MongoDbItemWriteException");
+        }
+        catch( MongoDbItemWriteException e )
+        {
+            assertEquals(1, e.getWriteCount());
+        }
+        assertEquals(1, collection.count());
+    }
+
+    @Test
+    public void testExistingIdReportedAsDuplicate() throws Exception
+    {
+        writer.setOrdered(false);
+        writer.afterPropertiesSet();
+        collection.insert(new BasicDBObject("_id", 1).append("name", "x"));
+
+        DBObject duplicate = new BasicDBObject("_id", 1).append("name", "y");
+        try
+        {
+            writer.write(Arrays.asList(duplicate, new BasicDBObject("name", "z")));
+            fail("Expected MongoDbItemWriteException");
+        }
+        catch( MongoDbItemWriteException e )
+        {
+            // the document stored before is not the one of the item
+            assertEquals(Collections.singleton(duplicate), e.getFailures().keySet());
+            assertEquals(1, e.getWriteCount());
+        }
+        assertEquals("x", collection.findOne(new BasicDBObject("_id", 1)).get("name"));
+    }
+
+    @Test
+    public void testOutcomesForgottenWhenOpened() throws Exception
+    {
+        writer.afterPropertiesSet();
+
+        DBObject duplicate = new BasicDBObject("name", "a");
+        writeFailedChunk(duplicate);
+
+        // another step starts
+        writer.open(new ExecutionContext());
+        try
+        {
+            writer.write(Collections.singletonList(duplicate));
+            fail("Expected MongoDbItemWriteException");
+        }
+        catch( MongoDbItemWriteException e )
+        {
+            assertEquals(Collections.singleton(duplicate), e.getFailures().keySet());
+        }
+    }
+
+    @Test
+    public void testUpsert() throws Exception
+    {
+        writer.setUpsertKeys(Collections.singletonList("name"));
+        writer.afterPropertiesSet();
+
+        writer.write(Arrays.asList(new BasicDBObject("name", "a").append("age", 1), new BasicDBObject("name", "b")));
+        writer.write(Arrays.asList(new BasicDBObject("name", "a").append("age", 2)));
+
+        assertEquals(2, collection.count());
+        assertEquals(2, collection.findOne(new BasicDBObject("name", "a")).get("age"));
+    }
+
+    /** @return the failure of the duplicate, written in a chunk after an item with the same name */
+    private RuntimeException writeFailedChunk( DBObject duplicate ) throws Exception
+    {
+        try
+        {
+            writer.write(Arrays.asList(new BasicDBObject("name", "a"), duplicate));
+            fail("Expected MongoDbItemWriteException");
+            return null;
+        }
+        catch( MongoDbItemWriteException e )
+        {
+            return e.getFailures().get(duplicate);
+        }
+    }
+}
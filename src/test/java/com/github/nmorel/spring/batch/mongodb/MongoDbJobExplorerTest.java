@@ -0,0 +1,106 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.explore.support.MongoDbJobExplorer;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.CloseableIterator;
+import com.mongodb.DB;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( classes = {TestContext.class} )
+public class MongoDbJobExplorerTest
+{
+    @Autowired
+    private JobRepository repository;
+
+    @Autowired
+    private JobExplorer explorer;
+
+    @Autowired
+    private DB db;
+
+    @Before
+    public void onSetUp() throws Exception
+    {
+        db.dropDatabase();
+    }
+
+    @After
+    public void tearDown()
+    {
+        db.dropDatabase();
+    }
+
+    @Test
+    public void testReadYourWrites() throws Exception
+    {
+        JobParameters jobParameters = new JobParametersBuilder().addString("key", "value").toJobParameters();
+        JobExecution execution = repository.createJobExecution("foo", jobParameters);
+
+        JobExecution read = explorer.getJobExecution(execution.getId());
+        assertNotNull("The job execution just written must be visible", read);
+        assertEquals(execution.getId(), read.getId());
+        assertEquals(jobParameters, read.getJobParameters());
+        assertEquals(1, explorer.findRunningJobExecutions("foo").size());
+
+        execution.setStatus(BatchStatus.COMPLETED);
+        execution.setEndTime(new Date());
+        repository.update(execution);
+
+        assertEquals(BatchStatus.COMPLETED, explorer.getJobExecution(execution.getId()).getStatus());
+        assertTrue(explorer.findRunningJobExecutions("foo").isEmpty());
+    }
+
+    @Test
+    public void testStreamJobExecutions() throws Exception
+    {
+        for( long i = 0; i < 250; i++ )
+        {
+            JobExecution execution = repository.createJobExecution("bar", new JobParametersBuilder().addLong("run", i)
+                    .toJobParameters());
+            if( i % 2 == 0 )
+            {
+                execution.setStatus(BatchStatus.COMPLETED);
+                execution.setEndTime(new Date());
+                repository.update(execution);
+            }
+        }
+
+        int count = 0;
+        CloseableIterator<JobExecution> executions = ((MongoDbJobExplorer) explorer).streamJobExecutions("bar", true);
+        while( executions.hasNext() )
+        {
+            JobExecution execution = executions.next();
+            assertEquals("bar", execution.getJobInstance().getJobName());
+            assertTrue(execution.getJobParameters().isEmpty());
+            count++;
+        }
+        assertEquals(250, count);
+
+        count = 0;
+        CloseableIterator<JobExecution> running = ((MongoDbJobExplorer) explorer).streamRunningJobExecutions("bar", false);
+        while( running.hasNext() )
+        {
+            JobExecution execution = running.next();
+            assertNull(execution.getEndTime());
+            assertFalse(execution.getJobParameters().isEmpty());
+            count++;
+        }
+        assertEquals(125, count);
+    }
+}
@@ -1,5 +1,7 @@
 package com.github.nmorel.spring.batch.mongodb;
 
+import com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbJobRepositoryFactoryBean;
+import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -9,8 +11,12 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.batch.core.BatchStatus;
 import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
 import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.core.repository.JobExecutionAlreadyRunningException;
+import org.springframework.batch.core.repository.JobInstanceAlreadyCompleteException;
 import org.springframework.batch.core.repository.JobRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
@@ -19,6 +25,7 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import java.io.Serializable;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -170,6 +177,121 @@ public class MongoDbJobRepositoryTest
                 + " - the second transaction did not block if this number is less than about 1000.");
     }
 
+    @Test
+    public void testRestartCarriesContext() throws Exception
+    {
+        JobParameters jobParameters = new JobParametersBuilder().addLong("run", 1L).toJobParameters();
+        JobExecution first = repository.createJobExecution("foo", jobParameters);
+        assertEquals(0, db.getCollection("BatchExecutionContext").count());
+        first.getExecutionContext().putString("key", "value");
+        repository.updateExecutionContext(first);
+        first.setStatus(BatchStatus.FAILED);
+        first.setEndTime(new Date());
+        repository.update(first);
+
+        JobExecution second = repository.createJobExecution("foo", jobParameters);
+        assertEquals(first.getJobInstance(), second.getJobInstance());
+        assertEquals("value", second.getExecutionContext().getString("key"));
+        assertEquals(second.getExecutionContext(), repository.getLastJobExecution("foo", jobParameters).getExecutionContext());
+
+        second.setStatus(BatchStatus.COMPLETED);
+        second.setEndTime(new Date());
+        repository.update(second);
+        try
+        {
+            repository.createJobExecution("foo", jobParameters);
+            fail("Expected JobInstanceAlreadyCompleteException");
+        }
+        catch( JobInstanceAlreadyCompleteException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStepLookupsAcrossExecutions() throws Exception
+    {
+        JobParameters jobParameters = new JobParametersBuilder().addLong("run", 1L).toJobParameters();
+        StepExecution last = null;
+        for( int i = 0; i < 3; i++ )
+        {
+            JobExecution execution = repository.createJobExecution("foo", jobParameters);
+            last = addStepExecution(execution, "step", i);
+            addStepExecution(execution, "other", i);
+            execution.setStatus(BatchStatus.FAILED);
+            execution.setEndTime(new Date());
+            repository.update(execution);
+        }
+        JobInstance jobInstance = last.getJobExecution().getJobInstance();
+        assertLookups(repository, jobInstance, last);
+
+        // documents written before the job instance id was stored
+        db.getCollection("BatchStepExecution").update(new BasicDBObject(), new BasicDBObject("$unset",
+                new BasicDBObject("jobInstanceId", 1)), false, true);
+        MongoDbJobRepositoryFactoryBean factory = new MongoDbJobRepositoryFactoryBean();
+        factory.setDb(db);
+        factory.afterPropertiesSet();
+        assertLookups((JobRepository) factory.getObject(), jobInstance, last);
+    }
+
+    @Test
+    public void testEmbeddedStepContexts() throws Exception
+    {
+        JobParameters jobParameters = new JobParametersBuilder().addLong("run", 1L).toJobParameters();
+        JobExecution execution = repository.createJobExecution("foo", jobParameters);
+        StepExecution separate = addStepExecution(execution, "separate", 0);
+
+        MongoDbJobRepositoryFactoryBean factory = new MongoDbJobRepositoryFactoryBean();
+        factory.setDb(db);
+        factory.setEmbeddedStepContexts(true);
+        factory.afterPropertiesSet();
+        JobRepository embeddedRepository = (JobRepository) factory.getObject();
+
+        StepExecution embedded = execution.createStepExecution("embedded");
+        embedded.setStartTime(new Date());
+        embedded.getExecutionContext().putInt("run", 1);
+        embeddedRepository.add(embedded);
+        embedded.getExecutionContext().putInt("run", 2);
+        embeddedRepository.updateExecutionContext(embedded);
+        embeddedRepository.update(embedded);
+
+        assertEquals(1, db.getCollection("BatchExecutionContext").count(new BasicDBObject("stepExecutionId",
+                new BasicDBObject("$exists", true))));
+        assertEquals(2, embeddedRepository.getLastStepExecution(execution.getJobInstance(), "embedded")
+                .getExecutionContext().getInt("run"));
+        // each layout is read by both repositories
+        assertEquals(0, embeddedRepository.getLastStepExecution(execution.getJobInstance(), "separate")
+                .getExecutionContext().getInt("run"));
+        assertEquals(2, repository.getLastStepExecution(execution.getJobInstance(), "embedded")
+                .getExecutionContext().getInt("run"));
+        assertEquals(separate.getId(), repository.getLastStepExecution(execution.getJobInstance(), "separate").getId());
+    }
+
+    private StepExecution addStepExecution( JobExecution execution, String stepName, int run ) throws Exception
+    {
+        StepExecution stepExecution = execution.createStepExecution(stepName);
+        stepExecution.setStartTime(new Date(System.currentTimeMillis() + run));
+        stepExecution.getExecutionContext().putInt("run", run);
+        repository.add(stepExecution);
+        repository.updateExecutionContext(stepExecution);
+        return stepExecution;
+    }
+
+    private void assertLookups( JobRepository jobRepository, JobInstance jobInstance, StepExecution expected )
+    {
+        assertEquals(3, jobRepository.getStepExecutionCount(jobInstance, "step"));
+        assertEquals(0, jobRepository.getStepExecutionCount(jobInstance, "unknown"));
+        assertNull(jobRepository.getLastStepExecution(jobInstance, "unknown"));
+
+        StepExecution lastStepExecution = jobRepository.getLastStepExecution(jobInstance, "step");
+        assertEquals(expected.getId(), lastStepExecution.getId());
+        assertEquals(expected.getJobExecutionId(), lastStepExecution.getJobExecutionId());
+        assertEquals(jobInstance, lastStepExecution.getJobExecution().getJobInstance());
+        assertEquals(Long.valueOf(1L), lastStepExecution.getJobExecution().getJobParameters().getLong("run"));
+        assertEquals(2, lastStepExecution.getExecutionContext().getInt("run"));
+        assertNotNull(lastStepExecution.getJobExecution().getExecutionContext());
+    }
+
     private void cacheJobIds( JobExecution execution )
     {
         if( execution == null )
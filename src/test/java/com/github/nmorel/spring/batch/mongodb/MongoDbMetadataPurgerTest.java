@@ -0,0 +1,109 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbMetadataPurger;
+import com.mongodb.DB;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( classes = {TestContext.class} )
+public class MongoDbMetadataPurgerTest
+{
+    @Autowired
+    private JobRepository repository;
+
+    @Autowired
+    private DB db;
+
+    private MongoDbMetadataPurger purger;
+
+    @Before
+    public void onSetUp() throws Exception
+    {
+        db.dropDatabase();
+
+        purger = new MongoDbMetadataPurger();
+        purger.setDb(db);
+        purger.setPauseMillis(0L);
+        purger.setBatchSize(2);
+        purger.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown()
+    {
+        db.dropDatabase();
+    }
+
+    @Test
+    public void testPurgeOnlyFinishedInstances() throws Exception
+    {
+        JobExecution completed = createExecution(1L, BatchStatus.COMPLETED);
+        JobExecution failed = createExecution(2L, BatchStatus.FAILED);
+        JobExecution running = createExecution(3L, BatchStatus.STARTED);
+        JobExecution abandoned = createExecution(4L, BatchStatus.ABANDONED);
+
+        Thread.sleep(50L);
+        purger.setDefaultRetentionMillis(10L);
+
+        assertEquals(2, purger.purge());
+
+        assertNull(repository.getLastJobExecution("foo", completed.getJobParameters()));
+        assertNull(repository.getLastJobExecution("foo", abandoned.getJobParameters()));
+        assertNotNull(repository.getLastJobExecution("foo", failed.getJobParameters()));
+        assertNotNull(repository.getLastJobExecution("foo", running.getJobParameters()));
+
+        assertEquals(2, db.getCollection("BatchJobInstance").count());
+        assertEquals(2, db.getCollection("BatchJobExecution").count());
+        assertEquals(2, db.getCollection("BatchJobParameter").count());
+        assertEquals(2, db.getCollection("BatchStepExecution").count());
+        assertEquals(4, db.getCollection("BatchExecutionContext").count());
+    }
+
+    @Test
+    public void testKeepRecentInstances() throws Exception
+    {
+        createExecution(1L, BatchStatus.COMPLETED);
+
+        purger.setDefaultRetentionMillis(60000L);
+        assertEquals(0, purger.purge());
+        assertEquals(1, db.getCollection("BatchJobInstance").count());
+    }
+
+    private JobExecution createExecution( Long run, BatchStatus status ) throws Exception
+    {
+        JobExecution execution = repository.createJobExecution("foo", new JobParametersBuilder().addLong("run", run)
+                .toJobParameters());
+        // the context of a new execution is only written at its first update
+        repository.updateExecutionContext(execution);
+        StepExecution stepExecution = execution.createStepExecution("step");
+        stepExecution.setStartTime(new Date());
+        repository.add(stepExecution);
+        repository.updateExecutionContext(stepExecution);
+
+        execution.setStatus(status);
+        if( status != BatchStatus.STARTED )
+        {
+            stepExecution.setStatus(status);
+            stepExecution.setEndTime(new Date());
+            repository.update(stepExecution);
+            execution.setEndTime(new Date());
+        }
+        repository.update(execution);
+        return execution;
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbJobRepositoryFactoryBean;
+import com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbNaturalIdMigration;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( classes = {TestContext.class} )
+public class MongoDbNaturalIdMigrationTest
+{
+    @Autowired
+    private JobRepository repository;
+
+    @Autowired
+    private DB db;
+
+    private MongoDbNaturalIdMigration migration;
+
+    @Before
+    public void onSetUp() throws Exception
+    {
+        db.dropDatabase();
+
+        migration = new MongoDbNaturalIdMigration();
+        migration.setDb(db);
+        migration.setBatchSize(2);
+        migration.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown()
+    {
+        db.dropDatabase();
+    }
+
+    @Test
+    public void testMigrateThenUseNaturalIds() throws Exception
+    {
+        JobParameters jobParameters = new JobParametersBuilder().addLong("run", 1L).toJobParameters();
+        JobExecution execution = repository.createJobExecution("foo", jobParameters);
+        for( int i = 0; i < 3; i++ )
+        {
+            StepExecution stepExecution = execution.createStepExecution("step" + i);
+            stepExecution.setStartTime(new Date());
+            repository.add(stepExecution);
+        }
+
+        assertEquals(5, migration.migrate());
+        assertEquals(0, migration.migrate());
+        assertNaturalIds("BatchJobInstance", "jobInstanceId", 1);
+        assertNaturalIds("BatchJobExecution", "jobExecutionId", 1);
+        assertNaturalIds("BatchStepExecution", "stepExecutionId", 3);
+
+        MongoDbJobRepositoryFactoryBean factory = new MongoDbJobRepositoryFactoryBean();
+        factory.setDb(db);
+        factory.setNaturalIds(true);
+        factory.afterPropertiesSet();
+        JobRepository naturalIdsRepository = (JobRepository) factory.getObject();
+
+        JobExecution lastExecution = naturalIdsRepository.getLastJobExecution("foo", jobParameters);
+        assertEquals(execution.getId(), lastExecution.getId());
+        StepExecution lastStepExecution = naturalIdsRepository.getLastStepExecution(lastExecution.getJobInstance(), "step2");
+        assertNotNull(lastStepExecution);
+
+        lastStepExecution.setStatus(BatchStatus.COMPLETED);
+        lastStepExecution.setEndTime(new Date());
+        naturalIdsRepository.update(lastStepExecution);
+
+        JobExecution newExecution = naturalIdsRepository.createJobExecution("bar", jobParameters);
+        assertNotNull(db.getCollection("BatchJobExecution").findOne(new BasicDBObject("_id", newExecution.getId())));
+        assertNaturalIds("BatchJobExecution", "jobExecutionId", 2);
+    }
+
+    private void assertNaturalIds( String collectionName, String idKey, int count )
+    {
+        assertEquals(count, db.getCollection(collectionName).count());
+        DBCursor cursor = db.getCollection(collectionName).find();
+        while( cursor.hasNext() )
+        {
+            DBObject dbObject = cursor.next();
+            assertEquals(dbObject.get(idKey), dbObject.get("_id"));
+        }
+        cursor.close();
+    }
+}
@@ -0,0 +1,246 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.explore.support.MongoDbJobExplorerFactoryBean;
+import com.github.nmorel.spring.batch.mongodb.partition.MongoDbPartitionHandler;
+import com.github.nmorel.spring.batch.mongodb.partition.MongoDbPartitionQueue;
+import com.github.nmorel.spring.batch.mongodb.partition.MongoDbPartitionWorker;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.partition.support.SimplePartitioner;
+import org.springframework.batch.core.partition.support.SimpleStepExecutionSplitter;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.builder.StepBuilder;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( classes = {TestContext.class} )
+public class MongoDbPartitionHandlerTest
+{
+    @Autowired
+    private JobRepository repository;
+
+    @Autowired
+    private DB db;
+
+    private MongoDbPartitionQueue queue;
+
+    private JobExplorer explorer;
+
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @Before
+    public void onSetUp() throws Exception
+    {
+        db.dropDatabase();
+
+        queue = new MongoDbPartitionQueue(db);
+        queue.afterPropertiesSet();
+
+        MongoDbJobExplorerFactoryBean factory = new MongoDbJobExplorerFactoryBean();
+        factory.setDb(db);
+        factory.afterPropertiesSet();
+        explorer = (JobExplorer) factory.getObject();
+    }
+
+    @After
+    public void tearDown()
+    {
+        db.dropDatabase();
+    }
+
+    @Test
+    public void testPartitionsRunByWorker() throws Exception
+    {
+        MongoDbPartitionWorker worker = createWorker();
+        Thread thread = new Thread(worker);
+        thread.start();
+
+        try
+        {
+            StepExecution master = createMasterStepExecution();
+            Collection<StepExecution> partitions = createHandler(30000L).handle(createSplitter(), master);
+
+            assertEquals(3, partitions.size());
+            assertEquals(3, runs.get());
+            for( StepExecution partition : partitions )
+            {
+                assertEquals(BatchStatus.COMPLETED, partition.getStatus());
+            }
+            assertEquals(0, db.getCollection("BatchPartitionWork").count());
+        }
+        finally
+        {
+            worker.destroy();
+            thread.join(5000L);
+        }
+    }
+
+    @Test
+    public void testRestartAfterTimeout() throws Exception
+    {
+        // no worker runs the partitions
+        StepExecution master = createMasterStepExecution();
+        try
+        {
+            createHandler(100L).handle(createSplitter(), master);
+            fail("Expected TimeoutException");
+        }
+        catch( TimeoutException e )
+        {
+            // expected
+        }
+        assertEquals(0, db.getCollection("BatchPartitionWork").count());
+
+        JobExecution failed = master.getJobExecution();
+        failed.setStatus(BatchStatus.FAILED);
+        failed.setEndTime(new Date());
+        repository.update(failed);
+
+        MongoDbPartitionWorker worker = createWorker();
+        Thread thread = new Thread(worker);
+        thread.start();
+        try
+        {
+            Collection<StepExecution> partitions = createHandler(30000L).handle(createSplitter(),
+                    createMasterStepExecution());
+            assertEquals(3, partitions.size());
+            assertEquals(3, runs.get());
+            for( StepExecution partition : partitions )
+            {
+                assertEquals(BatchStatus.COMPLETED, partition.getStatus());
+            }
+        }
+        finally
+        {
+            worker.destroy();
+            thread.join(5000L);
+        }
+    }
+
+    @Test
+    public void testExpiredLeaseRequeued() throws Exception
+    {
+        StepExecution master = createMasterStepExecution();
+        StepExecution partition = master.getJobExecution().createStepExecution("master:partition0");
+        partition.setStartTime(new Date());
+        repository.add(partition);
+        queue.enqueue(master, "worker", Collections.singleton(partition));
+
+        // a worker dies without renewing its lease
+        MongoDbPartitionQueue.WorkItem dead = queue.claim(Collections.singleton("worker"), 1L);
+        assertNotNull(dead);
+        Thread.sleep(10L);
+
+        MongoDbPartitionQueue.WorkItem item = queue.claim(Collections.singleton("worker"), 60000L);
+        assertNotNull(item);
+        assertEquals(partition.getId(), item.getStepExecutionId());
+        assertEquals(2, item.getAttempts());
+        assertNull(queue.claim(Collections.singleton("worker"), 60000L));
+        assertFalse(queue.complete(dead));
+        assertTrue(queue.complete(item));
+        assertTrue(queue.awaitCompletion(master, Collections.singleton(partition.getId()), 1000L).isEmpty());
+
+        // queued again, the partition is reset
+        queue.enqueue(master, "worker", Collections.singleton(partition));
+        assertEquals(1, db.getCollection("BatchPartitionWork").count());
+        assertEquals(1, queue.claim(Collections.singleton("worker"), 60000L).getAttempts());
+    }
+
+    @Test
+    public void testPartitionWithoutStepExecutionReleased() throws Exception
+    {
+        StepExecution master = createMasterStepExecution();
+        StepExecution partition = master.getJobExecution().createStepExecution("master:partition0");
+        partition.setStartTime(new Date());
+        repository.add(partition);
+        queue.enqueue(master, "worker", Collections.singleton(partition));
+        db.getCollection("BatchStepExecution").remove(new BasicDBObject("stepExecutionId", partition.getId()));
+
+        MongoDbPartitionWorker worker = createWorker();
+        try
+        {
+            assertFalse(worker.processNext());
+            assertEquals(0, runs.get());
+
+            // the master is not notified and the partition can be claimed again at once
+            assertEquals(Collections.singleton(partition.getId()), queue.awaitCompletion(master,
+                    Collections.singleton(partition.getId()), 100L));
+            assertEquals(2, queue.claim(Collections.singleton("worker"), 60000L).getAttempts());
+        }
+        finally
+        {
+            worker.destroy();
+        }
+    }
+
+    private MongoDbPartitionWorker createWorker()
+    {
+        MongoDbPartitionWorker worker = new MongoDbPartitionWorker();
+        worker.setQueue(queue);
+        worker.setJobExplorer(explorer);
+        worker.setSteps(Collections.singletonList(new StepBuilder("worker").repository(repository)
+                .transactionManager(new ResourcelessTransactionManager()).tasklet(new Tasklet()
+                {
+                    @Override
+                    public RepeatStatus execute( StepContribution contribution, ChunkContext chunkContext )
+                    {
+                        runs.incrementAndGet();
+                        return RepeatStatus.FINISHED;
+                    }
+                }).build()));
+        worker.setPollIntervalMillis(10L);
+        worker.afterPropertiesSet();
+        return worker;
+    }
+
+    private MongoDbPartitionHandler createHandler( long timeoutMillis )
+    {
+        MongoDbPartitionHandler handler = new MongoDbPartitionHandler();
+        handler.setQueue(queue);
+        handler.setJobExplorer(explorer);
+        handler.setStepName("worker");
+        handler.setGridSize(3);
+        handler.setTimeoutMillis(timeoutMillis);
+        handler.afterPropertiesSet();
+        return handler;
+    }
+
+    private SimpleStepExecutionSplitter createSplitter()
+    {
+        return new SimpleStepExecutionSplitter(repository, true, "master", new SimplePartitioner());
+    }
+
+    private StepExecution createMasterStepExecution() throws Exception
+    {
+        JobExecution execution = repository.createJobExecution("foo", new JobParametersBuilder().addLong("run", 1L)
+                .toJobParameters());
+        StepExecution master = execution.createStepExecution("master");
+        master.setStartTime(new Date());
+        repository.add(master);
+        return master;
+    }
+}
@@ -0,0 +1,171 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.explore.statistics.DurationStatistics;
+import com.github.nmorel.spring.batch.mongodb.explore.statistics.MongoDbStatisticsService;
+import com.github.nmorel.spring.batch.mongodb.explore.statistics.StatusCount;
+import com.github.nmorel.spring.batch.mongodb.explore.statistics.StepThroughput;
+import com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbJobNameMigration;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( classes = {TestContext.class} )
+public class MongoDbStatisticsServiceTest
+{
+    private static final long BASE = 1000000000000L;
+
+    @Autowired
+    private JobRepository repository;
+
+    @Autowired
+    private DB db;
+
+    private MongoDbStatisticsService service;
+
+    @Before
+    public void onSetUp() throws Exception
+    {
+        db.dropDatabase();
+
+        service = new MongoDbStatisticsService();
+        service.setDb(db);
+        service.afterPropertiesSet();
+
+        createExecution("foo", 1L, BatchStatus.COMPLETED);
+        createExecution("foo", 2L, BatchStatus.COMPLETED);
+        createExecution("foo", 3L, BatchStatus.FAILED);
+        createExecution("bar", 4L, BatchStatus.COMPLETED);
+    }
+
+    @After
+    public void tearDown()
+    {
+        db.dropDatabase();
+    }
+
+    @Test
+    public void testJobDurationStatistics()
+    {
+        DurationStatistics statistics = service.getJobDurationStatistics("foo", null, null, 50d, 100d);
+        assertEquals(3L, statistics.getCount());
+        assertEquals(1000L, statistics.getMinMillis());
+        assertEquals(3000L, statistics.getMaxMillis());
+        assertEquals(2000d, statistics.getAverageMillis(), 0.1d);
+        assertEquals(Long.valueOf(2000L), statistics.getPercentile(50d));
+        assertEquals(Long.valueOf(3000L), statistics.getPercentile(100d));
+
+        assertEquals(4L, service.getJobDurationStatistics(null, null, null).getCount());
+    }
+
+    @Test
+    public void testPercentilesLimitedToMaxCount() throws Exception
+    {
+        service.setMaxPercentileCount(2);
+        service.afterPropertiesSet();
+
+        assertEquals(Long.valueOf(4000L), service.getJobDurationStatistics("bar", null, null, 50d).getPercentile(50d));
+        assertEquals(3L, service.getJobDurationStatistics("foo", null, null).getCount());
+        try
+        {
+            service.getJobDurationStatistics("foo", null, null, 50d);
+            fail("Expected IllegalStateException");
+        }
+        catch( IllegalStateException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStatusCountsInWindow()
+    {
+        List<StatusCount> counts = service.getJobStatusCounts("foo", null, null);
+        assertEquals(2, counts.size());
+        assertEquals(BatchStatus.COMPLETED, counts.get(0).getStatus());
+        assertEquals(2L, counts.get(0).getCount());
+        assertEquals(BatchStatus.FAILED, counts.get(1).getStatus());
+        assertEquals(1L, counts.get(1).getCount());
+
+        counts = service.getStepStatusCounts("foo", new Date(BASE + 20000L), new Date(BASE + 30000L));
+        assertEquals(1, counts.size());
+        assertEquals(BatchStatus.COMPLETED, counts.get(0).getStatus());
+        assertEquals(1L, counts.get(0).getCount());
+    }
+
+    @Test
+    public void testStepThroughputs()
+    {
+        List<StepThroughput> throughputs = service.getStepThroughputs("foo", null, null);
+        assertEquals(1, throughputs.size());
+        assertEquals("step", throughputs.get(0).getStepName());
+        assertEquals(3L, throughputs.get(0).getCount());
+        assertEquals(30L, throughputs.get(0).getReadCount());
+        assertEquals(6000L, throughputs.get(0).getTotalDurationMillis());
+
+        assertEquals(4000L, service.getStepDurationStatistics("bar", "step", null, null).getMaxMillis());
+    }
+
+    @Test
+    public void testMigrateExecutionsWithoutJobName() throws Exception
+    {
+        BasicDBObject unsetJobName = new BasicDBObject("$unset", new BasicDBObject("jobName", 1));
+        db.getCollection("BatchJobExecution").update(new BasicDBObject(), unsetJobName, false, true);
+        db.getCollection("BatchStepExecution").update(new BasicDBObject(), unsetJobName, false, true);
+        assertTrue(service.getJobStatusCounts("foo", null, null).isEmpty());
+
+        MongoDbJobNameMigration migration = new MongoDbJobNameMigration();
+        migration.setDb(db);
+        migration.afterPropertiesSet();
+        assertEquals(8, migration.migrate());
+        assertEquals(0, migration.migrate());
+
+        assertEquals(3L, service.getJobDurationStatistics("foo", null, null).getCount());
+        assertEquals(3L, service.getStepThroughputs("foo", null, null).get(0).getCount());
+    }
+
+    /** The execution of the run n starts at BASE + n * 10s and lasts n seconds, its step reads 10 items */
+    private void createExecution( String jobName, long run, BatchStatus status ) throws Exception
+    {
+        Date startTime = new Date(BASE + run * 10000L);
+        Date endTime = new Date(startTime.getTime() + run * 1000L);
+        ExitStatus exitStatus = status == BatchStatus.COMPLETED ? ExitStatus.COMPLETED : ExitStatus.FAILED;
+
+        JobExecution execution = repository.createJobExecution(jobName, new JobParametersBuilder().addLong("run", run)
+                .toJobParameters());
+        execution.setStartTime(startTime);
+        repository.update(execution);
+
+        StepExecution stepExecution = execution.createStepExecution("step");
+        stepExecution.setStartTime(startTime);
+        repository.add(stepExecution);
+        stepExecution.setReadCount(10);
+        stepExecution.setWriteCount(10);
+        stepExecution.setEndTime(endTime);
+        stepExecution.setStatus(status);
+        stepExecution.setExitStatus(exitStatus);
+        repository.update(stepExecution);
+
+        execution.setEndTime(endTime);
+        execution.setStatus(status);
+        execution.setExitStatus(exitStatus);
+        repository.update(execution);
+    }
+}
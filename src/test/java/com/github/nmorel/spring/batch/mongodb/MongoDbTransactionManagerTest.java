@@ -0,0 +1,131 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.repository.dao.WriteConcernPolicy;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.WriteOperation;
+import com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbJobRepositoryFactoryBean;
+import com.github.nmorel.spring.batch.mongodb.transaction.MongoDbTransactionManager;
+import com.mongodb.DB;
+import com.mongodb.WriteConcern;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( classes = {TestContext.class} )
+public class MongoDbTransactionManagerTest
+{
+    private static final WriteConcern JOURNALED = new WriteConcern(1, 0, false, true);
+
+    private static final WriteConcern REPLICATED = new WriteConcern(2, 1000, false, false);
+
+    @Autowired
+    private DB db;
+
+    private JobRepository repository;
+
+    private TransactionTemplate transactionTemplate;
+
+    @Before
+    public void onSetUp() throws Exception
+    {
+        db.dropDatabase();
+
+        WriteConcernPolicy policy = new WriteConcernPolicy();
+        policy.setDefaultWriteConcern(JOURNALED);
+        policy.setWriteConcern(WriteOperation.JOB_EXECUTION_CONTEXT_SAVE, REPLICATED);
+        MongoDbJobRepositoryFactoryBean factory = new MongoDbJobRepositoryFactoryBean();
+        factory.setDb(db);
+        factory.setWriteConcernPolicy(policy);
+        factory.afterPropertiesSet();
+        repository = (JobRepository) factory.getObject();
+
+        MongoDbTransactionManager transactionManager = new MongoDbTransactionManager(db);
+        transactionManager.afterPropertiesSet();
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @After
+    public void tearDown()
+    {
+        db.dropDatabase();
+    }
+
+    @Test
+    public void testChunkWritesDeferTheirDurabilityToTheCommit() throws Exception
+    {
+        JobExecution execution = repository.createJobExecution("foo", new JobParametersBuilder().addLong("run", 1L)
+                .toJobParameters());
+        final StepExecution stepExecution = execution.createStepExecution("step");
+        stepExecution.setStartTime(new Date());
+        repository.add(stepExecution);
+
+        assertSame(JOURNALED, MongoDbTransactionManager.getWriteConcern(db, JOURNALED));
+        transactionTemplate.execute(new TransactionCallbackWithoutResult()
+        {
+            @Override
+            protected void doInTransactionWithoutResult( TransactionStatus status )
+            {
+                assertSame(WriteConcern.ACKNOWLEDGED, MongoDbTransactionManager.getWriteConcern(db, JOURNALED));
+                assertSame(WriteConcern.UNACKNOWLEDGED, MongoDbTransactionManager.getWriteConcern(db, WriteConcern.UNACKNOWLEDGED));
+
+                stepExecution.setCommitCount(1);
+                stepExecution.getExecutionContext().putInt("read", 10);
+                repository.update(stepExecution);
+                repository.updateExecutionContext(stepExecution);
+            }
+        });
+        assertSame(JOURNALED, MongoDbTransactionManager.getWriteConcern(db, JOURNALED));
+
+        StepExecution lastStepExecution = repository.getLastStepExecution(execution.getJobInstance(), "step");
+        assertEquals(1, lastStepExecution.getCommitCount());
+        assertEquals(10, lastStepExecution.getExecutionContext().getInt("read"));
+    }
+
+    @Test
+    public void testDeferredWriteConcernsMerged() throws Exception
+    {
+        final JobExecution execution = repository.createJobExecution("foo", new JobParametersBuilder()
+                .addLong("run", 1L).toJobParameters());
+        final StepExecution stepExecution = execution.createStepExecution("step");
+        stepExecution.setStartTime(new Date());
+        repository.add(stepExecution);
+
+        transactionTemplate.execute(new TransactionCallbackWithoutResult()
+        {
+            @Override
+            protected void doInTransactionWithoutResult( TransactionStatus status )
+            {
+                execution.getExecutionContext().putInt("read", 10);
+                repository.updateExecutionContext(execution);
+                stepExecution.setCommitCount(1);
+                repository.update(stepExecution);
+
+                // replicated by the context save, journaled by the step update
+                WriteConcern deferred = MongoDbTransactionManager.getDeferredWriteConcern(db);
+                assertEquals(2, deferred.getW());
+                assertEquals(1000, deferred.getWtimeout());
+                assertTrue(deferred.getJ());
+                assertFalse(deferred.getFsync());
+
+                // a standalone server can not replicate the writes
+                status.setRollbackOnly();
+            }
+        });
+        assertNull(MongoDbTransactionManager.getDeferredWriteConcern(db));
+    }
+}
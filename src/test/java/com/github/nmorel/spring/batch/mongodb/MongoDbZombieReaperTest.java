@@ -0,0 +1,119 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbJobExecutionHeartbeat;
+import com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbZombieReaper;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( classes = {TestContext.class} )
+public class MongoDbZombieReaperTest
+{
+    @Autowired
+    private JobRepository repository;
+
+    @Autowired
+    private DB db;
+
+    private MongoDbJobExecutionHeartbeat heartbeat;
+
+    private MongoDbZombieReaper reaper;
+
+    @Before
+    public void onSetUp() throws Exception
+    {
+        db.dropDatabase();
+
+        heartbeat = new MongoDbJobExecutionHeartbeat();
+        heartbeat.setDb(db);
+        heartbeat.setIntervalMillis(60000L);
+        heartbeat.afterPropertiesSet();
+
+        reaper = new MongoDbZombieReaper();
+        reaper.setDb(db);
+        reaper.setStaleMillis(1000L);
+        reaper.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown()
+    {
+        heartbeat.destroy();
+        db.dropDatabase();
+    }
+
+    @Test
+    public void testReapStaleExecutions() throws Exception
+    {
+        JobExecution zombie = createRunningExecution(1L);
+        JobExecution alive = createRunningExecution(2L);
+        // the process of the first execution died a while ago, the second one was only late
+        DBCollection heartbeats = db.getCollection("BatchJobExecutionHeartbeat");
+        Date stale = new Date(System.currentTimeMillis() - 5000L);
+        heartbeats.update(new BasicDBObject(), new BasicDBObject("$set", new BasicDBObject("heartbeat", stale)), false,
+                true);
+        heartbeats.update(new BasicDBObject("_id", alive.getId()),
+                new BasicDBObject("$set", new BasicDBObject("heartbeat", new Date())));
+
+        assertEquals(1, reaper.reap());
+        assertEquals(0, reaper.reap());
+        assertEquals(1, heartbeats.count());
+
+        DBCollection executions = db.getCollection("BatchJobExecution");
+        DBObject reaped = executions.findOne(new BasicDBObject("jobExecutionId", zombie.getId()));
+        assertEquals(BatchStatus.FAILED.toString(), reaped.get("status"));
+        assertEquals(ExitStatus.UNKNOWN.getExitCode(), reaped.get("exitCode"));
+        assertNotNull(reaped.get("endTime"));
+        DBObject step = db.getCollection("BatchStepExecution")
+                .findOne(new BasicDBObject("jobExecutionId", zombie.getId()));
+        assertEquals(BatchStatus.FAILED.toString(), step.get("status"));
+        assertNotNull(step.get("endTime"));
+
+        DBObject running = executions.findOne(new BasicDBObject("jobExecutionId", alive.getId()));
+        assertEquals(BatchStatus.STARTED.toString(), running.get("status"));
+        assertNull(running.get("endTime"));
+
+        // a zombie only paused learns it was reaped
+        repository.update(zombie);
+        assertEquals(BatchStatus.FAILED, zombie.getStatus());
+        zombie.setEndTime(new Date());
+        repository.update(zombie);
+
+        // and the job can be restarted
+        JobExecution restarted = repository.createJobExecution("foo", zombie.getJobParameters());
+        assertEquals(zombie.getJobId(), restarted.getJobId());
+    }
+
+    private JobExecution createRunningExecution( long run ) throws Exception
+    {
+        JobExecution execution = repository.createJobExecution("foo", new JobParametersBuilder().addLong("run", run)
+                .toJobParameters());
+        execution.setStartTime(new Date());
+        execution.setStatus(BatchStatus.STARTED);
+        repository.update(execution);
+        StepExecution stepExecution = execution.createStepExecution("step");
+        stepExecution.setStartTime(new Date());
+        repository.add(stepExecution);
+        heartbeat.beforeJob(execution);
+        return execution;
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.metrics.RepositoryMetrics;
+import com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbJobRepositoryFactoryBean;
+import com.mongodb.DB;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( classes = {TestContext.class} )
+public class RepositoryMetricsTest
+{
+    @Autowired
+    private DB db;
+
+    private RepositoryMetrics metrics;
+
+    private JobRepository repository;
+
+    @Before
+    public void onSetUp() throws Exception
+    {
+        db.dropDatabase();
+
+        metrics = new RepositoryMetrics();
+        MongoDbJobRepositoryFactoryBean factory = new MongoDbJobRepositoryFactoryBean();
+        factory.setDb(db);
+        factory.setCollectionPrefix("Metrics");
+        factory.setMetrics(metrics);
+        factory.afterPropertiesSet();
+        repository = (JobRepository) factory.getObject();
+    }
+
+    @After
+    public void tearDown()
+    {
+        db.dropDatabase();
+    }
+
+    @Test
+    public void testMeasures() throws Exception
+    {
+        JobExecution execution = repository.createJobExecution("foo", new JobParametersBuilder().addLong("run", 1L)
+                .toJobParameters());
+        StepExecution stepExecution = execution.createStepExecution("step");
+        stepExecution.setStartTime(new Date());
+        repository.add(stepExecution);
+        repository.updateExecutionContext(stepExecution);
+
+        assertEquals(1, metrics.getCount("JobExecutionDao.saveJobExecution"));
+        assertEquals(1, metrics.getCount("StepExecutionDao.saveStepExecution"));
+        assertEquals(1, metrics.getCount("MetricsSequenceStepExecution.nextLongValue"));
+        assertTrue(metrics.getBytesWritten("JobExecutionDao.saveJobExecution") > 0);
+        assertTrue(metrics.getCount("ExecutionContextSerializer.serialize") > 0);
+        assertTrue(metrics.getPercentileMillis("StepExecutionDao.saveStepExecution", 0.99) > 0.0);
+
+        // an update from a stale copy is a conflict
+        StepExecution staleStepExecution = execution.createStepExecution("step");
+        staleStepExecution.setId(stepExecution.getId());
+        staleStepExecution.setVersion(stepExecution.getVersion());
+        staleStepExecution.setStartTime(stepExecution.getStartTime());
+        repository.update(stepExecution);
+        try
+        {
+            repository.update(staleStepExecution);
+            fail();
+        }
+        catch( OptimisticLockingFailureException e )
+        {
+            // expected
+        }
+        assertEquals(1, metrics.getConflicts("StepExecutionDao.updateStepExecution"));
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.metrics.RepositoryMetrics;
+import org.junit.rules.ExternalResource;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Rule asserting the number of round trips done by the repository, counted by a {@link RepositoryMetrics} fed by a
+ * {@link com.github.nmorel.spring.batch.mongodb.metrics.RoundTripCountingSocketFactory}. The counters are reset before
+ * each test and by {@link #reset()}. On failure, the round trips of each operation are reported.
+ */
+public class RoundTripBudget extends ExternalResource
+{
+    private RepositoryMetrics metrics;
+
+    public void setMetrics( RepositoryMetrics metrics )
+    {
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void before()
+    {
+        reset();
+    }
+
+    public void reset()
+    {
+        if( null != metrics )
+        {
+            metrics.reset();
+        }
+    }
+
+    /** @return the round trips done since the last reset */
+    public long getRoundTrips()
+    {
+        return metrics.getTotalRoundTrips();
+    }
+
+    /**
+     * @param budget the maximum number of round trips since the last reset
+     * @param description what the round trips were spent on
+     */
+    public void assertAtMost( long budget, String description )
+    {
+        assertAtMost(budget, getRoundTrips(), description);
+    }
+
+    /**
+     * @param budget the maximum number of round trips
+     * @param roundTrips the round trips spent
+     * @param description what the round trips were spent on
+     */
+    public void assertAtMost( long budget, long roundTrips, String description )
+    {
+        if( roundTrips > budget )
+        {
+            StringBuilder message = new StringBuilder();
+            message.append(description).append(" costs ").append(roundTrips).append(" round trips, the budget is ")
+                    .append(budget).append(". Round trips by operation since the last reset :");
+            for( String operation : metrics.getOperationNames() )
+            {
+                if( metrics.getRoundTrips(operation) > 0 )
+                {
+                    message.append("\n  ").append(operation).append(" : ").append(metrics.getRoundTrips(operation));
+                }
+            }
+            fail(message.toString());
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.metrics.RepositoryMetrics;
+import com.github.nmorel.spring.batch.mongodb.metrics.RoundTripCountingSocketFactory;
+import com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbJobRepositoryFactoryBean;
+import com.mongodb.DB;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.ServerAddress;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.job.builder.JobBuilder;
+import org.springframework.batch.core.launch.support.SimpleJobLauncher;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.builder.StepBuilder;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Round trips budgets of the repository. A budget lowered by an optimization must be lowered here too, so the
+ * optimization is not lost.
+ */
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( classes = {TestContext.class} )
+public class RoundTripBudgetTest
+{
+    /**
+     * Launch of a one-step job with one parameter, the step committing one chunk. An update of the job execution is a
+     * check of its existence and a versioned update (2). An update of the step execution is a versioned update and a
+     * check of the status of the job execution (2), its start being first tried as a commit point (3).
+     * <ul>
+     * <li>launcher : instance lookup (1), execution creation (1 for the instance lookup + 2 for the instance + 3 for
+     * the execution and its parameter, the empty context not being written) : 7</li>
+     * <li>job : 2 updates of the execution (2 each), update of its context (1) : 5</li>
+     * <li>step handler : last step execution (1), step execution count (1), step execution creation with its context
+     * (3) : 5</li>
+     * <li>step : 3 updates of the step execution (3 + 2 + 2) and of its context (1 each) : 10</li>
+     * </ul>
+     */
+    private static final int LAUNCH_BUDGET = 7 + 5 + 5 + 10;
+
+    /**
+     * Chunk commit : update of the step context (1) and update of the step execution (2, the check of the job status
+     * included)
+     */
+    private static final int CHUNK_COMMIT_BUDGET = 1 + 2;
+
+    /**
+     * Chunk commit with the embedded step contexts : update of the context in the step execution (1) and update of the
+     * step execution with its context (2, the check of the job status included)
+     */
+    private static final int EMBEDDED_CONTEXT_CHUNK_COMMIT_BUDGET = 1 + 2;
+
+    @Rule
+    public RoundTripBudget budget = new RoundTripBudget();
+
+    @Autowired
+    private Environment env;
+
+    private MongoClient client;
+
+    private DB db;
+
+    private RepositoryMetrics metrics;
+
+    private JobRepository repository;
+
+    private SimpleJobLauncher launcher;
+
+    private long run;
+
+    @Before
+    public void onSetUp() throws Exception
+    {
+        metrics = new RepositoryMetrics();
+        client = new MongoClient(new ServerAddress(env.getProperty("mongodb.host"), env.getProperty("mongodb.port", int.class)),
+                MongoClientOptions.builder().socketFactory(new RoundTripCountingSocketFactory(metrics)).build());
+        db = client.getDB(env.getProperty("mongodb.name"));
+        db.dropDatabase();
+
+        useRepository(false);
+        budget.setMetrics(metrics);
+        budget.reset();
+    }
+
+    private void useRepository( boolean embeddedStepContexts ) throws Exception
+    {
+        MongoDbJobRepositoryFactoryBean factory = new MongoDbJobRepositoryFactoryBean();
+        factory.setDb(db);
+        factory.setMetrics(metrics);
+        factory.setEmbeddedStepContexts(embeddedStepContexts);
+        factory.afterPropertiesSet();
+        repository = (JobRepository) factory.getObject();
+
+        launcher = new SimpleJobLauncher();
+        launcher.setJobRepository(repository);
+        launcher.afterPropertiesSet();
+
+        // the first launch opens the connection
+        launch(1);
+    }
+
+    @After
+    public void tearDown()
+    {
+        db.dropDatabase();
+        client.close();
+    }
+
+    @Test
+    public void testLaunchBudget() throws Exception
+    {
+        launch(1);
+        budget.assertAtMost(LAUNCH_BUDGET, "Launching a one-step job");
+    }
+
+    @Test
+    public void testChunkCommitBudget() throws Exception
+    {
+        launch(1);
+        long oneChunk = budget.getRoundTrips();
+        budget.reset();
+
+        launch(11);
+        long elevenChunks = budget.getRoundTrips();
+
+        budget.assertAtMost(10 * CHUNK_COMMIT_BUDGET, elevenChunks - oneChunk, "Ten chunk commits");
+    }
+
+    @Test
+    public void testEmbeddedContextChunkCommitBudget() throws Exception
+    {
+        useRepository(true);
+        budget.reset();
+        launch(1);
+        long oneChunk = budget.getRoundTrips();
+        budget.reset();
+
+        launch(11);
+        long elevenChunks = budget.getRoundTrips();
+
+        budget.assertAtMost(10 * EMBEDDED_CONTEXT_CHUNK_COMMIT_BUDGET, elevenChunks - oneChunk,
+                "Ten chunk commits with the embedded contexts");
+    }
+
+    private void launch( final int chunks ) throws Exception
+    {
+        Tasklet tasklet = new Tasklet()
+        {
+            private int count;
+
+            @Override
+            public RepeatStatus execute( StepContribution contribution, ChunkContext chunkContext )
+            {
+                return RepeatStatus.continueIf(++count < chunks);
+            }
+        };
+        Job job = new JobBuilder("budgetJob").repository(repository)
+                .start(new StepBuilder("budgetStep").repository(repository)
+                        .transactionManager(new ResourcelessTransactionManager()).tasklet(tasklet).build())
+                .build();
+
+        JobExecution execution = launcher.run(job, new JobParametersBuilder().addLong("run", ++run).toJobParameters());
+        assertEquals(BatchStatus.COMPLETED, execution.getStatus());
+    }
+}
@@ -3,6 +3,7 @@ package com.github.nmorel.spring.batch.mongodb;
 import com.github.nmorel.spring.batch.mongodb.configuration.annotation.MongoDbBatchConfigurer;
 import com.github.nmorel.spring.batch.mongodb.explore.support.MongoDbJobExplorerFactoryBean;
 import com.mongodb.DB;
+import com.mongodb.ReadPreference;
 import org.springframework.batch.core.configuration.JobRegistry;
 import org.springframework.batch.core.configuration.annotation.BatchConfigurer;
 import org.springframework.batch.core.configuration.annotation.EnableBatchProcessing;
@@ -26,6 +27,7 @@ public class TestContext
     {
         MongoDbJobExplorerFactoryBean factory = new MongoDbJobExplorerFactoryBean();
         factory.setDb(db);
+        factory.setReadPreference(ReadPreference.secondaryPreferred());
         return factory;
     }
 
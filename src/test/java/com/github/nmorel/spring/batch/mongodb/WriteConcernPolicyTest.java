@@ -0,0 +1,268 @@
+package com.github.nmorel.spring.batch.mongodb;
+
+import com.github.nmorel.spring.batch.mongodb.repository.dao.WriteConcernPolicy;
+import com.github.nmorel.spring.batch.mongodb.repository.dao.WriteOperation;
+import com.github.nmorel.spring.batch.mongodb.repository.support.MongoDbJobRepositoryFactoryBean;
+import com.github.nmorel.spring.batch.mongodb.transaction.MongoDbTransactionManager;
+import com.mongodb.DB;
+import com.mongodb.WriteConcern;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the {@link WriteOperation} of each write of the repository. One operation at a time is given a write concern
+ * waiting for a replication, which a {@link MongoDbTransactionManager} defers to its commit : the calls deferring it
+ * are the ones writing with this operation. The transactions are rolled back, a standalone server can't replicate.
+ */
+@RunWith( SpringJUnit4ClassRunner.class )
+@ContextConfiguration( classes = {TestContext.class} )
+public class WriteConcernPolicyTest
+{
+    private static final WriteConcern REPLICATED = new WriteConcern(2, 1000, false, false);
+
+    @Autowired
+    private DB db;
+
+    private TransactionTemplate transactionTemplate;
+
+    private JobRepository repository;
+
+    private JobExecution jobExecution;
+
+    private StepExecution stepExecution;
+
+    @Before
+    public void onSetUp() throws Exception
+    {
+        db.dropDatabase();
+        MongoDbTransactionManager transactionManager = new MongoDbTransactionManager(db);
+        transactionManager.afterPropertiesSet();
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @After
+    public void tearDown()
+    {
+        db.dropDatabase();
+    }
+
+    @Test
+    public void testWriteOperationOfEachWrite() throws Exception
+    {
+        Map<WriteOperation, Set<String>> expected = new EnumMap<WriteOperation, Set<String>>(WriteOperation.class);
+        expected.put(WriteOperation.JOB_INSTANCE_CREATION, calls("createJobExecution"));
+        expected.put(WriteOperation.JOB_EXECUTION_CREATION, calls("createJobExecution"));
+        expected.put(WriteOperation.JOB_EXECUTION_UPDATE, calls("updateJobExecution"));
+        expected.put(WriteOperation.JOB_EXECUTION_CONTEXT_SAVE, calls("updateJobExecutionContext"));
+        expected.put(WriteOperation.STEP_EXECUTION_CREATION, calls("addStepExecution"));
+        expected.put(WriteOperation.STEP_EXECUTION_CONTEXT_SAVE,
+                calls("addStepExecution", "updateStepExecutionContext"));
+        // the start of the step is first tried as a commit point, which does not match its persisted STARTING status
+        expected.put(WriteOperation.STEP_EXECUTION_PROGRESS, calls("startStepExecution", "commitStepExecution"));
+        expected.put(WriteOperation.STEP_EXECUTION_UPDATE, calls("startStepExecution", "endStepExecution"));
+
+        for( Map.Entry<WriteOperation, Set<String>> entry : expected.entrySet() )
+        {
+            db.dropDatabase();
+            useRepository(entry.getKey());
+            assertEquals(entry.getKey().name(), entry.getValue(), runCalls());
+        }
+    }
+
+    @Test
+    public void testEmbeddedStepContextWrittenWithItsWriteOperation() throws Exception
+    {
+        // the step execution writes carry the restart position as durably as the context saves
+        useRepository(WriteOperation.STEP_EXECUTION_CONTEXT_SAVE, true);
+        assertEquals(calls("addStepExecution", "updateStepExecutionContext", "startStepExecution",
+                "commitStepExecution", "endStepExecution"), runCalls());
+    }
+
+    @Test
+    public void testVersionConflictDetectedFromTheWriteResult() throws Exception
+    {
+        useRepository(WriteOperation.JOB_EXECUTION_UPDATE);
+        jobExecution = repository.createJobExecution("foo", new JobParametersBuilder().addLong("run", 1L)
+                .toJobParameters());
+        Runnable update = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                repository.update(jobExecution);
+            }
+        };
+        inTransaction(update);
+        jobExecution.setVersion(jobExecution.getVersion() - 1);
+
+        // the write deferring its replication is still acknowledged by the primary, so a stale version is seen
+        try
+        {
+            inTransaction(update);
+            fail("Expected OptimisticLockingFailureException");
+        }
+        catch( OptimisticLockingFailureException e )
+        {
+            // expected
+        }
+    }
+
+    private void useRepository( WriteOperation replicatedOperation ) throws Exception
+    {
+        useRepository(replicatedOperation, false);
+    }
+
+    private void useRepository( WriteOperation replicatedOperation, boolean embeddedStepContexts ) throws Exception
+    {
+        WriteConcernPolicy policy = new WriteConcernPolicy();
+        policy.setDefaultWriteConcern(WriteConcern.ACKNOWLEDGED);
+        policy.setWriteConcern(replicatedOperation, REPLICATED);
+
+        MongoDbJobRepositoryFactoryBean factory = new MongoDbJobRepositoryFactoryBean();
+        factory.setDb(db);
+        factory.setWriteConcernPolicy(policy);
+        factory.setEmbeddedStepContexts(embeddedStepContexts);
+        factory.afterPropertiesSet();
+        repository = (JobRepository) factory.getObject();
+    }
+
+    /** @return the calls of a job execution with one step whose writes deferred the replicated write concern */
+    private Set<String> runCalls()
+    {
+        Set<String> deferred = new TreeSet<String>();
+        Map<String, Runnable> calls = new LinkedHashMap<String, Runnable>();
+        calls.put("createJobExecution", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    jobExecution = repository.createJobExecution("foo", new JobParametersBuilder().addLong("run", 1L)
+                            .toJobParameters());
+                }
+                catch( Exception e )
+                {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        calls.put("updateJobExecution", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                jobExecution.setStartTime(new Date());
+                jobExecution.setStatus(BatchStatus.STARTED);
+                repository.update(jobExecution);
+            }
+        });
+        calls.put("updateJobExecutionContext", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                jobExecution.getExecutionContext().putString("key", "value");
+                repository.updateExecutionContext(jobExecution);
+            }
+        });
+        calls.put("addStepExecution", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                stepExecution = jobExecution.createStepExecution("step");
+                repository.add(stepExecution);
+            }
+        });
+        calls.put("updateStepExecutionContext", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                stepExecution.getExecutionContext().putString("key", "value");
+                repository.updateExecutionContext(stepExecution);
+            }
+        });
+        calls.put("startStepExecution", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                stepExecution.setStartTime(new Date());
+                stepExecution.setStatus(BatchStatus.STARTED);
+                repository.update(stepExecution);
+            }
+        });
+        calls.put("commitStepExecution", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                stepExecution.setCommitCount(1);
+                repository.update(stepExecution);
+            }
+        });
+        calls.put("endStepExecution", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                stepExecution.setStatus(BatchStatus.COMPLETED);
+                stepExecution.setEndTime(new Date());
+                repository.update(stepExecution);
+            }
+        });
+
+        for( Map.Entry<String, Runnable> call : calls.entrySet() )
+        {
+            WriteConcern deferredWriteConcern = inTransaction(call.getValue());
+            if( null != deferredWriteConcern )
+            {
+                assertEquals(REPLICATED, deferredWriteConcern);
+                deferred.add(call.getKey());
+            }
+        }
+        return deferred;
+    }
+
+    /** @return the write concern deferred by the call */
+    private WriteConcern inTransaction( final Runnable call )
+    {
+        final WriteConcern[] deferredWriteConcern = new WriteConcern[1];
+        transactionTemplate.execute(new TransactionCallbackWithoutResult()
+        {
+            @Override
+            protected void doInTransactionWithoutResult( TransactionStatus status )
+            {
+                status.setRollbackOnly();
+                call.run();
+                deferredWriteConcern[0] = MongoDbTransactionManager.getDeferredWriteConcern(db);
+            }
+        });
+        return deferredWriteConcern[0];
+    }
+
+    private static Set<String> calls( String... calls )
+    {
+        return new TreeSet<String>(Arrays.asList(calls));
+    }
+}